@@ -1,37 +1,58 @@
 package via.vinylsystem.Model;
 
+/**
+ * One audit record. Instances are mutable so an {@link via.vinylsystem.Util.AuditLog}
+ * can hand out the same object again once the previous event has been written
+ * (see {@code AuditLog.claim()}). The ISO timestamp text is only rendered when asked for.
+ */
 public class RegistryEvent {
   private long tsMillis;
-  private String ts;
-  private String type;
+  private RegistryEventType type;
   private String name;
   private String ip;
-  private Long ttlSec;
-  private String origin;
+  private long ttlSec;
+  private boolean hasTtl;
+  private RegistryEventOrigin origin;
   private String details;
 
+  /** Creates an empty event, meant to be filled with {@link #set}. */
+  public RegistryEvent() {}
 
-  public RegistryEvent(long tsMillis, String type, String name, String ip,
-                        Long ttlSec, String origin, String details){
+  public RegistryEvent(long tsMillis, RegistryEventType type, String name, String ip,
+                        Long ttlSec, RegistryEventOrigin origin, String details){
+    set(tsMillis, type, name, ip, ttlSec == null ? -1 : ttlSec, origin, details);
+  }
+
+  /**
+   * Overwrites every field of this event.
+   *
+   * @param ttlSec the TTL in seconds, or a negative value when the event has no TTL
+   * @return this event, for chaining into {@code append}
+   */
+  public final RegistryEvent set(long tsMillis, RegistryEventType type, String name, String ip,
+                           long ttlSec, RegistryEventOrigin origin, String details){
     this.tsMillis = tsMillis;
-    this.ts = java.time.Instant.ofEpochMilli(tsMillis).toString();
     this.type = type;
     this.name = name;
     this.ip = ip;
     this.ttlSec = ttlSec;
-    this.origin = origin; // "TCP", "UDP"
+    this.hasTtl = ttlSec >= 0;
+    this.origin = origin;
     this.details = details;
+    return this;
   }
+
+  /** Renders the timestamp on every call; audit writers use a cached formatter instead. */
   public String getTs()
   {
-    return ts;
+    return java.time.Instant.ofEpochMilli(tsMillis).toString();
   }
   public long getTsMillis()
   {
     return tsMillis;
   }
 
-  public String getType()
+  public RegistryEventType getType()
   {
     return type;
   }
@@ -46,12 +67,23 @@ public class RegistryEvent {
     return ip;
   }
 
-  public String getOrigin()
+  public RegistryEventOrigin getOrigin()
   {
     return origin;
   }
 
   public Long getTtlSec()
+  {
+    return hasTtl ? ttlSec : null;
+  }
+
+  public boolean hasTtl()
+  {
+    return hasTtl;
+  }
+
+  /** Primitive TTL accessor that avoids boxing; only meaningful when {@link #hasTtl()} is true. */
+  public long ttlSecValue()
   {
     return ttlSec;
   }
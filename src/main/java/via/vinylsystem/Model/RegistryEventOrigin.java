@@ -0,0 +1,7 @@
+package via.vinylsystem.Model;
+
+public enum RegistryEventOrigin
+{
+  TCP,
+  UDP
+}
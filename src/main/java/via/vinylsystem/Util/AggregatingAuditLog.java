@@ -0,0 +1,274 @@
+package via.vinylsystem.Util;
+
+import via.vinylsystem.Model.RegistryEvent;
+import via.vinylsystem.Model.RegistryEventOrigin;
+import via.vinylsystem.Model.RegistryEventType;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Audit log decorator that applies an {@link AuditMode} per event type.
+ * <p>
+ * Events in {@link AuditMode#INDIVIDUAL} mode are passed straight to the wrapped log,
+ * events in {@link AuditMode#OFF} mode are dropped. When LOOKUP is in
+ * {@link AuditMode#AGGREGATE} mode, each lookup only bumps a per-name hit or miss
+ * counter. A background thread flushes one {@link RegistryEventType#LOOKUP_SUMMARY}
+ * event per name and interval to the wrapped log, so the cost on the UDP path no
+ * longer depends on the audit file.
+ * </p>
+ * <p>
+ * Counters are {@link LongAdder}s in a {@link ConcurrentHashMap}, so concurrent
+ * lookups for the same name never block each other.
+ * </p>
+ * <p>
+ * A counter that stayed idle for a whole interval is retired and removed. A lookup
+ * counts inside {@code enter()}/{@code exit()} on its counter, and the flusher can
+ * only retire a counter no lookup is inside. A lookup that finds its counter retired
+ * drops it from the map and takes a fresh one, so no count is left in a counter the
+ * flusher will not read again.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public final class AggregatingAuditLog implements AuditLog
+{
+    private final AuditLog delegate;
+    private final Map<RegistryEventType, AuditMode> modes;
+    private final boolean aggregateLookups;
+    private final long intervalMillis;
+    private final Clock clock;
+    private final ScheduledExecutorService flusher;
+
+    /** Counters for lookups that carried a name (found, or not found by name). */
+    private final ConcurrentHashMap<String, LookupCounter> byName = new ConcurrentHashMap<>();
+    /** Counters for lookups by IP that found nothing, so there is no name to key on. */
+    private final ConcurrentHashMap<String, LookupCounter> byIp = new ConcurrentHashMap<>();
+
+    /** Hit and miss counters for one name or IP. */
+    private static final class LookupCounter
+    {
+        private static final int RETIRED = -1;
+
+        final String name;
+        volatile String ip;
+        final LongAdder found = new LongAdder();
+        final LongAdder notFound = new LongAdder();
+        /** Lookups counting right now, or {@link #RETIRED} once the flusher dropped this counter. */
+        private final AtomicInteger users = new AtomicInteger();
+
+        LookupCounter(String name, String ip)
+        {
+            this.name = name;
+            this.ip = ip;
+        }
+
+        /** Starts counting; false if the counter is retired and must not be used any more. */
+        boolean enter()
+        {
+            while (true)
+            {
+                int u = users.get();
+                if (u == RETIRED) return false;
+                if (users.compareAndSet(u, u + 1)) return true;
+            }
+        }
+
+        void exit()
+        {
+            users.decrementAndGet();
+        }
+
+        /** Retires the counter unless a lookup is counting; after this no count can be added. */
+        boolean retire()
+        {
+            return users.compareAndSet(0, RETIRED);
+        }
+    }
+
+    /**
+     * Creates the decorator and, when lookups are aggregated, starts the flush thread.
+     *
+     * @param delegate the log that receives individual and summary events
+     * @param modes the mode per event type; types that are missing use {@link AuditMode#INDIVIDUAL}
+     * @param intervalSec how often lookup summaries are flushed, in seconds
+     * @param clock the clock used to time-stamp summary events
+     * @throws IllegalArgumentException if a type other than LOOKUP is set to AGGREGATE
+     */
+    public AggregatingAuditLog(AuditLog delegate, Map<RegistryEventType, AuditMode> modes, long intervalSec, Clock clock)
+    {
+        for (Map.Entry<RegistryEventType, AuditMode> e : modes.entrySet())
+        {
+            if (e.getValue() == AuditMode.AGGREGATE && e.getKey() != RegistryEventType.LOOKUP)
+            {
+                throw new IllegalArgumentException("AGGREGATE is only supported for LOOKUP, not " + e.getKey());
+            }
+        }
+        this.delegate = delegate;
+        this.modes = modes.isEmpty() ? new EnumMap<>(RegistryEventType.class) : new EnumMap<>(modes);
+        this.aggregateLookups = modeFor(RegistryEventType.LOOKUP) == AuditMode.AGGREGATE;
+        this.intervalMillis = Math.max(1, intervalSec) * 1000L;
+        this.clock = clock;
+
+        if (aggregateLookups)
+        {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "audit-lookup-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleAtFixedRate(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            this.flusher = null;
+        }
+    }
+
+    /**
+     * Reads audit modes from the {@code audit} section of the YAML config.
+     * <p>
+     * Expected shape: {@code audit: { modes: { LOOKUP: AGGREGATE }, flush_interval_sec: 10 }}.
+     * A missing section means every type is written individually.
+     * </p>
+     *
+     * @param auditConfig the {@code audit} section, may be {@code null}
+     * @return the configured mode per event type
+     */
+    public static Map<RegistryEventType, AuditMode> modesFromConfig(Map<?, ?> auditConfig)
+    {
+        Map<RegistryEventType, AuditMode> out = new EnumMap<>(RegistryEventType.class);
+        if (auditConfig == null || !(auditConfig.get("modes") instanceof Map<?, ?> raw)) return out;
+        for (Map.Entry<?, ?> e : raw.entrySet())
+        {
+            out.put(RegistryEventType.valueOf(String.valueOf(e.getKey()).toUpperCase(Locale.ROOT)), AuditMode.valueOf(String.valueOf(e.getValue()).toUpperCase(Locale.ROOT)));
+        }
+        return out;
+    }
+
+    @Override public RegistryEvent claim()
+    {
+        return delegate.claim();
+    }
+
+    @Override public void append(RegistryEvent e)
+    {
+        switch (modeFor(e.getType()))
+        {
+            case OFF -> { }
+            case AGGREGATE -> count(e.getName(), e.getIp(), "FOUND".equals(e.getDetails()));
+            default -> delegate.append(e);
+        }
+    }
+
+    @Override public void lookup(long tsMillis, String name, String ip, long ttlSec, boolean found)
+    {
+        if (aggregateLookups) count(name, ip, found);
+        else if (modeFor(RegistryEventType.LOOKUP) == AuditMode.INDIVIDUAL) delegate.lookup(tsMillis, name, ip, ttlSec, found);
+    }
+
+    private void count(String name, String ip, boolean found)
+    {
+        if (name == null && ip == null) return;
+        ConcurrentHashMap<String, LookupCounter> map = name != null ? byName : byIp;
+        String key = name != null ? name : ip;
+        while (true)
+        {
+            LookupCounter c = map.get(key);
+            if (c == null) c = map.computeIfAbsent(key, k -> new LookupCounter(name, ip));
+            if (!c.enter())
+            {
+                map.remove(key, c); // retired while we looked it up; the flusher may not have removed it yet
+                continue;
+            }
+            try
+            {
+                if (name != null && found && ip != null && !ip.equals(c.ip)) c.ip = ip;
+                (found ? c.found : c.notFound).increment();
+            }
+            finally
+            {
+                c.exit();
+            }
+            return;
+        }
+    }
+
+    /**
+     * Writes one summary event for every name or IP that was looked up since the last flush.
+     * Idle counters are removed so the maps only hold names that are actually in use.
+     */
+    public void flush()
+    {
+        long now = clock.millis();
+        flushMap(byName, now);
+        flushMap(byIp, now);
+    }
+
+    private void flushMap(ConcurrentHashMap<String, LookupCounter> map, long now)
+    {
+        for (Map.Entry<String, LookupCounter> e : map.entrySet())
+        {
+            LookupCounter c = e.getValue();
+            long found = c.found.sumThenReset();
+            long notFound = c.notFound.sumThenReset();
+            if (found == 0 && notFound == 0)
+            {
+                if (!c.retire()) continue; // a lookup is counting; it is flushed next time
+                map.remove(e.getKey(), c);
+                // lookups that counted between the drain above and the retirement; none can follow
+                found = c.found.sumThenReset();
+                notFound = c.notFound.sumThenReset();
+                if (found == 0 && notFound == 0) continue;
+            }
+            delegate.append(delegate.claim().set(now, RegistryEventType.LOOKUP_SUMMARY, c.name, c.ip, -1, RegistryEventOrigin.UDP,
+                    "FOUND=" + found + " NOT_FOUND=" + notFound + " INTERVAL=" + intervalMillis / 1000 + "s"));
+        }
+    }
+
+    private AuditMode modeFor(RegistryEventType type)
+    {
+        return modes.getOrDefault(type, AuditMode.INDIVIDUAL);
+    }
+
+    @Override public void close() throws IOException
+    {
+        if (flusher != null)
+        {
+            flusher.shutdown();
+            try
+            {
+                // a scheduled flush may still be appending; the last one must not race it or the close
+                flusher.awaitTermination(intervalMillis, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            flush();
+        }
+        try
+        {
+            delegate.close();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            throw new IOException("Could not close the audit log", e);
+        }
+    }
+}
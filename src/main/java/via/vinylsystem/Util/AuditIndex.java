@@ -0,0 +1,388 @@
+package via.vinylsystem.Util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Sparse time and name index over a single audit segment (one JSONL file).
+ * <p>
+ * The segment is split into blocks of {@link #BLOCK_RECORDS} consecutive records.
+ * For every block the index keeps the byte offset where it starts, the smallest and
+ * largest timestamp in it and a bit mask of the event types it contains. Names and
+ * IPs are mapped to the list of blocks in which they occur. A query can therefore
+ * skip straight to the few blocks that may hold matching records without parsing
+ * the rest of the file.
+ * </p>
+ * <p>
+ * The index is stored next to the segment as {@code <segment>.idx}. Audit segments
+ * are append-only, so when the segment has grown since the index was written only
+ * the new tail is indexed. A segment that has shrunk, or whose first bytes no longer
+ * match the ones the index was built from (rotated or truncated), is indexed again
+ * from the start.
+ * </p>
+ * <p>
+ * Saving the index is best effort: on a read-only audit directory the query runs on
+ * the index built in memory.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public class AuditIndex
+{
+    /** Number of records per indexed block. */
+    public static final int BLOCK_RECORDS = 512;
+
+    /** Suffix of the index file written next to each segment. */
+    public static final String INDEX_SUFFIX = ".idx";
+
+    /** Event types that get their own bit in a block's type mask; everything else shares the last bit. */
+    private static final List<String> KNOWN_TYPES = List.of(
+            "REGISTER", "RENEW", "EXPIRE", "LOOKUP", "INVALIDATE", "ERROR", "LOOKUP_SUMMARY");
+    private static final int OTHER_TYPE_BIT = 31;
+
+    /** How many leading bytes of the segment are checksummed to tell a rotated segment from a grown one. */
+    private static final int HEAD_BYTES = 4096;
+
+    private static final Gson GSON = new Gson();
+
+    // Persisted state (serialized with Gson)
+    private long segmentBytes;
+    private int headBytes;
+    private long headCrc;
+    private long[] blockOffsets = new long[0];
+    private long[] blockMinTs = new long[0];
+    private long[] blockMaxTs = new long[0];
+    private int[] blockTypeMask = new int[0];
+    private int lastBlockRecords;
+    private Map<String, int[]> nameBlocks = new HashMap<>();
+    private Map<String, int[]> ipBlocks = new HashMap<>();
+
+    /** Only the fields the index cares about; the rest of each record is ignored. */
+    private static class IndexedFields
+    {
+        long tsMillis;
+        String type;
+        String name;
+        String ip;
+    }
+
+    private AuditIndex() {}
+
+    /**
+     * Loads the index for a segment, extending or rebuilding it when the segment
+     * has changed since it was written, and saves it back if anything changed.
+     * An index that cannot be saved is still returned.
+     *
+     * @param segment the audit segment
+     * @return an index that covers every complete line of the segment
+     * @throws IOException if the segment cannot be read
+     */
+    public static AuditIndex open(Path segment) throws IOException
+    {
+        Path idxPath = indexPathFor(segment);
+        long size = Files.size(segment);
+
+        AuditIndex idx = null;
+        if (Files.exists(idxPath))
+        {
+            try (Reader r = Files.newBufferedReader(idxPath, StandardCharsets.UTF_8))
+            {
+                idx = GSON.fromJson(r, AuditIndex.class);
+            }
+            catch (JsonParseException | IOException e)
+            {
+                idx = null; // corrupt or unreadable index: rebuild
+            }
+        }
+        if (idx == null || idx.segmentBytes > size || idx.blockOffsets == null
+                || idx.headBytes > idx.segmentBytes || idx.headCrc != headCrc(segment, idx.headBytes))
+        {
+            idx = new AuditIndex();
+        }
+        if (idx.segmentBytes < size)
+        {
+            idx.extend(segment);
+            idx.headBytes = (int) Math.min(HEAD_BYTES, idx.segmentBytes);
+            idx.headCrc = headCrc(segment, idx.headBytes);
+            try
+            {
+                idx.save(idxPath);
+            }
+            catch (IOException e)
+            {
+                // read-only or full audit directory: the index is rebuilt next time
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * Returns the path of the index file belonging to a segment.
+     *
+     * @param segment the audit segment
+     * @return the sidecar index path
+     */
+    public static Path indexPathFor(Path segment)
+    {
+        return segment.resolveSibling(segment.getFileName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Returns the blocks that may contain records matching the query.
+     *
+     * @param q the query
+     * @return the matching block numbers, in file order
+     */
+    public BitSet candidateBlocks(AuditQuery q)
+    {
+        int blocks = blockOffsets.length;
+        BitSet out = new BitSet(blocks);
+        out.set(0, blocks);
+
+        if (q.getName() != null) out.and(toBitSet(nameBlocks.get(q.getName())));
+        if (q.getIp() != null)   out.and(toBitSet(ipBlocks.get(q.getIp())));
+
+        int typeBit = q.getType() == null ? 0 : 1 << typeBit(q.getType());
+        for (int b = out.nextSetBit(0); b >= 0; b = out.nextSetBit(b + 1))
+        {
+            if (blockMaxTs[b] < q.getFromMillis() || blockMinTs[b] >= q.getToMillis()
+                    || (typeBit != 0 && (blockTypeMask[b] & typeBit) == 0))
+            {
+                out.clear(b);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Returns the byte range {@code [start, end)} of a block in the segment.
+     *
+     * @param block the block number
+     * @return a two-element array holding start and end offsets
+     */
+    public long[] blockRange(int block)
+    {
+        long start = blockOffsets[block];
+        long end = block + 1 < blockOffsets.length ? blockOffsets[block + 1] : segmentBytes;
+        return new long[] { start, end };
+    }
+
+    /**
+     * Returns the number of blocks in this index.
+     *
+     * @return the block count
+     */
+    public int blockCount()
+    {
+        return blockOffsets.length;
+    }
+
+    /**
+     * Indexes every complete line from {@link #segmentBytes} to the end of the segment.
+     * A trailing line without newline is left for the next call, since the writer may
+     * still be in the middle of it.
+     */
+    private void extend(Path segment) throws IOException
+    {
+        Map<String, List<Integer>> newNames = new HashMap<>();
+        Map<String, List<Integer>> newIps = new HashMap<>();
+        int count = blockOffsets.length;
+        int records = count == 0 ? BLOCK_RECORDS : lastBlockRecords;
+
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ))
+        {
+            ch.position(segmentBytes);
+            InputStream in = new BufferedInputStream(Channels.newInputStream(ch), 1 << 16);
+            long lineStart = segmentBytes;
+            long pos = segmentBytes;
+            byte[] line = new byte[256];
+            int len = 0;
+            int c;
+            while ((c = in.read()) != -1)
+            {
+                pos++;
+                if (c != '\n')
+                {
+                    if (len == line.length) line = Arrays.copyOf(line, len * 2);
+                    line[len++] = (byte) c;
+                    continue;
+                }
+                IndexedFields f = parse(line, len);
+                if (f != null)
+                {
+                    if (records == BLOCK_RECORDS)
+                    {
+                        count = appendBlock(count, lineStart);
+                        records = 0;
+                    }
+                    int b = count - 1;
+                    blockMinTs[b] = Math.min(blockMinTs[b], f.tsMillis);
+                    blockMaxTs[b] = Math.max(blockMaxTs[b], f.tsMillis);
+                    blockTypeMask[b] |= 1 << typeBit(f.type);
+                    records++;
+                    if (f.name != null) addBlock(newNames, f.name, b);
+                    if (f.ip != null)   addBlock(newIps, f.ip, b);
+                }
+                lineStart = pos;
+                len = 0;
+            }
+            segmentBytes = lineStart;
+        }
+
+        blockOffsets = Arrays.copyOf(blockOffsets, count);
+        blockMinTs = Arrays.copyOf(blockMinTs, count);
+        blockMaxTs = Arrays.copyOf(blockMaxTs, count);
+        blockTypeMask = Arrays.copyOf(blockTypeMask, count);
+        lastBlockRecords = records;
+        merge(nameBlocks, newNames);
+        merge(ipBlocks, newIps);
+    }
+
+    /** Starts a new block at the given offset, growing the block arrays when needed. */
+    private int appendBlock(int count, long offset)
+    {
+        if (count == blockOffsets.length)
+        {
+            int cap = Math.max(16, count * 2);
+            blockOffsets = Arrays.copyOf(blockOffsets, cap);
+            blockMinTs = Arrays.copyOf(blockMinTs, cap);
+            blockMaxTs = Arrays.copyOf(blockMaxTs, cap);
+            blockTypeMask = Arrays.copyOf(blockTypeMask, cap);
+        }
+        blockOffsets[count] = offset;
+        blockMinTs[count] = Long.MAX_VALUE;
+        blockMaxTs[count] = Long.MIN_VALUE;
+        blockTypeMask[count] = 0;
+        return count + 1;
+    }
+
+    private static IndexedFields parse(byte[] line, int len)
+    {
+        if (len == 0) return null;
+        try
+        {
+            return GSON.fromJson(new String(line, 0, len, StandardCharsets.UTF_8), IndexedFields.class);
+        }
+        catch (JsonParseException e)
+        {
+            return null; // skip damaged lines
+        }
+    }
+
+    private static void addBlock(Map<String, List<Integer>> map, String key, int block)
+    {
+        List<Integer> list = map.computeIfAbsent(key, k -> new ArrayList<>());
+        if (list.isEmpty() || list.get(list.size() - 1) != block) list.add(block);
+    }
+
+    private static void merge(Map<String, int[]> into, Map<String, List<Integer>> add)
+    {
+        for (Map.Entry<String, List<Integer>> e : add.entrySet())
+        {
+            int[] old = into.getOrDefault(e.getKey(), new int[0]);
+            int[] merged = Arrays.copyOf(old, old.length + e.getValue().size());
+            int n = old.length;
+            for (int block : e.getValue())
+            {
+                if (n > 0 && merged[n - 1] == block) continue; // last block was extended
+                merged[n++] = block;
+            }
+            into.put(e.getKey(), Arrays.copyOf(merged, n));
+        }
+    }
+
+    private static BitSet toBitSet(int[] blocks)
+    {
+        BitSet bs = new BitSet();
+        if (blocks != null) for (int b : blocks) bs.set(b);
+        return bs;
+    }
+
+    private static int typeBit(String type)
+    {
+        int i = type == null ? -1 : KNOWN_TYPES.indexOf(type);
+        return i >= 0 ? i : OTHER_TYPE_BIT;
+    }
+
+    /** CRC32 of the first {@code bytes} bytes of the segment. */
+    private static long headCrc(Path segment, int bytes) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(bytes);
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ))
+        {
+            while (buf.hasRemaining())
+            {
+                if (ch.read(buf, buf.position()) < 0) break;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.flip());
+        return crc.getValue();
+    }
+
+    /**
+     * Writes the index to a temp file of its own first, so a crash never leaves a
+     * half-written index behind and concurrent queries never write the same file.
+     */
+    private void save(Path idxPath) throws IOException
+    {
+        Path tmp = Files.createTempFile(idxPath.toAbsolutePath().getParent(), idxPath.getFileName().toString(), ".tmp");
+        try
+        {
+            try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))
+            {
+                GSON.toJson(this, w);
+            }
+            Files.move(tmp, idxPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Reads the raw bytes of a block from the segment.
+     *
+     * @param ch an open channel on the segment
+     * @param block the block number
+     * @return the block's bytes, always ending on a line boundary
+     * @throws IOException if the segment cannot be read
+     */
+    public ByteBuffer readBlock(FileChannel ch, int block) throws IOException
+    {
+        long[] range = blockRange(block);
+        ByteBuffer buf = ByteBuffer.allocate((int) (range[1] - range[0]));
+        long pos = range[0];
+        while (buf.hasRemaining())
+        {
+            int n = ch.read(buf, pos);
+            if (n < 0) break;
+            pos += n;
+        }
+        buf.flip();
+        return buf;
+    }
+}
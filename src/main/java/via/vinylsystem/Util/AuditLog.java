@@ -1,9 +1,32 @@
 package via.vinylsystem.Util;
 
 import via.vinylsystem.Model.RegistryEvent;
+import via.vinylsystem.Model.RegistryEventOrigin;
+import via.vinylsystem.Model.RegistryEventType;
 
 public interface AuditLog extends AutoCloseable
 {
   void append(RegistryEvent e);
+
+  /**
+   * Returns an event to fill with {@link RegistryEvent#set} and pass to {@link #append}.
+   * Logs that serialize synchronously may return the same slot again on the next call
+   * from this thread, so the event must not be kept after {@code append} returns.
+   */
+  default RegistryEvent claim()
+  {
+    return new RegistryEvent();
+  }
+
+  /**
+   * Records a UDP lookup. Implementations may count lookups instead of writing
+   * one event per call, so callers should prefer this over {@link #append}.
+   */
+  default void lookup(long tsMillis, String name, String ip, long ttlSec, boolean found)
+  {
+    append(claim().set(tsMillis, RegistryEventType.LOOKUP, name, ip, ttlSec, RegistryEventOrigin.UDP,
+        found ? "FOUND" : "NOT_FOUND"));
+  }
+
   @Override default void close() throws Exception{}
 }
@@ -0,0 +1,17 @@
+package via.vinylsystem.Util;
+
+/**
+ * How events of one {@link via.vinylsystem.Model.RegistryEventType} are written to the audit log.
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public enum AuditMode
+{
+    /** Every event is written as its own line. */
+    INDIVIDUAL,
+    /** Events are counted per name and written as one summary line per interval (LOOKUP only). */
+    AGGREGATE,
+    /** Events are not written at all. */
+    OFF
+}
@@ -0,0 +1,178 @@
+package via.vinylsystem.Util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Query over one or more audit segments.
+ * <p>
+ * All criteria are optional and combined with AND. Each segment is handled by its
+ * own task: the segment's {@link AuditIndex} selects the candidate blocks, only those
+ * blocks are read from disk, and only lines that pass a cheap text pre-check are
+ * parsed as JSON. Results from all segments are merged in timestamp order.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public class AuditQuery
+{
+    private static final Gson GSON = new Gson();
+
+    private String name;
+    private String ip;
+    private String type;
+    private long fromMillis = Long.MIN_VALUE;
+    private long toMillis = Long.MAX_VALUE;
+
+    /**
+     * A single matching audit record.
+     *
+     * @param tsMillis the record's timestamp in milliseconds since epoch
+     * @param line the raw JSON line as stored in the segment
+     */
+    public static record Hit(long tsMillis, String line){}
+
+    /** Fields needed to check a candidate line against the query. */
+    private static class MatchFields
+    {
+        long tsMillis;
+        String type;
+        String name;
+        String ip;
+    }
+
+    public AuditQuery name(String name) { this.name = name; return this; }
+    public AuditQuery ip(String ip) { this.ip = ip; return this; }
+    public AuditQuery type(String type) { this.type = type; return this; }
+    /** Inclusive lower time bound in milliseconds since epoch. */
+    public AuditQuery from(long fromMillis) { this.fromMillis = fromMillis; return this; }
+    /** Exclusive upper time bound in milliseconds since epoch. */
+    public AuditQuery to(long toMillis) { this.toMillis = toMillis; return this; }
+
+    public String getName() { return name; }
+    public String getIp() { return ip; }
+    public String getType() { return type; }
+    public long getFromMillis() { return fromMillis; }
+    public long getToMillis() { return toMillis; }
+
+    /**
+     * Runs the query over the given segments in parallel.
+     *
+     * @param segments the audit segments to search
+     * @param threads the maximum number of segments searched at the same time
+     * @return every matching record, ordered by timestamp
+     * @throws IOException if a segment or its index cannot be read
+     */
+    public List<Hit> run(List<Path> segments, int threads) throws IOException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, segments.size())));
+        try
+        {
+            List<Future<List<Hit>>> parts = new ArrayList<>();
+            for (Path segment : segments)
+            {
+                parts.add(pool.submit(() -> runSegment(segment)));
+            }
+            List<Hit> hits = new ArrayList<>();
+            for (Future<List<Hit>> part : parts)
+            {
+                hits.addAll(part.get());
+            }
+            hits.sort(Comparator.comparingLong(Hit::tsMillis));
+            return hits;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Audit query interrupted", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException("Audit query failed: " + e.getCause(), e.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Searches a single segment using its sparse index.
+     *
+     * @param segment the segment to search
+     * @return the matching records in file order
+     * @throws IOException if the segment or its index cannot be read
+     */
+    public List<Hit> runSegment(Path segment) throws IOException
+    {
+        AuditIndex idx = AuditIndex.open(segment);
+        BitSet blocks = idx.candidateBlocks(this);
+        List<Hit> hits = new ArrayList<>();
+        if (blocks.isEmpty()) return hits;
+
+        // Every match must contain these exact JSON fragments, so most lines are rejected before parsing
+        String nameNeedle = name == null ? null : RegistryEventWriter.quote(name);
+        String ipNeedle = ip == null ? null : RegistryEventWriter.quote(ip);
+
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ))
+        {
+            for (int b = blocks.nextSetBit(0); b >= 0; b = blocks.nextSetBit(b + 1))
+            {
+                ByteBuffer buf = idx.readBlock(ch, b);
+                String text = new String(buf.array(), 0, buf.limit(), StandardCharsets.UTF_8);
+                int start = 0;
+                while (start < text.length())
+                {
+                    int end = text.indexOf('\n', start);
+                    if (end < 0) end = text.length();
+                    String line = text.substring(start, end);
+                    start = end + 1;
+
+                    if (nameNeedle != null && !line.contains(nameNeedle)) continue;
+                    if (ipNeedle != null && !line.contains(ipNeedle)) continue;
+                    MatchFields f = parse(line);
+                    if (f != null && matches(f)) hits.add(new Hit(f.tsMillis, line));
+                }
+            }
+        }
+        return hits;
+    }
+
+    private boolean matches(MatchFields f)
+    {
+        return f.tsMillis >= fromMillis && f.tsMillis < toMillis
+                && (name == null || name.equals(f.name))
+                && (ip == null || ip.equals(f.ip))
+                && (type == null || type.equals(f.type));
+    }
+
+    private static MatchFields parse(String line)
+    {
+        if (line.isBlank()) return null;
+        try
+        {
+            return GSON.fromJson(line, MatchFields.class);
+        }
+        catch (JsonParseException e)
+        {
+            return null;
+        }
+    }
+}
@@ -1,35 +1,37 @@
 package via.vinylsystem.Util;
 
-import com.google.gson.Gson;
 import via.vinylsystem.Model.RegistryEvent;
 
-import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 
 public class FileAuditLog implements AuditLog
 {
-  private final BufferedWriter out;
-  private final Gson gson = new Gson();
+  private final FileOutputStream out;
+  private final RegistryEventWriter writer = new RegistryEventWriter();
+  // append() serializes before returning, so each thread can reuse one event slot
+  private final ThreadLocal<RegistryEvent> slot = ThreadLocal.withInitial(RegistryEvent::new);
 
   public FileAuditLog(Path path) throws IOException
   {
     if(path.getParent()!=null)
       Files.createDirectories(path.getParent());
-      this.out = Files.newBufferedWriter(
-          path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
-          StandardOpenOption.APPEND);
+      // RegistryEventWriter hands over finished UTF-8 lines, so they go straight to the file
+      this.out = new FileOutputStream(path.toFile(), true);
+  }
+
+  @Override public RegistryEvent claim()
+  {
+    return slot.get();
   }
 
   @Override public synchronized void append(RegistryEvent e)
   {
     try{
-      out.write(gson.toJson(e));
-      out.write("\n");
-      out.flush();
+      int len = writer.write(e);
+      out.write(writer.bytes(), 0, len);
     }
     catch (IOException ex)
     {
@@ -40,6 +42,6 @@ public class FileAuditLog implements AuditLog
 
   @Override public synchronized void close() throws Exception
   {
-    AuditLog.super.close();
+    out.close();
   }
 }
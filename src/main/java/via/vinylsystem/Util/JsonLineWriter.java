@@ -0,0 +1,494 @@
+package via.vinylsystem.Util;
+
+import com.google.gson.JsonElement;
+import via.vinylsystem.Model.Track;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes one JSON object per line straight into a reusable UTF-8 byte buffer.
+ * <p>
+ * Responses used to be built as a Gson tree, rendered to a String and then encoded,
+ * so every response existed three times before a byte was sent. This writer encodes
+ * fields and {@link Track}s as it goes; the buffer is kept between lines, so a
+ * connection answering many requests allocates next to nothing per response.
+ * </p>
+ * <p>
+ * The output is byte for byte what the Gson tree's {@code toString()} gave for the
+ * same response: tracks have the fields id, artist, title and year in that order,
+ * null strings are left out, and strings are escaped the same way (no HTML escaping).
+ * A track may also be written with only some of its fields, given as a mask of
+ * {@link #ID}, {@link #ARTIST}, {@link #TITLE} and {@link #YEAR}; the others are
+ * then never encoded.
+ * </p>
+ * <p>
+ * Usage: {@link #begin()}, any number of fields, {@link #end()}, then send the first
+ * {@code end()} bytes of {@link #bytes()}. Instances are not thread-safe; each
+ * connection owns one.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public class JsonLineWriter
+{
+    /** Track field masks, named after the JSON fields, see {@link #fieldMask(String)}. */
+    public static final int ID = 1, ARTIST = 2, TITLE = 4, YEAR = 8;
+
+    /** Mask of every track field. */
+    public static final int ALL_FIELDS = ID | ARTIST | TITLE | YEAR;
+
+    /** A buffer grown beyond this by one large response is dropped after it. */
+    private static final int KEEP_BYTES = 1 << 20;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buf = new byte[4096];
+    private int len;
+    private boolean first;
+    private boolean firstElement;
+
+    /**
+     * Returns the mask of a track field.
+     *
+     * @param name the JSON field name: "id", "artist", "title" or "year", in any case
+     * @return the mask, or 0 for any other name
+     */
+    public static int fieldMask(String name)
+    {
+        return switch (name.toLowerCase(Locale.ROOT))
+        {
+            case "id" -> ID;
+            case "artist" -> ARTIST;
+            case "title" -> TITLE;
+            case "year" -> YEAR;
+            default -> 0;
+        };
+    }
+
+    /**
+     * Starts a new line, discarding the previous one.
+     *
+     * @return this writer
+     */
+    public JsonLineWriter begin()
+    {
+        if (buf.length > KEEP_BYTES) buf = new byte[4096];
+        len = 0;
+        first = true;
+        put('{');
+        return this;
+    }
+
+    /**
+     * Writes a string field; {@code null} is written as JSON null.
+     *
+     * @param name the field name
+     * @param value the value
+     * @return this writer
+     */
+    public JsonLineWriter field(String name, String value)
+    {
+        name(name);
+        if (value == null) ascii("null");
+        else string(value);
+        return this;
+    }
+
+    /**
+     * Writes a number field.
+     *
+     * @param name the field name
+     * @param value the value
+     * @return this writer
+     */
+    public JsonLineWriter field(String name, long value)
+    {
+        name(name);
+        number(value);
+        return this;
+    }
+
+    /**
+     * Writes a boolean field.
+     *
+     * @param name the field name
+     * @param value the value
+     * @return this writer
+     */
+    public JsonLineWriter field(String name, boolean value)
+    {
+        name(name);
+        ascii(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Writes a field holding an already parsed JSON value, e.g. a request ID echoed back.
+     * Meant for small values; the element is rendered with {@link JsonElement#toString()}.
+     *
+     * @param name the field name
+     * @param value the value
+     * @return this writer
+     */
+    public JsonLineWriter field(String name, JsonElement value)
+    {
+        name(name);
+        utf8(value.toString());
+        return this;
+    }
+
+    /**
+     * Writes a track object field.
+     *
+     * @param name the field name
+     * @param t the track
+     * @return this writer
+     */
+    public JsonLineWriter track(String name, Track t)
+    {
+        return track(name, t, ALL_FIELDS);
+    }
+
+    /**
+     * Writes a track object field with only some of its fields.
+     *
+     * @param name the field name
+     * @param t the track
+     * @param fields the mask of the track fields to write
+     * @return this writer
+     */
+    public JsonLineWriter track(String name, Track t, int fields)
+    {
+        name(name);
+        track(t, fields);
+        return this;
+    }
+
+    /**
+     * Writes an array field of track objects.
+     *
+     * @param name the field name
+     * @param tracks the tracks
+     * @return this writer
+     */
+    public JsonLineWriter tracks(String name, List<Track> tracks)
+    {
+        return tracks(name, tracks, ALL_FIELDS);
+    }
+
+    /**
+     * Writes an array field of track objects with only some of their fields.
+     *
+     * @param name the field name
+     * @param tracks the tracks
+     * @param fields the mask of the track fields to write
+     * @return this writer
+     */
+    public JsonLineWriter tracks(String name, List<Track> tracks, int fields)
+    {
+        beginArray(name);
+        for (int i = 0, n = tracks.size(); i < n; i++) element(tracks.get(i), fields);
+        return endArray();
+    }
+
+    /**
+     * Opens an array field to be filled with {@link #element(Track)} or {@link #beginObject()}.
+     *
+     * @param name the field name
+     * @return this writer
+     */
+    public JsonLineWriter beginArray(String name)
+    {
+        name(name);
+        put('[');
+        firstElement = true;
+        return this;
+    }
+
+    /**
+     * Writes the next track of the open array.
+     *
+     * @param t the track
+     * @return this writer
+     */
+    public JsonLineWriter element(Track t)
+    {
+        return element(t, ALL_FIELDS);
+    }
+
+    /**
+     * Writes the next track of the open array with only some of its fields.
+     *
+     * @param t the track
+     * @param fields the mask of the track fields to write
+     * @return this writer
+     */
+    public JsonLineWriter element(Track t, int fields)
+    {
+        if (!firstElement) put(',');
+        firstElement = false;
+        track(t, fields);
+        return this;
+    }
+
+    /**
+     * Writes the next string of the open array.
+     *
+     * @param s the string
+     * @return this writer
+     */
+    public JsonLineWriter element(String s)
+    {
+        if (!firstElement) put(',');
+        firstElement = false;
+        string(s);
+        return this;
+    }
+
+    /**
+     * Opens an object as the next element of the open array; fill it with fields and
+     * close it with {@link #endObject()}.
+     *
+     * @return this writer
+     */
+    public JsonLineWriter beginObject()
+    {
+        if (!firstElement) put(',');
+        firstElement = false;
+        put('{');
+        first = true;
+        return this;
+    }
+
+    /**
+     * Closes the object opened by {@link #beginObject()}.
+     *
+     * @return this writer
+     */
+    public JsonLineWriter endObject()
+    {
+        put('}');
+        first = false;
+        return this;
+    }
+
+    /**
+     * Closes the open array.
+     *
+     * @return this writer
+     */
+    public JsonLineWriter endArray()
+    {
+        put(']');
+        return this;
+    }
+
+    /**
+     * Closes the object and ends the line.
+     *
+     * @return the number of bytes available through {@link #bytes()}, newline included
+     */
+    public int end()
+    {
+        put('}');
+        put('\n');
+        return len;
+    }
+
+    /**
+     * Returns the buffer filled since the last {@link #begin()}.
+     *
+     * @return the internal byte buffer; only the first {@link #end()} bytes are valid
+     */
+    public byte[] bytes()
+    {
+        return buf;
+    }
+
+    /**
+     * Returns a copy of the line, for responses that are kept.
+     *
+     * @return the written bytes
+     */
+    public byte[] toByteArray()
+    {
+        return Arrays.copyOf(buf, len);
+    }
+
+    private void track(Track t, int fields)
+    {
+        put('{');
+        boolean none = true;
+        if ((fields & ID) != 0 && t.getId() != null)
+        {
+            ascii("\"id\":");
+            string(t.getId());
+            none = false;
+        }
+        if ((fields & ARTIST) != 0 && t.getArtist() != null)
+        {
+            ascii(none ? "\"artist\":" : ",\"artist\":");
+            string(t.getArtist());
+            none = false;
+        }
+        if ((fields & TITLE) != 0 && t.getTitle() != null)
+        {
+            ascii(none ? "\"title\":" : ",\"title\":");
+            string(t.getTitle());
+            none = false;
+        }
+        if ((fields & YEAR) != 0)
+        {
+            ascii(none ? "\"year\":" : ",\"year\":");
+            number(t.getYear());
+        }
+        put('}');
+    }
+
+    private void name(String name)
+    {
+        if (!first) put(',');
+        first = false;
+        string(name);
+        put(':');
+    }
+
+    private void number(long v)
+    {
+        if (v == Long.MIN_VALUE)
+        {
+            ascii(Long.toString(v));
+            return;
+        }
+        ensure(20);
+        if (v < 0)
+        {
+            buf[len++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long x = v; x >= 10; x /= 10) digits++;
+        for (int i = len + digits - 1; i >= len; i--)
+        {
+            buf[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        len += digits;
+    }
+
+    /** Writes a quoted, escaped string; same escapes as Gson's JsonWriter without HTML safety. */
+    private void string(String s)
+    {
+        int n = s.length();
+        ensure(n * 6 + 2);
+        buf[len++] = '"';
+        for (int i = 0; i < n; i++)
+        {
+            char c = s.charAt(i);
+            if (c < 0x80)
+            {
+                if (c >= 0x20 && c != '"' && c != '\\')
+                {
+                    buf[len++] = (byte) c;
+                    continue;
+                }
+                buf[len++] = '\\';
+                switch (c)
+                {
+                    case '"' -> buf[len++] = '"';
+                    case '\\' -> buf[len++] = '\\';
+                    case '\t' -> buf[len++] = 't';
+                    case '\b' -> buf[len++] = 'b';
+                    case '\n' -> buf[len++] = 'n';
+                    case '\r' -> buf[len++] = 'r';
+                    case '\f' -> buf[len++] = 'f';
+                    default -> unicodeEscape(c);
+                }
+            }
+            else if (c == 0x2028 || c == 0x2029)
+            {
+                buf[len++] = '\\';
+                unicodeEscape(c);
+            }
+            else
+            {
+                i = encode(s, i, c);
+            }
+        }
+        buf[len++] = '"';
+    }
+
+    /** Writes {@code u} and four hex digits; the backslash is already written. */
+    private void unicodeEscape(char c)
+    {
+        buf[len++] = 'u';
+        buf[len++] = HEX[c >> 12];
+        buf[len++] = HEX[(c >> 8) & 0xF];
+        buf[len++] = HEX[(c >> 4) & 0xF];
+        buf[len++] = HEX[c & 0xF];
+    }
+
+    /** Appends text that needs no escaping, UTF-8 encoded. */
+    private void utf8(String s)
+    {
+        int n = s.length();
+        ensure(n * 3);
+        for (int i = 0; i < n; i++)
+        {
+            char c = s.charAt(i);
+            if (c < 0x80) buf[len++] = (byte) c;
+            else i = encode(s, i, c);
+        }
+    }
+
+    /** UTF-8 encodes the non-ASCII char at {@code i}; returns the index of the last char used. */
+    private int encode(String s, int i, char c)
+    {
+        if (c < 0x800)
+        {
+            buf[len++] = (byte) (0xC0 | (c >> 6));
+            buf[len++] = (byte) (0x80 | (c & 0x3F));
+        }
+        else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1)))
+        {
+            int cp = Character.toCodePoint(c, s.charAt(++i));
+            buf[len++] = (byte) (0xF0 | (cp >> 18));
+            buf[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            buf[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            buf[len++] = (byte) (0x80 | (cp & 0x3F));
+        }
+        else if (Character.isSurrogate(c))
+        {
+            buf[len++] = '?'; // unpaired surrogate, as the UTF-8 encoder does
+        }
+        else
+        {
+            buf[len++] = (byte) (0xE0 | (c >> 12));
+            buf[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[len++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return i;
+    }
+
+    private void ascii(String s)
+    {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) buf[len++] = (byte) s.charAt(i);
+    }
+
+    private void put(char c)
+    {
+        ensure(1);
+        buf[len++] = (byte) c;
+    }
+
+    private void ensure(int more)
+    {
+        if (len + more > buf.length) buf = Arrays.copyOf(buf, Math.max(len + more, buf.length * 2));
+    }
+}
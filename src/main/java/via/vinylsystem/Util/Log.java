@@ -0,0 +1,274 @@
+package via.vinylsystem.Util;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leveled, asynchronous logger for the servers' hot paths.
+ * <p>
+ * {@code System.out} is synchronized, and writing to a terminal blocks, so printing a
+ * line per request serializes every session behind the console. A {@code Log} never
+ * writes on the calling thread. A disabled level costs one comparison, and the
+ * one- and two-argument methods allocate nothing then. An enabled line is formatted
+ * and handed to a bounded queue without blocking. A daemon thread named "log-writer"
+ * prints queued lines in batches: WARN and ERROR to {@code System.err}, the rest to
+ * {@code System.out}. When the queue is full, lines are dropped and the drop count
+ * is reported later.
+ * </p>
+ * <p>
+ * Each named logger has its own level, its sampling rate and its payload limit:
+ * <ul>
+ *   <li>sample N keeps one in N DEBUG and INFO lines, chosen at random; WARN and
+ *   ERROR are always kept</li>
+ *   <li>max_payload cuts each argument to that many characters, so a whole
+ *   catalog never ends up in a log line</li>
+ * </ul>
+ * Loggers not configured use the default level, INFO. Per-request loggers log at
+ * DEBUG, so they are off unless turned on. Messages use {@code {}} placeholders, as
+ * in {@code log.debug("CAT IN {}", line)}.
+ * </p>
+ * <p>
+ * Configuration, from the {@code logging} section of the YAML file:
+ * <pre>
+ * logging:
+ *   level: INFO
+ *   loggers:
+ *     catalog.request: { level: DEBUG, sample: 100, max_payload: 200 }
+ * </pre>
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public final class Log
+{
+    /** Severity of a line; a logger prints lines at or above its level. */
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    /** Characters kept of each argument unless configured otherwise. */
+    public static final int DEFAULT_MAX_PAYLOAD = 256;
+
+    private static final int QUEUE_CAPACITY = 16_384;
+    private static final int BATCH = 512;
+    private static final DateTimeFormatter TIME =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final Map<String, Log> LOGGERS = new ConcurrentHashMap<>();
+    private static final BlockingQueue<Line> QUEUE = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final Object WRITE_LOCK = new Object();
+    private static volatile Level defaultLevel = Level.INFO;
+
+    static
+    {
+        Thread t = new Thread(Log::writeLoop, "log-writer");
+        t.setDaemon(true);
+        t.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+    private record Line(long millis, Level level, String logger, String text) {}
+
+    private final String name;
+    private volatile Level level;       // null: the default level
+    private volatile int sampleEvery = 1;
+    private volatile int maxPayload = DEFAULT_MAX_PAYLOAD;
+
+    private Log(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Returns the logger with a name, creating it on first use.
+     *
+     * @param name the logger name, e.g. "catalog.request"
+     * @return the logger
+     */
+    public static Log get(String name)
+    {
+        return LOGGERS.computeIfAbsent(name, Log::new);
+    }
+
+    /**
+     * Applies the {@code logging} section of the YAML configuration; see the class
+     * comment for its keys. {@code null} leaves everything as it is.
+     *
+     * @param config the section
+     * @throws IllegalArgumentException if a level is not one of {@link Level}
+     */
+    public static void configure(Map<?, ?> config)
+    {
+        if (config == null) return;
+        if (config.get("level") != null) defaultLevel = parseLevel(config.get("level"));
+        if (!(config.get("loggers") instanceof Map<?, ?> loggers)) return;
+        for (Map.Entry<?, ?> e : loggers.entrySet())
+        {
+            Log log = get(String.valueOf(e.getKey()));
+            if (!(e.getValue() instanceof Map<?, ?> c)) continue;
+            if (c.get("level") != null) log.level = parseLevel(c.get("level"));
+            if (c.get("sample") instanceof Number n) log.sampleEvery = Math.max(1, n.intValue());
+            if (c.get("max_payload") instanceof Number n) log.maxPayload = Math.max(0, n.intValue());
+        }
+    }
+
+    /**
+     * Sets this logger's level.
+     *
+     * @param level the new level, or {@code null} for the default level
+     */
+    public void setLevel(Level level)
+    {
+        this.level = level;
+    }
+
+    /**
+     * Tells whether lines at a level are printed, before sampling.
+     *
+     * @param l the level
+     * @return true if enabled
+     */
+    public boolean enabled(Level l)
+    {
+        Level min = level;
+        return l.compareTo(min != null ? min : defaultLevel) >= 0 && l != Level.OFF;
+    }
+
+    /**
+     * Logs a line at DEBUG. The same three forms exist for INFO, WARN and ERROR.
+     *
+     * @param msg the message, with one {@code {}} per argument
+     * @param arg replaces the first {@code {}}; rendered only if the line is kept
+     */
+    public void debug(String msg, Object arg) { log(Level.DEBUG, msg, arg, null, 1); }
+    public void debug(String msg) { log(Level.DEBUG, msg, null, null, 0); }
+    public void debug(String msg, Object a, Object b) { log(Level.DEBUG, msg, a, b, 2); }
+
+    public void info(String msg) { log(Level.INFO, msg, null, null, 0); }
+    public void info(String msg, Object arg) { log(Level.INFO, msg, arg, null, 1); }
+    public void info(String msg, Object a, Object b) { log(Level.INFO, msg, a, b, 2); }
+
+    public void warn(String msg) { log(Level.WARN, msg, null, null, 0); }
+    public void warn(String msg, Object arg) { log(Level.WARN, msg, arg, null, 1); }
+    public void warn(String msg, Object a, Object b) { log(Level.WARN, msg, a, b, 2); }
+
+    public void error(String msg) { log(Level.ERROR, msg, null, null, 0); }
+    public void error(String msg, Object arg) { log(Level.ERROR, msg, arg, null, 1); }
+    public void error(String msg, Object a, Object b) { log(Level.ERROR, msg, a, b, 2); }
+
+    private void log(Level l, String msg, Object a, Object b, int args)
+    {
+        if (!enabled(l)) return;
+        int every = sampleEvery;
+        if (every > 1 && l.compareTo(Level.WARN) < 0 && ThreadLocalRandom.current().nextInt(every) != 0) return;
+        String text = format(msg, a, b, args, maxPayload);
+        if (!QUEUE.offer(new Line(System.currentTimeMillis(), l, name, text))) DROPPED.incrementAndGet();
+    }
+
+    /** Replaces the first {@code args} "{}" in {@code msg}, each argument cut to {@code max} characters. */
+    private static String format(String msg, Object a, Object b, int args, int max)
+    {
+        if (args == 0) return msg;
+        StringBuilder sb = new StringBuilder(msg.length() + 64);
+        int from = 0;
+        for (int i = 0; i < args; i++)
+        {
+            int at = msg.indexOf("{}", from);
+            if (at < 0) break;
+            sb.append(msg, from, at);
+            String s = String.valueOf(i == 0 ? a : b);
+            if (s.length() <= max) sb.append(s);
+            else sb.append(s, 0, max).append("...(").append(s.length()).append(" chars)");
+            from = at + 2;
+        }
+        return sb.append(msg, from, msg.length()).toString();
+    }
+
+    /**
+     * Prints every queued line now, on the calling thread; used at shutdown.
+     */
+    public static void flush()
+    {
+        List<Line> batch = new ArrayList<>(BATCH);
+        synchronized (WRITE_LOCK)
+        {
+            while (QUEUE.drainTo(batch, BATCH) > 0)
+            {
+                print(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private static void writeLoop()
+    {
+        List<Line> batch = new ArrayList<>(BATCH);
+        while (true)
+        {
+            try
+            {
+                Line first = QUEUE.take();
+                synchronized (WRITE_LOCK)
+                {
+                    batch.add(first);
+                    QUEUE.drainTo(batch, BATCH - 1);
+                    print(batch);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            catch (RuntimeException e)
+            {
+                // keep the writer alive; a broken stream must not stop logging for good
+            }
+            batch.clear();
+        }
+    }
+
+    /** Prints a batch with one write per stream; called with the write lock held. */
+    private static void print(List<Line> batch)
+    {
+        StringBuilder out = new StringBuilder();
+        StringBuilder err = new StringBuilder();
+        long dropped = DROPPED.getAndSet(0);
+        if (dropped > 0)
+        {
+            err.append(TIME.format(Instant.now())).append(" WARN  log ")
+                    .append(dropped).append(" lines dropped, queue full").append('\n');
+        }
+        for (Line l : batch)
+        {
+            StringBuilder sb = l.level().compareTo(Level.WARN) >= 0 ? err : out;
+            sb.append(TIME.format(Instant.ofEpochMilli(l.millis()))).append(' ');
+            sb.append(l.level()).append(l.level().name().length() == 4 ? "  " : " ");
+            sb.append(l.logger()).append(' ').append(l.text()).append('\n');
+        }
+        write(System.out, out);
+        write(System.err, err);
+    }
+
+    private static void write(PrintStream stream, StringBuilder text)
+    {
+        if (text.isEmpty()) return;
+        stream.print(text);
+        stream.flush();
+    }
+
+    private static Level parseLevel(Object value)
+    {
+        return Level.valueOf(String.valueOf(value).trim().toUpperCase(Locale.ROOT));
+    }
+}
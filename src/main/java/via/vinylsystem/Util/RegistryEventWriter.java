@@ -0,0 +1,185 @@
+package via.vinylsystem.Util;
+
+import via.vinylsystem.Model.RegistryEvent;
+
+import java.time.Instant;
+
+/**
+ * Serializes {@link RegistryEvent}s to JSON without intermediate objects.
+ * <p>
+ * The output is byte for byte what {@code new Gson().toJson(event)} wrote before,
+ * so existing audit files and tools keep working: the same fields in the same order,
+ * and strings escaped like Gson's default HTML-safe writer, which also writes
+ * {@code < > & = '} as Unicode escapes. {@link AuditQuery} builds its search
+ * fragments with {@link #quote}, so both sides always agree on the escaping. The ISO
+ * timestamp is rendered at serialization time from a prefix cached per second, so
+ * events never carry a pre-rendered timestamp string.
+ * </p>
+ * <p>
+ * Instances are not thread-safe; each writer owns one.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public class RegistryEventWriter
+{
+    private final StringBuilder sb = new StringBuilder(256);
+    private byte[] bytes = new byte[768];
+
+    private long cachedSecond = Long.MIN_VALUE;
+    private String cachedSecondPrefix;
+
+    /**
+     * Serializes an event as one UTF-8 JSON line, newline included, into the internal buffer.
+     *
+     * @param e the event to serialize
+     * @return the number of bytes available through {@link #bytes()}
+     */
+    public int write(RegistryEvent e)
+    {
+        sb.setLength(0);
+        sb.append("{\"tsMillis\":").append(e.getTsMillis());
+        sb.append(",\"ts\":\"");
+        appendTimestamp(e.getTsMillis());
+        sb.append('"');
+        if (e.getType() != null) sb.append(",\"type\":\"").append(e.getType().name()).append('"');
+        string("name", e.getName());
+        string("ip", e.getIp());
+        if (e.hasTtl()) sb.append(",\"ttlSec\":").append(e.ttlSecValue());
+        if (e.getOrigin() != null) sb.append(",\"origin\":\"").append(e.getOrigin().name()).append('"');
+        string("details", e.getDetails());
+        sb.append('}');
+
+        sb.append('\n');
+        return encode();
+    }
+
+    /**
+     * Returns a string as it appears quoted in an audit record.
+     *
+     * @param value the string to quote
+     * @return the JSON string literal, quotes included
+     */
+    static String quote(String value)
+    {
+        StringBuilder out = new StringBuilder(value.length() + 2);
+        appendQuoted(out, value);
+        return out.toString();
+    }
+
+    /**
+     * Returns the buffer filled by the last {@link #write} call.
+     *
+     * @return the internal byte buffer; only the first {@code write(..)} bytes are valid
+     */
+    public byte[] bytes()
+    {
+        return bytes;
+    }
+
+    /** UTF-8 encodes the line into the reusable byte buffer (a charset encoder would wrap a new buffer each call). */
+    private int encode()
+    {
+        int len = sb.length();
+        if (bytes.length < len * 3) bytes = new byte[Math.max(len * 3, bytes.length * 2)];
+        int n = 0;
+        for (int i = 0; i < len; i++)
+        {
+            char c = sb.charAt(i);
+            if (c < 0x80)
+            {
+                bytes[n++] = (byte) c;
+            }
+            else if (c < 0x800)
+            {
+                bytes[n++] = (byte) (0xC0 | (c >> 6));
+                bytes[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(sb.charAt(i + 1)))
+            {
+                int cp = Character.toCodePoint(c, sb.charAt(++i));
+                bytes[n++] = (byte) (0xF0 | (cp >> 18));
+                bytes[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                bytes[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                bytes[n++] = (byte) (0x80 | (cp & 0x3F));
+            }
+            else if (Character.isSurrogate(c))
+            {
+                bytes[n++] = '?'; // unpaired surrogate, replaced like the UTF-8 encoder does
+            }
+            else
+            {
+                bytes[n++] = (byte) (0xE0 | (c >> 12));
+                bytes[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Appends the ISO-8601 text of a timestamp, identical to {@link Instant#toString()}.
+     * Only the date and time-of-day prefix is cached, once per second; the milliseconds
+     * are written as digits so no String is created per event.
+     *
+     * @param millis milliseconds since epoch
+     */
+    private void appendTimestamp(long millis)
+    {
+        long second = Math.floorDiv(millis, 1000L);
+        int ms = (int) Math.floorMod(millis, 1000L);
+        if (second != cachedSecond)
+        {
+            String whole = Instant.ofEpochSecond(second).toString();
+            cachedSecond = second;
+            cachedSecondPrefix = whole.substring(0, whole.length() - 1);
+        }
+        sb.append(cachedSecondPrefix);
+        // Instant.toString prints no fraction for whole seconds and three digits otherwise
+        if (ms != 0)
+        {
+            sb.append('.').append((char) ('0' + ms / 100)).append((char) ('0' + ms / 10 % 10)).append((char) ('0' + ms % 10));
+        }
+        sb.append('Z');
+    }
+
+    private void string(String field, String value)
+    {
+        if (value == null) return;
+        sb.append(",\"").append(field).append("\":");
+        appendQuoted(sb, value);
+    }
+
+    /** Same escapes as Gson's HTML-safe JsonWriter, the writer {@code Gson.toJson} uses. */
+    private static void appendQuoted(StringBuilder out, String value)
+    {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\t' -> out.append("\\t");
+                case '\b' -> out.append("\\b");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\f' -> out.append("\\f");
+                case '<', '>', '&', '=', '\'', '\u2028', '\u2029' -> unicodeEscape(out, c);
+                default -> {
+                    if (c < 0x20) unicodeEscape(out, c);
+                    else out.append(c);
+                }
+            }
+        }
+        out.append('"');
+    }
+
+    private static void unicodeEscape(StringBuilder out, char c)
+    {
+        out.append("\\u");
+        for (int shift = 12; shift >= 0; shift -= 4) out.append(Character.forDigit((c >> shift) & 0xF, 16));
+    }
+}
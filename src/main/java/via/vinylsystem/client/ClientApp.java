@@ -1,5 +1,10 @@
 package via.vinylsystem.client;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import via.vinylsystem.Model.Track;
+
+import java.util.List;
 import java.util.Locale;
 import java.util.Scanner;
 
@@ -13,9 +18,11 @@ import java.util.Scanner;
  * Supported commands:
  * <ul>
  *   <li>CONNECT [name] - Resolves the server via the directory and opens a TCP connection</li>
- *   <li>LIST - Lists all tracks available on the connected server</li>
+ *   <li>LIST [STREAM | &lt;limit&gt; [cursor]] - Lists all tracks, streams them, or shows one page</li>
  *   <li>SEARCH &lt;q&gt; - Searches for tracks matching the query string</li>
  *   <li>GET &lt;id&gt; - Retrieves a track by its ID</li>
+ *   <li>QUERY &lt;json&gt; - Finds tracks matching a query, e.g. {"ARTIST":"Medina","YEAR":{"FROM":2005,"TO":2014}}</li>
+ *   <li>COMPRESS - Asks the server to compress responses on this connection</li>
  *   <li>CLOSE - Closes the TCP connection</li>
  *   <li>QUIT / EXIT - Exits the client application</li>
  *   <li>HELP - Prints this command list</li>
@@ -68,7 +75,7 @@ public class ClientApp {
         VinylServerClient conn = null;
 
         System.out.println("Vinyl client");
-        System.out.println("Commands: CONNECT [name] | LIST | SEARCH <q> | GET <id> | CLOSE | QUIT | HELP");
+        System.out.println("Commands: CONNECT [name] | LIST [STREAM | <limit> [cursor]] | SEARCH <q> | FUZZY <q> | SUGGEST <prefix> | GET <id> | MGET <id>... | QUERY <json> | ADD <json> | UPDATE <json> | DELETE <id> | CHANGES <version> | STATS | COMPRESS | CLOSE | QUIT | HELP");
 
         while (true) {
             System.out.print("\n> ");
@@ -84,8 +91,20 @@ public class ClientApp {
                     case "HELP" -> {
                         System.out.println("CONNECT [name]  – resolve via directory and open TCP");
                         System.out.println("LIST            – list tracks");
+                        System.out.println("LIST STREAM     – stream tracks one by one");
+                        System.out.println("LIST <n> [cur]  – list one page of n tracks");
                         System.out.println("SEARCH <q>      – search tracks");
+                        System.out.println("FUZZY <q>       – search tracks, tolerating typos");
+                        System.out.println("SUGGEST <prefix> – complete an artist or title");
                         System.out.println("GET <id>        – get one track");
+                        System.out.println("MGET <id>...    – get several tracks at once");
+                        System.out.println("QUERY <json>    – e.g. {\"ARTIST\":\"Medina\",\"YEAR\":{\"FROM\":2005,\"TO\":2014}}");
+                        System.out.println("ADD <json>      – e.g. {\"id\":\"T100\",\"artist\":\"Medina\",\"title\":\"Vi to\",\"year\":2008}");
+                        System.out.println("UPDATE <json>   – replace the track with the same id");
+                        System.out.println("DELETE <id>     – remove one track");
+                        System.out.println("CHANGES <v>     – tracks changed since catalog version v");
+                        System.out.println("STATS           – server latencies and counters");
+                        System.out.println("COMPRESS        – compressed responses on this connection");
                         System.out.println("CLOSE           – close TCP connection");
                         System.out.println("QUIT            – exit client");
                     }
@@ -105,7 +124,15 @@ public class ClientApp {
 
                     case "LIST" -> {
                         ensureConnected(conn);
-                        System.out.println(conn.list());
+                        String[] opts = arg.isBlank() ? new String[0] : arg.split("\\s+");
+                        if (opts.length == 0) {
+                            System.out.println(conn.list());
+                        } else if ("STREAM".equalsIgnoreCase(opts[0])) {
+                            long n = conn.listStream(System.out::println);
+                            System.out.println("(" + n + " tracks)");
+                        } else {
+                            System.out.println(conn.listPage(Integer.parseInt(opts[0]), opts.length > 1 ? opts[1] : null));
+                        }
                     }
 
                     case "SEARCH" -> {
@@ -118,6 +145,21 @@ public class ClientApp {
                         System.out.println(conn.search(q));
                     }
 
+                    case "FUZZY" -> {
+                        ensureConnected(conn);
+                        System.out.println(conn.fuzzySearch(arg, 20));
+                    }
+
+                    case "SUGGEST" -> {
+                        ensureConnected(conn);
+                        System.out.println(conn.suggest(arg, 10));
+                    }
+
+                    case "MGET" -> {
+                        ensureConnected(conn);
+                        System.out.println(conn.mget(List.of(arg.split("[\\s,]+"))));
+                    }
+
                     case "GET" -> {
                         ensureConnected(conn);
                         String id = arg;
@@ -128,6 +170,38 @@ public class ClientApp {
                         System.out.println(conn.get(id));
                     }
 
+                    case "COMPRESS" -> {
+                        ensureConnected(conn);
+                        conn.compress();
+                        System.out.println("Compression on.");
+                    }
+
+                    case "QUERY" -> {
+                        ensureConnected(conn);
+                        System.out.println(conn.query(JsonParser.parseString(arg).getAsJsonObject(), 1000));
+                    }
+
+                    case "ADD", "UPDATE" -> {
+                        ensureConnected(conn);
+                        Track t = new Gson().fromJson(arg, Track.class);
+                        System.out.println("ADD".equals(cmd) ? conn.add(t) : conn.update(t));
+                    }
+
+                    case "DELETE" -> {
+                        ensureConnected(conn);
+                        System.out.println(conn.delete(arg));
+                    }
+
+                    case "CHANGES" -> {
+                        ensureConnected(conn);
+                        System.out.println(conn.changes(Long.parseLong(arg.trim())));
+                    }
+
+                    case "STATS" -> {
+                        ensureConnected(conn);
+                        System.out.println(conn.stats());
+                    }
+
                     case "CLOSE" -> {
                         if (conn != null) { conn.close(); conn = null; System.out.println("TCP closed."); }
                         else System.out.println("(not connected)");
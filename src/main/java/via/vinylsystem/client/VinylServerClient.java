@@ -1,12 +1,26 @@
 package via.vinylsystem.client;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import via.vinylsystem.Model.Track;
 
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * TCP client for interacting with a Vinyl catalog server.
@@ -20,11 +34,25 @@ import java.nio.charset.StandardCharsets;
  * <pre>
  * VinylServerClient client = new VinylServerClient("127.0.0.1", 7070);
  * JsonObject tracks = client.list();
+ * JsonObject page = client.listPage(100, null);
+ * client.listStream(track -> System.out.println(track));
  * JsonObject hits = client.search("Gilli");
  * String track = client.get("T001");
+ * CompletableFuture&lt;JsonObject&gt; a = client.getAsync("T002");
+ * CompletableFuture&lt;JsonObject&gt; b = client.searchAsync("Medina");
+ * client.compress(); // optional: compressed responses from here on
  * client.close();
  * </pre>
  * </p>
+ * <p>
+ * The {@code ...Async} methods tag each request with a request ID and return
+ * immediately, so one connection can have many requests in flight (up to
+ * {@link #MAX_IN_FLIGHT}; further calls wait for a free slot). A background thread
+ * reads the responses, which may arrive in any order, and completes the matching
+ * future. Once the first async call has been made, the blocking methods go through
+ * the same path, and {@link #listStream(Consumer)} is no longer available. The async
+ * methods may be called from several threads at once.
+ * </p>
  *
  * <p>
  * All methods throw {@link IOException} in case of network errors or
@@ -39,12 +67,36 @@ public class VinylServerClient implements Closeable
     /** TCP socket for communication with the Vinyl server. */
     private final Socket sock;
 
-    /** Buffered reader for reading JSON responses from the server. */
-    private final BufferedReader in;
+    /** Stream of JSON responses (lines or compressed frames) from the server, read through {@link #rbuf}. */
+    private final InputStream in;
+
+    /** Read buffer over {@link #in}, with the next unread byte at rpos and the end of data at rlim. */
+    private final byte[] rbuf = new byte[64 * 1024];
+    private int rpos, rlim;
 
     /** Buffered writer for sending JSON requests to the server. */
     private final BufferedWriter out;
 
+    /** Requests a connection may have in flight; matches the server's limit. */
+    public static final int MAX_IN_FLIGHT = 256;
+
+    /** Futures of tagged requests still waiting for a response, by request ID. */
+    private final Map<Long, CompletableFuture<JsonObject>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextRid = new AtomicLong(1);
+    private final Semaphore slots = new Semaphore(MAX_IN_FLIGHT);
+
+    /** Reads tagged responses; started by the first async call. */
+    private volatile Thread reader;
+
+    /** Why the reader stopped, once the connection has closed. */
+    private volatile IOException closedBy;
+
+    /** Decompresses response frames once {@link #compress()} has been called; null in plain mode. */
+    private Inflater inflater;
+
+    /** Reusable buffer holding the bytes of the response line being read. */
+    private byte[] lineBuf = new byte[8192];
+
     /**
      * Constructs a new TCP client connected to the specified Vinyl server.
      *
@@ -56,8 +108,7 @@ public class VinylServerClient implements Closeable
     {
         this.sock = new Socket();
         this.sock.connect(new InetSocketAddress(ip, port), 2000);
-        this.in = new BufferedReader(new InputStreamReader(sock.getInputStream(),
-                StandardCharsets.UTF_8));
+        this.in = sock.getInputStream();
         this.out = new BufferedWriter(new OutputStreamWriter(sock.getOutputStream(), StandardCharsets.UTF_8));
     }
 
@@ -70,14 +121,140 @@ public class VinylServerClient implements Closeable
      */
     private JsonObject send(JsonObject msg) throws IOException
     {
+        if (reader != null) return await(sendAsync(msg));
         out.write(msg.toString());
         out.write("\n");
         out.flush();
-        String line = in.readLine();
+        String line = readLine();
         if(line == null) throw new EOFException("Server closed");
         return JsonParser.parseString(line).getAsJsonObject();
     }
 
+    /**
+     * Asks the server to compress every following response.
+     * <p>
+     * Worth it on slow links: LIST and broad SEARCH responses shrink to a fraction of
+     * their size. Must be called before the first async request.
+     * </p>
+     *
+     * @throws IOException if a network error occurs or the server refuses
+     * @throws IllegalStateException if async requests have already been sent
+     */
+    public void compress() throws IOException
+    {
+        if (reader != null) throw new IllegalStateException("compress() must be called before async requests");
+        if (inflater != null) return;
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "COMPRESS");
+        q.addProperty("MODE", "DEFLATE");
+        JsonObject resp = send(q);
+        String status = resp.has("STATUS") ? resp.get("STATUS").getAsString() : "??????";
+        if (!"000000".equals(status)) throw new IOException("Server STATUS=" + status + " for COMPRESS");
+        inflater = new Inflater(true);
+    }
+
+    /**
+     * Reads one response line: a plain UTF-8 line, or one frame in compressed mode
+     * (4-byte length, then raw DEFLATE data if positive or the plain line if negative).
+     *
+     * @return the line without its newline, or {@code null} at end of stream
+     * @throws IOException if the connection fails or a frame is corrupt
+     */
+    private String readLine() throws IOException
+    {
+        int len = 0;
+        if (inflater == null)
+        {
+            while (true)
+            {
+                if (rpos == rlim && !fill())
+                {
+                    if (len == 0) return null;
+                    break;
+                }
+                int i = rpos;
+                while (i < rlim && rbuf[i] != '\n') i++;
+                len = append(len, rbuf, rpos, i - rpos);
+                if (i < rlim)
+                {
+                    rpos = i + 1;
+                    break;
+                }
+                rpos = rlim;
+            }
+        }
+        else
+        {
+            byte[] header = new byte[4];
+            if (!readFully(header, 4)) return null;
+            int n = ((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16) | ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+            byte[] frame = new byte[Math.abs(n)];
+            if (!readFully(frame, frame.length)) throw new EOFException("Truncated frame");
+            if (n < 0)
+            {
+                len = append(0, frame, 0, frame.length);
+            }
+            else
+            {
+                inflater.reset();
+                inflater.setInput(frame);
+                try
+                {
+                    while (!inflater.finished())
+                    {
+                        if (len == lineBuf.length) lineBuf = Arrays.copyOf(lineBuf, len * 2);
+                        int r = inflater.inflate(lineBuf, len, lineBuf.length - len);
+                        if (r == 0 && inflater.needsInput()) throw new IOException("Truncated compressed frame");
+                        len += r;
+                    }
+                }
+                catch (DataFormatException e)
+                {
+                    throw new IOException("Corrupt compressed frame: " + e.getMessage(), e);
+                }
+            }
+            if (len > 0 && lineBuf[len - 1] == '\n') len--;
+        }
+        if (len > 0 && lineBuf[len - 1] == '\r') len--;
+        return new String(lineBuf, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /** Appends bytes to {@link #lineBuf} at {@code len} and returns the new length. */
+    private int append(int len, byte[] src, int off, int n)
+    {
+        if (len + n > lineBuf.length) lineBuf = Arrays.copyOf(lineBuf, Math.max(len + n, lineBuf.length * 2));
+        System.arraycopy(src, off, lineBuf, len, n);
+        return len + n;
+    }
+
+    /** Refills {@link #rbuf}; returns false at end of stream. */
+    private boolean fill() throws IOException
+    {
+        int n = in.read(rbuf);
+        rpos = 0;
+        rlim = Math.max(0, n);
+        return n > 0;
+    }
+
+    /** Reads exactly {@code n} bytes; returns false if the stream ends before the first byte. */
+    private boolean readFully(byte[] dst, int n) throws IOException
+    {
+        int got = 0;
+        while (got < n)
+        {
+            if (rpos == rlim && !fill())
+            {
+                if (got == 0) return false;
+                throw new EOFException("Server closed mid-frame");
+            }
+            int k = Math.min(n - got, rlim - rpos);
+            System.arraycopy(rbuf, rpos, dst, got, k);
+            rpos += k;
+            got += k;
+        }
+        return true;
+    }
+
     /**
      * Requests the full list of tracks from the server.
      *
@@ -91,6 +268,68 @@ public class VinylServerClient implements Closeable
         return send(q);
     }
 
+    /**
+     * Requests one page of tracks from the server.
+     * <p>
+     * The response holds at most {@code limit} tracks under {@code TRACKS} and, unless
+     * this is the last page, the cursor for the next page under {@code NEXT}.
+     * </p>
+     *
+     * @param limit the maximum number of tracks in the page
+     * @param cursor the {@code NEXT} value of the previous page, or {@code null} for the first page
+     * @param fields the track fields to return, e.g. "id" and "title"; none for all
+     * @return a {@link JsonObject} containing the page
+     * @throws IOException if a network error occurs
+     */
+    public JsonObject listPage(int limit, String cursor, String... fields) throws IOException
+    {
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "LIST");
+        q.addProperty("LIMIT", limit);
+        if (cursor != null) q.addProperty("CURSOR", cursor);
+        addFields(q, fields);
+        return send(q);
+    }
+
+    /**
+     * Streams the full track list from the server.
+     * <p>
+     * The server sends the tracks in chunks, one line per chunk, so only one chunk
+     * is held in memory at a time. Each track is handed to {@code onTrack} as soon
+     * as its chunk arrives.
+     * </p>
+     *
+     * @param onTrack receives every track in catalog order
+     * @return the number of tracks the server reported
+     * @throws IOException if a network error occurs or the server reports an error
+     */
+    public long listStream(Consumer<JsonObject> onTrack) throws IOException
+    {
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "LIST");
+        q.addProperty("STREAM", true);
+        if (reader != null) throw new IllegalStateException("LIST STREAM is not available once async requests are used");
+        out.write(q.toString());
+        out.write("\n");
+        out.flush();
+        while (true)
+        {
+            String line = readLine();
+            if (line == null) throw new EOFException("Server closed");
+            JsonObject frame = JsonParser.parseString(line).getAsJsonObject();
+            if (frame.has("TRACKS"))
+            {
+                for (JsonElement t : frame.getAsJsonArray("TRACKS")) onTrack.accept(t.getAsJsonObject());
+            }
+            if (frame.has("STATUS"))
+            {
+                String status = frame.get("STATUS").getAsString();
+                if (!"000000".equals(status)) throw new IOException("Server STATUS=" + status);
+                return frame.has("COUNT") ? frame.get("COUNT").getAsLong() : 0;
+            }
+        }
+    }
+
     /**
      * Searches for tracks on the server by a query string.
      *
@@ -106,21 +345,392 @@ public class VinylServerClient implements Closeable
         return send(q);
     }
 
+    /**
+     * Searches for the best matching tracks, ranked by relevance.
+     * <p>
+     * The response holds at most {@code limit} tracks under {@code TRACKS}, best
+     * first, and the total number of matches under {@code TOTAL}.
+     * </p>
+     *
+     * @param qstr the search query (artist or title)
+     * @param limit the maximum number of tracks to return
+     * @param fields the track fields to return, e.g. "id" and "title"; none for all
+     * @return a {@link JsonObject} containing the best matching tracks
+     * @throws IOException if a network error occurs
+     */
+    public JsonObject search(String qstr, int limit, String... fields) throws IOException
+    {
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "SEARCH");
+        q.addProperty("Q", qstr);
+        q.addProperty("LIMIT", limit);
+        addFields(q, fields);
+        return send(q);
+    }
+
+    /**
+     * Searches for tracks tolerating typos, e.g. "medna" finds Medina; every word of
+     * the query must be close to a word of the artist or title.
+     *
+     * @param qstr the search words
+     * @param limit the maximum number of tracks to return
+     * @return a {@link JsonObject} with the best matches under {@code TRACKS}, best first
+     * @throws IOException if a network error occurs
+     */
+    public JsonObject fuzzySearch(String qstr, int limit) throws IOException
+    {
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "SEARCH");
+        q.addProperty("Q", qstr);
+        q.addProperty("LIMIT", limit);
+        q.addProperty("FUZZY", true);
+        return send(q);
+    }
+
+    /**
+     * Completes a typed prefix to the artists and titles with the most tracks, for
+     * search-as-you-type.
+     *
+     * @param prefix what the user has typed so far
+     * @param limit the maximum number of completions, at most 100
+     * @return a {@link JsonObject} with {@code SUGGESTIONS}, each with TEXT, TYPE (ARTIST or TITLE) and TRACKS
+     * @throws IOException if a network error occurs
+     */
+    public JsonObject suggest(String prefix, int limit) throws IOException
+    {
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "SUGGEST");
+        q.addProperty("PREFIX", prefix);
+        q.addProperty("LIMIT", limit);
+        return send(q);
+    }
+
+    /**
+     * Finds tracks matching field predicates, e.g.
+     * {"ARTIST":"Medina","YEAR":{"FROM":2005,"TO":2014}}. See the server's
+     * {@code CatalogQuery} for the full syntax.
+     *
+     * @param where the query
+     * @param limit the maximum number of tracks to return
+     * @return a {@link JsonObject} with the matching tracks under {@code TRACKS} and their count under {@code TOTAL}
+     * @throws IOException if a network error occurs
+     */
+    public JsonObject query(JsonObject where, int limit) throws IOException
+    {
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "QUERY");
+        q.add("WHERE", where);
+        q.addProperty("LIMIT", limit);
+        return send(q);
+    }
+
     /**
      * Retrieves a specific track by its ID.
      *
      * @param id the track ID
+     * @param fields the track fields to return, e.g. "id" and "title"; none for all
      * @return a JSON string representing the track
      * @throws IOException if a network error occurs
      */
-    public String get(String id) throws IOException
+    public String get(String id, String... fields) throws IOException
     {
         JsonObject q = new JsonObject();
         q.addProperty("CMD", "GET");
         q.addProperty("ID", id);
+        addFields(q, fields);
         return send(q).toString();
     }
 
+    /**
+     * Retrieves many tracks by ID in one round trip.
+     * <p>
+     * The response holds the tracks found under {@code TRACKS}, in the order of
+     * {@code ids}, and the IDs not in the catalog under {@code MISSING}.
+     * </p>
+     *
+     * @param ids the track IDs, at most 10,000
+     * @param fields the track fields to return, e.g. "id" and "title"; none for all
+     * @return a {@link JsonObject} with the tracks
+     * @throws IOException if a network error occurs
+     */
+    public JsonObject mget(List<String> ids, String... fields) throws IOException
+    {
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "MGET");
+        JsonArray a = new JsonArray(ids.size());
+        for (String id : ids) a.add(id);
+        q.add("IDS", a);
+        addFields(q, fields);
+        return send(q);
+    }
+
+    /** Adds the FIELDS projection to a request, unless all fields are wanted. */
+    private static void addFields(JsonObject q, String[] fields)
+    {
+        if (fields.length == 0) return;
+        JsonArray a = new JsonArray(fields.length);
+        for (String f : fields) a.add(f);
+        q.add("FIELDS", a);
+    }
+
+    /**
+     * Adds a track to the server's catalog.
+     *
+     * @param track the new track; its ID must not be in use
+     * @return a {@link JsonObject} with the new catalog version under {@code VERSION}
+     * @throws IOException if a network error occurs
+     */
+    public JsonObject add(Track track) throws IOException
+    {
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "ADD");
+        q.add("TRACK", toJson(track));
+        return send(q);
+    }
+
+    /**
+     * Replaces the artist, title and year of the track with the same ID.
+     *
+     * @param track the new content
+     * @return a {@link JsonObject} with the new catalog version under {@code VERSION}
+     * @throws IOException if a network error occurs
+     */
+    public JsonObject update(Track track) throws IOException
+    {
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "UPDATE");
+        q.add("TRACK", toJson(track));
+        return send(q);
+    }
+
+    /**
+     * Removes a track from the server's catalog.
+     *
+     * @param id the track ID
+     * @return a {@link JsonObject} with the new catalog version under {@code VERSION}
+     * @throws IOException if a network error occurs
+     */
+    public JsonObject delete(String id) throws IOException
+    {
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "DELETE");
+        q.addProperty("ID", id);
+        return send(q);
+    }
+
+    /**
+     * Fetches the catalog changes made after a version, to update a local copy.
+     * <p>
+     * The response holds the current catalog version under {@code VERSION}. Unless it
+     * has {@code RESYNC} set, it also holds every track added or updated since under
+     * {@code UPSERTS} and the IDs of the deleted ones under {@code DELETES}. With
+     * {@code RESYNC} the server no longer knows the changes since {@code version}, and
+     * the catalog has to be listed again; every LIST response carries its version.
+     * </p>
+     *
+     * @param version the version of the local copy, from LIST or an earlier call
+     * @return a {@link JsonObject} with the changes
+     * @throws IOException if a network error occurs
+     */
+    public JsonObject changes(long version) throws IOException
+    {
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "CHANGES");
+        q.addProperty("SINCE", version);
+        return send(q);
+    }
+
+    /**
+     * Requests the server's statistics: latency percentiles per command, session,
+     * traffic and error counters, and search cache counters.
+     *
+     * @return a {@link JsonObject} with the statistics under {@code STATS}
+     * @throws IOException if a network error occurs
+     */
+    public JsonObject stats() throws IOException
+    {
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "STATS");
+        return send(q);
+    }
+
+    private static JsonObject toJson(Track track)
+    {
+        JsonObject t = new JsonObject();
+        t.addProperty("id", track.getId());
+        t.addProperty("artist", track.getArtist());
+        t.addProperty("title", track.getTitle());
+        t.addProperty("year", track.getYear());
+        return t;
+    }
+
+    /**
+     * Requests the full list of tracks without waiting for the response.
+     *
+     * @return a future completed with the response
+     */
+    public CompletableFuture<JsonObject> listAsync()
+    {
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "LIST");
+        return sendAsync(q);
+    }
+
+    /**
+     * Requests one page of tracks without waiting for the response.
+     *
+     * @param limit the maximum number of tracks in the page
+     * @param cursor the {@code NEXT} value of the previous page, or {@code null} for the first page
+     * @return a future completed with the page
+     */
+    public CompletableFuture<JsonObject> listPageAsync(int limit, String cursor)
+    {
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "LIST");
+        q.addProperty("LIMIT", limit);
+        if (cursor != null) q.addProperty("CURSOR", cursor);
+        return sendAsync(q);
+    }
+
+    /**
+     * Searches for tracks without waiting for the response.
+     *
+     * @param qstr the search query (artist or title)
+     * @return a future completed with the matching tracks
+     */
+    public CompletableFuture<JsonObject> searchAsync(String qstr)
+    {
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "SEARCH");
+        q.addProperty("Q", qstr);
+        return sendAsync(q);
+    }
+
+    /**
+     * Retrieves a track by its ID without waiting for the response.
+     *
+     * @param id the track ID
+     * @return a future completed with the response ({@code TRACK} on success)
+     */
+    public CompletableFuture<JsonObject> getAsync(String id)
+    {
+        JsonObject q = new JsonObject();
+        q.addProperty("CMD", "GET");
+        q.addProperty("ID", id);
+        return sendAsync(q);
+    }
+
+    /**
+     * Tags a request with a fresh request ID and sends it.
+     * <p>
+     * Blocks only while {@link #MAX_IN_FLIGHT} requests are already waiting for a
+     * response. The returned future fails if the request cannot be sent or the
+     * connection closes before the response arrives.
+     * </p>
+     *
+     * @param msg the request to send; a {@code RID} property is added to it
+     * @return a future completed with the response
+     */
+    private CompletableFuture<JsonObject> sendAsync(JsonObject msg)
+    {
+        startReader();
+        CompletableFuture<JsonObject> f = new CompletableFuture<>();
+        try
+        {
+            slots.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            f.completeExceptionally(e);
+            return f;
+        }
+        f.whenComplete((r, e) -> slots.release());
+
+        long rid = nextRid.getAndIncrement();
+        msg.addProperty("RID", rid);
+        pending.put(rid, f);
+        IOException closed = closedBy;
+        if (closed != null && pending.remove(rid) != null)
+        {
+            f.completeExceptionally(closed);
+            return f;
+        }
+        try
+        {
+            synchronized (out)
+            {
+                out.write(msg.toString());
+                out.write("\n");
+                out.flush();
+            }
+        }
+        catch (IOException e)
+        {
+            pending.remove(rid);
+            f.completeExceptionally(e);
+        }
+        return f;
+    }
+
+    private synchronized void startReader()
+    {
+        if (reader != null) return;
+        Thread t = new Thread(this::readLoop, "vinyl-client-reader");
+        t.setDaemon(true);
+        reader = t;
+        t.start();
+    }
+
+    /** Completes the pending future of each tagged response until the connection closes. */
+    private void readLoop()
+    {
+        IOException failure = new EOFException("Server closed");
+        try
+        {
+            String line;
+            while ((line = readLine()) != null)
+            {
+                JsonObject resp = JsonParser.parseString(line).getAsJsonObject();
+                JsonElement rid = resp.remove("RID");
+                CompletableFuture<JsonObject> f = rid == null ? null : pending.remove(rid.getAsLong());
+                if (f != null) f.complete(resp);
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+        catch (RuntimeException e)
+        {
+            failure = new IOException("Malformed response: " + e.getMessage(), e);
+        }
+        closedBy = failure;
+        for (Long rid : pending.keySet())
+        {
+            CompletableFuture<JsonObject> f = pending.remove(rid);
+            if (f != null) f.completeExceptionally(failure);
+        }
+    }
+
+    private static JsonObject await(CompletableFuture<JsonObject> f) throws IOException
+    {
+        try
+        {
+            return f.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the server");
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException(e.getCause());
+        }
+    }
+
     /**
      * Closes the TCP connection to the Vinyl server.
      *
@@ -0,0 +1,111 @@
+package via.vinylsystem.directory;
+
+import via.vinylsystem.Util.AuditQuery;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Command-line tool for investigating the directory audit log.
+ * <p>
+ * Builds (or refreshes) the sparse index of every given audit segment and prints
+ * the matching records as JSON lines on standard output. Segments can be given as
+ * files or as directories, in which case every {@code *.jsonl} file in the directory
+ * is searched. Without segment arguments {@code ./directory-audit.jsonl} is used.
+ * </p>
+ * <p>
+ * Options:
+ * <ul>
+ *   <li>--name NAME - only records for this service name</li>
+ *   <li>--ip IP - only records for this IPv4 address</li>
+ *   <li>--type TYPE - only records of this event type (REGISTER, LOOKUP, ...)</li>
+ *   <li>--from TIME - records at or after TIME (ISO-8601 instant or epoch millis)</li>
+ *   <li>--to TIME - records before TIME (ISO-8601 instant or epoch millis)</li>
+ *   <li>--limit N - print at most N records</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ * java via.vinylsystem.directory.AuditQueryMain --name Happy_music.group3.pro2 \
+ *      --type LOOKUP --from 2025-10-09T19:00:00Z --to 2025-10-09T20:00:00Z
+ * </pre>
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public class AuditQueryMain
+{
+    /**
+     * Parses the options, runs the query and prints the matching records.
+     *
+     * @param args the query options followed by the segments to search
+     * @throws IOException if a segment cannot be read
+     */
+    public static void main(String[] args) throws IOException
+    {
+        AuditQuery query = new AuditQuery();
+        List<Path> segments = new ArrayList<>();
+        long limit = Long.MAX_VALUE;
+
+        for (int i = 0; i < args.length; i++)
+        {
+            String a = args[i];
+            switch (a)
+            {
+                case "--name" -> query.name(value(args, ++i, a));
+                case "--ip" -> query.ip(value(args, ++i, a));
+                case "--type" -> query.type(value(args, ++i, a).toUpperCase(Locale.ROOT));
+                case "--from" -> query.from(parseTime(value(args, ++i, a)));
+                case "--to" -> query.to(parseTime(value(args, ++i, a)));
+                case "--limit" -> limit = Long.parseLong(value(args, ++i, a));
+                default -> addSegments(segments, Path.of(a));
+            }
+        }
+        if (segments.isEmpty()) segments.add(Path.of("./directory-audit.jsonl"));
+
+        long started = System.nanoTime();
+        List<AuditQuery.Hit> hits = query.run(segments, Runtime.getRuntime().availableProcessors());
+        long printed = 0;
+        for (AuditQuery.Hit hit : hits)
+        {
+            if (printed++ >= limit) break;
+            System.out.println(hit.line());
+        }
+        System.err.printf("%d match(es) in %d segment(s), %d ms%n",
+                hits.size(), segments.size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private static String value(String[] args, int idx, String option)
+    {
+        if (idx >= args.length) throw new IllegalArgumentException("Missing value for " + option);
+        return args[idx];
+    }
+
+    private static long parseTime(String s)
+    {
+        return s.chars().allMatch(Character::isDigit) ? Long.parseLong(s) : Instant.parse(s).toEpochMilli();
+    }
+
+    private static void addSegments(List<Path> segments, Path p) throws IOException
+    {
+        if (!Files.isDirectory(p))
+        {
+            segments.add(p);
+            return;
+        }
+        try (Stream<Path> files = Files.list(p))
+        {
+            files.filter(f -> f.getFileName().toString().endsWith(".jsonl"))
+                 .sorted()
+                 .forEach(segments::add);
+        }
+    }
+}
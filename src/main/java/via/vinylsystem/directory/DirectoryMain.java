@@ -1,7 +1,9 @@
 package via.vinylsystem.directory;
 
+import via.vinylsystem.Util.AggregatingAuditLog;
 import via.vinylsystem.Util.AuditLog;
 import via.vinylsystem.Util.FileAuditLog;
+import via.vinylsystem.Util.Log;
 import via.vinylsystem.Util.yamlLoader;
 
 import java.io.IOException;
@@ -56,13 +58,18 @@ public class DirectoryMain
         } catch (Exception e) {
             throw new IOException("Failed to load YAML config: " + e.getMessage(), e);
         }
+        Log.configure((Map<?, ?>) config.get("logging"));
         Map<String, Object> serverConfig = (Map<String, Object>) config.get("server");
         int tcpPort = ((Number) serverConfig.getOrDefault("dir_tcp_port",5044)).intValue();
         int udpPort = ((Number) serverConfig.getOrDefault("dir_udp_port",4555)).intValue();
         long defaultTtlSec = ((Number) serverConfig.getOrDefault("ttl",3600)).longValue();
 
         Path auditPath = Path.of("./directory-audit.jsonl");
-        AuditLog audit = new FileAuditLog(auditPath);
+        Map<?, ?> auditConfig = (Map<?, ?>) config.get("audit");
+        long flushIntervalSec = auditConfig != null && auditConfig.get("flush_interval_sec") instanceof Number n
+                ? n.longValue() : 10;
+        AuditLog audit = new AggregatingAuditLog(new FileAuditLog(auditPath),
+                AggregatingAuditLog.modesFromConfig(auditConfig), flushIntervalSec, Clock.systemUTC());
 
         RegistryService registry = new RegistryService(defaultTtlSec, java.time.Clock.systemUTC(),audit);
 
@@ -84,6 +91,7 @@ public class DirectoryMain
             System.out.println("Shutting down Directory...");
             try{tcpServer.stop();} catch(Exception ignored) {};
             try{udpServer.stop();} catch(Exception ignored) {};
+            try{audit.close();} catch(Exception ignored) {};
             System.out.println("Directory stopped.");
         }));
 
@@ -2,6 +2,7 @@ package via.vinylsystem.directory;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
+import via.vinylsystem.Util.Log;
 
 import java.io.*;
 import java.net.ServerSocket;
@@ -37,6 +38,8 @@ public class DirectoryTCPServer
 {
     private int port;
     private static final Gson gson = new Gson();
+    private static final Log REQUESTS = Log.get("directory.request");
+    private static final Log LOG = Log.get("directory");
     private RegistryService registry;
     private ServerSocket serverSocket;
     private ExecutorService executor;
@@ -147,7 +150,7 @@ public class DirectoryTCPServer
             writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
 
             String line = readLineWithLimit(reader, MAX_LINE_LEN);
-            System.out.println("TCP IN  " + line);
+            REQUESTS.debug("TCP IN  {}", line);
             if (line == null) { sendstatus(writer, StatusCodes.UNKNOWN_CMD); return; }
 
             Map<String,String> req = tryParseJsonMap(line);
@@ -176,7 +179,7 @@ public class DirectoryTCPServer
         } catch (StatusExeption se) {
             safeSendStatus(writer, se.getCode());
         } catch (Exception e) {
-            System.err.println("DirectoryTCPServer error: " + e);
+            LOG.error("DirectoryTCPServer error: {}", e);
             safeSendStatus(writer, StatusCodes.SERVER_ERROR);
         } finally {
             closeSocketCon(socket);
@@ -3,7 +3,7 @@ package via.vinylsystem.directory;
 import java.io.Closeable;
 
 import via.vinylsystem.Model.Registration;
-import via.vinylsystem.Model.RegistryEvent;
+import via.vinylsystem.Model.RegistryEventOrigin;
 import via.vinylsystem.Model.RegistryEventType;
 import via.vinylsystem.Util.AuditLog;
 import via.vinylsystem.Util.JsonUtils;
@@ -162,7 +162,7 @@ public class DirectoryUDPServer
             if(req == null)
             {
                 sendJson(packet.getAddress(),packet.getPort(),Map.of("STATUS: ",StatusCodes.BAD_REQUEST));
-                if(audit != null) audit.append(new RegistryEvent(nowMs, RegistryEventType.INVALIDATE,null,null,null, "UDP", "bad json"));
+                if(audit != null) audit.append(audit.claim().set(nowMs, RegistryEventType.INVALIDATE, null, null, -1, RegistryEventOrigin.UDP, "bad json"));
                 return;
             }
             //Tjek name og ip
@@ -172,19 +172,19 @@ public class DirectoryUDPServer
             if(!hasName && !hasIp)
             {
                 sendJson(packet.getAddress(), packet.getPort(), Map.of("STATUS: ",StatusCodes.UNKNOWN_CMD));
-                if(audit != null) audit.append(new RegistryEvent(nowMs, RegistryEventType.INVALIDATE,null,null,null,"UDP", "missing NAME or IP"));
+                if(audit != null) audit.append(audit.claim().set(nowMs, RegistryEventType.INVALIDATE, null, null, -1, RegistryEventOrigin.UDP, "missing NAME or IP"));
                 return;
             }
             String requestedName = hasName ? req.get("NAME") : null;
             String requestedIp   = hasIp   ? req.get("IP")   : null;
             if (hasName && (requestedName == null || requestedName.isEmpty())) {
                 sendJson(packet.getAddress(), packet.getPort(), Map.of("STATUS", StatusCodes.BAD_REQUEST));
-                if (audit != null) audit.append(new RegistryEvent(nowMs, RegistryEventType.INVALIDATE, null, null, null, "UDP", "empty NAME"));
+                if (audit != null) audit.append(audit.claim().set(nowMs, RegistryEventType.INVALIDATE, null, null, -1, RegistryEventOrigin.UDP, "empty NAME"));
                 return;
             }
             if (hasIp && (requestedIp == null || requestedIp.isEmpty())) {
                 sendJson(packet.getAddress(), packet.getPort(), Map.of("STATUS", StatusCodes.BAD_REQUEST));
-                if (audit != null) audit.append(new RegistryEvent(nowMs, RegistryEventType.INVALIDATE, null, null, null, "UDP", "empty IP"));
+                if (audit != null) audit.append(audit.claim().set(nowMs, RegistryEventType.INVALIDATE, null, null, -1, RegistryEventOrigin.UDP, "empty IP"));
                 return;
             }
           Registration reg = hasName ? registry.findByName(requestedName) : registry.findByIp(requestedIp);
@@ -195,8 +195,7 @@ public class DirectoryUDPServer
 
               //LOG: FOUND
               if(audit != null){
-                  audit.append(new RegistryEvent(nowMs, RegistryEventType.LOOKUP,
-                                                  reg.getName(),reg.getIp(),ttlClamped, "UDP", "FOUND"));
+                  audit.lookup(nowMs, reg.getName(), reg.getIp(), ttlClamped, true);
               }
 
               //Response
@@ -213,7 +212,7 @@ public class DirectoryUDPServer
           if(audit!=null){
               String n = hasName ? requestedName : null;
               String ip = hasIp ? requestedIp : null;
-              audit.append(new RegistryEvent(nowMs, RegistryEventType.LOOKUP,n,ip,0L,"UDP","NOT_FOUND"));
+              audit.lookup(nowMs, n, ip, 0L, false);
           }
           sendJson(packet.getAddress(),packet.getPort(),Map.of("STATUS",StatusCodes.NOT_FOUND));
           return;
@@ -221,7 +220,7 @@ public class DirectoryUDPServer
         catch (Exception e)
         {
             if (audit != null) {
-                audit.append(new RegistryEvent(nowMs, RegistryEventType.ERROR, null, null, null, "UDP",
+                audit.append(audit.claim().set(nowMs, RegistryEventType.ERROR, null, null, -1, RegistryEventOrigin.UDP,
                     "exception: " + e.getClass().getSimpleName() + " " + e.getMessage()));
             }
             sendJson(packet.getAddress(), packet.getPort(), Map.of("STATUS", StatusCodes.SERVER_ERROR));
@@ -1,7 +1,7 @@
 package via.vinylsystem.directory;
 
 import via.vinylsystem.Model.Registration;
-import via.vinylsystem.Model.RegistryEvent;
+import via.vinylsystem.Model.RegistryEventOrigin;
 import via.vinylsystem.Model.RegistryEventType;
 import via.vinylsystem.Util.AuditLog;
 
@@ -81,7 +81,7 @@ public class RegistryService
         byName.put(name,reg);
         nameByIp.put(ip,name);
 
-        audit.append(new RegistryEvent(now, RegistryEventType.REGISTER,name,ip,defaultTtlSec,"TCP","OK")); //LOG
+        audit.append(audit.claim().set(now, RegistryEventType.REGISTER,name,ip,defaultTtlSec,RegistryEventOrigin.TCP,"OK")); //LOG
 
         //Retunere TTL i sekunder
         return defaultTtlSec;
@@ -126,7 +126,7 @@ public class RegistryService
         byName.put(name,renewed);
         nameByIp.put(ip,name);
 
-        audit.append(new RegistryEvent(now,RegistryEventType.RENEW,name,ip,defaultTtlSec,"TCP", "OK"));
+        audit.append(audit.claim().set(now,RegistryEventType.RENEW,name,ip,defaultTtlSec,RegistryEventOrigin.TCP, "OK"));
 
         //Retunere TTL
         return defaultTtlSec;
@@ -83,6 +83,14 @@ public class StatusCodes
      */
     public static final String BAD_REQUEST = "000200";
 
+    /**
+     * Resource already exists.
+     * <p>
+     * Returned when adding a catalog track whose ID is already in use.
+     * </p>
+     */
+    public static final String ALREADY_EXISTS = "000201";
+
     /**
      * Resource not found.
      * <p>
@@ -0,0 +1,50 @@
+package via.vinylsystem.server;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation flag for long-running catalog work.
+ * <p>
+ * {@link CatalogServer} keeps one per connection and cancels it when the client
+ * disconnects. Scans check it between chunks (see {@link ScanEngine}) and stop with a
+ * {@link CancellationException}, so work nobody is waiting for does not keep running.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public final class Cancellation
+{
+    /** A flag that is never cancelled. */
+    public static final Cancellation NONE = new Cancellation();
+
+    private volatile boolean cancelled;
+
+    /**
+     * Asks all work checking this flag to stop.
+     */
+    public void cancel()
+    {
+        if (this != NONE) cancelled = true;
+    }
+
+    /**
+     * Returns whether {@link #cancel()} has been called.
+     *
+     * @return true once cancelled
+     */
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Throws if this flag has been cancelled.
+     *
+     * @throws CancellationException if cancelled
+     */
+    public void check()
+    {
+        if (cancelled) throw new CancellationException("Request cancelled");
+    }
+}
@@ -0,0 +1,637 @@
+package via.vinylsystem.server;
+
+import via.vinylsystem.Model.Track;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+/**
+ * Immutable, indexed snapshot of the tracks served by {@link CatalogServer}.
+ * <p>
+ * The tracks live in a {@link TrackStore}, either as objects on the heap or in a
+ * memory-mapped catalog file. Indexes are built on first use (or up front with
+ * {@link #warm()}), so opening a large catalog file does not decode it. Once built,
+ * the indexes are only read, so requests never need locking.
+ * </p>
+ * <p>
+ * Writes do not rebuild the indexes. A changed snapshot keeps the indexed base
+ * catalog and layers the changes over it in a {@link LayeredTrackStore}; lookups ask
+ * the base indexes, drop hits on deleted or updated tracks and check the few changed
+ * tracks directly. {@link CatalogWriter} merges the changes into a new base in the
+ * background once they grow large.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public final class Catalog
+{
+    private final long version;
+    private final TrackStore store;
+    private final List<Track> tracks;
+    /** The indexed catalog the changes are layered over, or {@code null} for a base catalog. */
+    private final Catalog base;
+    private final LayeredTrackStore layers;
+    private volatile IdIndex ids;
+    private volatile TrigramIndex text;
+    private volatile FieldIndex fields;
+    private volatile FuzzyIndex fuzzy;
+    private volatile SuggestIndex suggestions;
+    /** Each index is built under its own lock so {@link #warm()} can build them side by side. */
+    private final Object idsLock = new Object();
+    private final Object textLock = new Object();
+    private final Object fieldsLock = new Object();
+    private final Object fuzzyLock = new Object();
+    private final Object suggestionsLock = new Object();
+
+    private Catalog(TrackStore store, long version)
+    {
+        this.version = version;
+        this.store = store;
+        this.tracks = new TrackListView(store);
+        this.base = null;
+        this.layers = null;
+    }
+
+    private Catalog(Catalog base, LayeredTrackStore layers, long version)
+    {
+        this.version = version;
+        this.store = layers;
+        this.tracks = new TrackListView(layers);
+        this.base = base;
+        this.layers = layers;
+    }
+
+    /**
+     * Builds the first catalog snapshot (version 1) over a list of tracks.
+     *
+     * @param tracks the tracks to serve, in LIST order
+     * @return the catalog
+     */
+    public static Catalog of(List<Track> tracks)
+    {
+        return new Catalog(new ListTrackStore(tracks), 1);
+    }
+
+    /**
+     * Builds a catalog snapshot with an explicit version over a list of tracks.
+     * <p>
+     * Every change to the served tracks must produce a snapshot with a higher version,
+     * since cached responses are only reused while the version is unchanged.
+     * </p>
+     *
+     * @param tracks the tracks to serve, in LIST order
+     * @param version the version of this snapshot
+     * @return the catalog
+     */
+    public static Catalog of(List<Track> tracks, long version)
+    {
+        return new Catalog(new ListTrackStore(tracks), version);
+    }
+
+    /**
+     * Builds a catalog snapshot over any track store, e.g. a {@link MappedTrackStore}.
+     *
+     * @param store the tracks to serve, in LIST order
+     * @param version the version of this snapshot
+     * @return the catalog
+     */
+    public static Catalog of(TrackStore store, long version)
+    {
+        return new Catalog(store, version);
+    }
+
+    /**
+     * Builds every index now instead of on first use.
+     * <p>
+     * The text, fuzzy, suggestion and field indexes are built on the common fork/join pool while
+     * the calling thread builds the ID index, so a large catalog is indexed in about
+     * the time of its slowest index.
+     * </p>
+     *
+     * @return this catalog
+     */
+    public Catalog warm()
+    {
+        if (layers != null)
+        {
+            base.warm();
+            layers.masked();
+            ids();
+            return this;
+        }
+        CompletableFuture<?> others = CompletableFuture.allOf(CompletableFuture.runAsync(this::text),
+                CompletableFuture.runAsync(this::fuzzy), CompletableFuture.runAsync(this::suggestions),
+                CompletableFuture.runAsync(this::fields));
+        ids();
+        others.join();
+        return this;
+    }
+
+    /**
+     * Returns the version of this snapshot.
+     *
+     * @return the catalog version
+     */
+    public long version()
+    {
+        return version;
+    }
+
+    /**
+     * Returns the underlying track store.
+     *
+     * @return the store
+     */
+    public TrackStore store()
+    {
+        return store;
+    }
+
+    /**
+     * Returns every track in catalog order.
+     * <p>
+     * The list is a view over the store: tracks are only materialized when an
+     * element is read.
+     * </p>
+     *
+     * @return an immutable list of tracks
+     */
+    public List<Track> tracks()
+    {
+        return tracks;
+    }
+
+    /**
+     * Returns the number of tracks.
+     *
+     * @return the catalog size
+     */
+    public int size()
+    {
+        return store.size();
+    }
+
+    /**
+     * Finds a track by ID, ignoring case, in constant time.
+     *
+     * @param id the track ID
+     * @return the matching track, or {@code null} if there is none
+     */
+    public Track get(String id)
+    {
+        int pos = indexOf(id);
+        return pos < 0 ? null : store.get(pos);
+    }
+
+    /**
+     * Returns the position of a track in catalog order, ignoring case in the ID.
+     *
+     * @param id the track ID
+     * @return the position, or -1 if the ID is unknown
+     */
+    public int indexOf(String id)
+    {
+        if (layers == null) return ids().find(id);
+        int added = ids().find(id);
+        if (added >= 0) return layers.size() - layers.addedCount() + added;
+        int pos = base.indexOf(id);
+        return pos < 0 ? -1 : layers.positionOfBase(pos);
+    }
+
+    /**
+     * Finds the best matching tracks for a query, ranked by relevance.
+     * <p>
+     * A track matches when its artist or title contains the query, ignoring case; the
+     * trigram index narrows the candidates, and an empty query matches every track.
+     * Matches are ranked by how the query matches: an exact artist or title beats one
+     * that starts with the query, which beats one that merely contains it, and an
+     * artist match beats a title match of the same kind. Equal ranks keep catalog
+     * order. Only the best {@code limit} tracks are kept while scanning, so memory and
+     * the response grow with {@code limit}, not with the number of matches.
+     * </p>
+     *
+     * @param query the substring to search for
+     * @param limit the maximum number of tracks to return, at least 1
+     * @return the best tracks, best first, and the total number of matches
+     */
+    public Hits search(String query, int limit)
+    {
+        return search(query, limit, Cancellation.NONE);
+    }
+
+    /**
+     * Ranked search as {@link #search(String, int)} that stops early when cancelled.
+     *
+     * @param query the substring to search for
+     * @param limit the maximum number of tracks to return, at least 1
+     * @param cancel checked while the search runs
+     * @return the best tracks, best first, and the total number of matches
+     * @throws java.util.concurrent.CancellationException if cancelled
+     */
+    public Hits search(String query, int limit, Cancellation cancel)
+    {
+        TopK top = new TopK(limit);
+        if (layers == null)
+        {
+            text().searchScored(query, cancel, top::offer);
+        }
+        else
+        {
+            BitSet masked = layers.masked();
+            base.text().searchScored(query, cancel, (pos, score) -> {
+                if (!masked.get(pos)) top.offer(layers.position(pos), score);
+            });
+            String q = TrigramIndex.normalize(query);
+            layers.forEachChanged((pos, t) -> {
+                int score = TrigramIndex.score(t.getArtist(), t.getTitle(), q);
+                if (score > 0) top.offer(pos, score);
+            });
+        }
+        int[] best = top.positions();
+        List<Track> tracks = new ArrayList<>(best.length);
+        for (int pos : best) tracks.add(store.get(pos));
+        return new Hits(tracks, top.offered());
+    }
+
+    /**
+     * Finds the best matching tracks for a query with typos, see {@link FuzzyIndex}.
+     * <p>
+     * Every word of the query must be within a few edits of a word of the track's
+     * artist or title, after folding case, accents and the Danish letters; so
+     * "medna" finds Medina and "kobenhavn" finds København. Tracks needing fewer
+     * edits rank first. Unlike {@link #search(String, int)} this matches whole words,
+     * not substrings.
+     * </p>
+     *
+     * @param query the words to search for
+     * @param limit the maximum number of tracks to return, at least 1
+     * @param cancel checked while the search runs
+     * @return the best tracks, best first, and the total number of matches
+     * @throws java.util.concurrent.CancellationException if cancelled
+     */
+    public Hits fuzzySearch(String query, int limit, Cancellation cancel)
+    {
+        TopK top = new TopK(limit);
+        if (layers == null)
+        {
+            fuzzy().search(query, cancel, top::offer);
+        }
+        else
+        {
+            BitSet masked = layers.masked();
+            base.fuzzy().search(query, cancel, (pos, score) -> {
+                if (!masked.get(pos)) top.offer(layers.position(pos), score);
+            });
+            String[] q = FuzzyIndex.queryWords(query);
+            layers.forEachChanged((pos, t) -> {
+                int score = FuzzyIndex.score(t.getArtist(), t.getTitle(), q);
+                if (score > 0) top.offer(pos, score);
+            });
+        }
+        int[] best = top.positions();
+        List<Track> tracks = new ArrayList<>(best.length);
+        for (int pos : best) tracks.add(store.get(pos));
+        return new Hits(tracks, top.offered());
+    }
+
+    /**
+     * Completes a prefix to the artists and titles with the most tracks, see
+     * {@link SuggestIndex}.
+     * <p>
+     * With layered changes the counts of the base catalog are corrected by the changed
+     * tracks: changed and added tracks count for their new artist and title, deleted
+     * and changed ones no longer for their old.
+     * </p>
+     *
+     * @param prefix the typed prefix
+     * @param limit the maximum number of completions, 1 to {@link SuggestIndex#MAX_SUGGESTIONS}
+     * @return the completions, most tracks first
+     */
+    public List<SuggestIndex.Suggestion> suggest(String prefix, int limit)
+    {
+        if (layers == null) return suggestions().suggest(prefix, limit);
+
+        SuggestIndex idx = base.suggestions();
+        String p = SuggestIndex.prefix(prefix);
+        // "A" or "T" plus the key -> tracks no longer counted under it
+        Map<String, Integer> removed = new HashMap<>();
+        BitSet masked = layers.masked();
+        TrackStore old = base.store;
+        for (int pos = masked.nextSetBit(0); pos >= 0; pos = masked.nextSetBit(pos + 1))
+        {
+            String a = SuggestIndex.key(old.artist(pos)), t = SuggestIndex.key(old.title(pos));
+            if (a.startsWith(p)) removed.merge("A" + a, 1, Integer::sum);
+            if (t.startsWith(p)) removed.merge("T" + t, 1, Integer::sum);
+        }
+        // only entries that lost tracks can fall out of the base's best, so fetch that many more
+        Map<String, SuggestIndex.Suggestion> counts = new HashMap<>();
+        for (SuggestIndex.Suggestion s : idx.suggest(prefix, limit + removed.size()))
+        {
+            counts.put((s.artist() ? "A" : "T") + SuggestIndex.key(s.text()), s);
+        }
+        layers.forEachChanged((pos, t) -> {
+            for (boolean isArtist : new boolean[] {true, false})
+            {
+                String text = isArtist ? t.getArtist() : t.getTitle();
+                String key = SuggestIndex.key(text);
+                if (key.isEmpty() || !key.startsWith(p)) continue;
+                counts.compute((isArtist ? "A" : "T") + key, (k, s) -> s == null
+                        ? new SuggestIndex.Suggestion(text.strip(), isArtist, idx.weight(key, isArtist) + 1)
+                        : new SuggestIndex.Suggestion(s.text(), isArtist, s.tracks() + 1));
+            }
+        });
+        removed.forEach((k, n) -> counts.computeIfPresent(k,
+                (key, s) -> new SuggestIndex.Suggestion(s.text(), s.artist(), s.tracks() - n)));
+        return counts.entrySet().stream()
+                .filter(e -> e.getValue().tracks() > 0)
+                .sorted(Comparator.<Map.Entry<String, SuggestIndex.Suggestion>>comparingInt(e -> -e.getValue().tracks())
+                        .thenComparing(e -> e.getKey().substring(1))
+                        .thenComparing(e -> e.getKey().charAt(0)))
+                .limit(limit)
+                .map(Map.Entry::getValue)
+                .toList();
+    }
+
+    /**
+     * Result of a ranked search.
+     *
+     * @param tracks the best matching tracks, best first
+     * @param total how many tracks matched in all
+     */
+    public record Hits(List<Track> tracks, int total) {}
+
+    /**
+     * Runs a structured query, see {@link CatalogQuery}.
+     *
+     * @param query the parsed query
+     * @param cancel checked while the query runs
+     * @return the positions of every matching track
+     * @throws java.util.concurrent.CancellationException if cancelled
+     */
+    public BitSet query(CatalogQuery query, Cancellation cancel)
+    {
+        return query.evaluate(this, cancel);
+    }
+
+    /**
+     * Returns the positions of tracks released between two years, both included.
+     *
+     * @param from the first year
+     * @param to the last year
+     * @return the matching positions
+     */
+    BitSet yearRange(int from, int to)
+    {
+        if (layers == null) return fields().yearRange(from, to);
+        return layered(base.yearRange(from, to), t -> t.getYear() >= from && t.getYear() <= to);
+    }
+
+    /**
+     * Returns the positions of tracks by an artist, ignoring case.
+     *
+     * @param artist the artist name
+     * @return the matching positions
+     */
+    BitSet byArtist(String artist)
+    {
+        if (layers == null) return fields().artist(artist);
+        String key = TrigramIndex.normalize(artist);
+        return layered(base.byArtist(artist), t -> TrigramIndex.normalize(t.getArtist()).equals(key));
+    }
+
+    /**
+     * Returns the positions of tracks whose title contains a substring, ignoring case.
+     *
+     * @param query the substring
+     * @param cancel checked while the search runs
+     * @return the matching positions
+     */
+    BitSet titleContains(String query, Cancellation cancel)
+    {
+        if (layers != null)
+        {
+            String q = TrigramIndex.normalize(query);
+            return layered(base.titleContains(query, cancel), t -> TrigramIndex.containsIgnoreCase(t.getTitle(), q));
+        }
+        BitSet out = new BitSet(store.size());
+        text().searchTitle(query, cancel, out::set);
+        return out;
+    }
+
+    /**
+     * Returns the positions of every track.
+     *
+     * @return a bitset with every position set
+     */
+    BitSet all()
+    {
+        BitSet out = new BitSet(store.size());
+        out.set(0, store.size());
+        return out;
+    }
+
+    /**
+     * Returns the number of changes layered over the base catalog.
+     *
+     * @return 0 for a base catalog
+     */
+    int changes()
+    {
+        return layers == null ? 0 : layers.changes();
+    }
+
+    /**
+     * Returns the indexed catalog that changes are layered over.
+     *
+     * @return the base catalog, or this catalog if it has no changes layered over it
+     */
+    Catalog root()
+    {
+        return base == null ? this : base;
+    }
+
+    /**
+     * Returns a snapshot with a track added after every other track.
+     *
+     * @param track the new track
+     * @return the next snapshot, one version higher
+     */
+    Catalog withAdded(Track track)
+    {
+        return new Catalog(root(), layers().withAdded(track), version + 1);
+    }
+
+    /**
+     * Returns a snapshot with the track at a position replaced; it keeps its position.
+     *
+     * @param pos the position of the track
+     * @param track the new content
+     * @return the next snapshot, one version higher
+     */
+    Catalog withReplaced(int pos, Track track)
+    {
+        return new Catalog(root(), layers().withReplaced(pos, track), version + 1);
+    }
+
+    /**
+     * Returns a snapshot without the track at a position.
+     *
+     * @param pos the position of the track
+     * @return the next snapshot, one version higher
+     */
+    Catalog withDeleted(int pos)
+    {
+        return new Catalog(root(), layers().withDeleted(pos), version + 1);
+    }
+
+    /**
+     * Copies the tracks into a new, fully indexed base catalog without layered changes.
+     * The copy is a {@link ColumnarTrackStore}.
+     *
+     * @param version the version of the merged catalog
+     * @return the merged catalog, warmed
+     */
+    Catalog merged(long version)
+    {
+        return new Catalog(ColumnarTrackStore.copyOf(store), version).warm();
+    }
+
+    /**
+     * Returns the same snapshot under another version, sharing every index already built.
+     *
+     * @param version the new version
+     * @return the relabelled catalog
+     */
+    Catalog withVersion(long version)
+    {
+        Catalog c = layers == null ? new Catalog(store, version) : new Catalog(base, layers, version);
+        c.ids = ids;
+        c.text = text;
+        c.fields = fields;
+        c.fuzzy = fuzzy;
+        c.suggestions = suggestions;
+        return c;
+    }
+
+    private LayeredTrackStore layers()
+    {
+        return layers != null ? layers : new LayeredTrackStore(store);
+    }
+
+    /**
+     * Maps hits of the base catalog to positions of this snapshot, dropping deleted and
+     * updated tracks, and adds the changed tracks that pass {@code test}.
+     */
+    private BitSet layered(BitSet baseHits, Predicate<Track> test)
+    {
+        BitSet out = new BitSet(store.size());
+        BitSet masked = layers.masked();
+        for (int pos = baseHits.nextSetBit(0); pos >= 0; pos = baseHits.nextSetBit(pos + 1))
+        {
+            if (!masked.get(pos)) out.set(layers.position(pos));
+        }
+        layers.forEachChanged((pos, t) -> {
+            if (test.test(t)) out.set(pos);
+        });
+        return out;
+    }
+
+    /** ID index over the whole store, or over the added tracks alone when changes are layered. */
+    private IdIndex ids()
+    {
+        IdIndex idx = ids;
+        if (idx == null)
+        {
+            synchronized (idsLock)
+            {
+                idx = ids;
+                if (idx == null && layers == null) ids = idx = new IdIndex(store.size(), store::id);
+                else if (idx == null)
+                {
+                    int first = layers.size() - layers.addedCount();
+                    ids = idx = new IdIndex(layers.addedCount(), i -> layers.id(first + i));
+                }
+            }
+        }
+        return idx;
+    }
+
+    private TrigramIndex text()
+    {
+        TrigramIndex idx = text;
+        if (idx == null)
+        {
+            synchronized (textLock)
+            {
+                idx = text;
+                if (idx == null) text = idx = new TrigramIndex(store.size(), store::artist, store::title);
+            }
+        }
+        return idx;
+    }
+
+    private FuzzyIndex fuzzy()
+    {
+        FuzzyIndex idx = fuzzy;
+        if (idx == null)
+        {
+            synchronized (fuzzyLock)
+            {
+                idx = fuzzy;
+                if (idx == null) fuzzy = idx = new FuzzyIndex(store.size(), store::artist, store::title);
+            }
+        }
+        return idx;
+    }
+
+    private SuggestIndex suggestions()
+    {
+        SuggestIndex idx = suggestions;
+        if (idx == null)
+        {
+            synchronized (suggestionsLock)
+            {
+                idx = suggestions;
+                if (idx == null) suggestions = idx = new SuggestIndex(store.size(), store::artist, store::title);
+            }
+        }
+        return idx;
+    }
+
+    private FieldIndex fields()
+    {
+        FieldIndex idx = fields;
+        if (idx == null)
+        {
+            synchronized (fieldsLock)
+            {
+                idx = fields;
+                if (idx == null) fields = idx = new FieldIndex(store.size(), store::artist, store::year);
+            }
+        }
+        return idx;
+    }
+
+    /** Read-only {@link List} view that materializes tracks from the store on access. */
+    private static final class TrackListView extends AbstractList<Track> implements RandomAccess
+    {
+        private final TrackStore store;
+
+        TrackListView(TrackStore store)
+        {
+            this.store = store;
+        }
+
+        @Override public Track get(int index) { return store.get(index); }
+        @Override public int size() { return store.size(); }
+    }
+}
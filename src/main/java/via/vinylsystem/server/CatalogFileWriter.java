@@ -0,0 +1,148 @@
+package via.vinylsystem.server;
+
+import via.vinylsystem.Model.Track;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Writes catalog files in the compact binary format read by {@link MappedTrackStore}.
+ * <p>
+ * Layout (all numbers big-endian):
+ * <pre>
+ * header:  "VCAT"  int formatVersion  long trackCount  long offsetTablePos
+ * records: u16 idLen, id (UTF-8), u16 artistLen, artist, u16 titleLen, title, int year
+ * footer:  long[trackCount] absolute offset of each record
+ * </pre>
+ * Records are written in one pass and the offset table is appended at the end, so
+ * the writer never needs to know the number of tracks up front. The file is written
+ * under a temporary name and only moved into place by {@link #finish()}; closing a
+ * writer that was not finished, e.g. because the export turned out to be malformed,
+ * deletes the temporary file. Readers never see a half-written catalog, and an
+ * existing catalog at the target is left as it was.
+ * </p>
+ * <pre>
+ * try (CatalogFileWriter w = new CatalogFileWriter(target))
+ * {
+ *     for (Track t : tracks) w.append(t);
+ *     w.finish();
+ * }
+ * </pre>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public class CatalogFileWriter implements Closeable
+{
+    static final byte[] MAGIC = { 'V', 'C', 'A', 'T' };
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_BYTES = 4 + 4 + 8 + 8;
+    /** Longest field in bytes; lengths are stored as unsigned 16-bit values. */
+    static final int MAX_FIELD_BYTES = 0xFFFF;
+
+    private final Path target;
+    private final Path tmp;
+    private final RandomAccessFile file;
+    private final DataOutputStream out;
+    private long position;
+    private long[] offsets = new long[1024];
+    private int count;
+    private boolean finished;
+
+    /**
+     * Starts a new catalog file.
+     *
+     * @param target where the finished file is placed
+     * @throws IOException if the temporary file cannot be created
+     */
+    public CatalogFileWriter(Path target) throws IOException
+    {
+        this.target = target;
+        this.tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        this.file = new RandomAccessFile(tmp.toFile(), "rw");
+        file.setLength(0);
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(file.getChannel()), 1 << 16));
+        out.write(new byte[HEADER_BYTES]); // filled in on close
+        this.position = HEADER_BYTES;
+    }
+
+    /**
+     * Appends one track.
+     *
+     * @param t the track to write
+     * @throws IOException if the file cannot be written
+     * @throws IllegalArgumentException if a field is longer than 65535 UTF-8 bytes
+     */
+    public void append(Track t) throws IOException
+    {
+        if (count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+        offsets[count++] = position;
+        position += field(t.getId()) + field(t.getArtist()) + field(t.getTitle());
+        out.writeInt(t.getYear());
+        position += 4;
+    }
+
+    private int field(String s) throws IOException
+    {
+        byte[] b = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        if (b.length > MAX_FIELD_BYTES) throw new IllegalArgumentException("Field longer than 65535 bytes: " + s.substring(0, 40) + "...");
+        out.writeShort(b.length);
+        out.write(b);
+        return 2 + b.length;
+    }
+
+    /**
+     * Returns the number of tracks appended so far.
+     *
+     * @return the track count
+     */
+    public int count()
+    {
+        return count;
+    }
+
+    /**
+     * Writes the offset table and header and moves the file into place.
+     *
+     * @throws IOException if the file cannot be completed; the target is then left as it was
+     */
+    public void finish() throws IOException
+    {
+        if (finished) throw new IllegalStateException("Catalog file already finished");
+        long tablePos = position;
+        for (int i = 0; i < count; i++) out.writeLong(offsets[i]);
+        out.flush();
+
+        file.seek(0);
+        file.write(MAGIC);
+        file.writeInt(FORMAT_VERSION);
+        file.writeLong(count);
+        file.writeLong(tablePos);
+        file.getChannel().force(true);
+        file.close();
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        finished = true;
+    }
+
+    /**
+     * Discards the file unless {@link #finish()} completed; the target is not touched.
+     *
+     * @throws IOException if the temporary file cannot be deleted
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (finished) return;
+        file.close();
+        Files.deleteIfExists(tmp);
+    }
+}
@@ -0,0 +1,214 @@
+package via.vinylsystem.server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import via.vinylsystem.Model.Track;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Loads catalogs from disk and converts CSV or JSONL exports to the binary catalog format.
+ * <p>
+ * A {@code .vcat} file is memory-mapped as it is. A {@code .csv} or {@code .jsonl}
+ * export is first converted to a {@code .vcat} file next to it (unless an up-to-date
+ * one already exists) and that file is mapped, so the export is only parsed once.
+ * </p>
+ * <p>
+ * CSV files have the columns id, artist, title and year. A header row is optional;
+ * when present it may list the columns in any order. Fields may be quoted with
+ * {@code "}, and a quote inside a quoted field is written as {@code ""}.
+ * JSONL files hold one track per line: {"id":"T001","artist":"...","title":"...","year":2017}.
+ * </p>
+ * <p>
+ * Example usage (converter):
+ * <pre>
+ * java via.vinylsystem.server.CatalogLoader export.csv catalog.vcat
+ * </pre>
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public class CatalogLoader
+{
+    private static final Gson GSON = new Gson();
+
+    /**
+     * Converts a CSV or JSONL export to a catalog file.
+     *
+     * @param args args[0] = source export, args[1] = target file (default: source with .vcat extension)
+     * @throws IOException if the export cannot be read or the target cannot be written
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: CatalogLoader <export.csv|export.jsonl> [catalog.vcat]");
+            return;
+        }
+        Path source = Path.of(args[0]);
+        Path target = args.length > 1 ? Path.of(args[1]) : binaryPathFor(source);
+        long started = System.nanoTime();
+        int n = convert(source, target);
+        System.out.printf("Wrote %d tracks to %s in %d ms%n", n, target, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Opens a catalog file, converting an export first when needed.
+     *
+     * @param path a {@code .vcat}, {@code .csv} or {@code .jsonl} file
+     * @return a store reading the catalog from the mapped file
+     * @throws IOException if the file cannot be read or converted
+     */
+    public static MappedTrackStore load(Path path) throws IOException
+    {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".csv") || name.endsWith(".jsonl"))
+        {
+            Path binary = binaryPathFor(path);
+            if (!Files.exists(binary)
+                    || Files.getLastModifiedTime(binary).compareTo(Files.getLastModifiedTime(path)) < 0)
+            {
+                convert(path, binary);
+            }
+            path = binary;
+        }
+        return MappedTrackStore.open(path);
+    }
+
+    /**
+     * Opens a catalog file as either a mapped or a columnar in-memory store.
+     *
+     * @param path a {@code .vcat}, {@code .csv} or {@code .jsonl} file
+     * @param columnar true to copy the catalog into a {@link ColumnarTrackStore},
+     *                 false to serve it from the mapped file
+     * @return the store
+     * @throws IOException if the file cannot be read or converted
+     */
+    public static TrackStore open(Path path, boolean columnar) throws IOException
+    {
+        MappedTrackStore mapped = load(path);
+        if (!columnar) return mapped;
+        try (mapped)
+        {
+            return ColumnarTrackStore.copyOf(mapped);
+        }
+    }
+
+    /**
+     * Converts a CSV or JSONL export to a catalog file.
+     * <p>
+     * If the export cannot be read or is malformed, nothing is written and an existing
+     * target is left as it was.
+     * </p>
+     *
+     * @param source the export
+     * @param target the catalog file to write
+     * @return the number of tracks written
+     * @throws IOException if the export cannot be read or is malformed
+     */
+    public static int convert(Path source, Path target) throws IOException
+    {
+        boolean jsonl = source.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".jsonl");
+        try (BufferedReader in = Files.newBufferedReader(source, StandardCharsets.UTF_8);
+             CatalogFileWriter out = new CatalogFileWriter(target))
+        {
+            int[] columns = { 0, 1, 2, 3 };
+            String line;
+            long lineNo = 0;
+            while ((line = in.readLine()) != null)
+            {
+                lineNo++;
+                if (line.isBlank()) continue;
+                try
+                {
+                    if (jsonl)
+                    {
+                        Track t = GSON.fromJson(line, Track.class);
+                        if (t == null) throw new JsonParseException("not a track: " + line.strip());
+                        out.append(t);
+                        continue;
+                    }
+                    List<String> f = splitCsv(line);
+                    if (lineNo == 1 && isHeader(f))
+                    {
+                        columns = headerColumns(f);
+                        continue;
+                    }
+                    out.append(new Track(f.get(columns[0]), f.get(columns[1]), f.get(columns[2]),
+                            Integer.parseInt(f.get(columns[3]).trim())));
+                }
+                catch (JsonParseException | IndexOutOfBoundsException | IllegalArgumentException e)
+                {
+                    throw new IOException(source + ":" + lineNo + ": " + e.getMessage(), e);
+                }
+            }
+            out.finish();
+            return out.count();
+        }
+    }
+
+    /**
+     * Returns the catalog file path used for an export: the same name with a .vcat extension.
+     *
+     * @param export the CSV or JSONL export
+     * @return the path of the converted catalog file
+     */
+    public static Path binaryPathFor(Path export)
+    {
+        String name = export.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return export.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".vcat");
+    }
+
+    private static boolean isHeader(List<String> fields)
+    {
+        return fields.size() >= 4 && fields.stream().anyMatch(f -> f.trim().equalsIgnoreCase("id"));
+    }
+
+    private static int[] headerColumns(List<String> header) throws IOException
+    {
+        String[] names = { "id", "artist", "title", "year" };
+        int[] cols = new int[names.length];
+        for (int i = 0; i < names.length; i++)
+        {
+            cols[i] = -1;
+            for (int c = 0; c < header.size(); c++)
+            {
+                if (header.get(c).trim().equalsIgnoreCase(names[i])) cols[i] = c;
+            }
+            if (cols[i] < 0) throw new IOException("CSV header has no '" + names[i] + "' column");
+        }
+        return cols;
+    }
+
+    /** Splits one CSV line, honouring quoted fields and doubled quotes. */
+    static List<String> splitCsv(String line)
+    {
+        List<String> out = new ArrayList<>(4);
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++)
+        {
+            char c = line.charAt(i);
+            if (quoted)
+            {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') { cur.append('"'); i++; }
+                else if (c == '"') quoted = false;
+                else cur.append(c);
+            }
+            else if (c == '"') quoted = true;
+            else if (c == ',') { out.add(cur.toString()); cur.setLength(0); }
+            else cur.append(c);
+        }
+        out.add(cur.toString());
+        return out;
+    }
+}
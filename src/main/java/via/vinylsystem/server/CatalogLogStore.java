@@ -0,0 +1,713 @@
+package via.vinylsystem.server;
+
+import via.vinylsystem.Model.Track;
+import via.vinylsystem.Util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, log-structured storage for a catalog that is written while it is served.
+ * <p>
+ * A store directory holds a sorted base catalog file and an append-only log of the
+ * changes made since:
+ * <pre>
+ * base-&lt;g&gt;.vcat   every track as of generation g, sorted by ID (see {@link CatalogFileWriter})
+ * log-&lt;g&gt;.log    ADD, UPDATE and DELETE records written after base g was taken
+ * </pre>
+ * A log record is {@code int length, int crc32, byte op, long version, id, [artist, title, int year]}
+ * with strings in {@link DataOutputStream#writeUTF} form; the version is the catalog
+ * version the write published. VERSION and RESERVE records hold only a version. A record cut short by a crash fails its length or
+ * checksum and is dropped, with everything after it, on the next start.
+ * </p>
+ * <p>
+ * Appends use group commit: {@link #appendAdd} and its siblings only queue a record and return its
+ * sequence number, and a flusher thread writes whatever has been queued and forces it
+ * to disk with one {@code fsync}. {@link #awaitDurable} blocks until a record is on
+ * disk, so writers from many connections share the cost of each {@code fsync}.
+ * </p>
+ * <p>
+ * Compaction ({@link #roll()} then {@link #writeBase}) starts a new log, writes a
+ * snapshot as the next base and then deletes the older base and logs. Until the new
+ * base is complete the old base plus both logs still describe the catalog, so a crash
+ * at any point loses nothing.
+ * </p>
+ * <p>
+ * On {@link #open} the newest base is read and every log from its generation on is
+ * replayed over it; the result is indexed with {@link Catalog#warm()}, which builds
+ * its indexes in parallel.
+ * </p>
+ * <p>
+ * Versions are never reused across a restart. A write is published before its record
+ * is on disk, so a crash can lose versions that clients already saw. Before it
+ * publishes a version the writer {@link #reserve}s it: a {@code RESERVE} record holds
+ * the highest version that may have been published, and is made durable once per
+ * {@value #RESERVE_AHEAD} versions. The recovered catalog keeps the version of the last
+ * logged write, {@link #lastWriteVersion()}, unless a reservation went past it; then it
+ * starts one above the reservation, and the versions in between are a gap that
+ * clients must resync from (see {@link ChangeJournal#resume}). A client that synced at
+ * the last logged write catches up with CHANGES. A new log starts with a
+ * {@code VERSION} record holding the version of the base written for it and a
+ * {@code RESERVE} record, since that log may stay empty.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public final class CatalogLogStore implements Closeable
+{
+    private static final byte ADD = 1;
+    private static final byte UPDATE = 2;
+    private static final byte DELETE = 3;
+    private static final byte VERSION = 4;
+    private static final byte RESERVE = 5;
+
+    /** Versions reserved by one RESERVE record. */
+    static final long RESERVE_AHEAD = 1024;
+
+    private static final Log LOG = Log.get("catalog.log");
+
+    /** Longest string a record can hold: {@link DataOutputStream#writeUTF} stores its length in 16 bits. */
+    static final int MAX_FIELD_BYTES = 0xFFFF;
+
+    /** Supplies the catalog a new, empty store directory starts from. */
+    public interface InitialCatalog
+    {
+        TrackStore load() throws IOException;
+    }
+
+    private final Path dir;
+    private final Catalog recovered;
+    private final long lastWrite;
+    private final Thread flusher;
+
+    private final Object lock = new Object();
+    private FileChannel log;
+    private long generation;
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appended;
+    private long durable;
+    /** Sequence number of the last record the current log starts with. */
+    private long rolledAt;
+    /** Highest version that may be published without another RESERVE record. */
+    private long reserved;
+    /** Sequence number of the RESERVE record that holds {@link #reserved}. */
+    private long reservedAt;
+    private IOException failure;
+    private boolean closed;
+
+    private CatalogLogStore(Path dir, Catalog recovered, long lastWrite, long generation, FileChannel log)
+    {
+        this.dir = dir;
+        this.recovered = recovered;
+        this.lastWrite = lastWrite;
+        this.reserved = recovered.version();
+        this.generation = generation;
+        this.log = log;
+        this.flusher = new Thread(this::flushLoop, "catalog-log");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Opens a store directory and recovers its catalog, creating the directory from
+     * {@code initial} if it holds no base yet.
+     *
+     * @param dir the store directory
+     * @param columnar true to keep the catalog in a {@link ColumnarTrackStore} even when
+     *                 there is nothing to replay, false to serve the base file mapped
+     * @param initial the tracks to start from in a new directory
+     * @return the open store; its catalog is {@link #catalog()}
+     * @throws IOException if the directory cannot be read or written
+     */
+    public static CatalogLogStore open(Path dir, boolean columnar, InitialCatalog initial) throws IOException
+    {
+        Files.createDirectories(dir);
+        TreeSet<Long> bases = generations(dir, "base-", ".vcat");
+        if (bases.isEmpty())
+        {
+            TrackStore first = initial.load();
+            try
+            {
+                writeBase(dir, first, 0);
+            }
+            finally
+            {
+                if (first instanceof Closeable c) c.close();
+            }
+            bases.add(0L);
+        }
+        long g = bases.last();
+        deleteBefore(dir, g);
+
+        MappedTrackStore base = MappedTrackStore.open(dir.resolve(baseName(g)));
+        Replay replay = new Replay(base);
+        TreeSet<Long> logs = generations(dir, "log-", ".log");
+        for (long lg : logs) replay.read(dir.resolve(logName(lg)));
+
+        TrackStore store;
+        if (replay.changed() || columnar)
+        {
+            try (base)
+            {
+                store = ColumnarTrackStore.copyOf(replay.view());
+            }
+        }
+        else
+        {
+            store = base;
+        }
+        long lastWrite = Math.max(1, replay.version);
+        // versions up to the reservation may have been served before a crash
+        long version = replay.reserved > lastWrite ? replay.reserved + 1 : lastWrite;
+        Catalog catalog = Catalog.of(store, version).warm();
+
+        long current = logs.isEmpty() ? g : Math.max(g, logs.last());
+        FileChannel ch = FileChannel.open(dir.resolve(logName(current)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (LOG.enabled(Log.Level.INFO))
+        {
+            LOG.info(String.format(Locale.ROOT, "CAT STORE %s: base %d, %d log records, %d tracks, version %d, last write %d",
+                    dir, g, replay.records, store.size(), catalog.version(), lastWrite));
+        }
+        return new CatalogLogStore(dir, catalog, lastWrite, current, ch);
+    }
+
+    /**
+     * Returns the catalog recovered when the store was opened: at the version of the
+     * last logged write, or one above the last reservation if that is higher, or
+     * version 1 for a new directory.
+     *
+     * @return the recovered catalog, indexed
+     */
+    public Catalog catalog()
+    {
+        return recovered;
+    }
+
+    /**
+     * Returns the version of the last write recovered when the store was opened, or 1
+     * for a new directory. The recovered catalog holds the same tracks as this version.
+     *
+     * @return the last durable write's version
+     */
+    long lastWriteVersion()
+    {
+        return lastWrite;
+    }
+
+    /**
+     * Makes sure a version is covered by a durable RESERVE record before it is
+     * published. Only one call in {@value #RESERVE_AHEAD} writes a record and waits for it.
+     *
+     * @param version the version about to be published
+     * @throws IOException if writing the log failed
+     */
+    void reserve(long version) throws IOException
+    {
+        long seq;
+        synchronized (lock)
+        {
+            if (version > reserved)
+            {
+                reserved = version - 1 + RESERVE_AHEAD;
+                reservedAt = append(RESERVE, reserved, null, null);
+            }
+            seq = reservedAt;
+        }
+        awaitDurable(seq);
+    }
+
+    /**
+     * Returns whether a string fits in a log record, measured in the modified UTF-8 of
+     * {@link DataOutputStream#writeUTF}. Such a string also fits in a catalog file.
+     *
+     * @param s the string, or {@code null}, which is logged as empty
+     * @return true if it can be logged
+     */
+    static boolean fits(String s)
+    {
+        if (s == null || s.length() <= MAX_FIELD_BYTES / 3) return true;
+        long bytes = 0;
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            bytes += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        return bytes <= MAX_FIELD_BYTES;
+    }
+
+    /**
+     * Fails if records can no longer be made durable, because writing the log failed or
+     * the store was closed. A failure is final: the log may have lost records after
+     * it, so every later write is refused.
+     *
+     * @throws IOException if the store does not accept records any more
+     */
+    void checkWritable() throws IOException
+    {
+        synchronized (lock)
+        {
+            if (failure != null) throw new IOException("Catalog log failed: " + failure.getMessage(), failure);
+            if (closed) throw new IOException("Catalog log closed");
+        }
+    }
+
+    /**
+     * Queues an ADD record.
+     *
+     * @param t the added track
+     * @param version the catalog version the write published
+     * @return the record's sequence number, see {@link #awaitDurable}
+     */
+    long appendAdd(Track t, long version)
+    {
+        return append(ADD, version, t.getId(), t);
+    }
+
+    /**
+     * Queues an UPDATE record.
+     *
+     * @param t the new content of the track
+     * @param version the catalog version the write published
+     * @return the record's sequence number
+     */
+    long appendUpdate(Track t, long version)
+    {
+        return append(UPDATE, version, t.getId(), t);
+    }
+
+    /**
+     * Queues a DELETE record.
+     *
+     * @param id the ID of the deleted track
+     * @param version the catalog version the write published
+     * @return the record's sequence number
+     */
+    long appendDelete(String id, long version)
+    {
+        return append(DELETE, version, id, null);
+    }
+
+    private long append(byte op, long version, String id, Track t)
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(body))
+        {
+            out.writeByte(op);
+            out.writeLong(version);
+            if (id != null) out.writeUTF(id);
+            if (t != null)
+            {
+                out.writeUTF(t.getArtist() == null ? "" : t.getArtist());
+                out.writeUTF(t.getTitle() == null ? "" : t.getTitle());
+                out.writeInt(t.getYear());
+            }
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e); // in memory, and the writer checked every field with fits()
+        }
+        byte[] b = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(b);
+
+        synchronized (lock)
+        {
+            DataOutputStream out = new DataOutputStream(pending);
+            try
+            {
+                out.writeInt(b.length);
+                out.writeInt((int) crc.getValue());
+                out.write(b);
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException(e);
+            }
+            lock.notifyAll();
+            return ++appended;
+        }
+    }
+
+    /**
+     * Blocks until a record, and every record before it, is on disk.
+     *
+     * @param seq the sequence number returned when the record was queued
+     * @throws IOException if writing the log failed
+     */
+    void awaitDurable(long seq) throws IOException
+    {
+        synchronized (lock)
+        {
+            boolean interrupted = false;
+            while (durable < seq && failure == null && !closed)
+            {
+                try
+                {
+                    lock.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (durable < seq) throw failure != null ? failure : new IOException("Catalog log closed");
+        }
+    }
+
+    /**
+     * Starts a new log for the records that follow, once everything queued so far is on
+     * disk. The caller must make sure no records are queued meanwhile and then write the
+     * catalog as it stands now with {@link #writeBase} under the returned generation.
+     * The new log starts with the catalog's version and the current reservation.
+     *
+     * @param version the version of the catalog as it stands now
+     * @return the new generation, or -1 if nothing was logged since the last roll
+     * @throws IOException if the log cannot be flushed or the new one created
+     */
+    long roll(long version) throws IOException
+    {
+        synchronized (lock)
+        {
+            if (appended == rolledAt) return -1;
+            awaitDurable(appended);
+            FileChannel next = FileChannel.open(dir.resolve(logName(generation + 1)),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            log.close();
+            log = next;
+            append(VERSION, version, null, null);
+            append(RESERVE, reserved, null, null);
+            rolledAt = appended;
+            return ++generation;
+        }
+    }
+
+    /**
+     * Writes a catalog snapshot as the base of a generation, then deletes the older base
+     * and logs.
+     *
+     * @param snapshot the catalog as it stood when {@link #roll()} returned {@code g}
+     * @param g the generation
+     * @throws IOException if the base cannot be written
+     */
+    void writeBase(Catalog snapshot, long g) throws IOException
+    {
+        writeBase(dir, snapshot.store(), g);
+        long versionRecord;
+        synchronized (lock)
+        {
+            versionRecord = rolledAt;
+        }
+        awaitDurable(versionRecord); // the old logs hold the versions until the new one does
+        deleteBefore(dir, g);
+    }
+
+    /**
+     * Stops the flusher after it has written everything queued, and closes the log.
+     *
+     * @throws IOException if the log cannot be closed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (lock)
+        {
+            if (closed) return;
+            if (failure == null && durable < appended) awaitDurable(appended);
+            closed = true;
+            lock.notifyAll();
+        }
+        try
+        {
+            flusher.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock)
+        {
+            log.close();
+        }
+    }
+
+    /** Writes and forces batches of queued records until the store is closed. */
+    private void flushLoop()
+    {
+        while (true)
+        {
+            byte[] batch;
+            long upTo;
+            FileChannel ch;
+            synchronized (lock)
+            {
+                while (pending.size() == 0 && !closed)
+                {
+                    try
+                    {
+                        lock.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+                if (pending.size() == 0) return;
+                batch = pending.toByteArray();
+                pending.reset();
+                upTo = appended;
+                ch = log;
+            }
+            try
+            {
+                ByteBuffer buf = ByteBuffer.wrap(batch);
+                while (buf.hasRemaining()) ch.write(buf);
+                ch.force(false);
+                synchronized (lock)
+                {
+                    durable = upTo;
+                    lock.notifyAll();
+                }
+            }
+            catch (IOException e)
+            {
+                synchronized (lock)
+                {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                LOG.error("CAT LOG write failed: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /** Writes a store sorted by ID, ignoring case, as the base of generation {@code g}. */
+    private static void writeBase(Path dir, TrackStore store, long g) throws IOException
+    {
+        int n = store.size();
+        String[] ids = new String[n];
+        for (int pos = 0; pos < n; pos++) ids[pos] = store.id(pos);
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> {
+            int c = String.CASE_INSENSITIVE_ORDER.compare(ids[a], ids[b]);
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+        try (CatalogFileWriter w = new CatalogFileWriter(dir.resolve(baseName(g))))
+        {
+            for (int pos : order) w.append(store.get(pos));
+            w.finish();
+        }
+    }
+
+    private static void deleteBefore(Path dir, long g) throws IOException
+    {
+        for (long old : generations(dir, "base-", ".vcat")) if (old < g) Files.deleteIfExists(dir.resolve(baseName(old)));
+        for (long old : generations(dir, "log-", ".log")) if (old < g) Files.deleteIfExists(dir.resolve(logName(old)));
+    }
+
+    private static TreeSet<Long> generations(Path dir, String prefix, String suffix) throws IOException
+    {
+        TreeSet<Long> out = new TreeSet<>();
+        try (Stream<Path> files = Files.list(dir))
+        {
+            files.forEach(p -> {
+                String name = p.getFileName().toString().toLowerCase(Locale.ROOT);
+                if (!name.startsWith(prefix) || !name.endsWith(suffix)) return;
+                try
+                {
+                    out.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                }
+                catch (NumberFormatException ignored)
+                {
+                    // not one of ours
+                }
+            });
+        }
+        return out;
+    }
+
+    private static String baseName(long g)
+    {
+        return "base-" + g + ".vcat";
+    }
+
+    private static String logName(long g)
+    {
+        return "log-" + g + ".log";
+    }
+
+    /**
+     * Replays log records over a base store without copying it: the outcome is a set
+     * of deleted and replaced base positions plus the added tracks.
+     */
+    private static final class Replay
+    {
+        private final TrackStore base;
+        private final IdIndex baseIds;
+        private final BitSet deleted = new BitSet();
+        private final Map<Integer, Track> replaced = new HashMap<>();
+        private final List<Track> added = new ArrayList<>();
+        /** Lower-cased ID of each live added track to its index in {@link #added}. */
+        private final Map<String, Integer> addedIds = new HashMap<>();
+        int records;
+        /** Records that added, updated or deleted a track. */
+        int writes;
+        /** Highest catalog version logged by a write or VERSION record, 0 if none. */
+        long version;
+        /** Highest version reserved, 0 if none. */
+        long reserved;
+
+        Replay(TrackStore base)
+        {
+            this.base = base;
+            this.baseIds = new IdIndex(base.size(), base::id);
+        }
+
+        boolean changed()
+        {
+            return writes > 0;
+        }
+
+        /** Applies every intact record of a log file and cuts off a torn tail. */
+        void read(Path file) throws IOException
+        {
+            long good = 0;
+            try (InputStream raw = Files.newInputStream(file);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16)))
+            {
+                while (true)
+                {
+                    int len;
+                    try
+                    {
+                        len = in.readInt();
+                    }
+                    catch (EOFException e)
+                    {
+                        break;
+                    }
+                    int crc = in.readInt();
+                    if (len <= 0 || len > (1 << 20)) break;
+                    byte[] body = new byte[len];
+                    in.readFully(body);
+                    CRC32 check = new CRC32();
+                    check.update(body);
+                    if ((int) check.getValue() != crc) break;
+                    apply(new DataInputStream(new ByteArrayInputStream(body)));
+                    good += 8 + len;
+                    records++;
+                }
+            }
+            catch (EOFException e)
+            {
+                // torn record at the end
+            }
+            if (good < Files.size(file))
+            {
+                LOG.warn("CAT LOG {}: dropping {} bytes of incomplete records", file, Files.size(file) - good);
+                try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE))
+                {
+                    ch.truncate(good);
+                }
+            }
+        }
+
+        private void apply(DataInputStream in) throws IOException
+        {
+            byte op = in.readByte();
+            long v = in.readLong();
+            if (op == RESERVE)
+            {
+                reserved = Math.max(reserved, v);
+                return;
+            }
+            version = Math.max(version, v);
+            if (op == VERSION) return;
+            writes++;
+            String id = in.readUTF();
+            Track t = op == DELETE ? null : new Track(id, in.readUTF(), in.readUTF(), in.readInt());
+            String key = id.toLowerCase(Locale.ROOT);
+            Integer a = addedIds.get(key);
+            int pos = a != null ? -1 : baseIds.find(id);
+            if (pos >= 0 && deleted.get(pos)) pos = -1;
+
+            switch (op)
+            {
+                case ADD -> {
+                    if (a != null || pos >= 0) return;
+                    addedIds.put(key, added.size());
+                    added.add(t);
+                }
+                case UPDATE -> {
+                    if (a != null) added.set(a, new Track(added.get(a).getId(), t.getArtist(), t.getTitle(), t.getYear()));
+                    else if (pos >= 0) replaced.put(pos, new Track(base.id(pos), t.getArtist(), t.getTitle(), t.getYear()));
+                }
+                case DELETE -> {
+                    if (a != null)
+                    {
+                        added.set(a, null);
+                        addedIds.remove(key);
+                    }
+                    else if (pos >= 0)
+                    {
+                        deleted.set(pos);
+                        replaced.remove(pos);
+                    }
+                }
+                default -> throw new IOException("Unknown log record " + op);
+            }
+        }
+
+        /** The replayed catalog: live base tracks in base order, then the added ones. */
+        TrackStore view()
+        {
+            List<Track> live = new ArrayList<>(added.size());
+            for (Track t : added) if (t != null) live.add(t);
+            int[] order = new int[base.size() - deleted.cardinality()];
+            int n = 0;
+            for (int pos = deleted.nextClearBit(0); pos < base.size(); pos = deleted.nextClearBit(pos + 1)) order[n++] = pos;
+
+            return new TrackStore()
+            {
+                @Override public int size() { return order.length + live.size(); }
+                @Override public String id(int i) { return get(i).getId(); }
+                @Override public String artist(int i) { return get(i).getArtist(); }
+                @Override public String title(int i) { return get(i).getTitle(); }
+                @Override public int year(int i) { return get(i).getYear(); }
+
+                @Override public Track get(int i)
+                {
+                    if (i >= order.length) return live.get(i - order.length);
+                    Track t = replaced.get(order[i]);
+                    return t != null ? t : base.get(order[i]);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package via.vinylsystem.server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A structured catalog query: field predicates combined with AND, OR and NOT.
+ * <p>
+ * Queries are written as JSON:
+ * <ul>
+ *   <li>{"ARTIST":"Medina"} - tracks by the artist, ignoring case</li>
+ *   <li>{"TITLE":"kun"} - tracks whose title contains the text, ignoring case</li>
+ *   <li>{"YEAR":2009} or {"YEAR":{"FROM":2005,"TO":2014}} - release year, bounds included;
+ *   either bound may be left out</li>
+ *   <li>{"AND":[...]}, {"OR":[...]}, {"NOT":{...}} - combinations</li>
+ * </ul>
+ * An object with several keys means all of them must hold, so
+ * {"ARTIST":"Medina","YEAR":{"FROM":2005,"TO":2014}} is the same as an AND of the two.
+ * </p>
+ * <p>
+ * Every predicate is answered by an index as a bitset over catalog positions (see
+ * {@link FieldIndex} and {@link TrigramIndex}), and the bitsets are intersected or
+ * united before any track is read. An AND stops as soon as its result is empty.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public final class CatalogQuery
+{
+    /** One node of the predicate tree. */
+    private interface Node
+    {
+        BitSet eval(Catalog c, Cancellation cancel);
+    }
+
+    private record And(List<Node> parts) implements Node
+    {
+        public BitSet eval(Catalog c, Cancellation cancel)
+        {
+            BitSet acc = null;
+            for (Node p : parts)
+            {
+                cancel.check();
+                BitSet b = p.eval(c, cancel);
+                if (acc == null) acc = b;
+                else acc.and(b);
+                if (acc.isEmpty()) break;
+            }
+            return acc == null ? c.all() : acc;
+        }
+    }
+
+    private record Or(List<Node> parts) implements Node
+    {
+        public BitSet eval(Catalog c, Cancellation cancel)
+        {
+            BitSet acc = new BitSet(c.size());
+            for (Node p : parts)
+            {
+                cancel.check();
+                acc.or(p.eval(c, cancel));
+            }
+            return acc;
+        }
+    }
+
+    private record Not(Node part) implements Node
+    {
+        public BitSet eval(Catalog c, Cancellation cancel)
+        {
+            BitSet acc = c.all();
+            acc.andNot(part.eval(c, cancel));
+            return acc;
+        }
+    }
+
+    private record Artist(String name) implements Node
+    {
+        public BitSet eval(Catalog c, Cancellation cancel) { return c.byArtist(name); }
+    }
+
+    private record Title(String text) implements Node
+    {
+        public BitSet eval(Catalog c, Cancellation cancel) { return c.titleContains(text, cancel); }
+    }
+
+    private record Year(int from, int to) implements Node
+    {
+        public BitSet eval(Catalog c, Cancellation cancel) { return c.yearRange(from, to); }
+    }
+
+    private final Node root;
+
+    private CatalogQuery(Node root)
+    {
+        this.root = root;
+    }
+
+    /**
+     * Parses a query from its JSON form.
+     *
+     * @param where the query object
+     * @return the parsed query
+     * @throws IllegalArgumentException if the query is malformed
+     */
+    public static CatalogQuery parse(JsonElement where)
+    {
+        return new CatalogQuery(node(where));
+    }
+
+    /**
+     * Evaluates the query against a catalog.
+     *
+     * @param catalog the catalog snapshot
+     * @param cancel checked while the query runs
+     * @return the positions of every matching track
+     */
+    BitSet evaluate(Catalog catalog, Cancellation cancel)
+    {
+        return root.eval(catalog, cancel);
+    }
+
+    private static Node node(JsonElement e)
+    {
+        if (e == null || !e.isJsonObject()) throw new IllegalArgumentException("Predicate must be an object: " + e);
+        JsonObject o = e.getAsJsonObject();
+        if (o.size() == 0) throw new IllegalArgumentException("Empty predicate");
+        List<Node> parts = new ArrayList<>(o.size());
+        for (Map.Entry<String, JsonElement> f : o.entrySet())
+        {
+            JsonElement v = f.getValue();
+            switch (f.getKey().toUpperCase(Locale.ROOT))
+            {
+                case "AND" -> parts.add(new And(list(v)));
+                case "OR" -> parts.add(new Or(list(v)));
+                case "NOT" -> parts.add(new Not(node(v)));
+                case "ARTIST" -> parts.add(new Artist(string(v, "ARTIST")));
+                case "TITLE" -> parts.add(new Title(string(v, "TITLE")));
+                case "YEAR" -> parts.add(year(v));
+                default -> throw new IllegalArgumentException("Unknown field " + f.getKey());
+            }
+        }
+        return parts.size() == 1 ? parts.get(0) : new And(parts);
+    }
+
+    private static List<Node> list(JsonElement v)
+    {
+        if (!v.isJsonArray()) throw new IllegalArgumentException("AND/OR takes an array");
+        JsonArray a = v.getAsJsonArray();
+        if (a.isEmpty()) throw new IllegalArgumentException("AND/OR needs at least one predicate");
+        List<Node> out = new ArrayList<>(a.size());
+        for (JsonElement p : a) out.add(node(p));
+        return out;
+    }
+
+    private static Node year(JsonElement v)
+    {
+        try
+        {
+            if (v.isJsonPrimitive())
+            {
+                int y = v.getAsInt();
+                return new Year(y, y);
+            }
+            JsonObject r = v.getAsJsonObject();
+            int from = r.has("FROM") ? r.get("FROM").getAsInt() : Integer.MIN_VALUE;
+            int to = r.has("TO") ? r.get("TO").getAsInt() : Integer.MAX_VALUE;
+            return new Year(from, to);
+        }
+        catch (RuntimeException ex)
+        {
+            throw new IllegalArgumentException("YEAR takes a year or {\"FROM\":y,\"TO\":y}");
+        }
+    }
+
+    private static String string(JsonElement v, String field)
+    {
+        if (!v.isJsonPrimitive()) throw new IllegalArgumentException(field + " takes a string");
+        return v.getAsString();
+    }
+}
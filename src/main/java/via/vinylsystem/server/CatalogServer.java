@@ -1,18 +1,32 @@
 package via.vinylsystem.server;
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import via.vinylsystem.Model.Track;
+import via.vinylsystem.Util.JsonLineWriter;
+import via.vinylsystem.Util.Log;
 import via.vinylsystem.directory.StatusCodes;
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
 
 /**
  * TCP server providing catalog services for the Vinyl System.
@@ -24,54 +38,381 @@ import java.util.concurrent.Executors;
  * <p>
  * Supported commands:
  * <ul>
- *   <li>LIST - Returns all tracks in the catalog</li>
- *   <li>SEARCH - Searches for tracks by artist or title</li>
+ *   <li>LIST - Returns all tracks in the catalog, in full, one page at a time or streamed</li>
+ *   <li>SEARCH - Searches for tracks by artist or title, best matches first, tolerating typos
+ *   when nothing matches exactly</li>
+ *   <li>SUGGEST - Completes a typed prefix to the artists and titles with the most tracks,
+ *   see {@link SuggestIndex}</li>
  *   <li>GET - Retrieves a specific track by ID</li>
+ *   <li>MGET - Retrieves many tracks by ID in one round trip</li>
+ *   <li>QUERY - Finds tracks matching field predicates, see {@link CatalogQuery}</li>
+ *   <li>ADD, UPDATE, DELETE - Change the catalog while it is served, see {@link CatalogWriter}</li>
+ *   <li>CHANGES - Returns the tracks changed since a catalog version, so a copy of the
+ *   catalog can be kept up to date without downloading it again, see {@link ChangeJournal}</li>
+ *   <li>COMPRESS - Switches the connection to compressed responses</li>
+ *   <li>STATS - Reports latency percentiles per command, session, traffic and error
+ *   counters and the search cache counters, see {@link CatalogStats}</li>
+ *   <li>CACHE_STATS - Reports hit and eviction counts of the search cache</li>
  *   <li>QUIT - Closes the client connection</li>
  * </ul>
  * </p>
  * <p>
+ * Every change to the catalog raises its version. LIST answers carry the version
+ * they were built from under VERSION; a client holding that copy asks for CHANGES
+ * SINCE it and applies the UPSERTS and DELETES it gets back.
+ * </p>
+ * <p>
+ * LIST, SEARCH, GET, MGET and QUERY take an optional FIELDS list, e.g.
+ * {"FIELDS":["id","title"]}; their tracks then carry only those fields, and the
+ * other fields are never serialized.
+ * </p>
+ * <p>
  * All requests and responses are in JSON format, sent as newline-delimited messages.
  * The server maintains a persistent connection with each client until QUIT is received
  * or the connection is closed.
  * </p>
+ * <p>
+ * The catalog can be replaced while the server runs, see {@link #swap(TrackStore)}.
+ * Each request reads the current snapshot once and is answered from it, so a
+ * request in flight during a swap finishes on the old version and sessions are
+ * never dropped.
+ * </p>
+ * <p>
+ * Ranked SEARCH results are cached per catalog version, see {@link SearchCache};
+ * a swap clears the cache, while the results of a version a write replaced age out.
+ * </p>
  *
  * @author Ghiyath & sakariae
  * @version 1.0
  */
-public class CatalogServer
+public final class CatalogServer
 {
     private final int servicePort;
     private ServerSocket server;
     private ExecutorService clientPool;
+    private ExecutorService requestPool;
     private volatile boolean running;
-    private List<via.vinylsystem.Model.Track> catalog;
+    private volatile Catalog catalog;
+    private volatile ListPayload listPayload;
+    private volatile SearchCache searchCache = new SearchCache(DEFAULT_SEARCH_CACHE_BYTES);
+    private final CatalogWriter writer = new CatalogWriter(this, CatalogWriter.DEFAULT_MERGE_AT);
+    private final ChangeJournal changes;
+    private final CatalogStats stats = new CatalogStats();
 
     private static final Gson GSON = new Gson();
 
+    /** One line per request and response, at DEBUG; off unless configured, see {@link Log}. */
+    private static final Log REQUESTS = Log.get("catalog.request");
+    private static final Log LOG = Log.get("catalog");
+
+    /** Largest page a paged LIST may request. */
+    private static final int MAX_PAGE = 10_000;
+
+    /** Tagged requests a single connection may have in progress at once. */
+    private static final int MAX_IN_FLIGHT = 256;
+
+    /** Commands that may scan the whole catalog and are cancelled when their client leaves. */
+    private static final Set<String> SCANNING = Set.of("SEARCH", "QUERY");
+
+    /** Milliseconds between checks for a vanished client during a long command. */
+    private static final int WATCH_MS = 50;
+
+    /** Checks sockets of connections busy with a long command, see {@link #processWatched}. */
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "catalog-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Returned by {@link #logged} when a write could not be made durable. */
+    private static final long LOG_FAILED = Long.MIN_VALUE;
+
+    /** Default budget of the search cache, in estimated heap bytes. */
+    private static final long DEFAULT_SEARCH_CACHE_BYTES = 64L << 20;
+
+    /** Tracks per line in a streamed LIST. */
+    private static final int STREAM_CHUNK = 500;
+
+    /** Length of the {@code "}\n"} that closes an encoded response line. */
+    private static final int LINE_END = 2;
+
+    /**
+     * An encoded LIST response line and the catalog version it was built from, plus its
+     * compressed form, built the first time a compressing client asks for it.
+     * <p>
+     * The line is encoded without VERSION, which is sent in the tail spliced after the
+     * tracks. The tracks can so be encoded before the version of a swapped-in catalog
+     * is known, see {@link #swap(TrackStore)}.
+     * </p>
+     */
+    private static final class ListPayload
+    {
+        private final long version;
+        private final byte[] bytes;
+        private final byte[] tail;
+        private volatile byte[] deflatedHead;
+
+        /**
+         * @param version the version of the listed snapshot
+         * @param bytes the UTF-8 response line without VERSION, newline included
+         */
+        ListPayload(long version, byte[] bytes)
+        {
+            this.version = version;
+            this.bytes = bytes;
+            this.tail = tail(null);
+        }
+
+        long version() { return version; }
+
+        /** The UTF-8 response line without VERSION, newline included. */
+        byte[] bytes() { return bytes; }
+
+        /** Length of the line without its closing {@code "}\n"}. */
+        int headLength() { return bytes.length - LINE_END; }
+
+        /** The bytes that close the line: VERSION, then the request ID, if any. */
+        byte[] tail(JsonElement rid)
+        {
+            if (rid == null && tail != null) return tail;
+            String end = ",\"VERSION\":" + version + (rid == null ? "" : ",\"RID\":" + rid) + "}\n";
+            return end.getBytes(StandardCharsets.UTF_8);
+        }
+
+        /** DEFLATE blocks of the line without its closing {@code "}\n"}, see {@link ResponseWriter#spliced}. */
+        byte[] deflatedHead()
+        {
+            byte[] d = deflatedHead;
+            if (d == null) deflatedHead = d = ResponseWriter.deflateHead(bytes, headLength());
+            return d;
+        }
+    }
+
     /**
      * Constructs a new CatalogServer with the specified port and catalog.
      * <p>
      * If no catalog is provided (null), a default seed catalog with Danish music
-     * tracks will be used.
+     * tracks will be used, served at {@link #initialVersion()}. Nothing is indexed
+     * here: the catalog builds each index on first use, see {@link Catalog}, and a
+     * catalog published by {@link #swap(TrackStore)} is indexed before it takes the
+     * lock.
      * </p>
      *
      * @param servicePort the port number on which the server will listen for connections
      * @param catalog the list of tracks to serve, or null to use the default seed catalog
      */
     public CatalogServer(int servicePort, List<via.vinylsystem.Model.Track> catalog)
+    {
+        this(servicePort, Catalog.of((catalog != null) ? catalog : seedCatalog(), initialVersion()));
+    }
+
+    /**
+     * Constructs a new CatalogServer serving an already built catalog, e.g. one
+     * backed by a memory-mapped catalog file.
+     *
+     * @param servicePort the port number on which the server will listen for connections
+     * @param catalog the catalog to serve
+     */
+    public CatalogServer(int servicePort, Catalog catalog)
     {
         this.servicePort = servicePort;
-        this.catalog = (catalog != null) ? catalog : seedCatalog();
+        this.catalog = catalog;
+        this.changes = new ChangeJournal(ChangeJournal.DEFAULT_CAPACITY, catalog.version());
         this.running = false;
     }
 
+    /**
+     * Returns the version to start serving a catalog at whose writes are not persisted,
+     * e.g. one loaded from a catalog file: the current time in microseconds.
+     * <p>
+     * Such writes are gone after a restart, so a client that synced with the previous
+     * process must download the catalog again. Its version is below this one, and
+     * CHANGES answers it with RESYNC, unless that process made more writes than it ran
+     * microseconds. A catalog recovered from a {@link CatalogLogStore} continues from
+     * its logged versions instead.
+     * </p>
+     *
+     * @return the first version of a catalog that is not persisted
+     */
+    public static long initialVersion()
+    {
+        return TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the catalog snapshot currently being served.
+     *
+     * @return the current catalog
+     */
+    public Catalog catalog()
+    {
+        return catalog;
+    }
+
+    /**
+     * Replaces the served catalog with new tracks, as the next version.
+     * <p>
+     * The new snapshot's indexes and its LIST response are built here, on the calling
+     * thread, before it is published, so the first requests against it pay nothing
+     * extra. That work runs outside the lock writes take, so writes go on meanwhile;
+     * the version is assigned when the snapshot is published, one above whatever
+     * version those writes reached. Requests that already read the old snapshot finish
+     * on it. Clients syncing with CHANGES from before the swap are told to download the
+     * catalog again. The replaced store is closed if it is {@link Closeable}.
+     * </p>
+     *
+     * @param store the tracks to serve
+     * @return the published snapshot
+     */
+    public Catalog swap(TrackStore store)
+    {
+        Catalog staged = Catalog.of(store, 0).warm();
+        byte[] list = encodeList(staged);
+        Catalog current;
+        Catalog next;
+        synchronized (this)
+        {
+            current = catalog;
+            next = staged.withVersion(current.version() + 1);
+            listPayload = new ListPayload(next.version(), list);
+            changes.reset(next.version());
+            catalog = next;
+            searchCache.clear();
+        }
+        closeReplaced(current, next);
+        return next;
+    }
+
+    /**
+     * Applies a change to the served catalog, atomically with respect to other changes
+     * and swaps.
+     * <p>
+     * Unlike {@link #swap(TrackStore)} the LIST response is not rebuilt here; the next LIST
+     * builds it, so a burst of writes does not encode the catalog once per write.
+     * </p>
+     * <p>
+     * The changed track is journaled before the snapshot is published, so a CHANGES
+     * answered from the new snapshot always finds it.
+     * </p>
+     *
+     * @param change returns the next snapshot, or its argument to leave the catalog as it is
+     * @param changedId the ID of the track the change adds, updates or deletes, in any
+     *                  case, or {@code null} if the tracks stay the same
+     * @return the published snapshot, or {@code null} if the change left the catalog as it is
+     */
+    Catalog update(UnaryOperator<Catalog> change, String changedId)
+    {
+        Catalog current;
+        Catalog next;
+        synchronized (this)
+        {
+            current = catalog;
+            next = change.apply(current);
+            if (next == current) return null;
+            next.warm();
+            if (changedId != null)
+            {
+                // IDs match ignoring case; journal the ID as stored, not as typed
+                int pos = current.indexOf(changedId);
+                changes.record(next.version(), pos >= 0 ? current.store().id(pos) : changedId);
+            }
+            catalog = next; // cached searches of the old version age out of the search cache
+        }
+        closeReplaced(current, next);
+        return next;
+    }
+
+    /**
+     * Closes the store under a snapshot once a new base replaced it, e.g. the mapped
+     * catalog file after a reload. Requests still reading the old snapshot are not
+     * affected: a mapped store stays readable after close.
+     */
+    private static void closeReplaced(Catalog old, Catalog next)
+    {
+        TrackStore replaced = old.root().store();
+        if (replaced == next.root().store() || !(replaced instanceof Closeable c)) return;
+        try
+        {
+            c.close();
+        }
+        catch (IOException e)
+        {
+            LOG.error("CAT could not close replaced catalog: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Makes catalog writes durable in a log store and compacts it periodically.
+     * <p>
+     * The server must have been created with the store's recovered catalog,
+     * {@link CatalogLogStore#catalog()}; CHANGES then also serves clients at the
+     * store's last durable write. Compaction runs on a daemon thread named
+     * "catalog-compact" every {@code compactSec} seconds, when anything was written.
+     * </p>
+     *
+     * @param store the log store
+     * @param compactSec seconds between compactions, 0 to never compact
+     */
+    public void persistTo(CatalogLogStore store, int compactSec)
+    {
+        writer.persistTo(store);
+        changes.resume(store.lastWriteVersion());
+        if (compactSec <= 0) return;
+        ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "catalog-compact");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                writer.compact();
+            } catch (IOException | RuntimeException e) {
+                LOG.error("CAT COMPACT failed: {}", e.getMessage());
+            }
+        }, compactSec, compactSec, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes the server's statistics to a file every {@code intervalSec} seconds, in the
+     * Prometheus text format (see {@link CatalogStats}). Runs on a daemon thread named
+     * "catalog-stats"; a failed write is logged and retried at the next interval.
+     *
+     * @param file the file to write, replaced each time
+     * @param intervalSec seconds between writes
+     */
+    public void dumpStatsTo(Path file, int intervalSec)
+    {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "catalog-stats");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleWithFixedDelay(() -> {
+            try {
+                stats.writePrometheus(file, catalog.version(), searchCache.stats());
+            } catch (IOException | RuntimeException e) {
+                LOG.error("CAT STATS dump failed: {}", e.getMessage());
+            }
+        }, intervalSec, intervalSec, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Sets the budget of the SEARCH result cache, dropping what it holds; 0 disables it.
+     *
+     * @param maxBytes the budget in estimated heap bytes
+     */
+    public void setSearchCacheSize(long maxBytes)
+    {
+        searchCache = new SearchCache(Math.max(0, maxBytes));
+    }
+
     /**
      * Starts the catalog server and begins accepting client connections.
      * <p>
      * Creates a server socket on the configured port and initializes a cached
-     * thread pool for handling client connections concurrently. The accept loop
-     * runs in a separate thread named "catalog-accept".
+     * thread pool for handling client connections concurrently, and a fixed pool
+     * of workers for requests tagged with a request ID. The accept loop runs in a
+     * separate thread named "catalog-accept".
      * </p>
      *
      * @throws IOException if the server socket cannot be created or bound
@@ -89,6 +430,11 @@ public class CatalogServer
             throw be;
         }
         this.clientPool = Executors.newCachedThreadPool();
+        this.requestPool = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread t = new Thread(r, "catalog-worker");
+            t.setDaemon(true);
+            return t;
+        });
         this.running = true;
 
         Thread t = new Thread(this::acceptLoop, "catalog-accept");
@@ -146,111 +492,625 @@ public class CatalogServer
      * Handles an individual client connection with persistent session support.
      * <p>
      * Processes JSON commands from the client in a loop until QUIT is received
-     * or the connection is closed. Each command receives an immediate JSON response.
+     * or the connection is closed.
+     * </p>
+     * <p>
+     * A command without a request ID is answered before the next line is read, so a
+     * client sending one command at a time gets its responses in order. A command
+     * with a {@code RID} is handed to the worker pool and the reader moves on to the
+     * next line right away; its response carries the same {@code RID} and may arrive
+     * before responses to earlier commands. At most {@link #MAX_IN_FLIGHT} tagged
+     * commands per connection are processed at once; beyond that the reader waits,
+     * which pushes back on the client through TCP. QUIT waits for every tagged
+     * command to be answered first.
+     * </p>
+     * <p>
+     * When the connection fails (the client resets it, or a response cannot be
+     * written), the scans still running for it (SEARCH and QUERY, see
+     * {@link ScanEngine}) are cancelled and no response is sent. A client that only
+     * closes its sending side after the last command still gets every answer.
      * </p>
      * <p>
      * Command formats:
      * <ul>
      *   <li>LIST: {"CMD":"LIST"}</li>
-     *   <li>SEARCH: {"CMD":"SEARCH", "Q":"query"}</li>
+     *   <li>Paged LIST: {"CMD":"LIST", "LIMIT":100, "CURSOR":"nextId"}</li>
+     *   <li>Streamed LIST: {"CMD":"LIST", "STREAM":true} (not with RID)</li>
+     *   <li>SEARCH: {"CMD":"SEARCH", "Q":"query", "LIMIT":20, "FUZZY":true} (LIMIT and FUZZY
+     *   optional; without FUZZY a search that matches nothing is retried typo-tolerant, see
+     *   {@link Catalog#fuzzySearch}, and such answers carry "FUZZY":true)</li>
+     *   <li>SUGGEST: {"CMD":"SUGGEST", "PREFIX":"med", "LIMIT":10} (LIMIT optional, at most
+     *   100); answered with "SUGGESTIONS":[{"TEXT":"Medina","TYPE":"ARTIST","TRACKS":12}, ...]</li>
      *   <li>GET: {"CMD":"GET", "ID":"trackId"}</li>
+     *   <li>MGET: {"CMD":"MGET", "IDS":["T001","T002"]} (at most 10,000 IDs); answered with the
+     *   found tracks in request order under TRACKS and the unknown IDs under MISSING</li>
+     *   <li>LIST, SEARCH, GET, MGET and QUERY may add "FIELDS":["id","artist","title","year"],
+     *   any non-empty subset</li>
+     *   <li>QUERY: {"CMD":"QUERY", "WHERE":{"ARTIST":"Medina","YEAR":{"FROM":2005,"TO":2014}}, "LIMIT":100}
+     *   (LIMIT optional)</li>
+     *   <li>COMPRESS: {"CMD":"COMPRESS", "MODE":"DEFLATE"}</li>
+     *   <li>STATS: {"CMD":"STATS"}</li>
+     *   <li>CACHE_STATS: {"CMD":"CACHE_STATS"}</li>
+     *   <li>ADD: {"CMD":"ADD", "TRACK":{"id":"T100","artist":"Medina","title":"Vi to","year":2008}}</li>
+     *   <li>UPDATE: {"CMD":"UPDATE", "TRACK":{"id":"T100","artist":"Medina","title":"Vi to","year":2009}}</li>
+     *   <li>DELETE: {"CMD":"DELETE", "ID":"T100"}</li>
+     *   <li>CHANGES: {"CMD":"CHANGES", "SINCE":42}; answered with the current VERSION, the
+     *   current content of every track added or updated since under UPSERTS and the IDs of
+     *   the deleted ones under DELETES, or with "RESYNC":true when version 42 is no longer
+     *   journaled (or the catalog was replaced since, or the server restarted without a
+     *   log store, or version 42 was lost in a crash) and LIST must be used instead</li>
      *   <li>QUIT: {"CMD":"QUIT"}</li>
+     *   <li>Any command except QUIT may add a request ID: {"CMD":"GET", "ID":"T001", "RID":42}</li>
      * </ul>
      * </p>
      * <p>
-     * Response format: {"STATUS":"statusCode", ...additional fields...}
+     * Response format: {"STATUS":"statusCode", ...additional fields...}, plus
+     * {"RID":...} when the request had one.
      * </p>
      *
      * @param s the client socket connection to handle
      */
     private void handleClient(Socket s) {
         BufferedReader in = null;
-        BufferedWriter out = null;
+        ResponseWriter out = null;
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        Cancellation closed = new Cancellation();
+        boolean finished = false;
+        stats.sessionOpened();
         try {
             s.setSoTimeout(0);
-            in  = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
-            out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+            PeerInputStream peer = new PeerInputStream(s, stats.bytesIn);
+            in  = new BufferedReader(new InputStreamReader(peer, StandardCharsets.UTF_8));
+            out = new ResponseWriter(new BufferedOutputStream(s.getOutputStream()), stats.bytesOut);
 
 
             while (true) {
                 String line = in.readLine();
-                if (line == null) break;
-                System.out.println("CAT IN " + line);
+                if (line == null) {
+                    finished = true; // the client stopped sending; answer what it sent
+                    break;
+                }
+                long received = System.nanoTime();
+                REQUESTS.debug("CAT IN {}", line);
 
                 JsonObject req = JsonParser.parseString(line).getAsJsonObject();
                 String cmd = req.has("CMD") ? req.get("CMD").getAsString() : "";
 
                 if ("QUIT".equalsIgnoreCase(cmd)) {
+                    inFlight.acquire(MAX_IN_FLIGHT);
+                    inFlight.release(MAX_IN_FLIGHT);
                     JsonObject bye = new JsonObject();
                     bye.addProperty("STATUS", StatusCodes.OK);
-                    out.write(bye.toString()); out.write('\n'); out.flush();
+                    out.line(bye);
+                    finished = true;
                     break;
                 }
 
-                JsonObject resp = new JsonObject();
-                resp.addProperty("STATUS", StatusCodes.OK);
-
-                switch (cmd) {
-                    case "LIST" -> resp.add("TRACKS", GSON.toJsonTree(catalog));
-                    case "SEARCH" -> {
-                        String q = req.has("Q") ? req.get("Q").getAsString() : "";
-                        List<Track> hits = catalog.stream()
-                                .filter(t -> t.getArtist().toLowerCase().contains(q.toLowerCase())
-                                        || t.getTitle().toLowerCase().contains(q.toLowerCase()))
-                                .toList();
-                        resp.add("TRACKS", GSON.toJsonTree(hits).getAsJsonArray());
-                    }
-                    case "GET" -> {
-                        String id = req.has("ID") ? req.get("ID").getAsString() : "";
-                        if (id.isBlank()) resp.addProperty("STATUS", StatusCodes.BAD_REQUEST);
-                        else {
-                            Track t = findById(catalog, id);
-                            if (t == null) resp.addProperty("STATUS", StatusCodes.NOT_FOUND);
-                            else resp.add("TRACK", GSON.toJsonTree(t));
-                        }
-                    }
-                    default -> resp.addProperty("STATUS", StatusCodes.UNKNOWN_CMD);
+                if ("COMPRESS".equals(cmd)) {
+                    inFlight.acquire(MAX_IN_FLIGHT);
+                    inFlight.release(MAX_IN_FLIGHT);
+                    compress(req, out);
+                    continue;
                 }
 
-                System.out.println("CAT OUT " + resp);
-                out.write(resp.toString()); out.write('\n'); out.flush();
+                JsonElement rid = req.get("RID");
+                if (rid == null) {
+                    if (SCANNING.contains(cmd)) processWatched(req, cmd, out, closed, peer, received);
+                    else process(req, cmd, out, null, closed, received);
+                    continue;
+                }
+
+                inFlight.acquire();
+                ResponseWriter o = out;
+                try {
+                    requestPool.execute(() -> {
+                        try {
+                            process(req, cmd, o, rid, closed, received);
+                        } catch (CancellationException e) {
+                            REQUESTS.debug("CAT CANCELLED {} (client gone)", cmd);
+                        } catch (IOException e) {
+                            closed.cancel(); // the response could not be written
+                        } catch (Exception e) {
+                            LOG.error("CatalogServer error: {}", e);
+                            JsonObject err = new JsonObject();
+                            err.addProperty("STATUS", StatusCodes.SERVER_ERROR);
+                            err.add("RID", rid);
+                            try { o.line(err); } catch (IOException ignore) {}
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    throw e;
+                }
             }
         } catch (Exception e) {
-            System.err.println("CatalogServer error: " + e);
+            LOG.error("CatalogServer error: {}", e);
+            stats.error();
             if (out != null) {
                 try {
                     JsonObject err = new JsonObject();
                     err.addProperty("STATUS", StatusCodes.SERVER_ERROR); // "000500"
-                    out.write(err.toString()); out.write('\n'); out.flush();
+                    out.line(err);
                 } catch (IOException ignore) {}
             }
         } finally {
+            // unless the client said it was done, it is gone: stop its running scans;
+            // then let tagged commands finish before the stream is closed
+            if (!finished) closed.cancel();
+            inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
             try { if (out != null) out.close(); } catch (IOException ignore) {}
             try { if (in  != null) in.close();  } catch (IOException ignore) {}
             try { s.close(); } catch (IOException ignore) {}
+            stats.sessionClosed();
+        }
+    }
+
+    /**
+     * Answers an untagged command that may scan the whole catalog, cancelling it if
+     * the connection is lost meanwhile.
+     * <p>
+     * The command runs on the connection thread as usual. While it runs, the shared
+     * watchdog checks the socket every {@link #WATCH_MS} ms and cancels the
+     * connection's {@link Cancellation} once it has been reset, see
+     * {@link PeerInputStream#connectionLost(int)}.
+     * </p>
+     *
+     * @param req the parsed request
+     * @param cmd the command name
+     * @param out the client's response writer
+     * @param closed the connection's cancellation flag
+     * @param peer the connection's input stream
+     * @param received when the request was read, from {@link System#nanoTime()}
+     * @throws IOException if the client connection fails
+     */
+    private void processWatched(JsonObject req, String cmd, ResponseWriter out, Cancellation closed,
+                                PeerInputStream peer, long received) throws IOException
+    {
+        ScheduledFuture<?> watch = WATCHDOG.scheduleWithFixedDelay(() -> {
+            if (peer.connectionLost(1)) closed.cancel();
+        }, WATCH_MS, WATCH_MS, TimeUnit.MILLISECONDS);
+        try {
+            process(req, cmd, out, null, closed, received);
+        } catch (CancellationException e) {
+            REQUESTS.debug("CAT CANCELLED {} (client gone)", cmd);
+        } finally {
+            watch.cancel(false);
+        }
+    }
+
+    /**
+     * Answers one command (anything but QUIT or COMPRESS) and records its latency
+     * and status, see {@link CatalogStats}. A command cancelled because its client
+     * left is not recorded; one that failed is recorded as SERVER_ERROR.
+     *
+     * @param req the parsed request
+     * @param cmd the command name
+     * @param out the client's response writer
+     * @param rid the request ID to echo, or {@code null} for an untagged request
+     * @param cancel the connection's cancellation flag, checked by long scans
+     * @param received when the request was read, from {@link System#nanoTime()}
+     * @throws IOException if the client connection fails
+     * @throws CancellationException if the client disconnected while the command ran
+     */
+    private void process(JsonObject req, String cmd, ResponseWriter out, JsonElement rid, Cancellation cancel,
+                         long received) throws IOException
+    {
+        String status = StatusCodes.SERVER_ERROR;
+        try {
+            status = "LIST".equals(cmd) ? handleList(req, out, rid) : answer(req, cmd, out, rid, cancel);
+        } catch (CancellationException e) {
+            status = null;
+            throw e;
+        } finally {
+            if (status != null) stats.record(cmd, status, System.nanoTime() - received);
+        }
+    }
+
+    /**
+     * Answers one command other than LIST from the current catalog snapshot.
+     *
+     * @param req the parsed request
+     * @param cmd the command name
+     * @param out the client's response writer
+     * @param rid the request ID to echo, or {@code null} for an untagged request
+     * @param cancel the connection's cancellation flag, checked by long scans
+     * @return the status sent
+     * @throws IOException if the client connection fails
+     * @throws CancellationException if the client disconnected while the command ran
+     */
+    private String answer(JsonObject req, String cmd, ResponseWriter out, JsonElement rid, Cancellation cancel)
+            throws IOException
+    {
+
+        Catalog current = catalog;
+        String status = StatusCodes.OK;
+        ResponseWriter.Body body = null;
+        int fields = fieldsOf(req);
+
+        if (fields < 0) status = StatusCodes.BAD_REQUEST;
+        else switch (cmd) {
+            case "SEARCH" -> {
+                String q = req.has("Q") ? req.get("Q").getAsString() : "";
+                int limit = req.has("LIMIT") ? req.get("LIMIT").getAsInt() : Integer.MAX_VALUE;
+                Boolean fuzzyOpt = req.has("FUZZY") ? req.get("FUZZY").getAsBoolean() : null;
+                if (limit <= 0) status = StatusCodes.BAD_REQUEST;
+                else {
+                    // FUZZY true: typo-tolerant only; false: exact only; absent: fuzzy when nothing matched exactly
+                    boolean fuzzy = Boolean.TRUE.equals(fuzzyOpt);
+                    Catalog.Hits hits = fuzzy ? null : searchCache.get(current.version(), q, limit, false, cancel,
+                            () -> current.search(q, limit, cancel));
+                    if (fuzzy || (fuzzyOpt == null && hits.total() == 0)) {
+                        hits = searchCache.get(current.version(), q, limit, true, cancel,
+                                () -> current.fuzzySearch(q, limit, cancel));
+                        fuzzy = true;
+                    }
+                    Catalog.Hits found = hits;
+                    boolean approximate = fuzzy;
+                    body = j -> {
+                        j.tracks("TRACKS", found.tracks(), fields).field("TOTAL", found.total());
+                        if (approximate) j.field("FUZZY", true);
+                    };
+                }
+            }
+            case "SUGGEST" -> {
+                String prefix = req.has("PREFIX") ? req.get("PREFIX").getAsString() : "";
+                int limit = req.has("LIMIT") ? req.get("LIMIT").getAsInt() : 10;
+                if (limit <= 0) status = StatusCodes.BAD_REQUEST;
+                else {
+                    List<SuggestIndex.Suggestion> found =
+                            current.suggest(prefix, Math.min(limit, SuggestIndex.MAX_SUGGESTIONS));
+                    body = j -> {
+                        j.beginArray("SUGGESTIONS");
+                        for (SuggestIndex.Suggestion s : found) {
+                            j.beginObject().field("TEXT", s.text()).field("TYPE", s.artist() ? "ARTIST" : "TITLE")
+                                    .field("TRACKS", s.tracks()).endObject();
+                        }
+                        j.endArray();
+                    };
+                }
+            }
+            case "GET" -> {
+                String id = req.has("ID") ? req.get("ID").getAsString() : "";
+                if (id.isBlank()) status = StatusCodes.BAD_REQUEST;
+                else {
+                    Track t = current.get(id);
+                    if (t == null) status = StatusCodes.NOT_FOUND;
+                    else body = j -> j.track("TRACK", t, fields);
+                }
+            }
+            case "MGET" -> {
+                List<String> ids = idsOf(req.get("IDS"));
+                if (ids == null) status = StatusCodes.BAD_REQUEST;
+                else {
+                    List<Track> found = new ArrayList<>(ids.size());
+                    List<String> missing = new ArrayList<>();
+                    for (String id : ids) {
+                        Track t = current.get(id);
+                        if (t != null) found.add(t);
+                        else missing.add(id);
+                    }
+                    body = j -> {
+                        j.tracks("TRACKS", found, fields).beginArray("MISSING");
+                        for (String id : missing) j.element(id);
+                        j.endArray();
+                    };
+                }
+            }
+            case "QUERY" -> {
+                int limit = req.has("LIMIT") ? req.get("LIMIT").getAsInt() : Integer.MAX_VALUE;
+                CatalogQuery query;
+                try {
+                    query = CatalogQuery.parse(req.get("WHERE"));
+                } catch (IllegalArgumentException e) {
+                    query = null;
+                }
+                if (query == null || limit <= 0) status = StatusCodes.BAD_REQUEST;
+                else {
+                    BitSet hits = current.query(query, cancel);
+                    TrackStore store = current.store();
+                    body = j -> {
+                        j.beginArray("TRACKS");
+                        int n = 0;
+                        for (int pos = hits.nextSetBit(0); pos >= 0 && n < limit; pos = hits.nextSetBit(pos + 1), n++) {
+                            j.element(store.get(pos), fields);
+                        }
+                        j.endArray().field("TOTAL", hits.cardinality());
+                    };
+                }
+            }
+            case "STATS" -> {
+                JsonObject st = stats.toJson(current.version(), searchCache.stats());
+                body = j -> j.field("STATS", st);
+            }
+            case "CACHE_STATS" -> {
+                JsonObject c = CatalogStats.cacheJson(searchCache.stats());
+                body = j -> j.field("CACHE", c);
+            }
+            case "ADD", "UPDATE" -> {
+                Track t = trackOf(req.get("TRACK"));
+                if (t == null) status = StatusCodes.BAD_REQUEST;
+                else {
+                    boolean add = "ADD".equals(cmd);
+                    long version = logged(() -> add ? writer.add(t) : writer.update(t));
+                    if (version == LOG_FAILED) status = StatusCodes.SERVER_ERROR;
+                    else if (version < 0) status = add ? StatusCodes.ALREADY_EXISTS : StatusCodes.NOT_FOUND;
+                    else body = j -> j.field("VERSION", version);
+                }
+            }
+            case "DELETE" -> {
+                String id = req.has("ID") ? req.get("ID").getAsString() : "";
+                boolean valid = !id.isBlank() && CatalogLogStore.fits(id);
+                long version = valid ? logged(() -> writer.delete(id)) : -1;
+                if (!valid) status = StatusCodes.BAD_REQUEST;
+                else if (version == LOG_FAILED) status = StatusCodes.SERVER_ERROR;
+                else if (version < 0) status = StatusCodes.NOT_FOUND;
+                else body = j -> j.field("VERSION", version);
+            }
+            case "CHANGES" -> {
+                long since = req.has("SINCE") ? req.get("SINCE").getAsLong() : -1;
+                long version = current.version();
+                List<String> ids = since < 0 ? null : changes.since(since, version);
+                if (since < 0) status = StatusCodes.BAD_REQUEST;
+                else if (ids == null) body = j -> j.field("VERSION", version).field("RESYNC", true);
+                else {
+                    List<Track> upserts = new ArrayList<>();
+                    List<String> deletes = new ArrayList<>();
+                    for (String id : ids) {
+                        Track t = current.get(id);
+                        if (t != null) upserts.add(t);
+                        else deletes.add(id);
+                    }
+                    body = j -> {
+                        j.field("VERSION", version).tracks("UPSERTS", upserts, fields).beginArray("DELETES");
+                        for (String id : deletes) j.element(id);
+                        j.endArray();
+                    };
+                }
+            }
+            default -> status = StatusCodes.UNKNOWN_CMD;
         }
+
+        REQUESTS.debug("CAT OUT {} {}", cmd, status);
+        out.send(status, body, rid);
+        return status;
     }
 
     /**
-     * Finds a track in the catalog by its ID.
+     * Answers a LIST request in one of its three forms. Each carries the version of the
+     * snapshot it lists under VERSION, the stream on its terminator line.
      * <p>
-     * Performs a case-insensitive search through the catalog for a track
-     * with the matching ID.
+     * Without options the cached full response is sent; with FIELDS the projected
+     * response is built for the request instead. With {@code LIMIT} one page
+     * of at most {@code LIMIT} tracks is sent, starting at the track whose ID is given
+     * in {@code CURSOR} (or at the start), and {@code NEXT} holds the cursor for the
+     * following page; it is missing on the last page. With {@code STREAM} the tracks
+     * are sent as a sequence of {"TRACKS":[...]} lines, followed by a terminator line
+     * {"STATUS":"000000","END":true,"COUNT":n}. Server and client then only ever hold
+     * one chunk in memory. A stream spans several lines, so it cannot be tagged with
+     * a request ID.
      * </p>
      *
-     * @param catalog the list of tracks to search
-     * @param id the track ID to find
-     * @return the matching Track object, or null if not found
+     * @param req the parsed request
+     * @param out the client's response writer
+     * @param rid the request ID to echo, or {@code null} for an untagged request
+     * @return the status sent
+     * @throws IOException if the client connection fails
      */
-    private Track findById(List<Track> catalog, String id)
+    private String handleList(JsonObject req, ResponseWriter out, JsonElement rid) throws IOException
     {
-        for(Track track: catalog)
+        Catalog current = catalog;
+        int fields = fieldsOf(req);
+        if (fields < 0)
+        {
+            REQUESTS.debug("CAT OUT LIST {}", StatusCodes.BAD_REQUEST);
+            out.send(StatusCodes.BAD_REQUEST, null, rid);
+            return StatusCodes.BAD_REQUEST;
+        }
+
+        if (req.has("STREAM") && req.get("STREAM").getAsBoolean())
         {
-            if(track.getId().equalsIgnoreCase(id)){
-                return track;
+            if (rid != null)
+            {
+                out.send(StatusCodes.BAD_REQUEST, null, rid);
+                return StatusCodes.BAD_REQUEST;
+            }
+            List<Track> tracks = current.tracks();
+            synchronized (out)
+            {
+                for (int from = 0; from < tracks.size(); from += STREAM_CHUNK)
+                {
+                    List<Track> chunk = tracks.subList(from, Math.min(tracks.size(), from + STREAM_CHUNK));
+                    out.send(j -> j.tracks("TRACKS", chunk, fields), false);
+                }
+                REQUESTS.debug("CAT OUT LIST STREAM ({} tracks)", tracks.size());
+                out.send(StatusCodes.OK, j -> j.field("END", true).field("COUNT", tracks.size())
+                        .field("VERSION", current.version()), null);
             }
+            return StatusCodes.OK;
+        }
+
+        if (!req.has("LIMIT") && !req.has("CURSOR") && fields != JsonLineWriter.ALL_FIELDS)
+        {
+            // only the full projection is cached
+            List<Track> tracks = current.tracks();
+            REQUESTS.debug("CAT OUT LIST ({} tracks)", tracks.size());
+            out.send(StatusCodes.OK, j -> j.field("VERSION", current.version()).tracks("TRACKS", tracks, fields), rid);
+            return StatusCodes.OK;
+        }
+        if (!req.has("LIMIT") && !req.has("CURSOR"))
+        {
+            ListPayload payload = listPayload(current);
+            REQUESTS.debug("CAT OUT LIST ({} bytes)", payload.bytes().length);
+            // the version and the request ID, if any, are spliced in as the last fields of the cached line
+            out.spliced(payload.bytes(), payload.headLength(), payload::deflatedHead, payload.tail(rid));
+            return StatusCodes.OK;
+        }
+
+        int limit = req.has("LIMIT") ? req.get("LIMIT").getAsInt() : MAX_PAGE;
+        int from = 0;
+        if (req.has("CURSOR"))
+        {
+            from = current.indexOf(req.get("CURSOR").getAsString());
+        }
+        if (limit <= 0 || from < 0)
+        {
+            REQUESTS.debug("CAT OUT LIST {} page", StatusCodes.BAD_REQUEST);
+            out.send(StatusCodes.BAD_REQUEST, null, rid);
+            return StatusCodes.BAD_REQUEST;
+        }
+        List<Track> tracks = current.tracks();
+        int to = Math.min(tracks.size(), from + Math.min(limit, MAX_PAGE));
+        List<Track> page = tracks.subList(from, to);
+        String next = to < tracks.size() ? tracks.get(to).getId() : null;
+        REQUESTS.debug("CAT OUT LIST {} page", StatusCodes.OK);
+        out.send(StatusCodes.OK, j -> {
+            j.field("VERSION", current.version()).tracks("TRACKS", page, fields);
+            if (next != null) j.field("NEXT", next);
+        }, rid);
+        return StatusCodes.OK;
+    }
+
+    /**
+     * Switches a connection between plain and compressed responses.
+     * <p>
+     * Request: {"CMD":"COMPRESS", "MODE":"DEFLATE"} or {"CMD":"COMPRESS", "MODE":"NONE"}.
+     * The acknowledgement {"STATUS":"000000","COMPRESS":"DEFLATE"} is still sent in
+     * the old mode; every later response uses the new one. See {@link ResponseWriter}
+     * for the frame format.
+     * </p>
+     *
+     * @param req the parsed request
+     * @param out the client's response writer
+     * @throws IOException if the client connection fails
+     */
+    private static void compress(JsonObject req, ResponseWriter out) throws IOException
+    {
+        String mode = req.has("MODE") ? req.get("MODE").getAsString().toUpperCase(Locale.ROOT) : "DEFLATE";
+        JsonObject resp = new JsonObject();
+        if (req.has("RID")) resp.add("RID", req.get("RID"));
+        if (!mode.equals("DEFLATE") && !mode.equals("NONE"))
+        {
+            resp.addProperty("STATUS", StatusCodes.BAD_REQUEST);
+            out.line(resp);
+            return;
+        }
+        resp.addProperty("STATUS", StatusCodes.OK);
+        resp.addProperty("COMPRESS", mode);
+        synchronized (out)
+        {
+            out.line(resp);
+            out.setCompressed(mode.equals("DEFLATE"));
+        }
+    }
+
+    /**
+     * Returns the encoded LIST response for a catalog snapshot.
+     * <p>
+     * A snapshot does not change, so the full response line is built once and reused
+     * until the catalog version changes. Two threads may occasionally rebuild it at
+     * the same time; both produce the same bytes. A request still on an older
+     * snapshot after a swap builds its own payload without replacing the cached one.
+     * </p>
+     *
+     * @param current the snapshot the request is answered from
+     * @return the LIST response for that snapshot
+     */
+    private ListPayload listPayload(Catalog current)
+    {
+        ListPayload cached = listPayload;
+        if (cached == null || cached.version() != current.version())
+        {
+            ListPayload built = buildListPayload(current);
+            if (cached == null || cached.version() < built.version()) listPayload = built;
+            return built;
+        }
+        return cached;
+    }
+
+    /** A catalog write that may fail to reach the log. */
+    private interface Write
+    {
+        long run() throws IOException;
+    }
+
+    /**
+     * Runs a write, turning a log failure into {@link #LOG_FAILED} so it is answered
+     * with SERVER_ERROR rather than closing the connection.
+     */
+    private static long logged(Write w)
+    {
+        try
+        {
+            return w.run();
         }
-        return null;
+        catch (IOException e)
+        {
+            LOG.error("CAT LOG {}", e.getMessage());
+            return LOG_FAILED;
+        }
+    }
+
+    /**
+     * Reads the FIELDS option as a mask for {@link JsonLineWriter}.
+     *
+     * @return every field when FIELDS is missing, -1 when it is empty or names an unknown field
+     */
+    private static int fieldsOf(JsonObject req)
+    {
+        JsonElement e = req.get("FIELDS");
+        if (e == null) return JsonLineWriter.ALL_FIELDS;
+        if (!e.isJsonArray() || e.getAsJsonArray().isEmpty()) return -1;
+        int mask = 0;
+        for (JsonElement f : e.getAsJsonArray())
+        {
+            int m = f.isJsonPrimitive() ? JsonLineWriter.fieldMask(f.getAsString()) : 0;
+            if (m == 0) return -1;
+            mask |= m;
+        }
+        return mask;
+    }
+
+    /** Reads the IDS of an MGET, or returns {@code null} if they are missing, too many or not strings. */
+    private static List<String> idsOf(JsonElement e)
+    {
+        if (e == null || !e.isJsonArray() || e.getAsJsonArray().size() > MAX_PAGE) return null;
+        List<String> ids = new ArrayList<>(e.getAsJsonArray().size());
+        for (JsonElement id : e.getAsJsonArray())
+        {
+            if (!id.isJsonPrimitive()) return null;
+            ids.add(id.getAsString());
+        }
+        return ids;
+    }
+
+    /** Reads the track of an ADD or UPDATE, or returns {@code null} if it is missing, has no ID or a field too long. */
+    private static Track trackOf(JsonElement e)
+    {
+        if (e == null || !e.isJsonObject()) return null;
+        try
+        {
+            Track t = GSON.fromJson(e, Track.class);
+            return (t.getId() == null || t.getId().isBlank() || !CatalogWriter.fits(t)) ? null : t;
+        }
+        catch (RuntimeException ex)
+        {
+            return null;
+        }
+    }
+
+    private static ListPayload buildListPayload(Catalog c)
+    {
+        return new ListPayload(c.version(), encodeList(c));
+    }
+
+    /** Encodes the full LIST response line of a snapshot, without VERSION. */
+    private static byte[] encodeList(Catalog c)
+    {
+        JsonLineWriter j = new JsonLineWriter().begin().field("STATUS", StatusCodes.OK).tracks("TRACKS", c.tracks());
+        j.end();
+        return j.toByteArray();
     }
 
     /**
@@ -0,0 +1,224 @@
+package via.vinylsystem.server;
+
+import com.google.gson.JsonObject;
+import via.vinylsystem.directory.StatusCodes;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and per-command latency histograms of a {@link CatalogServer}.
+ * <p>
+ * Every command is timed from the moment its line has been read until its response
+ * has been written, so a tagged request's wait for a worker counts too. Commands the
+ * server does not know are counted under OTHER, which keeps the set of names fixed.
+ * Recording never locks, see {@link LatencyHistogram}.
+ * </p>
+ * <p>
+ * The numbers are served by the STATS command ({@link #toJson}) and can be written
+ * periodically in the Prometheus text format ({@link #writePrometheus}), e.g. for
+ * node_exporter's textfile collector, where
+ * {@code histogram_quantile(0.99, rate(catalog_request_duration_seconds_bucket[5m]))}
+ * gives the recent p99 per command.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+final class CatalogStats
+{
+    /** Commands timed separately; everything else is counted under OTHER. */
+    private static final List<String> COMMANDS =
+            List.of("LIST", "SEARCH", "SUGGEST", "GET", "MGET", "QUERY", "ADD", "UPDATE", "DELETE", "CHANGES", "STATS", "OTHER");
+
+    /** Bucket bounds of the exported histograms, in microseconds. */
+    private static final long[] EXPORT_BOUNDS = {
+            100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000};
+
+    /** Latency and error count of one command. */
+    private record Command(LatencyHistogram latency, LongAdder errors) {}
+
+    private final Map<String, Command> commands = new LinkedHashMap<>();
+
+    /** Bytes read from all connections. */
+    final LongAdder bytesIn = new LongAdder();
+
+    /** Bytes written to all connections. */
+    final LongAdder bytesOut = new LongAdder();
+
+    private final AtomicLong activeSessions = new AtomicLong();
+    private final LongAdder sessions = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    CatalogStats()
+    {
+        for (String c : COMMANDS) commands.put(c, new Command(new LatencyHistogram(), new LongAdder()));
+    }
+
+    /**
+     * Records an answered command.
+     *
+     * @param cmd the command name
+     * @param status the status it was answered with
+     * @param nanos the time from reading the request to writing the response
+     */
+    void record(String cmd, String status, long nanos)
+    {
+        Command c = commands.getOrDefault(cmd, commands.get("OTHER"));
+        c.latency().record(nanos);
+        if (!StatusCodes.OK.equals(status)) c.errors().increment();
+        if (StatusCodes.SERVER_ERROR.equals(status)) errors.increment();
+    }
+
+    /** Counts a connection failure or a request that failed inside the server. */
+    void error()
+    {
+        errors.increment();
+    }
+
+    void sessionOpened()
+    {
+        sessions.increment();
+        activeSessions.incrementAndGet();
+    }
+
+    void sessionClosed()
+    {
+        activeSessions.decrementAndGet();
+    }
+
+    /**
+     * Returns the STATS response body.
+     * <p>
+     * Latencies are in microseconds. Per command: COUNT, ERRORS (answers with a
+     * status other than OK), MEAN_US, P50_US, P90_US, P99_US, P999_US and MAX_US,
+     * all since the server started.
+     * </p>
+     *
+     * @param version the catalog version currently served
+     * @param cache the search cache counters
+     * @return the statistics
+     */
+    JsonObject toJson(long version, SearchCache.Stats cache)
+    {
+        JsonObject s = new JsonObject();
+        s.addProperty("VERSION", version);
+        s.addProperty("SESSIONS_ACTIVE", activeSessions.get());
+        s.addProperty("SESSIONS_TOTAL", sessions.sum());
+        s.addProperty("BYTES_IN", bytesIn.sum());
+        s.addProperty("BYTES_OUT", bytesOut.sum());
+        s.addProperty("ERRORS", errors.sum());
+        JsonObject cmds = new JsonObject();
+        for (Map.Entry<String, Command> e : commands.entrySet())
+        {
+            LatencyHistogram.Snapshot h = e.getValue().latency().snapshot();
+            if (h.count() == 0) continue;
+            JsonObject c = new JsonObject();
+            c.addProperty("COUNT", h.count());
+            c.addProperty("ERRORS", e.getValue().errors().sum());
+            c.addProperty("MEAN_US", h.sumMicros() / h.count());
+            c.addProperty("P50_US", h.percentile(0.50));
+            c.addProperty("P90_US", h.percentile(0.90));
+            c.addProperty("P99_US", h.percentile(0.99));
+            c.addProperty("P999_US", h.percentile(0.999));
+            c.addProperty("MAX_US", h.percentile(1.0));
+            cmds.add(e.getKey(), c);
+        }
+        s.add("COMMANDS", cmds);
+        s.add("CACHE", cacheJson(cache));
+        return s;
+    }
+
+    /**
+     * Returns the search cache counters as sent by STATS and CACHE_STATS.
+     *
+     * @param st the counters
+     * @return HITS, MISSES, COALESCED, HIT_RATIO, EVICTIONS, REJECTED, ENTRIES and BYTES
+     */
+    static JsonObject cacheJson(SearchCache.Stats st)
+    {
+        JsonObject c = new JsonObject();
+        c.addProperty("HITS", st.hits());
+        c.addProperty("MISSES", st.misses());
+        c.addProperty("COALESCED", st.coalesced());
+        c.addProperty("HIT_RATIO", st.hitRatio());
+        c.addProperty("EVICTIONS", st.evictions());
+        c.addProperty("REJECTED", st.rejected());
+        c.addProperty("ENTRIES", st.entries());
+        c.addProperty("BYTES", st.bytes());
+        return c;
+    }
+
+    /**
+     * Writes the statistics to a file in the Prometheus text format. The file is
+     * written next to its target and moved over it, so a scraper never reads half a file.
+     *
+     * @param file the target file
+     * @param version the catalog version currently served
+     * @param cache the search cache counters
+     * @throws IOException if the file cannot be written
+     */
+    void writePrometheus(Path file, long version, SearchCache.Stats cache) throws IOException
+    {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))
+        {
+            w.write("# HELP catalog_request_duration_seconds Time from reading a request to writing its response.\n");
+            w.write("# TYPE catalog_request_duration_seconds histogram\n");
+            for (Map.Entry<String, Command> e : commands.entrySet())
+            {
+                LatencyHistogram.Snapshot h = e.getValue().latency().snapshot();
+                String cmd = "cmd=\"" + e.getKey() + "\"";
+                for (long bound : EXPORT_BOUNDS)
+                {
+                    w.write("catalog_request_duration_seconds_bucket{" + cmd + ",le=\"" + seconds(bound) + "\"} "
+                            + h.countAtMost(bound) + "\n");
+                }
+                w.write("catalog_request_duration_seconds_bucket{" + cmd + ",le=\"+Inf\"} " + h.count() + "\n");
+                w.write("catalog_request_duration_seconds_sum{" + cmd + "} " + seconds(h.sumMicros()) + "\n");
+                w.write("catalog_request_duration_seconds_count{" + cmd + "} " + h.count() + "\n");
+            }
+            w.write("# HELP catalog_request_errors_total Requests answered with a status other than OK.\n");
+            w.write("# TYPE catalog_request_errors_total counter\n");
+            for (Map.Entry<String, Command> e : commands.entrySet())
+            {
+                w.write("catalog_request_errors_total{cmd=\"" + e.getKey() + "\"} " + e.getValue().errors().sum() + "\n");
+            }
+            metric(w, "catalog_errors_total", "counter", "Server errors and failed connections.", errors.sum());
+            metric(w, "catalog_sessions_active", "gauge", "Open client connections.", activeSessions.get());
+            metric(w, "catalog_sessions_total", "counter", "Client connections accepted.", sessions.sum());
+            metric(w, "catalog_received_bytes_total", "counter", "Bytes read from clients.", bytesIn.sum());
+            metric(w, "catalog_sent_bytes_total", "counter", "Bytes written to clients.", bytesOut.sum());
+            metric(w, "catalog_version", "gauge", "Version of the catalog being served.", version);
+            metric(w, "catalog_search_cache_hits_total", "counter", "SEARCH cache hits.", cache.hits());
+            metric(w, "catalog_search_cache_misses_total", "counter", "SEARCH cache misses.", cache.misses());
+            metric(w, "catalog_search_cache_coalesced_total", "counter", "SEARCH cache lookups that waited for another.", cache.coalesced());
+            metric(w, "catalog_search_cache_evictions_total", "counter", "SEARCH cache evictions.", cache.evictions());
+            metric(w, "catalog_search_cache_bytes", "gauge", "Estimated heap held by the SEARCH cache.", cache.bytes());
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void metric(Writer w, String name, String type, String help, long value) throws IOException
+    {
+        w.write("# HELP " + name + " " + help + "\n");
+        w.write("# TYPE " + name + " " + type + "\n");
+        w.write(name + " " + value + "\n");
+    }
+
+    private static String seconds(long micros)
+    {
+        return String.format(Locale.ROOT, "%.6f", micros / 1e6).replaceAll("0+$", "").replaceAll("\\.$", "");
+    }
+}
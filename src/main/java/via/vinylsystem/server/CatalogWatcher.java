@@ -0,0 +1,136 @@
+package via.vinylsystem.server;
+
+import via.vinylsystem.Util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads the catalog of a running {@link CatalogServer} when its source file changes.
+ * <p>
+ * The source file is polled on a background thread. When its modification time or
+ * size has changed and stayed the same for one full poll interval (so a file that is
+ * still being written is not picked up), the new catalog is loaded, indexed and
+ * swapped in with {@link CatalogServer#swap(TrackStore)} under the next version number.
+ * All of that work happens on the watcher thread; request threads only ever see a
+ * fully built snapshot. If loading fails the old catalog keeps being served.
+ * </p>
+ * <p>
+ * A {@code .vcat} source should be replaced by renaming a new file over it (as
+ * {@link CatalogFileWriter} does), never rewritten in place, since the old snapshot
+ * may still be reading the old file through its mapping.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public class CatalogWatcher implements Closeable
+{
+    private static final Log LOG = Log.get("catalog.reload");
+
+    private final CatalogServer server;
+    private final Path source;
+    private final boolean columnar;
+    private ScheduledExecutorService timer;
+
+    /** Modification time and size of the source file as last loaded, and as seen on the last poll. */
+    private String loadedStamp;
+    private String lastStamp;
+
+    /**
+     * Creates a watcher for a server's catalog file.
+     *
+     * @param server the server whose catalog is replaced
+     * @param source the {@code .vcat}, {@code .csv} or {@code .jsonl} file the catalog was loaded from
+     * @param columnar true to load new catalogs into a {@link ColumnarTrackStore}
+     */
+    public CatalogWatcher(CatalogServer server, Path source, boolean columnar)
+    {
+        this.server = server;
+        this.source = source;
+        this.columnar = columnar;
+        this.loadedStamp = stamp();
+        this.lastStamp = loadedStamp;
+    }
+
+    /**
+     * Starts polling the source file.
+     *
+     * @param intervalSec seconds between checks
+     */
+    public void start(long intervalSec)
+    {
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "catalog-watcher");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::poll, intervalSec, intervalSec, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Checks the source file once and reloads it if it has changed and settled.
+     */
+    void poll()
+    {
+        String now = stamp();
+        boolean settled = now != null && now.equals(lastStamp);
+        lastStamp = now;
+        if (!settled || now.equals(loadedStamp)) return;
+
+        try
+        {
+            reload();
+            loadedStamp = now;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            LOG.error("Catalog reload failed, keeping version {}: {}", server.catalog().version(), e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the source file and swaps it in as the next catalog version.
+     *
+     * @throws IOException if the file cannot be read or converted
+     */
+    public void reload() throws IOException
+    {
+        long started = System.nanoTime();
+        Catalog next = server.swap(CatalogLoader.open(source, columnar));
+        if (LOG.enabled(Log.Level.INFO))
+        {
+            LOG.info(String.format(Locale.ROOT, "Catalog reloaded: version %d, %d tracks in %d ms",
+                    next.version(), next.size(), (System.nanoTime() - started) / 1_000_000));
+        }
+    }
+
+    private String stamp()
+    {
+        try
+        {
+            BasicFileAttributes a = Files.readAttributes(source, BasicFileAttributes.class);
+            return a.lastModifiedTime().toMillis() + ":" + a.size();
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Stops polling.
+     */
+    @Override
+    public void close()
+    {
+        if (timer != null) timer.shutdownNow();
+    }
+}
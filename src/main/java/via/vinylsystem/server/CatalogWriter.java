@@ -0,0 +1,239 @@
+package via.vinylsystem.server;
+
+import via.vinylsystem.Model.Track;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.UnaryOperator;
+
+/**
+ * Applies ADD, UPDATE and DELETE commands to the catalog served by a {@link CatalogServer}.
+ * <p>
+ * Every write publishes a new snapshot, one version higher, through
+ * {@link CatalogServer#update}, which records the changed track in the server's
+ * {@link ChangeJournal}. The snapshot layers the change over the indexed base
+ * catalog (see {@link Catalog}), so a write copies only the changes made so far and
+ * readers keep using whichever snapshot they already hold, without locking. Writes
+ * are serialized by this writer.
+ * </p>
+ * <p>
+ * Once {@code mergeAt} changes have piled up, a background thread copies the current
+ * snapshot into a new, fully indexed base. Writes go on meanwhile and are recorded;
+ * when the merge is done they are replayed on top of the new base and the result is
+ * published, so no write is lost. A merge is dropped if the catalog was replaced in
+ * the meantime, e.g. reloaded from its file by {@link CatalogWatcher}.
+ * </p>
+ * <p>
+ * Without a {@link CatalogLogStore} writes are kept in memory only, and reloading the
+ * catalog file replaces them. With one, every accepted write is logged in the order it
+ * was applied and only acknowledged once the log is on disk; the wait happens outside
+ * this writer's lock, so concurrent writers share one {@code fsync}. A write is
+ * visible to readers slightly before it is acknowledged. Its version is reserved in
+ * the log first ({@link CatalogLogStore#reserve}), so a restart never hands out a
+ * version that was published before a crash.
+ * </p>
+ * <p>
+ * Whatever can make a write fail is checked before it is published: fields too long
+ * for a log record, and a log store that failed or was closed. Once the log failed
+ * every write is refused, so the served catalog never runs ahead of the log by more
+ * than the writes that were waiting for the failed {@code fsync}.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+final class CatalogWriter
+{
+    /** Changes layered over the base catalog before they are merged into a new base. */
+    static final int DEFAULT_MERGE_AT = 4096;
+
+    private final CatalogServer server;
+    private final int mergeAt;
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "catalog-merge");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Writes accepted since the running merge started, or {@code null} when no merge runs. */
+    private List<UnaryOperator<Catalog>> journal;
+
+    /** Durable log of accepted writes, or {@code null} to keep them in memory only. */
+    private CatalogLogStore store;
+
+    /**
+     * @param server the server whose catalog is written
+     * @param mergeAt changes after which a merge starts
+     */
+    CatalogWriter(CatalogServer server, int mergeAt)
+    {
+        this.server = server;
+        this.mergeAt = mergeAt;
+    }
+
+    /**
+     * Adds a track after every other track.
+     *
+     * @param track the new track
+     * @return the new catalog version, or -1 if a track with the same ID exists
+     * @throws IOException if the write could not be logged
+     * @throws IllegalArgumentException if a field does not {@linkplain #fits fit} in the log
+     */
+    long add(Track track) throws IOException
+    {
+        checkFits(track);
+        return write(track.getId(), c -> c.indexOf(track.getId()) >= 0 ? c : c.withAdded(track), (s, v) -> s.appendAdd(track, v));
+    }
+
+    /**
+     * Replaces the artist, title and year of the track with the same ID.
+     *
+     * @param track the new content
+     * @return the new catalog version, or -1 if there is no such track
+     * @throws IOException if the write could not be logged
+     * @throws IllegalArgumentException if a field does not {@linkplain #fits fit} in the log
+     */
+    long update(Track track) throws IOException
+    {
+        checkFits(track);
+        return write(track.getId(), c -> {
+            int pos = c.indexOf(track.getId());
+            if (pos < 0) return c;
+            return c.withReplaced(pos, new Track(c.store().id(pos), track.getArtist(), track.getTitle(), track.getYear()));
+        }, (s, v) -> s.appendUpdate(track, v));
+    }
+
+    /**
+     * Removes a track.
+     *
+     * @param id the ID of the track
+     * @return the new catalog version, or -1 if there is no such track
+     * @throws IOException if the write could not be logged
+     * @throws IllegalArgumentException if the ID does not fit in the log
+     */
+    long delete(String id) throws IOException
+    {
+        if (!CatalogLogStore.fits(id)) throw new IllegalArgumentException("ID too long");
+        return write(id, c -> {
+            int pos = c.indexOf(id);
+            return pos < 0 ? c : c.withDeleted(pos);
+        }, (s, v) -> s.appendDelete(id, v));
+    }
+
+    /**
+     * Returns whether a track can be written: every field must fit in a log record, see
+     * {@link CatalogLogStore#fits}, whether or not a log store is used, so the catalog
+     * can always be logged or written to a catalog file later.
+     *
+     * @param track the track
+     * @return true if the track can be added or updated
+     */
+    static boolean fits(Track track)
+    {
+        return CatalogLogStore.fits(track.getId()) && CatalogLogStore.fits(track.getArtist()) && CatalogLogStore.fits(track.getTitle());
+    }
+
+    private static void checkFits(Track track)
+    {
+        if (!fits(track)) throw new IllegalArgumentException("Track field too long");
+    }
+
+    /**
+     * Logs every write from now on; the served catalog must be the one the store recovered.
+     *
+     * @param store the log store
+     */
+    synchronized void persistTo(CatalogLogStore store)
+    {
+        this.store = store;
+    }
+
+    /**
+     * Writes the current catalog as a new base of the log store, if anything was logged
+     * since the last compaction. Only starting the new log holds up writers; the base
+     * is written on the calling thread while writes go on.
+     *
+     * @throws IOException if the base cannot be written
+     */
+    void compact() throws IOException
+    {
+        Catalog snapshot;
+        long generation;
+        CatalogLogStore s;
+        synchronized (this)
+        {
+            s = store;
+            if (s == null) return;
+            snapshot = server.catalog();
+            generation = s.roll(snapshot.version());
+            if (generation < 0) return;
+        }
+        s.writeBase(snapshot, generation);
+    }
+
+    /** Queues the log record of a write, see {@link CatalogLogStore#appendAdd}. */
+    private interface LogRecord
+    {
+        long append(CatalogLogStore store, long version);
+    }
+
+    private long write(String id, UnaryOperator<Catalog> op, LogRecord log) throws IOException
+    {
+        long version;
+        long seq = 0;
+        CatalogLogStore s;
+        synchronized (this)
+        {
+            s = store;
+            if (s != null)
+            {
+                s.checkWritable();
+                s.reserve(server.catalog().version() + 1);
+            }
+            Catalog next = server.update(op, id);
+            if (next == null) return -1;
+            if (journal != null) journal.add(op);
+            else if (next.changes() >= mergeAt) startMerge(next);
+            version = next.version();
+            if (s != null) seq = log.append(s, version);
+        }
+        if (s != null) s.awaitDurable(seq);
+        return version;
+    }
+
+    /** Merges {@code from} into a new base on the merge thread; called with this writer locked. */
+    private void startMerge(Catalog from)
+    {
+        journal = new ArrayList<>();
+        merger.execute(() -> {
+            Catalog merged = null;
+            try
+            {
+                merged = from.merged(from.version());
+            }
+            catch (RuntimeException e)
+            {
+                System.err.println("CAT MERGE failed: " + e.getMessage());
+            }
+            finish(from, merged);
+        });
+    }
+
+    private synchronized void finish(Catalog from, Catalog merged)
+    {
+        List<UnaryOperator<Catalog>> replay = journal;
+        journal = null;
+        if (merged == null) return;
+        // the tracks are those of the current snapshot, so the version stays: it is only
+        // raised by writes, which are logged, and a restart recovers it from the log
+        server.update(current -> {
+            if (current.root() != from.root()) return current; // replaced while merging
+            Catalog next = merged;
+            for (UnaryOperator<Catalog> op : replay) next = op.apply(next);
+            return next.withVersion(current.version());
+        }, null);
+    }
+}
@@ -0,0 +1,143 @@
+package via.vinylsystem.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Bounded record of which tracks recent catalog versions changed, for the CHANGES
+ * command.
+ * <p>
+ * Each ADD, UPDATE or DELETE publishes exactly one new version; the journal keeps
+ * that version and the ID of the track it touched in a ring of fixed capacity, the
+ * oldest entry making room for the newest. Only IDs are kept: a client catching up
+ * gets the current content of every ID changed since its version, or learns that the
+ * track is gone, so a track changed ten times is sent once. IDs match ignoring case,
+ * as in the catalog.
+ * </p>
+ * <p>
+ * A client can catch up from any version from {@link #floor()} on. The floor rises
+ * as entries are overwritten, and jumps to the new version when the whole catalog is
+ * replaced ({@link #reset}), e.g. reloaded from its file, since such a swap is not a
+ * list of changes. Older clients must download the catalog again.
+ * </p>
+ * <p>
+ * After a restart from a log store the journal starts at the last durable write
+ * ({@link #resume}). Versions published after it may have been lost in a crash, so
+ * clients at one of those versions must download the catalog again.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+final class ChangeJournal
+{
+    /** Changes kept unless configured otherwise. */
+    static final int DEFAULT_CAPACITY = 10_000;
+
+    private final long[] versions;
+    private final String[] ids;
+    /** Index of the oldest entry. */
+    private int head;
+    private int size;
+    private long floor;
+    /** Versions after {@link #floor} and before this one were lost; none if it is the floor. */
+    private long lostBefore;
+
+    /**
+     * @param capacity the number of changes kept, at least 1
+     * @param version the version of the catalog served now
+     */
+    ChangeJournal(int capacity, long version)
+    {
+        this.versions = new long[capacity];
+        this.ids = new String[capacity];
+        this.floor = version;
+        this.lostBefore = version;
+    }
+
+    /**
+     * Records that a version changed one track; versions must be recorded in ascending order.
+     *
+     * @param version the new catalog version
+     * @param id the ID of the added, updated or deleted track
+     */
+    synchronized void record(long version, String id)
+    {
+        if (size == versions.length)
+        {
+            // the client that saw the evicted version has everything up to it
+            floor = Math.max(floor, versions[head]);
+            head = (head + 1) % versions.length;
+            size--;
+        }
+        int tail = (head + size) % versions.length;
+        versions[tail] = version;
+        ids[tail] = id;
+        size++;
+    }
+
+    /**
+     * Forgets every change; clients behind {@code version} must download the catalog again.
+     *
+     * @param version the version of the catalog that replaced the old one
+     */
+    synchronized void reset(long version)
+    {
+        head = 0;
+        size = 0;
+        floor = version;
+        lostBefore = version;
+    }
+
+    /**
+     * Lets clients catch up from the last durable write of a recovered catalog, whose
+     * version may be lower than the served one; call before any change is recorded.
+     * Clients at a version in between must download the catalog again.
+     *
+     * @param durable the version of the last durable write, holding the served tracks
+     */
+    synchronized void resume(long durable)
+    {
+        if (durable >= floor) return;
+        lostBefore = floor;
+        floor = durable;
+    }
+
+    /**
+     * Returns the oldest version a client can catch up from.
+     *
+     * @return the floor version
+     */
+    synchronized long floor()
+    {
+        return floor;
+    }
+
+    /**
+     * Returns the tracks changed after one version, up to another.
+     *
+     * @param since the version the client has
+     * @param upTo the version the client is brought to, the served snapshot's
+     * @return the changed IDs in the order of their last change, distinct ignoring case, or {@code null}
+     *         if {@code since} is older than {@link #floor()}, newer than {@code upTo} or lost
+     */
+    synchronized List<String> since(long since, long upTo)
+    {
+        if (since < floor || since > upTo) return null;
+        if (since > floor && since < lostBefore) return null;
+        // newest first, so each track is kept at its last change, as last spelled
+        Set<String> seen = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        List<String> changed = new ArrayList<>();
+        for (int i = size - 1; i >= 0; i--)
+        {
+            int at = (head + i) % versions.length;
+            if (versions[at] <= since || versions[at] > upTo) continue;
+            if (seen.add(ids[at])) changed.add(ids[at]);
+        }
+        Collections.reverse(changed);
+        return changed;
+    }
+}
@@ -0,0 +1,220 @@
+package via.vinylsystem.server;
+
+import via.vinylsystem.Model.Track;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact in-memory {@link TrackStore} that keeps the catalog in columns instead of
+ * one object per track.
+ * <p>
+ * Columns:
+ * <ul>
+ *   <li>IDs - UTF-8 bytes in one shared arena, addressed by an offset array</li>
+ *   <li>artists - a dictionary of distinct names plus one int code per track</li>
+ *   <li>titles - UTF-8 bytes in one shared arena, addressed by an offset array</li>
+ *   <li>years - a plain {@code int[]}</li>
+ * </ul>
+ * Artist names repeat across an artist's discography, so each distinct name is
+ * stored once. IDs and titles cost their UTF-8 bytes plus four bytes of offset,
+ * with no object header or String wrapper per value. Fields are decoded on access,
+ * and artists come straight from the dictionary without decoding.
+ * </p>
+ * <p>
+ * Null fields stay null: null IDs and titles are marked in a bit set, and a null
+ * artist has its own dictionary entry. Each arena holds at most 2 GB. Instances are
+ * immutable and safe to share.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public final class ColumnarTrackStore implements TrackStore
+{
+    private final int size;
+    private final byte[] idBytes;
+    private final int[] idOffsets;
+    private final BitSet nullIds;
+    private final String[] artistDict;
+    private final int[] artistCodes;
+    private final byte[] titleBytes;
+    private final int[] titleOffsets;
+    private final BitSet nullTitles;
+    private final int[] years;
+
+    private ColumnarTrackStore(Builder b)
+    {
+        this.size = b.size;
+        this.idBytes = Arrays.copyOf(b.idBytes, b.idLen);
+        this.idOffsets = Arrays.copyOf(b.idOffsets, b.size + 1);
+        this.nullIds = b.nullIds;
+        this.artistDict = b.dict.toArray(new String[0]);
+        this.artistCodes = Arrays.copyOf(b.artistCodes, b.size);
+        this.titleBytes = Arrays.copyOf(b.titleBytes, b.titleLen);
+        this.titleOffsets = Arrays.copyOf(b.titleOffsets, b.size + 1);
+        this.nullTitles = b.nullTitles;
+        this.years = Arrays.copyOf(b.years, b.size);
+    }
+
+    /**
+     * Copies every track of another store into columns.
+     *
+     * @param source the store to copy, e.g. a {@link MappedTrackStore} or {@link ListTrackStore}
+     * @return the columnar copy
+     */
+    public static ColumnarTrackStore copyOf(TrackStore source)
+    {
+        Builder b = new Builder(source.size());
+        for (int pos = 0; pos < source.size(); pos++)
+        {
+            b.add(source.id(pos), source.artist(pos), source.title(pos), source.year(pos));
+        }
+        return b.build();
+    }
+
+    /**
+     * Copies a list of tracks into columns.
+     *
+     * @param tracks the tracks, in catalog order
+     * @return the columnar store
+     */
+    public static ColumnarTrackStore of(List<Track> tracks)
+    {
+        Builder b = new Builder(tracks.size());
+        for (Track t : tracks) b.add(t.getId(), t.getArtist(), t.getTitle(), t.getYear());
+        return b.build();
+    }
+
+    @Override public int size()
+    {
+        return size;
+    }
+
+    @Override public String id(int pos)
+    {
+        if (nullIds.get(pos)) return null;
+        return new String(idBytes, idOffsets[pos], idOffsets[pos + 1] - idOffsets[pos], StandardCharsets.UTF_8);
+    }
+
+    @Override public String artist(int pos)
+    {
+        return artistDict[artistCodes[pos]];
+    }
+
+    @Override public String title(int pos)
+    {
+        if (nullTitles.get(pos)) return null;
+        return new String(titleBytes, titleOffsets[pos], titleOffsets[pos + 1] - titleOffsets[pos], StandardCharsets.UTF_8);
+    }
+
+    @Override public int year(int pos)
+    {
+        return years[pos];
+    }
+
+    /**
+     * Returns the dictionary code of the artist at a position.
+     * Tracks by the same artist (exact spelling) share a code.
+     *
+     * @param pos the track position
+     * @return the index into {@link #artistDictionarySize()} entries
+     */
+    public int artistCode(int pos)
+    {
+        return artistCodes[pos];
+    }
+
+    /**
+     * Returns the number of distinct artist names.
+     *
+     * @return the dictionary size
+     */
+    public int artistDictionarySize()
+    {
+        return artistDict.length;
+    }
+
+    /** Accumulates columns in growable arrays. */
+    private static final class Builder
+    {
+        int size;
+        byte[] idBytes;
+        int idLen;
+        int[] idOffsets;
+        final BitSet nullIds = new BitSet();
+        final Map<String, Integer> codes = new HashMap<>();
+        final List<String> dict = new ArrayList<>();
+        int[] artistCodes;
+        byte[] titleBytes;
+        int titleLen;
+        int[] titleOffsets;
+        final BitSet nullTitles = new BitSet();
+        int[] years;
+
+        Builder(int expected)
+        {
+            int cap = Math.max(16, expected);
+            idBytes = new byte[cap * 8];
+            idOffsets = new int[cap + 1];
+            artistCodes = new int[cap];
+            titleBytes = new byte[cap * 16];
+            titleOffsets = new int[cap + 1];
+            years = new int[cap];
+        }
+
+        void add(String id, String artist, String title, int year)
+        {
+            if (size + 1 >= idOffsets.length)
+            {
+                int cap = idOffsets.length * 2;
+                idOffsets = Arrays.copyOf(idOffsets, cap);
+                titleOffsets = Arrays.copyOf(titleOffsets, cap);
+                artistCodes = Arrays.copyOf(artistCodes, cap);
+                years = Arrays.copyOf(years, cap);
+            }
+            if (id == null) nullIds.set(size);
+            byte[] idUtf8 = (id == null ? "" : id).getBytes(StandardCharsets.UTF_8);
+            idBytes = ensure(idBytes, idLen, idUtf8.length);
+            System.arraycopy(idUtf8, 0, idBytes, idLen, idUtf8.length);
+            idLen += idUtf8.length;
+            idOffsets[size + 1] = idLen;
+
+            if (title == null) nullTitles.set(size);
+            byte[] titleUtf8 = (title == null ? "" : title).getBytes(StandardCharsets.UTF_8);
+            titleBytes = ensure(titleBytes, titleLen, titleUtf8.length);
+            System.arraycopy(titleUtf8, 0, titleBytes, titleLen, titleUtf8.length);
+            titleLen += titleUtf8.length;
+            titleOffsets[size + 1] = titleLen;
+
+            Integer code = codes.get(artist);
+            if (code == null)
+            {
+                code = dict.size();
+                codes.put(artist, code);
+                dict.add(artist);
+            }
+            artistCodes[size] = code;
+            years[size] = year;
+            size++;
+        }
+
+        private static byte[] ensure(byte[] arena, int used, int extra)
+        {
+            long needed = (long) used + extra;
+            if (needed > Integer.MAX_VALUE - 8) throw new IllegalStateException("Catalog column exceeds 2 GB");
+            if (needed <= arena.length) return arena;
+            return Arrays.copyOf(arena, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, arena.length * 2L)));
+        }
+
+        ColumnarTrackStore build()
+        {
+            return new ColumnarTrackStore(this);
+        }
+    }
+}
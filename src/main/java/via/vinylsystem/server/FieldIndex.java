@@ -0,0 +1,132 @@
+package via.vinylsystem.server;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Per-field indexes used by {@link CatalogQuery} to answer predicates as bitsets.
+ * <p>
+ * Two indexes are kept:
+ * <ul>
+ *   <li>year - every catalog position sorted by year, so a year range is two binary
+ *   searches and one contiguous run of positions</li>
+ *   <li>artist - a dictionary from each distinct (lower-cased) artist name to the
+ *   sorted positions of its tracks</li>
+ * </ul>
+ * Each lookup returns a {@link BitSet} over catalog positions, so predicates are
+ * combined with {@link BitSet#and} and {@link BitSet#or} before any track is read.
+ * Instances are immutable after construction and safe to share.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+final class FieldIndex
+{
+    private final int size;
+    /** Years in ascending order, parallel to {@link #byYear}. */
+    private final int[] years;
+    /** Catalog positions ordered by year, then position. */
+    private final int[] byYear;
+    /** Lower-cased artist name to ascending positions. */
+    private final Map<String, int[]> artists;
+
+    /**
+     * Builds the indexes over {@code size} positions.
+     *
+     * @param size the number of catalog positions
+     * @param artistAt returns the artist stored at a position
+     * @param yearAt returns the year stored at a position
+     */
+    FieldIndex(int size, IntFunction<String> artistAt, IntUnaryOperator yearAt)
+    {
+        this.size = size;
+
+        long[] packed = new long[size];
+        for (int pos = 0; pos < size; pos++)
+        {
+            packed[pos] = ((long) yearAt.applyAsInt(pos) << 32) | pos;
+        }
+        Arrays.sort(packed);
+        this.years = new int[size];
+        this.byYear = new int[size];
+        for (int i = 0; i < size; i++)
+        {
+            years[i] = (int) (packed[i] >> 32);
+            byYear[i] = (int) packed[i];
+        }
+
+        Map<String, Positions> build = new HashMap<>();
+        for (int pos = 0; pos < size; pos++)
+        {
+            build.computeIfAbsent(key(artistAt.apply(pos)), k -> new Positions()).add(pos);
+        }
+        this.artists = new HashMap<>(build.size() * 2);
+        build.forEach((k, list) -> artists.put(k, Arrays.copyOf(list.a, list.n)));
+    }
+
+    /** Growable int list used while building. */
+    private static final class Positions
+    {
+        int[] a = new int[2];
+        int n;
+
+        void add(int v)
+        {
+            if (n == a.length) a = Arrays.copyOf(a, n * 2);
+            a[n++] = v;
+        }
+    }
+
+    /**
+     * Returns the positions of tracks released between two years, both included.
+     *
+     * @param from the first year
+     * @param to the last year
+     * @return the matching positions
+     */
+    BitSet yearRange(int from, int to)
+    {
+        BitSet out = new BitSet(size);
+        if (from > to) return out;
+        for (int i = lowerBound(from); i < size && years[i] <= to; i++) out.set(byYear[i]);
+        return out;
+    }
+
+    /**
+     * Returns the positions of tracks by an artist, ignoring case.
+     *
+     * @param artist the artist name
+     * @return the matching positions
+     */
+    BitSet artist(String artist)
+    {
+        BitSet out = new BitSet(size);
+        int[] list = artists.get(key(artist));
+        if (list != null) for (int pos : list) out.set(pos);
+        return out;
+    }
+
+    /** First index whose year is {@code >= year}. */
+    private int lowerBound(int year)
+    {
+        int lo = 0, hi = size;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (years[mid] < year) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static String key(String artist)
+    {
+        return artist == null ? "" : artist.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,363 @@
+package via.vinylsystem.server;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * Typo-tolerant word index over the artist and title of every track.
+ * <p>
+ * Artist and title are folded (see {@link #fold}) and split into words. Each distinct
+ * word gets a sorted posting list of the positions it occurs at, and it is filed
+ * under every string that is left after deleting up to two characters from its
+ * first {@link #PREFIX} characters. This is the deletion neighbourhood of the
+ * SymSpell algorithm. Two words within edit distance two share at least one such
+ * string. A query word therefore only generates its own deletions and looks them
+ * up; no word list or catalog is scanned. The few candidates are then checked with
+ * a real (optimal string alignment) edit distance. Deletion strings are kept as
+ * 64-bit hashes in a sorted array, the way {@link TrigramIndex} keeps trigrams; a
+ * hash collision only adds a candidate that fails the check.
+ * </p>
+ * <p>
+ * A track matches when every query word is close to some word of its artist or
+ * title: exact for words of one or two characters, one edit for three or four,
+ * two edits from five. Tracks with fewer edits in all rank first, then tracks whose
+ * artist matched more query words. Instances are immutable and safe to share.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+final class FuzzyIndex
+{
+    /** Characters of a word that deletions are taken from. */
+    static final int PREFIX = 7;
+
+    /** Largest number of edits between a query word and a matching word. */
+    static final int MAX_EDITS = 2;
+
+    /** Distinct folded words, ascending. */
+    private final String[] words;
+    /** Per word: {@code position << 1 | 1} for an artist occurrence, {@code position << 1} for a title one; ascending. */
+    private final int[][] postings;
+    /** Hashes of deletion strings, ascending. */
+    private final long[] deleteKeys;
+    /** Per deletion hash: the ids (indexes into {@link #words}) of the words it was made from. */
+    private final int[][] deleteWords;
+
+    /** Growable int list used while building. */
+    private static final class IntList
+    {
+        int[] a = new int[2];
+        int n;
+
+        void addIfNew(int v)
+        {
+            if (n > 0 && a[n - 1] == v) return;
+            if (n == a.length) a = Arrays.copyOf(a, n * 2);
+            a[n++] = v;
+        }
+
+        int[] toArray()
+        {
+            return Arrays.copyOf(a, n);
+        }
+    }
+
+    /**
+     * Builds the index over {@code size} positions.
+     *
+     * @param size the number of catalog positions
+     * @param artistAt returns the artist stored at a position
+     * @param titleAt returns the title stored at a position
+     */
+    FuzzyIndex(int size, IntFunction<String> artistAt, IntFunction<String> titleAt)
+    {
+        Map<String, IntList> vocab = new HashMap<>();
+        for (int pos = 0; pos < size; pos++)
+        {
+            // title first, so each posting list stays ascending
+            for (String w : words(fold(titleAt.apply(pos)))) vocab.computeIfAbsent(w, k -> new IntList()).addIfNew(pos << 1);
+            for (String w : words(fold(artistAt.apply(pos)))) vocab.computeIfAbsent(w, k -> new IntList()).addIfNew(pos << 1 | 1);
+        }
+        this.words = vocab.keySet().toArray(new String[0]);
+        Arrays.sort(words);
+        this.postings = new int[words.length][];
+        Map<Long, IntList> deletes = new HashMap<>();
+        Set<String> variants = new HashSet<>();
+        for (int id = 0; id < words.length; id++)
+        {
+            postings[id] = vocab.get(words[id]).toArray();
+            variants.clear();
+            deletions(prefix(words[id]), MAX_EDITS, variants);
+            for (String v : variants) deletes.computeIfAbsent(hash(v), k -> new IntList()).addIfNew(id);
+        }
+
+        this.deleteKeys = new long[deletes.size()];
+        int k = 0;
+        for (Long key : deletes.keySet()) deleteKeys[k++] = key;
+        Arrays.sort(deleteKeys);
+        this.deleteWords = new int[deleteKeys.length][];
+        for (int i = 0; i < deleteKeys.length; i++) deleteWords[i] = deletes.get(deleteKeys[i]).toArray();
+    }
+
+    /**
+     * Calls {@code action} for every position that matches the query, with its score.
+     * The score is {@code (64 - edits) << 8 | artistWords}: fewer edits in all rank
+     * first, then more query words found in the artist.
+     *
+     * @param query the query, one or more words
+     * @param cancel checked while the search runs
+     * @param action receives each matching position and its score, in ascending position order
+     * @throws java.util.concurrent.CancellationException if cancelled
+     */
+    void search(String query, Cancellation cancel, TrigramIndex.ScoredConsumer action)
+    {
+        String[] q = queryWords(query);
+        if (q.length == 0) return;
+        int[] pos = null, edits = null, artist = null;
+        int n = 0;
+        for (String w : q)
+        {
+            cancel.check();
+            long[] hits = occurrences(w);
+            // hits are (position, edits, title flag) packed and sorted: the first of each position is its best
+            int[] p = new int[hits.length], e = new int[hits.length], a = new int[hits.length];
+            int m = 0;
+            for (long h : hits)
+            {
+                int hp = (int) (h >>> 3);
+                if (m > 0 && p[m - 1] == hp) continue;
+                p[m] = hp;
+                e[m] = (int) (h >>> 1) & 3;
+                a[m] = (int) (~h & 1);
+                m++;
+            }
+            if (pos == null)
+            {
+                pos = p; edits = e; artist = a; n = m;
+                continue;
+            }
+            int j = 0, out = 0;
+            for (int i = 0; i < n && j < m; )
+            {
+                if (pos[i] < p[j]) i++;
+                else if (pos[i] > p[j]) j++;
+                else
+                {
+                    pos[out] = pos[i];
+                    edits[out] = edits[i] + e[j];
+                    artist[out] = artist[i] + a[j];
+                    out++; i++; j++;
+                }
+            }
+            n = out;
+            if (n == 0) return;
+        }
+        for (int i = 0; i < n; i++)
+        {
+            if ((i & 4095) == 0) cancel.check();
+            action.accept(pos[i], (64 - edits[i]) << 8 | artist[i]);
+        }
+    }
+
+    /**
+     * Returns the score {@link #search} gives a track, or 0 if it does not match; used
+     * for tracks changed after the index was built.
+     *
+     * @param artist the track's artist
+     * @param title the track's title
+     * @param query the query words, from {@link #queryWords}
+     * @return the score
+     */
+    static int score(String artist, String title, String[] query)
+    {
+        if (query.length == 0) return 0;
+        List<String> a = words(fold(artist));
+        List<String> t = words(fold(title));
+        int edits = 0, artistWords = 0;
+        for (String w : query)
+        {
+            int max = maxEdits(w);
+            int best = Integer.MAX_VALUE;
+            boolean inArtist = false;
+            for (String x : a)
+            {
+                int d = distance(w, x, max);
+                if (d < best || (d == best && !inArtist)) { best = d; inArtist = true; }
+            }
+            for (String x : t)
+            {
+                int d = distance(w, x, max);
+                if (d < best) { best = d; inArtist = false; }
+            }
+            if (best > max) return 0;
+            edits += best;
+            if (inArtist) artistWords++;
+        }
+        return (64 - edits) << 8 | artistWords;
+    }
+
+    /**
+     * Folds and splits a query into the words {@link #search} and {@link #score} match.
+     *
+     * @param query the query
+     * @return the folded words
+     */
+    static String[] queryWords(String query)
+    {
+        return words(fold(query)).toArray(new String[0]);
+    }
+
+    /**
+     * Lower-cases a string, spells the Danish letters out (æ as ae, ø as oe, å as aa)
+     * and drops other accents (é becomes e), so "Kløvedal" and "kloevedal" fold
+     * alike, and "kløvedal" typed as "klovedal" is one edit away.
+     *
+     * @param s the string, may be {@code null}
+     * @return the folded string
+     */
+    static String fold(String s)
+    {
+        if (s == null) return "";
+        String lower = s.toLowerCase(Locale.ROOT);
+        boolean ascii = true;
+        for (int i = 0; i < lower.length() && ascii; i++) ascii = lower.charAt(i) < 0x80;
+        if (ascii) return lower;
+        StringBuilder sb = new StringBuilder(lower.length() + 4);
+        for (int i = 0; i < lower.length(); i++)
+        {
+            char c = lower.charAt(i);
+            switch (c)
+            {
+                case 'æ' -> sb.append("ae");
+                case 'ø' -> sb.append("oe");
+                case 'å' -> sb.append("aa");
+                case 'ß' -> sb.append("ss");
+                default -> sb.append(c);
+            }
+        }
+        String decomposed = Normalizer.normalize(sb, Normalizer.Form.NFD);
+        sb.setLength(0);
+        for (int i = 0; i < decomposed.length(); i++)
+        {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /** Splits a folded string into runs of letters and digits. */
+    private static List<String> words(String s)
+    {
+        List<String> out = new ArrayList<>(4);
+        int start = -1;
+        for (int i = 0; i <= s.length(); i++)
+        {
+            boolean word = i < s.length() && Character.isLetterOrDigit(s.charAt(i));
+            if (word && start < 0) start = i;
+            else if (!word && start >= 0)
+            {
+                out.add(s.substring(start, i));
+                start = -1;
+            }
+        }
+        return out;
+    }
+
+    /** Edits allowed for a query word of this length. */
+    private static int maxEdits(String w)
+    {
+        return w.length() <= 2 ? 0 : w.length() <= 4 ? 1 : MAX_EDITS;
+    }
+
+    /**
+     * Finds every occurrence of the words close to {@code w}, as
+     * {@code position << 3 | edits << 1 | (title ? 1 : 0)}, sorted.
+     */
+    private long[] occurrences(String w)
+    {
+        int max = maxEdits(w);
+        Set<String> variants = new HashSet<>();
+        deletions(prefix(w), max, variants);
+        Set<Integer> seen = new HashSet<>();
+        long[] out = new long[16];
+        int n = 0;
+        for (String v : variants)
+        {
+            int k = Arrays.binarySearch(deleteKeys, hash(v));
+            if (k < 0) continue;
+            for (int id : deleteWords[k])
+            {
+                if (!seen.add(id)) continue;
+                String candidate = words[id];
+                if (Math.abs(candidate.length() - w.length()) > max) continue;
+                int d = distance(w, candidate, max);
+                if (d > max) continue;
+                int[] list = postings[id];
+                if (n + list.length > out.length) out = Arrays.copyOf(out, Math.max(out.length * 2, n + list.length));
+                for (int p : list) out[n++] = (long) (p >>> 1) << 3 | (long) d << 1 | (~p & 1);
+            }
+        }
+        out = Arrays.copyOf(out, n);
+        Arrays.sort(out);
+        return out;
+    }
+
+    private static String prefix(String w)
+    {
+        return w.length() <= PREFIX ? w : w.substring(0, PREFIX);
+    }
+
+    /** Adds {@code s} and every string made by deleting up to {@code edits} of its characters. */
+    private static void deletions(String s, int edits, Set<String> out)
+    {
+        if (!out.add(s) || edits == 0 || s.isEmpty()) return;
+        for (int i = 0; i < s.length(); i++) deletions(s.substring(0, i) + s.substring(i + 1), edits - 1, out);
+    }
+
+    private static long hash(String s)
+    {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        return h;
+    }
+
+    /**
+     * Optimal string alignment distance (insertions, deletions, substitutions and
+     * swaps of neighbours), or {@code max + 1} once it is certain to exceed {@code max}.
+     */
+    static int distance(String a, String b, int max)
+    {
+        int n = a.length(), m = b.length();
+        if (Math.abs(n - m) > max) return max + 1;
+        int[] prev2 = new int[m + 1], prev = new int[m + 1], cur = new int[m + 1];
+        for (int j = 0; j <= m; j++) prev[j] = j;
+        for (int i = 1; i <= n; i++)
+        {
+            cur[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= m; j++)
+            {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(Math.min(prev[j] + 1, cur[j - 1] + 1), prev[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1))
+                {
+                    d = Math.min(d, prev2[j - 2] + 1);
+                }
+                cur[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            if (rowMin > max) return max + 1;
+            int[] t = prev2; prev2 = prev; prev = cur; cur = t;
+        }
+        return Math.min(prev[m], max + 1);
+    }
+}
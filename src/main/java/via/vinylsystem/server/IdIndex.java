@@ -0,0 +1,98 @@
+package via.vinylsystem.server;
+
+import java.util.function.IntFunction;
+
+/**
+ * Case-insensitive hash index from track ID to catalog position.
+ * <p>
+ * The table uses open addressing with linear probing and stores only int positions,
+ * so it costs a few bytes per track. Keys are folded the same way as
+ * {@link String#equalsIgnoreCase(String)} when hashing, which means a lookup neither
+ * lower-cases the requested ID nor allocates anything.
+ * </p>
+ * <p>
+ * Instances are immutable after construction and safe to share between threads.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+final class IdIndex
+{
+    private static final int EMPTY = -1;
+
+    private final int[] slots;
+    private final int[] hashes;
+    private final int mask;
+    private final IntFunction<String> idAt;
+
+    /**
+     * Builds the index over {@code size} positions.
+     * <p>
+     * When two positions share an ID (ignoring case), the first one wins, matching
+     * the linear scan this index replaces.
+     * </p>
+     *
+     * @param size the number of catalog positions
+     * @param idAt returns the ID stored at a position
+     */
+    IdIndex(int size, IntFunction<String> idAt)
+    {
+        int cap = Integer.highestOneBit(Math.max(4, size * 2 - 1)) << 1; // load factor <= 0.5
+        this.slots = new int[cap];
+        this.hashes = new int[cap];
+        this.mask = cap - 1;
+        this.idAt = idAt;
+        java.util.Arrays.fill(slots, EMPTY);
+
+        for (int pos = 0; pos < size; pos++)
+        {
+            String id = idAt.apply(pos);
+            if (id == null) continue;
+            int h = hash(id);
+            int i = h & mask;
+            while (slots[i] != EMPTY)
+            {
+                if (hashes[i] == h && idAt.apply(slots[i]).equalsIgnoreCase(id)) break;
+                i = (i + 1) & mask;
+            }
+            if (slots[i] == EMPTY)
+            {
+                slots[i] = pos;
+                hashes[i] = h;
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the given ID, ignoring case.
+     *
+     * @param id the ID to look up
+     * @return the catalog position, or -1 if the ID is unknown
+     */
+    int find(String id)
+    {
+        int h = hash(id);
+        int i = h & mask;
+        while (slots[i] != EMPTY)
+        {
+            if (hashes[i] == h && idAt.apply(slots[i]).equalsIgnoreCase(id)) return slots[i];
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Hashes a string after folding every char the way {@code equalsIgnoreCase} does,
+     * so IDs that are equal ignoring case always get the same hash.
+     */
+    static int hash(String s)
+    {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++)
+        {
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+        }
+        return h ^ (h >>> 16);
+    }
+}
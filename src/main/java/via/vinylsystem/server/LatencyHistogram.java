@@ -0,0 +1,129 @@
+package via.vinylsystem.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of request latencies, in microseconds.
+ * <p>
+ * Buckets are log-linear: values below 16 µs get a bucket each, and every power of
+ * two above is split into 16 equal buckets, so a value is known to within 1/16
+ * (about 6%) up to roughly 12 days. Recording is one atomic increment on the bucket
+ * plus a {@link LongAdder} for the sum; there is no lock, so any number of request
+ * threads can record at once.
+ * </p>
+ * <p>
+ * Counts are cumulative since the server started. Percentiles are read from a
+ * {@link Snapshot}, which copies the buckets without stopping writers.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+final class LatencyHistogram
+{
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MAX_EXP = 40;
+    private static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sumMicros = new LongAdder();
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    void record(long nanos)
+    {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(index(micros));
+        sumMicros.add(micros);
+    }
+
+    /**
+     * Copies the current counts.
+     *
+     * @return a snapshot that no longer changes
+     */
+    Snapshot snapshot()
+    {
+        long[] c = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) n += c[i] = counts.get(i);
+        return new Snapshot(c, n, sumMicros.sum());
+    }
+
+    /** The bucket holding {@code micros}. */
+    static int index(long micros)
+    {
+        if (micros < SUB) return (int) micros;
+        if (micros >= 1L << (MAX_EXP + 1)) return BUCKETS - 1;
+        int exp = 63 - Long.numberOfLeadingZeros(micros);
+        return (exp - SUB_BITS + 1) * SUB + ((int) (micros >>> (exp - SUB_BITS)) & (SUB - 1));
+    }
+
+    /** The largest value that falls into bucket {@code i}. */
+    static long upperBound(int i)
+    {
+        if (i < SUB) return i;
+        int exp = i / SUB + SUB_BITS - 1;
+        long width = 1L << (exp - SUB_BITS);
+        return ((long) (SUB + i % SUB) << (exp - SUB_BITS)) + width - 1;
+    }
+
+    /** Counts of one histogram at one moment. */
+    static final class Snapshot
+    {
+        private final long[] counts;
+        private final long count;
+        private final long sumMicros;
+
+        private Snapshot(long[] counts, long count, long sumMicros)
+        {
+            this.counts = counts;
+            this.count = count;
+            this.sumMicros = sumMicros;
+        }
+
+        /** Number of recorded latencies. */
+        long count() { return count; }
+
+        /** Sum of the recorded latencies, in microseconds. */
+        long sumMicros() { return sumMicros; }
+
+        /**
+         * Returns the latency below which a share of the requests finished.
+         *
+         * @param p the share, e.g. 0.99
+         * @return the upper bound of the bucket holding that rank, 0 when empty
+         */
+        long percentile(double p)
+        {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++)
+            {
+                seen += counts[i];
+                if (seen >= rank) return upperBound(i);
+            }
+            return upperBound(counts.length - 1);
+        }
+
+        /**
+         * Counts the latencies at or below a bound; values are rounded up to their
+         * bucket's upper bound first.
+         *
+         * @param micros the bound in microseconds
+         * @return the number of latencies at or below it
+         */
+        long countAtMost(long micros)
+        {
+            long n = 0;
+            for (int i = 0; i < counts.length && upperBound(i) <= micros; i++) n += counts[i];
+            return n;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package via.vinylsystem.server;
+
+import via.vinylsystem.Model.Track;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A base {@link TrackStore} with recent changes layered on top, without copying the base.
+ * <p>
+ * The layer holds three small, sorted or ordered arrays:
+ * <ul>
+ *   <li>deleted - base positions that are gone</li>
+ *   <li>replaced - base positions whose track was updated, with the new tracks</li>
+ *   <li>added - new tracks, served after every base track</li>
+ * </ul>
+ * Positions of this store are dense: the live base tracks in base order, then the
+ * added tracks. A base position maps to its position here by subtracting the number
+ * of deleted positions before it, found by binary search. Updated tracks keep their
+ * position.
+ * </p>
+ * <p>
+ * Instances are immutable; every change returns a new store that shares the base and
+ * copies only the layer, so a write costs time in proportion to the number of
+ * changes, not to the catalog size. {@link Catalog} merges the layer into a new base
+ * once it grows large, see {@link CatalogWriter}.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+final class LayeredTrackStore implements TrackStore
+{
+    private static final int[] NO_POSITIONS = new int[0];
+    private static final Track[] NO_TRACKS = new Track[0];
+
+    private final TrackStore base;
+    private final int[] deleted;
+    private final int[] replacedAt;
+    private final Track[] replaced;
+    private final Track[] added;
+    private final int liveBase;
+    private volatile BitSet masked;
+
+    /**
+     * Creates an empty layer over a base store.
+     *
+     * @param base the store to layer changes over
+     */
+    LayeredTrackStore(TrackStore base)
+    {
+        this(base, NO_POSITIONS, NO_POSITIONS, NO_TRACKS, NO_TRACKS);
+    }
+
+    private LayeredTrackStore(TrackStore base, int[] deleted, int[] replacedAt, Track[] replaced, Track[] added)
+    {
+        this.base = base;
+        this.deleted = deleted;
+        this.replacedAt = replacedAt;
+        this.replaced = replaced;
+        this.added = added;
+        this.liveBase = base.size() - deleted.length;
+    }
+
+    @Override public int size() { return liveBase + added.length; }
+
+    @Override public String id(int pos)
+    {
+        Track t = changed(pos);
+        return t != null ? t.getId() : base.id(basePosition(pos));
+    }
+
+    @Override public String artist(int pos)
+    {
+        Track t = changed(pos);
+        return t != null ? t.getArtist() : base.artist(basePosition(pos));
+    }
+
+    @Override public String title(int pos)
+    {
+        Track t = changed(pos);
+        return t != null ? t.getTitle() : base.title(basePosition(pos));
+    }
+
+    @Override public int year(int pos)
+    {
+        Track t = changed(pos);
+        return t != null ? t.getYear() : base.year(basePosition(pos));
+    }
+
+    @Override public Track get(int pos)
+    {
+        Track t = changed(pos);
+        return t != null ? t : base.get(basePosition(pos));
+    }
+
+    /**
+     * Returns the number of changes held in the layer.
+     *
+     * @return deleted, updated and added tracks together
+     */
+    int changes()
+    {
+        return deleted.length + replaced.length + added.length;
+    }
+
+    /**
+     * Returns the number of added tracks, which take the last positions.
+     *
+     * @return the added track count
+     */
+    int addedCount()
+    {
+        return added.length;
+    }
+
+    /**
+     * Returns the base positions whose base index entries must be ignored: deleted
+     * and updated ones.
+     *
+     * @return the masked base positions; do not modify
+     */
+    BitSet masked()
+    {
+        BitSet m = masked;
+        if (m == null)
+        {
+            m = new BitSet(base.size());
+            for (int p : deleted) m.set(p);
+            for (int p : replacedAt) m.set(p);
+            masked = m;
+        }
+        return m;
+    }
+
+    /**
+     * Maps a live base position to its position in this store.
+     *
+     * @param basePos a base position that is not deleted
+     * @return the position in this store
+     */
+    int position(int basePos)
+    {
+        int i = Arrays.binarySearch(deleted, basePos);
+        return basePos - (i >= 0 ? i : -i - 1);
+    }
+
+    /**
+     * Returns the position in this store of the track at a base position.
+     *
+     * @param basePos a base position
+     * @return the position here, or -1 if the base track was deleted
+     */
+    int positionOfBase(int basePos)
+    {
+        return Arrays.binarySearch(deleted, basePos) >= 0 ? -1 : position(basePos);
+    }
+
+    /**
+     * Calls {@code action} with the position and new content of every updated or
+     * added track, in ascending position order.
+     *
+     * @param action receives each changed position and its track
+     */
+    void forEachChanged(ChangedConsumer action)
+    {
+        for (int i = 0; i < replacedAt.length; i++) action.accept(position(replacedAt[i]), replaced[i]);
+        for (int i = 0; i < added.length; i++) action.accept(liveBase + i, added[i]);
+    }
+
+    /** Receives a changed position and its track. */
+    interface ChangedConsumer
+    {
+        void accept(int pos, Track track);
+    }
+
+    /**
+     * Returns a store with a track added after every other track.
+     *
+     * @param track the new track
+     * @return the new store
+     */
+    LayeredTrackStore withAdded(Track track)
+    {
+        Track[] a = Arrays.copyOf(added, added.length + 1);
+        a[added.length] = track;
+        return new LayeredTrackStore(base, deleted, replacedAt, replaced, a);
+    }
+
+    /**
+     * Returns a store with the track at a position replaced.
+     *
+     * @param pos the position in this store
+     * @param track the new content
+     * @return the new store
+     */
+    LayeredTrackStore withReplaced(int pos, Track track)
+    {
+        if (pos >= liveBase)
+        {
+            Track[] a = added.clone();
+            a[pos - liveBase] = track;
+            return new LayeredTrackStore(base, deleted, replacedAt, replaced, a);
+        }
+        int basePos = basePosition(pos);
+        int i = Arrays.binarySearch(replacedAt, basePos);
+        if (i >= 0)
+        {
+            Track[] r = replaced.clone();
+            r[i] = track;
+            return new LayeredTrackStore(base, deleted, replacedAt, r, added);
+        }
+        int at = -i - 1;
+        return new LayeredTrackStore(base, deleted, insert(replacedAt, at, basePos), insert(replaced, at, track), added);
+    }
+
+    /**
+     * Returns a store without the track at a position.
+     *
+     * @param pos the position in this store
+     * @return the new store
+     */
+    LayeredTrackStore withDeleted(int pos)
+    {
+        if (pos >= liveBase)
+        {
+            int i = pos - liveBase;
+            Track[] a = new Track[added.length - 1];
+            System.arraycopy(added, 0, a, 0, i);
+            System.arraycopy(added, i + 1, a, i, a.length - i);
+            return new LayeredTrackStore(base, deleted, replacedAt, replaced, a);
+        }
+        int basePos = basePosition(pos);
+        int[] rAt = replacedAt;
+        Track[] r = replaced;
+        int i = Arrays.binarySearch(replacedAt, basePos);
+        if (i >= 0)
+        {
+            rAt = remove(replacedAt, i);
+            r = remove(replaced, i);
+        }
+        int d = -Arrays.binarySearch(deleted, basePos) - 1;
+        return new LayeredTrackStore(base, insert(deleted, d, basePos), rAt, r, added);
+    }
+
+    /** The new content at {@code pos}, or {@code null} if the base track is unchanged. */
+    private Track changed(int pos)
+    {
+        if (pos >= liveBase)
+        {
+            if (pos >= size()) throw new IndexOutOfBoundsException(pos);
+            return added[pos - liveBase];
+        }
+        if (replaced.length == 0) return null;
+        int i = Arrays.binarySearch(replacedAt, basePosition(pos));
+        return i >= 0 ? replaced[i] : null;
+    }
+
+    /**
+     * Maps a position below {@code liveBase} to its base position: the number of deleted
+     * positions at or before it is the count of {@code deleted[i] - i <= pos}, which
+     * grows with {@code i}.
+     */
+    private int basePosition(int pos)
+    {
+        if (deleted.length == 0) return pos;
+        int lo = 0, hi = deleted.length;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (deleted[mid] - mid <= pos) lo = mid + 1;
+            else hi = mid;
+        }
+        return pos + lo;
+    }
+
+    private static int[] insert(int[] a, int at, int v)
+    {
+        int[] out = new int[a.length + 1];
+        System.arraycopy(a, 0, out, 0, at);
+        out[at] = v;
+        System.arraycopy(a, at, out, at + 1, a.length - at);
+        return out;
+    }
+
+    private static Track[] insert(Track[] a, int at, Track v)
+    {
+        Track[] out = new Track[a.length + 1];
+        System.arraycopy(a, 0, out, 0, at);
+        out[at] = v;
+        System.arraycopy(a, at, out, at + 1, a.length - at);
+        return out;
+    }
+
+    private static int[] remove(int[] a, int at)
+    {
+        int[] out = new int[a.length - 1];
+        System.arraycopy(a, 0, out, 0, at);
+        System.arraycopy(a, at + 1, out, at, out.length - at);
+        return out;
+    }
+
+    private static Track[] remove(Track[] a, int at)
+    {
+        Track[] out = new Track[a.length - 1];
+        System.arraycopy(a, 0, out, 0, at);
+        System.arraycopy(a, at + 1, out, at, out.length - at);
+        return out;
+    }
+}
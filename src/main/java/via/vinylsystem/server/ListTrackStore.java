@@ -0,0 +1,33 @@
+package via.vinylsystem.server;
+
+import via.vinylsystem.Model.Track;
+
+import java.util.List;
+
+/**
+ * {@link TrackStore} backed by an immutable list of {@link Track} objects.
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public final class ListTrackStore implements TrackStore
+{
+    private final List<Track> tracks;
+
+    /**
+     * Creates a store holding a copy of the given tracks.
+     *
+     * @param tracks the tracks, in catalog order
+     */
+    public ListTrackStore(List<Track> tracks)
+    {
+        this.tracks = List.copyOf(tracks);
+    }
+
+    @Override public int size() { return tracks.size(); }
+    @Override public String id(int pos) { return tracks.get(pos).getId(); }
+    @Override public String artist(int pos) { return tracks.get(pos).getArtist(); }
+    @Override public String title(int pos) { return tracks.get(pos).getTitle(); }
+    @Override public int year(int pos) { return tracks.get(pos).getYear(); }
+    @Override public Track get(int pos) { return tracks.get(pos); }
+}
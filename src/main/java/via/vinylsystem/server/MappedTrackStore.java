@@ -0,0 +1,180 @@
+package via.vinylsystem.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * {@link TrackStore} that reads a catalog file (see {@link CatalogFileWriter}) through
+ * memory mapping.
+ * <p>
+ * Nothing is decoded when the store is opened: fields are read from the mapped file
+ * only when they are asked for, so opening a multi-GB catalog is instant and the heap
+ * does not grow with the catalog. The operating system's page cache keeps hot parts
+ * of the file in memory.
+ * </p>
+ * <p>
+ * A single mapping is limited to 2 GB, so the file is mapped in 1 GB chunks. Each
+ * chunk overlaps the next by the size of the largest possible record, which means a
+ * record (or an offset table entry) is always readable from the chunk it starts in.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public final class MappedTrackStore implements TrackStore, Closeable
+{
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK = 1L << CHUNK_SHIFT;
+    private static final int MAX_RECORD = 3 * (2 + CatalogFileWriter.MAX_FIELD_BYTES) + 4;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final int size;
+    private final long tablePos;
+
+    /** Scratch buffer for decoding strings, so a field read allocates only the String itself. */
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+    private MappedTrackStore(FileChannel channel) throws IOException
+    {
+        this.channel = channel;
+        long length = channel.size();
+
+        // check the header and the offset table against the file before mapping any of it
+        ByteBuffer header = ByteBuffer.allocate(CatalogFileWriter.HEADER_BYTES);
+        while (header.hasRemaining())
+        {
+            if (channel.read(header, header.position()) < 0) break;
+        }
+        byte[] magic = new byte[4];
+        header.get(0, magic);
+        if (header.hasRemaining() || !Arrays.equals(magic, CatalogFileWriter.MAGIC))
+        {
+            throw new IOException("Not a catalog file");
+        }
+        int format = header.getInt(4);
+        if (format != CatalogFileWriter.FORMAT_VERSION) throw new IOException("Unsupported catalog format " + format);
+        long count = header.getLong(8);
+        if (count > Integer.MAX_VALUE) throw new IOException("Catalog too large: " + count);
+        long table = header.getLong(16);
+        if (count < 0 || table < CatalogFileWriter.HEADER_BYTES || table > length - 8L * count)
+        {
+            throw new IOException("Truncated catalog file");
+        }
+        this.size = (int) count;
+        this.tablePos = table;
+
+        int n = (int) ((length + CHUNK - 1) >>> CHUNK_SHIFT);
+        this.chunks = new MappedByteBuffer[Math.max(1, n)];
+        for (int i = 0; i < chunks.length; i++)
+        {
+            long start = (long) i << CHUNK_SHIFT;
+            long len = Math.min(length - start, CHUNK + MAX_RECORD);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(0, len));
+        }
+    }
+
+    /**
+     * Opens and maps a catalog file.
+     *
+     * @param path the catalog file
+     * @return the mapped store
+     * @throws IOException if the file cannot be opened or is not a catalog file
+     */
+    public static MappedTrackStore open(Path path) throws IOException
+    {
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+        try
+        {
+            return new MappedTrackStore(ch);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            ch.close();
+            throw e;
+        }
+    }
+
+    @Override public int size()
+    {
+        return size;
+    }
+
+    @Override public String id(int pos)
+    {
+        return string(record(pos));
+    }
+
+    @Override public String artist(int pos)
+    {
+        long p = record(pos);
+        return string(skip(p));
+    }
+
+    @Override public String title(int pos)
+    {
+        long p = record(pos);
+        return string(skip(skip(p)));
+    }
+
+    @Override public int year(int pos)
+    {
+        long p = skip(skip(skip(record(pos))));
+        MappedByteBuffer c = chunks[(int) (p >>> CHUNK_SHIFT)];
+        return c.getInt((int) (p & (CHUNK - 1)));
+    }
+
+    /** Returns the absolute offset of the record at {@code pos}. */
+    private long record(int pos)
+    {
+        if (pos < 0 || pos >= size) throw new IndexOutOfBoundsException("Track position " + pos + " of " + size);
+        long p = tablePos + 8L * pos;
+        return chunks[(int) (p >>> CHUNK_SHIFT)].getLong((int) (p & (CHUNK - 1)));
+    }
+
+    /** Returns the offset right after the length-prefixed field at {@code p}. */
+    private long skip(long p)
+    {
+        return p + 2 + u16(p);
+    }
+
+    private int u16(long p)
+    {
+        return chunks[(int) (p >>> CHUNK_SHIFT)].getShort((int) (p & (CHUNK - 1))) & 0xFFFF;
+    }
+
+    /** Decodes the length-prefixed UTF-8 field at {@code p}; the whole record lies inside one chunk. */
+    private String string(long p)
+    {
+        MappedByteBuffer c = chunks[(int) (p >>> CHUNK_SHIFT)];
+        int local = (int) (p & (CHUNK - 1));
+        int len = c.getShort(local) & 0xFFFF;
+        byte[] buf = SCRATCH.get();
+        if (buf.length < len)
+        {
+            buf = new byte[Math.max(len, buf.length * 2)];
+            SCRATCH.set(buf);
+        }
+        c.get(local + 2, buf, 0, len);
+        return new String(buf, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Closes the file channel. The mappings stay valid until they are garbage collected,
+     * so readers still holding this store are not affected.
+     *
+     * @throws IOException if the channel cannot be closed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
@@ -0,0 +1,163 @@
+package via.vinylsystem.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Socket input stream that can tell, without consuming anything, whether the client's
+ * connection has been lost.
+ * <p>
+ * While a request runs, the connection thread is not reading, so a disconnect would
+ * go unnoticed until the response is written. {@link #connectionLost(int)} reads one
+ * byte with a short timeout: a reset means the client is gone, a byte means it is
+ * still there (the byte is kept and returned by the next read), and a timeout means
+ * nothing has happened yet. End of stream does not count as lost: a client may shut
+ * down its sending side after its last request and still wait for the answers. The
+ * end of stream or the reset is kept and reported by the next read.
+ * </p>
+ * <p>
+ * The check may run on another thread while the connection thread is busy with a
+ * request. Reads and checks share a lock; a check that finds the lock taken (a read
+ * is in progress, so the connection is not busy) is simply skipped.
+ * </p>
+ * <p>
+ * Every byte read from the socket is added to a counter shared by all connections.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+final class PeerInputStream extends FilterInputStream
+{
+    private final Socket socket;
+    private final LongAdder received;
+    private final ReentrantLock lock = new ReentrantLock();
+    private int pushed = -1;
+    private boolean eof;
+    private IOException lost;
+
+    /**
+     * @param socket the client connection
+     * @param received counts the bytes read
+     * @throws IOException if the socket's stream cannot be opened
+     */
+    PeerInputStream(Socket socket, LongAdder received) throws IOException
+    {
+        super(socket.getInputStream());
+        this.socket = socket;
+        this.received = received;
+    }
+
+    /**
+     * Checks whether the client's connection has been reset.
+     *
+     * @param timeoutMs how long to wait for data, end of stream or a reset
+     * @return true if the connection failed; false if it has not, if the client only
+     *         stopped sending, or if a read is in progress
+     */
+    boolean connectionLost(int timeoutMs)
+    {
+        if (!lock.tryLock()) return false;
+        try
+        {
+            if (pushed >= 0 || eof || lost != null) return lost != null;
+            int old = socket.getSoTimeout();
+            socket.setSoTimeout(timeoutMs);
+            try
+            {
+                int b = super.read();
+                if (b < 0) eof = true;
+                else
+                {
+                    pushed = b;
+                    received.increment();
+                }
+            }
+            finally
+            {
+                socket.setSoTimeout(old);
+            }
+        }
+        catch (SocketTimeoutException e)
+        {
+            // nothing sent, still connected
+        }
+        catch (IOException e)
+        {
+            lost = e;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return lost != null;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        lock.lock();
+        try
+        {
+            if (pushed >= 0)
+            {
+                int b = pushed;
+                pushed = -1;
+                return b;
+            }
+            if (lost != null) throw lost;
+            if (eof) return -1;
+            int b = super.read();
+            if (b >= 0) received.increment();
+            return b;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0) return 0;
+        lock.lock();
+        try
+        {
+            if (pushed >= 0)
+            {
+                b[off] = (byte) pushed;
+                pushed = -1;
+                return 1;
+            }
+            if (lost != null) throw lost;
+            if (eof) return -1;
+            int n = super.read(b, off, len);
+            if (n > 0) received.add(n);
+            return n;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        lock.lock();
+        try
+        {
+            return (pushed >= 0 ? 1 : 0) + (eof || lost != null ? 0 : super.available());
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package via.vinylsystem.server;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import via.vinylsystem.Util.JsonLineWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+
+/**
+ * Writes response lines to one client connection, plain or compressed.
+ * <p>
+ * In plain mode each response is a UTF-8 JSON line. After the client has sent
+ * {"CMD":"COMPRESS","MODE":"DEFLATE"}, each response line is sent as one frame:
+ * a 4-byte big-endian length followed by the line (newline included). A positive
+ * length means the bytes are raw DEFLATE data (no zlib header) that inflates to the
+ * line on its own; a negative length means the next {@code -length} bytes are the
+ * line uncompressed, which is used for lines shorter than {@link #MIN_COMPRESS}
+ * bytes where compression does not pay. Requests stay plain lines in both modes.
+ * </p>
+ * <p>
+ * Responses from several threads may share a connection, so every write happens
+ * under this object's lock and a line is never interleaved with another.
+ * </p>
+ * <p>
+ * Most responses are written with {@link #send}: the body is encoded under the lock
+ * into the connection's {@link JsonLineWriter}, whose buffer is reused for every
+ * response, and written from there.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+final class ResponseWriter implements Closeable
+{
+    /** Lines shorter than this are sent uncompressed even in compressed mode. */
+    static final int MIN_COMPRESS = 256;
+
+    private final DataOutputStream out;
+    private final LongAdder sent;
+    private final JsonLineWriter json = new JsonLineWriter();
+    private Deflater deflater;
+    private byte[] scratch = new byte[8192];
+
+    /**
+     * @param out the connection's (buffered) output stream
+     * @param sent counts the bytes written, frame headers included
+     */
+    ResponseWriter(OutputStream out, LongAdder sent)
+    {
+        this.out = new DataOutputStream(out);
+        this.sent = sent;
+    }
+
+    /**
+     * Switches compressed framing on or off for every following response.
+     *
+     * @param on true for DEFLATE frames, false for plain lines
+     */
+    synchronized void setCompressed(boolean on)
+    {
+        if (on && deflater == null) deflater = new Deflater(Deflater.BEST_SPEED, true);
+        if (!on && deflater != null)
+        {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    /**
+     * Writes one response and flushes it.
+     *
+     * @param resp the response
+     * @throws IOException if the connection fails
+     */
+    void line(JsonObject resp) throws IOException
+    {
+        line((resp.toString() + "\n").getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    /** Writes the fields of a response object. */
+    interface Body
+    {
+        void write(JsonLineWriter j);
+    }
+
+    /**
+     * Writes one response object; the body is encoded straight into this connection's
+     * reusable buffer.
+     *
+     * @param body writes the fields
+     * @param flush true to send it right away, false to let it collect in the buffer
+     * @throws IOException if the connection fails
+     */
+    synchronized void send(Body body, boolean flush) throws IOException
+    {
+        body.write(json.begin());
+        write(json.bytes(), json.end(), flush);
+    }
+
+    /**
+     * Writes and flushes a response with STATUS first, then the body's fields, then
+     * the request ID if there is one.
+     *
+     * @param status the status code
+     * @param body writes the other fields, or {@code null} for none
+     * @param rid the request ID to echo, or {@code null}
+     * @throws IOException if the connection fails
+     */
+    void send(String status, Body body, JsonElement rid) throws IOException
+    {
+        send(j -> {
+            j.field("STATUS", status);
+            if (body != null) body.write(j);
+            if (rid != null) j.field("RID", rid);
+        }, true);
+    }
+
+    /**
+     * Writes one encoded response line.
+     *
+     * @param line the UTF-8 line, newline included
+     * @param flush true to send it right away, false to let it collect in the buffer
+     * @throws IOException if the connection fails
+     */
+    synchronized void line(byte[] line, boolean flush) throws IOException
+    {
+        write(line, line.length, flush);
+    }
+
+    private void write(byte[] line, int len, boolean flush) throws IOException
+    {
+        if (deflater == null)
+        {
+            out.write(line, 0, len);
+            sent.add(len);
+        }
+        else if (len < MIN_COMPRESS)
+        {
+            out.writeInt(-len);
+            out.write(line, 0, len);
+            sent.add(4 + len);
+        }
+        else
+        {
+            int n = deflate(line, 0, len);
+            out.writeInt(n);
+            out.write(scratch, 0, n);
+            sent.add(4 + n);
+        }
+        if (flush) out.flush();
+    }
+
+    /**
+     * Writes a cached response line with a short tail replacing its last bytes.
+     * <p>
+     * Used for the cached LIST payload: {@code head} is the payload without its
+     * closing {@code "}\n"}, and {@code tail} closes it, possibly adding a request ID.
+     * In compressed mode the head is sent as cached DEFLATE blocks (see
+     * {@link #deflateHead(byte[], int)}) followed by the freshly compressed tail, so
+     * the large part of the response is never compressed twice.
+     * </p>
+     *
+     * @param head the cached line
+     * @param headLen how many bytes of {@code head} to send
+     * @param deflatedHead supplies the cached DEFLATE blocks of the first {@code headLen} bytes
+     * @param tail the bytes that end the line, newline included
+     * @throws IOException if the connection fails
+     */
+    synchronized void spliced(byte[] head, int headLen, Supplier<byte[]> deflatedHead, byte[] tail) throws IOException
+    {
+        if (deflater == null)
+        {
+            out.write(head, 0, headLen);
+            out.write(tail);
+            sent.add(headLen + tail.length);
+        }
+        else
+        {
+            byte[] h = deflatedHead.get();
+            int n = deflate(tail, 0, tail.length);
+            out.writeInt(h.length + n);
+            out.write(h);
+            out.write(scratch, 0, n);
+            sent.add(4 + h.length + n);
+        }
+        out.flush();
+    }
+
+    /**
+     * Compresses the start of a line into non-final DEFLATE blocks that end on a byte
+     * boundary, so the compressed form of any tail can be appended to them.
+     *
+     * @param data the line
+     * @param len how many bytes to compress
+     * @return the DEFLATE blocks
+     */
+    static byte[] deflateHead(byte[] data, int len)
+    {
+        Deflater d = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try
+        {
+            d.setInput(data, 0, len);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(len / 4 + 64);
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            do
+            {
+                n = d.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                bytes.write(buf, 0, n);
+            }
+            while (n == buf.length);
+            return bytes.toByteArray();
+        }
+        finally
+        {
+            d.end();
+        }
+    }
+
+    /** Compresses a complete stream into {@link #scratch} and returns its length. */
+    private int deflate(byte[] data, int off, int len)
+    {
+        deflater.reset();
+        deflater.setInput(data, off, len);
+        deflater.finish();
+        int n = 0;
+        while (!deflater.finished())
+        {
+            if (n == scratch.length) scratch = Arrays.copyOf(scratch, scratch.length * 2);
+            n += deflater.deflate(scratch, n, scratch.length - n);
+        }
+        return n;
+    }
+
+    /**
+     * Releases the compressor and closes the stream.
+     *
+     * @throws IOException if the stream cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        setCompressed(false);
+        out.close();
+    }
+}
@@ -0,0 +1,189 @@
+package via.vinylsystem.server;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Parallel full scan over catalog positions, for predicates no index can narrow down.
+ * <p>
+ * The positions are cut into chunks of {@link #CHUNK}. The calling thread and a
+ * number of helper tasks on a shared {@link ForkJoinPool} claim chunks from a
+ * common counter until none are left, and each chunk's matches are kept apart so
+ * the result comes out in position order without sorting. Catalogs of a single
+ * chunk are scanned on the calling thread alone.
+ * </p>
+ * <p>
+ * Parallelism adapts to load: a scan gets {@code parallelism / active scans}
+ * helpers, counted when it starts, so one heavy request cannot take every core
+ * while other sessions wait, and a lone request still uses the whole pool. The
+ * calling thread always works too, so a scan makes progress even when the pool is
+ * busy.
+ * </p>
+ * <p>
+ * Cancellation is cooperative: the flag is checked before each chunk, and once it
+ * is set the remaining chunks are dropped and the scan ends with a
+ * {@link java.util.concurrent.CancellationException}.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+final class ScanEngine
+{
+    /** Positions per chunk. */
+    static final int CHUNK = 16_384;
+
+    /** The engine used by every catalog. */
+    static final ScanEngine SHARED = new ScanEngine(new ForkJoinPool(Runtime.getRuntime().availableProcessors()));
+
+    private final ForkJoinPool pool;
+    private final AtomicInteger active = new AtomicInteger();
+
+    ScanEngine(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * Scores every position in {@code [0, size)} and hands the matches to {@code sink}
+     * in ascending position order, on the calling thread.
+     *
+     * @param size the number of positions
+     * @param score returns a position's score, or 0 if it does not match; called from several threads
+     * @param cancel checked before each chunk
+     * @param sink receives each matching position and its score
+     * @throws java.util.concurrent.CancellationException if cancelled before the scan finished
+     */
+    void scan(int size, IntUnaryOperator score, Cancellation cancel, TrigramIndex.ScoredConsumer sink)
+    {
+        int chunks = (size + CHUNK - 1) / CHUNK;
+        if (chunks <= 1)
+        {
+            for (int pos = 0; pos < size; pos++)
+            {
+                int s = score.applyAsInt(pos);
+                if (s > 0) sink.accept(pos, s);
+            }
+            return;
+        }
+
+        Scan scan = new Scan(size, chunks, score, cancel);
+        int scans = active.incrementAndGet();
+        try
+        {
+            int helpers = Math.min(chunks - 1, Math.max(0, pool.getParallelism() / scans - 1));
+            for (int i = 0; i < helpers; i++) pool.execute(scan::work);
+            scan.work();
+            scan.await();
+        }
+        finally
+        {
+            active.decrementAndGet();
+        }
+        cancel.check();
+        if (scan.failure != null) throw scan.failure;
+
+        for (int[] hits : scan.results)
+        {
+            for (int i = 0; i < hits.length; i += 2) sink.accept(hits[i], hits[i + 1]);
+        }
+    }
+
+    /** State of one scan, shared by the caller and its helpers. */
+    private static final class Scan
+    {
+        final int size;
+        final int chunks;
+        final IntUnaryOperator score;
+        final Cancellation cancel;
+        /** Per chunk: pairs of (position, score). */
+        final int[][] results;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        volatile RuntimeException failure;
+
+        Scan(int size, int chunks, IntUnaryOperator score, Cancellation cancel)
+        {
+            this.size = size;
+            this.chunks = chunks;
+            this.score = score;
+            this.cancel = cancel;
+            this.results = new int[chunks][];
+        }
+
+        /** Claims and scans chunks until there are none left. */
+        void work()
+        {
+            int[] buf = new int[64];
+            while (true)
+            {
+                if (cancel.isCancelled())
+                {
+                    int from = next.getAndSet(chunks);
+                    if (from < chunks) finished(chunks - from);
+                    return;
+                }
+                int c = next.getAndIncrement();
+                if (c >= chunks) return;
+
+                int n = 0;
+                try
+                {
+                    int end = Math.min(size, (c + 1) * CHUNK);
+                    for (int pos = c * CHUNK; pos < end; pos++)
+                    {
+                        int s = score.applyAsInt(pos);
+                        if (s > 0)
+                        {
+                            if (n + 2 > buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+                            buf[n++] = pos;
+                            buf[n++] = s;
+                        }
+                    }
+                }
+                catch (RuntimeException e)
+                {
+                    failure = e;
+                    n = 0;
+                }
+                finally
+                {
+                    results[c] = Arrays.copyOf(buf, n);
+                    finished(1);
+                }
+            }
+        }
+
+        private void finished(int count)
+        {
+            if (done.addAndGet(count) == chunks)
+            {
+                synchronized (this)
+                {
+                    notifyAll();
+                }
+            }
+        }
+
+        /** Waits until every chunk is scanned or dropped. */
+        synchronized void await()
+        {
+            boolean interrupted = false;
+            while (done.get() < chunks)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                    cancel.cancel();
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
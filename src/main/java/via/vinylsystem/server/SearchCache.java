@@ -0,0 +1,329 @@
+package via.vinylsystem.server;
+
+import via.vinylsystem.Model.Track;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of ranked SEARCH results, keyed by catalog version, normalized query,
+ * limit and whether the search was fuzzy.
+ * <p>
+ * The cache is size-aware: every entry is weighed by an estimate of the heap its
+ * tracks take, and least recently used entries are evicted to stay under the byte
+ * budget. Admission follows TinyLFU: a compact frequency sketch counts how often
+ * each key was asked for, and a new entry is only admitted if its key has been asked
+ * for more often than every entry it would push out. The victims are picked and
+ * weighed against the new entry before any of them is evicted, so an entry is never
+ * evicted for a result that is then rejected. One-off queries therefore cannot flush
+ * the popular ones. The sketch is halved periodically so old popularity fades.
+ * </p>
+ * <p>
+ * Concurrent misses for the same key are coalesced: the first caller computes the
+ * result and the others wait for it, each still watching its own cancellation flag.
+ * If that computation is cancelled (its client left), a waiting caller computes the
+ * result itself.
+ * </p>
+ * <p>
+ * The catalog version is part of the key, so a changed catalog never serves stale
+ * results. Writes do not clear the cache: entries of older versions are never asked
+ * for again, drift to the LRU end and are evicted first. They do not count against
+ * admission, however popular they were. {@link #clear()} drops everything at once,
+ * e.g. when the whole catalog is replaced.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+final class SearchCache
+{
+    /** Cache key; the query is already lower-cased. */
+    private record Key(long version, String query, int limit, boolean fuzzy) {}
+
+    private record Entry(Catalog.Hits hits, long weight) {}
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Entry> lru = new LinkedHashMap<>(256, 0.75f, true);
+    private final ConcurrentHashMap<Key, CompletableFuture<Catalog.Hits>> inFlight = new ConcurrentHashMap<>();
+    private final FrequencySketch sketch = new FrequencySketch(1 << 14);
+    private long bytes;
+    /** Newest catalog version asked for; entries of older versions are stale. */
+    private long latest = Long.MIN_VALUE;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param maxBytes the budget for cached results, estimated heap bytes
+     */
+    SearchCache(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /** Milliseconds a coalesced caller waits between checks of its cancellation flag. */
+    private static final long WAIT_CHECK_MS = 50;
+
+    /**
+     * Returns the cached result for a search, computing it at most once at a time.
+     *
+     * @param version the catalog version the search runs against
+     * @param query the search query
+     * @param limit the result limit
+     * @param fuzzy true for a typo-tolerant search, see {@link Catalog#fuzzySearch}
+     * @param cancel this caller's cancellation flag, also checked while waiting for
+     *               another caller's computation
+     * @param compute computes the result on a miss
+     * @return the result
+     * @throws CancellationException if this caller was cancelled
+     */
+    Catalog.Hits get(long version, String query, int limit, boolean fuzzy, Cancellation cancel, Supplier<Catalog.Hits> compute)
+    {
+        Key key = new Key(version, TrigramIndex.normalize(query), limit, fuzzy);
+        while (true)
+        {
+            synchronized (this)
+            {
+                latest = Math.max(latest, version);
+                sketch.increment(key.hashCode());
+                Entry e = lru.get(key);
+                if (e != null)
+                {
+                    hits.increment();
+                    return e.hits();
+                }
+            }
+
+            CompletableFuture<Catalog.Hits> mine = new CompletableFuture<>();
+            CompletableFuture<Catalog.Hits> running = inFlight.putIfAbsent(key, mine);
+            if (running != null)
+            {
+                coalesced.increment();
+                Catalog.Hits result = await(running, cancel);
+                if (result != null) return result;
+                continue; // the computing caller went away: try again
+            }
+
+            misses.increment();
+            try
+            {
+                Catalog.Hits result = compute.get();
+                put(key, result);
+                mine.complete(result);
+                return result;
+            }
+            catch (RuntimeException e)
+            {
+                mine.completeExceptionally(e);
+                throw e;
+            }
+            finally
+            {
+                inFlight.remove(key, mine);
+            }
+        }
+    }
+
+    /**
+     * Waits for another caller's computation of the same key.
+     *
+     * @return the result, or {@code null} if that computation was cancelled
+     * @throws CancellationException if {@code cancel} is cancelled while waiting
+     */
+    private static Catalog.Hits await(CompletableFuture<Catalog.Hits> running, Cancellation cancel)
+    {
+        while (true)
+        {
+            cancel.check();
+            try
+            {
+                return running.get(WAIT_CHECK_MS, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                // check the flag and wait on
+            }
+            catch (CancellationException e)
+            {
+                return null;
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof CancellationException) return null;
+                if (e.getCause() instanceof RuntimeException r) throw r;
+                throw new CompletionException(e.getCause());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for a search");
+            }
+        }
+    }
+
+    private synchronized void put(Key key, Catalog.Hits result)
+    {
+        long weight = weigh(key, result);
+        if (weight > maxBytes) return;
+
+        // pick every victim first, then decide; stale entries never block admission
+        List<Key> victims = new ArrayList<>();
+        long freed = 0;
+        int frequency = sketch.frequency(key.hashCode());
+        for (Map.Entry<Key, Entry> e : lru.entrySet())
+        {
+            if (bytes - freed + weight <= maxBytes) break;
+            Key victim = e.getKey();
+            if (victim.equals(key)) continue;
+            if (victim.version() >= latest && sketch.frequency(victim.hashCode()) >= frequency)
+            {
+                rejected.increment();
+                return;
+            }
+            victims.add(victim);
+            freed += e.getValue().weight();
+        }
+
+        for (Key victim : victims)
+        {
+            bytes -= lru.remove(victim).weight();
+            evictions.increment();
+        }
+        Entry old = lru.put(key, new Entry(result, weight));
+        if (old != null) bytes -= old.weight();
+        bytes += weight;
+    }
+
+    /**
+     * Drops every entry, e.g. after the catalog has been swapped.
+     */
+    synchronized void clear()
+    {
+        lru.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Returns the cache counters.
+     *
+     * @return a snapshot of the statistics
+     */
+    synchronized Stats stats()
+    {
+        return new Stats(hits.sum(), misses.sum(), coalesced.sum(), evictions.sum(), rejected.sum(), lru.size(), bytes);
+    }
+
+    /**
+     * Cache statistics.
+     *
+     * @param hits lookups answered from the cache
+     * @param misses lookups that computed the result
+     * @param coalesced lookups that waited for another caller's computation
+     * @param evictions entries removed to make room
+     * @param rejected results not admitted because the LRU victim was more popular
+     * @param entries entries currently cached
+     * @param bytes estimated heap bytes currently cached
+     */
+    record Stats(long hits, long misses, long coalesced, long evictions, long rejected, int entries, long bytes)
+    {
+        /** Share of lookups answered without computing, 0 when there were none. */
+        double hitRatio()
+        {
+            long total = hits + misses + coalesced;
+            return total == 0 ? 0 : (hits + coalesced) / (double) total;
+        }
+    }
+
+    /** Rough heap size of a cached result: track objects and their strings. */
+    private static long weigh(Key key, Catalog.Hits result)
+    {
+        long w = 96 + 2L * key.query().length();
+        for (Track t : result.tracks())
+        {
+            w += 80 + 2L * (len(t.getId()) + len(t.getArtist()) + len(t.getTitle()));
+        }
+        return w;
+    }
+
+    private static int len(String s)
+    {
+        return s == null ? 0 : s.length();
+    }
+
+    /**
+     * Count-min sketch with four 4-bit counters per key, as used by TinyLFU.
+     * After a sample of {@code 10 * width} increments every counter is halved.
+     */
+    private static final class FrequencySketch
+    {
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int width)
+        {
+            this.table = new long[width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        void increment(int hash)
+        {
+            boolean added = false;
+            for (int i = 0; i < 4; i++)
+            {
+                int slot = index(hash, i);
+                int shift = counterShift(hash, i);
+                if (((table[slot] >>> shift) & 0xF) < 15)
+                {
+                    table[slot] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) reset();
+        }
+
+        int frequency(int hash)
+        {
+            int min = 15;
+            for (int i = 0; i < 4; i++)
+            {
+                min = Math.min(min, (int) ((table[index(hash, i)] >>> counterShift(hash, i)) & 0xF));
+            }
+            return min;
+        }
+
+        private int index(int hash, int i)
+        {
+            int h = (hash + i * 0x9E3779B9) * 0x85EBCA6B;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        /** Each long holds 16 counters; row i uses counters 4i..4i+3, picked by the hash. */
+        private static int counterShift(int hash, int i)
+        {
+            return ((i << 2) + ((hash >>> (i << 3)) & 3)) << 2;
+        }
+
+        private void reset()
+        {
+            for (int i = 0; i < table.length; i++) table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            additions /= 2;
+        }
+    }
+}
@@ -2,8 +2,8 @@ package via.vinylsystem.server;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import via.vinylsystem.Model.Track;
 import via.vinylsystem.Util.JsonUtils;
+import via.vinylsystem.Util.Log;
 import via.vinylsystem.Util.yamlLoader;
 import via.vinylsystem.directory.RegistryService;
 
@@ -11,7 +11,7 @@ import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -34,6 +34,22 @@ import java.util.concurrent.TimeUnit;
  *   <li>VINYL_DIR_TCP - Directory server port (default: 5044)</li>
  *   <li>VINYL_TTL - Time-to-live for directory registration in seconds (default: 900)</li>
  *   <li>VINYL_IP - IP address of this server (default: 127.0.0.1)</li>
+ *   <li>catalog_file (YAML) - optional .vcat, .csv or .jsonl catalog to serve instead of the seed catalog</li>
+ *   <li>catalog_store (YAML) - "mapped" (default) reads the catalog file in place, "columnar" copies it
+ *   into a compact in-memory {@link ColumnarTrackStore}</li>
+ *   <li>catalog_reload_sec (YAML) - how often to check catalog_file for changes and reload it
+ *   without a restart, see {@link CatalogWatcher} (0 disables)</li>
+ *   <li>catalog_dir (YAML) - optional directory where catalog writes are kept durably, see
+ *   {@link CatalogLogStore}; a new directory starts from catalog_file or the seed catalog.
+ *   Hot reload is off when it is set</li>
+ *   <li>catalog_compact_sec (YAML) - how often the write log is compacted into a new base file</li>
+ *   <li>search_cache_mb (YAML) - memory budget of the SEARCH result cache, see {@link SearchCache}
+ *   (default 64, 0 disables)</li>
+ *   <li>stats_file (YAML) - optional file the server's statistics are written to in the
+ *   Prometheus text format, see {@link CatalogStats}</li>
+ *   <li>stats_interval_sec (YAML) - how often stats_file is rewritten (default 15)</li>
+ *   <li>logging (YAML section) - log levels, sampling and payload limits per logger, see
+ *   {@link Log}; requests are logged by "catalog.request" at DEBUG</li>
  * </ul>
  * </p>
  * <p>
@@ -70,6 +86,7 @@ public class Servermain
         } catch (Exception e) {
             throw new IOException("Failed to load YAML config: " + e.getMessage(), e);
         }
+        Log.configure((Map<?, ?>) config.get("logging"));
         Map<String, Object> serverConfig = (Map<String, Object>) config.get("server");
 
         String serverName = getArg(args, 0, (String) serverConfig.get("server_name"));
@@ -81,11 +98,50 @@ public class Servermain
 
         if(!RegistryService.validName(serverName)) throw new IllegalArgumentException("Ugyldigt navn: " + serverName);
 
-        // Start TCP catalog server
-        List<Track> catalog = CatalogServer.seedCatalog();
+        // Start TCP catalog server (catalog file if configured, otherwise the seed catalog)
+        String catalogFile = (String) serverConfig.get("catalog_file");
+        boolean hasFile = catalogFile != null && !catalogFile.isBlank();
+        boolean columnar = "columnar".equalsIgnoreCase((String) serverConfig.get("catalog_store"));
+        String catalogDir = (String) serverConfig.get("catalog_dir");
+        CatalogLogStore store = null;
+        Catalog catalog;
+        if (catalogDir != null && !catalogDir.isBlank())
+        {
+            store = CatalogLogStore.open(Path.of(catalogDir), columnar, () -> hasFile
+                    ? CatalogLoader.open(Path.of(catalogFile), columnar)
+                    : new ListTrackStore(CatalogServer.seedCatalog()));
+            catalog = store.catalog();
+        }
+        else
+        {
+            catalog = hasFile
+                    ? Catalog.of(CatalogLoader.open(Path.of(catalogFile), columnar), CatalogServer.initialVersion())
+                    : Catalog.of(CatalogServer.seedCatalog(), CatalogServer.initialVersion());
+        }
         CatalogServer srv = new CatalogServer(servicePort, catalog);
+        if (store != null)
+        {
+            Object compact = serverConfig.get("catalog_compact_sec");
+            srv.persistTo(store, compact instanceof Number n ? n.intValue() : 0);
+        }
+        Object cacheMb = serverConfig.get("search_cache_mb");
+        if (cacheMb instanceof Number n) srv.setSearchCacheSize(n.longValue() << 20);
+        String statsFile = (String) serverConfig.get("stats_file");
+        if (statsFile != null && !statsFile.isBlank())
+        {
+            Object interval = serverConfig.get("stats_interval_sec");
+            srv.dumpStatsTo(Path.of(statsFile), interval instanceof Number n && n.intValue() > 0 ? n.intValue() : 15);
+        }
         srv.start();
 
+        // Reload the catalog in place when its file changes
+        Object reload = serverConfig.get("catalog_reload_sec");
+        int reloadSec = reload instanceof Number n ? n.intValue() : 0;
+        if (hasFile && store == null && reloadSec > 0)
+        {
+            new CatalogWatcher(srv, Path.of(catalogFile), columnar).start(reloadSec);
+        }
+
 
         // Register server with directory
         sendToDirectory("REGISTER",serverName,ip,ttlSec,directoryHost,directoryTcp);
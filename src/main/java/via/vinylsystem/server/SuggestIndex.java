@@ -0,0 +1,247 @@
+package via.vinylsystem.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.IntFunction;
+
+/**
+ * Prefix completion index over the distinct artists and titles of a catalog.
+ * <p>
+ * Every distinct artist and every distinct title is one entry, keyed by its folded
+ * text (see {@link #key}) and weighted by the number of tracks carrying it, so
+ * "Medina" with 40 tracks completes before "Medicine Head" with 3. The keys are
+ * kept in one sorted array, which is a trie laid out flat: the entries below any
+ * trie node, i.e. all keys starting with a prefix, form one contiguous range found
+ * by two binary searches. Over the weights sits a tree that holds the heaviest
+ * entry of every power-of-two block, built once at load. The best {@code n}
+ * entries of a range are then taken one at a time, each in O(log entries), without
+ * looking at the rest of the range. A lookup costs microseconds no matter how many
+ * keys share the prefix.
+ * </p>
+ * <p>
+ * Ties in weight go to the alphabetically first key. Instances are immutable and
+ * safe to share.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+final class SuggestIndex
+{
+    /** Largest number of completions one lookup returns. */
+    static final int MAX_SUGGESTIONS = 100;
+
+    /**
+     * One completion.
+     *
+     * @param text the artist or title as spelled in the catalog
+     * @param artist true for an artist, false for a title
+     * @param tracks the number of tracks with this artist or title
+     */
+    record Suggestion(String text, boolean artist, int tracks) {}
+
+    /** Folded keys, ascending; an artist and a title with the same key are two entries. */
+    private final String[] keys;
+    /** Per entry: the text as first seen in the catalog. */
+    private final String[] texts;
+    private final boolean[] artist;
+    private final int[] weights;
+    /** Range-maximum tree: node {@code i} holds the heaviest entry below it, leaves from {@code leaves}. */
+    private final int[] best;
+    private final int leaves;
+
+    /**
+     * Builds the index over {@code size} positions.
+     *
+     * @param size the number of catalog positions
+     * @param artistAt returns the artist stored at a position
+     * @param titleAt returns the title stored at a position
+     */
+    SuggestIndex(int size, IntFunction<String> artistAt, IntFunction<String> titleAt)
+    {
+        Map<String, int[]> artists = new HashMap<>();
+        Map<String, int[]> titles = new HashMap<>();
+        Map<String, String> artistTexts = new HashMap<>();
+        Map<String, String> titleTexts = new HashMap<>();
+        for (int pos = 0; pos < size; pos++)
+        {
+            count(artistAt.apply(pos), artists, artistTexts);
+            count(titleAt.apply(pos), titles, titleTexts);
+        }
+
+        int n = artists.size() + titles.size();
+        String[] k = new String[n];
+        Integer[] order = new Integer[n];
+        int i = 0;
+        for (String key : artists.keySet()) k[i++] = key;
+        int firstTitle = i;
+        for (String key : titles.keySet()) k[i++] = key;
+        for (i = 0; i < n; i++) order[i] = i;
+        // by key, artists before titles with the same key
+        Arrays.sort(order, (a, b) -> {
+            int c = k[a].compareTo(k[b]);
+            return c != 0 ? c : Boolean.compare(a >= firstTitle, b >= firstTitle);
+        });
+
+        this.keys = new String[n];
+        this.texts = new String[n];
+        this.artist = new boolean[n];
+        this.weights = new int[n];
+        for (i = 0; i < n; i++)
+        {
+            int e = order[i];
+            boolean isArtist = e < firstTitle;
+            keys[i] = k[e];
+            artist[i] = isArtist;
+            texts[i] = (isArtist ? artistTexts : titleTexts).get(k[e]);
+            weights[i] = (isArtist ? artists : titles).get(k[e])[0];
+        }
+
+        int l = 1;
+        while (l < n) l <<= 1;
+        this.leaves = l;
+        this.best = new int[2 * l];
+        Arrays.fill(best, -1);
+        for (i = 0; i < n; i++) best[l + i] = i;
+        for (i = l - 1; i >= 1; i--) best[i] = heavier(best[2 * i], best[2 * i + 1]);
+    }
+
+    private static void count(String text, Map<String, int[]> counts, Map<String, String> firstText)
+    {
+        String key = key(text);
+        if (key.isEmpty()) return;
+        int[] c = counts.get(key);
+        if (c == null)
+        {
+            counts.put(key, new int[] {1});
+            firstText.put(key, text.strip());
+        }
+        else c[0]++;
+    }
+
+    /**
+     * Returns the most popular artists and titles starting with a prefix, most tracks
+     * first.
+     *
+     * @param prefix the typed prefix; folded like the keys
+     * @param limit the maximum number of completions, at most {@link #MAX_SUGGESTIONS}
+     * @return the completions, best first
+     */
+    List<Suggestion> suggest(String prefix, int limit)
+    {
+        String p = prefix(prefix);
+        int from = lowerBound(p);
+        int to = lowerBound(p + Character.MAX_VALUE);
+        int n = Math.min(limit, to - from);
+        List<Suggestion> out = new ArrayList<>(Math.max(n, 0));
+        if (n <= 0) return out;
+
+        // ranges still to be taken from, heaviest candidate first: {from, to, entry}
+        PriorityQueue<int[]> ranges = new PriorityQueue<>((a, b) -> heavier(a[2], b[2]) == a[2] ? -1 : 1);
+        ranges.add(new int[] {from, to, heaviest(from, to)});
+        while (out.size() < n)
+        {
+            int[] r = ranges.poll();
+            int e = r[2];
+            out.add(new Suggestion(texts[e], artist[e], weights[e]));
+            if (r[0] < e) ranges.add(new int[] {r[0], e, heaviest(r[0], e)});
+            if (e + 1 < r[1]) ranges.add(new int[] {e + 1, r[1], heaviest(e + 1, r[1])});
+        }
+        return out;
+    }
+
+    /**
+     * Returns the number of tracks an artist or title was counted with when the index
+     * was built; used to adjust counts for tracks changed since.
+     *
+     * @param key the folded key, from {@link #key}
+     * @param isArtist true for an artist, false for a title
+     * @return the track count, 0 if there is no such entry
+     */
+    int weight(String key, boolean isArtist)
+    {
+        int i = lowerBound(key);
+        for (; i < keys.length && keys[i].equals(key); i++)
+        {
+            if (artist[i] == isArtist) return weights[i];
+        }
+        return 0;
+    }
+
+    /**
+     * Folds an artist or title into its key: {@link FuzzyIndex#fold folded}, with runs
+     * of white space made one space and none at either end.
+     *
+     * @param text the artist or title, may be {@code null}
+     * @return the key, empty for a blank text
+     */
+    static String key(String text)
+    {
+        return prefix(text).stripTrailing();
+    }
+
+    /**
+     * Folds a typed prefix like a key but keeps one trailing space, so "kim " does not
+     * complete to "Kimberly".
+     *
+     * @param text the prefix, may be {@code null}
+     * @return the folded prefix
+     */
+    static String prefix(String text)
+    {
+        String f = FuzzyIndex.fold(text);
+        StringBuilder sb = new StringBuilder(f.length());
+        boolean space = false;
+        for (int i = 0; i < f.length(); i++)
+        {
+            char c = f.charAt(i);
+            if (Character.isWhitespace(c)) space = sb.length() > 0;
+            else
+            {
+                if (space) sb.append(' ');
+                space = false;
+                sb.append(c);
+            }
+        }
+        if (space) sb.append(' ');
+        return sb.toString();
+    }
+
+    /** First entry whose key is not less than {@code s}. */
+    private int lowerBound(String s)
+    {
+        int lo = 0, hi = keys.length;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(s) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** The heaviest entry in {@code [from, to)}, which must not be empty. */
+    private int heaviest(int from, int to)
+    {
+        int result = -1;
+        for (int lo = from + leaves, hi = to + leaves; lo < hi; lo >>>= 1, hi >>>= 1)
+        {
+            if ((lo & 1) == 1) result = heavier(result, best[lo++]);
+            if ((hi & 1) == 1) result = heavier(result, best[--hi]);
+        }
+        return result;
+    }
+
+    /** The entry with more tracks, the earlier one on a tie; -1 stands for none. */
+    private int heavier(int a, int b)
+    {
+        if (a < 0) return b;
+        if (b < 0) return a;
+        if (weights[a] != weights[b]) return weights[a] > weights[b] ? a : b;
+        return Math.min(a, b);
+    }
+}
@@ -0,0 +1,95 @@
+package via.vinylsystem.server;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the {@code k} best-scored catalog positions seen so far.
+ * <p>
+ * Entries live in a min-heap of packed longs (score in the high half, inverted
+ * position in the low half), so the worst kept entry is always at the root and a
+ * new entry either replaces it or is dropped. Memory is O(k) no matter how many
+ * positions are offered, and equal scores rank the earlier catalog position first.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+final class TopK
+{
+    private final int k;
+    private long[] heap;
+    private int n;
+    private int offered;
+
+    /**
+     * @param k the number of positions to keep, at least 1
+     */
+    TopK(int k)
+    {
+        this.k = k;
+        this.heap = new long[Math.min(k, 1024)];
+    }
+
+    /**
+     * Offers a position with its score.
+     *
+     * @param pos the catalog position
+     * @param score the score, higher is better
+     */
+    void offer(int pos, int score)
+    {
+        offered++;
+        long key = ((long) score << 32) | (~pos & 0xFFFFFFFFL);
+        if (n < k)
+        {
+            if (n == heap.length) heap = Arrays.copyOf(heap, (int) Math.min(k, heap.length * 2L));
+            int i = n++;
+            while (i > 0)
+            {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= key) break;
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = key;
+        }
+        else if (key > heap[0])
+        {
+            int i = 0;
+            while (true)
+            {
+                int child = 2 * i + 1;
+                if (child >= n) break;
+                if (child + 1 < n && heap[child + 1] < heap[child]) child++;
+                if (heap[child] >= key) break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = key;
+        }
+    }
+
+    /**
+     * Returns how many positions were offered in total.
+     *
+     * @return the number of offers
+     */
+    int offered()
+    {
+        return offered;
+    }
+
+    /**
+     * Returns the kept positions, best first.
+     *
+     * @return at most {@code k} catalog positions
+     */
+    int[] positions()
+    {
+        long[] sorted = Arrays.copyOf(heap, n);
+        Arrays.sort(sorted);
+        int[] out = new int[n];
+        for (int i = 0; i < n; i++) out[i] = ~(int) sorted[n - 1 - i];
+        return out;
+    }
+}
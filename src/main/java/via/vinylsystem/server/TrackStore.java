@@ -0,0 +1,48 @@
+package via.vinylsystem.server;
+
+import via.vinylsystem.Model.Track;
+
+/**
+ * Read-only, position-based storage of catalog tracks.
+ * <p>
+ * A store hands out single fields by position so indexes can be built and queried
+ * without creating a {@link Track} for every entry. Implementations may keep tracks
+ * as objects on the heap or decode them from a memory-mapped file on each access.
+ * Implementations must be safe for concurrent reads.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+public interface TrackStore
+{
+    /**
+     * Returns the number of tracks in the store.
+     *
+     * @return the track count
+     */
+    int size();
+
+    /** @return the ID of the track at {@code pos} */
+    String id(int pos);
+
+    /** @return the artist of the track at {@code pos} */
+    String artist(int pos);
+
+    /** @return the title of the track at {@code pos} */
+    String title(int pos);
+
+    /** @return the release year of the track at {@code pos} */
+    int year(int pos);
+
+    /**
+     * Returns the track at a position as a {@link Track}.
+     *
+     * @param pos the position, from 0 to {@code size() - 1}
+     * @return the track
+     */
+    default Track get(int pos)
+    {
+        return new Track(id(pos), artist(pos), title(pos), year(pos));
+    }
+}
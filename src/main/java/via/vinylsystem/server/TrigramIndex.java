@@ -0,0 +1,270 @@
+package via.vinylsystem.server;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Inverted trigram index over the artist and title of every track.
+ * <p>
+ * Both fields are lower-cased once at build time and every three-character window
+ * is mapped to the sorted list of catalog positions that contain it. A substring
+ * query of three or more characters can only match tracks that appear in the
+ * posting list of every trigram of the query, so the lists are intersected
+ * (smallest first) and only the surviving candidates are checked against the real
+ * strings. Shorter queries have no trigrams and fall back to checking every track,
+ * in parallel through {@link ScanEngine}.
+ * </p>
+ * <p>
+ * The result is exactly the old rule: artist or title contains the query, ignoring
+ * case. Instances are immutable after construction and safe to share.
+ * </p>
+ * <p>
+ * {@link #searchScored} also rates each match: an exact field match beats a prefix
+ * match, which beats a match elsewhere in the field, and for the same kind of match
+ * the artist counts more than the title.
+ * </p>
+ *
+ * @author Ghiyath & sakariae
+ * @version 1.0
+ */
+final class TrigramIndex
+{
+    /** Trigram keys in ascending order, packed three chars to a long. */
+    private final long[] keys;
+    /** Positions per key, ascending. */
+    private final int[][] postings;
+    private final int size;
+    private final IntFunction<String> artistAt;
+    private final IntFunction<String> titleAt;
+
+    /** Match kinds, best last. */
+    static final int SUBSTRING = 1, PREFIX = 2, EXACT = 3;
+
+    /** Receives a matching position and its relevance score (higher is better). */
+    interface ScoredConsumer
+    {
+        void accept(int pos, int score);
+    }
+
+    /** Growable int list used while building. */
+    private static final class IntList
+    {
+        int[] a = new int[4];
+        int n;
+
+        void addIfNew(int v)
+        {
+            if (n > 0 && a[n - 1] == v) return;
+            if (n == a.length) a = Arrays.copyOf(a, n * 2);
+            a[n++] = v;
+        }
+    }
+
+    /**
+     * Builds the index over {@code size} positions.
+     *
+     * @param size the number of catalog positions
+     * @param artistAt returns the artist stored at a position
+     * @param titleAt returns the title stored at a position
+     */
+    TrigramIndex(int size, IntFunction<String> artistAt, IntFunction<String> titleAt)
+    {
+        this.size = size;
+        this.artistAt = artistAt;
+        this.titleAt = titleAt;
+
+        Map<Long, IntList> build = new HashMap<>();
+        for (int pos = 0; pos < size; pos++)
+        {
+            addField(build, normalize(artistAt.apply(pos)), pos);
+            addField(build, normalize(titleAt.apply(pos)), pos);
+        }
+
+        this.keys = new long[build.size()];
+        int k = 0;
+        for (Long key : build.keySet()) keys[k++] = key;
+        Arrays.sort(keys);
+        this.postings = new int[keys.length][];
+        for (int i = 0; i < keys.length; i++)
+        {
+            IntList list = build.get(keys[i]);
+            postings[i] = Arrays.copyOf(list.a, list.n);
+        }
+    }
+
+    /**
+     * Calls {@code action} for every position whose artist or title contains the query,
+     * ignoring case, in ascending position order.
+     *
+     * @param query the substring to look for
+     * @param action receives each matching position
+     */
+    void search(String query, IntConsumer action)
+    {
+        String q = normalize(query);
+        match(q, pos -> verify(pos, q) ? 1 : 0, Cancellation.NONE, (pos, score) -> action.accept(pos));
+    }
+
+    /**
+     * Calls {@code action} for every position whose artist or title contains the query,
+     * ignoring case, in ascending position order, together with its score.
+     * <p>
+     * The score is {@code 2 * kind + 1} for an artist match and {@code 2 * kind} for a
+     * title match, where kind is {@link #EXACT}, {@link #PREFIX} or {@link #SUBSTRING};
+     * when both fields match, the better one counts.
+     * </p>
+     *
+     * @param query the substring to look for
+     * @param cancel checked while the search runs
+     * @param action receives each matching position and its score
+     * @throws java.util.concurrent.CancellationException if cancelled
+     */
+    void searchScored(String query, Cancellation cancel, ScoredConsumer action)
+    {
+        String q = normalize(query);
+        match(q, pos -> score(artistAt.apply(pos), titleAt.apply(pos), q), cancel, action);
+    }
+
+    /**
+     * Returns the score {@link #searchScored} gives a track, or 0 if it does not match.
+     *
+     * @param artist the track's artist
+     * @param title the track's title
+     * @param q the normalized query
+     * @return the score
+     */
+    static int score(String artist, String title, String q)
+    {
+        int score = Math.max(2 * kind(artist, q) + 1, 2 * kind(title, q));
+        return score > 1 ? score : 0;
+    }
+
+    /**
+     * Calls {@code action} for every position whose title alone contains the query,
+     * ignoring case, in ascending position order.
+     *
+     * @param query the substring to look for
+     * @param cancel checked while the search runs
+     * @param action receives each matching position
+     * @throws java.util.concurrent.CancellationException if cancelled
+     */
+    void searchTitle(String query, Cancellation cancel, IntConsumer action)
+    {
+        String q = normalize(query);
+        match(q, pos -> containsIgnoreCase(titleAt.apply(pos), q) ? 1 : 0, cancel, (pos, score) -> action.accept(pos));
+    }
+
+    /** Returns the match kind of {@code q} in {@code s}, or 0 if it does not occur. */
+    static int kind(String s, String q)
+    {
+        if (s == null || s.length() < q.length()) return 0;
+        if (s.regionMatches(true, 0, q, 0, q.length())) return s.length() == q.length() ? EXACT : PREFIX;
+        return containsIgnoreCase(s, q) ? SUBSTRING : 0;
+    }
+
+    /**
+     * Scores every position that may contain {@code q} and passes those with a score
+     * above 0 to {@code action}, in ascending position order. Candidates are the
+     * intersection of the query's trigram posting lists; a query too short to have
+     * trigrams is checked against every position by the parallel {@link ScanEngine}.
+     */
+    private void match(String q, IntUnaryOperator score, Cancellation cancel, ScoredConsumer action)
+    {
+        if (q.length() < 3)
+        {
+            ScanEngine.SHARED.scan(size, score, cancel, action);
+            return;
+        }
+
+        int grams = q.length() - 2;
+        int[][] lists = new int[grams][];
+        for (int i = 0; i < grams; i++)
+        {
+            int idx = Arrays.binarySearch(keys, key(q, i));
+            if (idx < 0) return; // a trigram no track has: nothing can match
+            lists[i] = postings[idx];
+        }
+        Arrays.sort(lists, (x, y) -> Integer.compare(x.length, y.length));
+
+        int[] cursors = new int[grams];
+        int[] smallest = lists[0];
+        int checked = 0;
+        candidates:
+        for (int pos : smallest)
+        {
+            for (int l = 1; l < grams; l++)
+            {
+                int[] list = lists[l];
+                if (list == smallest) continue; // same trigram repeated in the query
+                int c = seek(list, cursors[l], pos);
+                cursors[l] = c;
+                if (c == list.length) return;   // this list is exhausted
+                if (list[c] != pos) continue candidates;
+            }
+            if ((++checked & 0xFFF) == 0) cancel.check();
+            int s = score.applyAsInt(pos);
+            if (s > 0) action.accept(pos, s);
+        }
+    }
+
+    private boolean verify(int pos, String q)
+    {
+        return containsIgnoreCase(artistAt.apply(pos), q) || containsIgnoreCase(titleAt.apply(pos), q);
+    }
+
+    /**
+     * Returns the first index at or after {@code from} whose value is {@code >= target},
+     * galloping ahead before the binary search so long lists are skipped quickly.
+     */
+    private static int seek(int[] list, int from, int target)
+    {
+        int len = list.length;
+        if (from >= len || list[from] >= target) return from;
+        int lo = from;          // list[lo] < target
+        int step = 1;
+        int hi = lo + step;
+        while (hi < len && list[hi] < target)
+        {
+            lo = hi;
+            step <<= 1;
+            hi = lo + step;
+        }
+        int idx = Arrays.binarySearch(list, lo + 1, Math.min(hi + 1, len), target);
+        return idx >= 0 ? idx : -idx - 1;
+    }
+
+    /** Substring test without allocating a lower-cased copy of {@code s}; {@code q} is already lower-case. */
+    static boolean containsIgnoreCase(String s, String q)
+    {
+        if (s == null) return false;
+        int last = s.length() - q.length();
+        for (int i = 0; i <= last; i++)
+        {
+            if (s.regionMatches(true, i, q, 0, q.length())) return true;
+        }
+        return false;
+    }
+
+    private static void addField(Map<Long, IntList> build, String s, int pos)
+    {
+        for (int i = 0; i + 3 <= s.length(); i++)
+        {
+            build.computeIfAbsent(key(s, i), k -> new IntList()).addIfNew(pos);
+        }
+    }
+
+    private static long key(String s, int i)
+    {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    static String normalize(String s)
+    {
+        return s == null ? "" : s.toLowerCase(Locale.ROOT);
+    }
+}
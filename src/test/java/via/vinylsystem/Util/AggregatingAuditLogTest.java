@@ -0,0 +1,202 @@
+package via.vinylsystem.Util;
+
+import org.junit.jupiter.api.Test;
+import via.vinylsystem.Model.RegistryEvent;
+import via.vinylsystem.Model.RegistryEventType;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AggregatingAuditLogTest
+{
+    private static final Clock CLOCK = Clock.fixed(Instant.ofEpochMilli(1_000), ZoneOffset.UTC);
+
+    /** Keeps every appended event. */
+    private static final class Recorder implements AuditLog
+    {
+        final List<RegistryEvent> events = new ArrayList<>();
+
+        @Override public synchronized void append(RegistryEvent e)
+        {
+            events.add(e);
+        }
+
+        synchronized List<RegistryEvent> ofType(RegistryEventType type)
+        {
+            return events.stream().filter(e -> e.getType() == type).toList();
+        }
+    }
+
+    /** Takes its time over summaries and remembers whether anything arrived after {@link #close()}. */
+    private static final class SlowRecorder implements AuditLog
+    {
+        final CountDownLatch summarizing = new CountDownLatch(1);
+        final List<RegistryEvent> events = new ArrayList<>();
+        volatile boolean closed;
+        volatile boolean appendedAfterClose;
+
+        @Override public void append(RegistryEvent e)
+        {
+            if (e.getType() == RegistryEventType.LOOKUP_SUMMARY)
+            {
+                summarizing.countDown();
+                try
+                {
+                    Thread.sleep(300);
+                }
+                catch (InterruptedException ie)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (closed) appendedAfterClose = true;
+            synchronized (events)
+            {
+                events.add(e);
+            }
+        }
+
+        @Override public void close()
+        {
+            closed = true;
+        }
+    }
+
+    /** Sums FOUND= and NOT_FOUND= over all summaries. */
+    private static long[] totals(Recorder r)
+    {
+        long[] t = new long[2];
+        for (RegistryEvent e : r.ofType(RegistryEventType.LOOKUP_SUMMARY))
+        {
+            for (String part : e.getDetails().split(" "))
+            {
+                if (part.startsWith("FOUND=")) t[0] += Long.parseLong(part.substring(6));
+                else if (part.startsWith("NOT_FOUND=")) t[1] += Long.parseLong(part.substring(10));
+            }
+        }
+        return t;
+    }
+
+    @Test
+    void summarizesLookupsPerName() throws Exception
+    {
+        Recorder r = new Recorder();
+        try (AggregatingAuditLog log = new AggregatingAuditLog(r, Map.of(RegistryEventType.LOOKUP, AuditMode.AGGREGATE), 3600, CLOCK))
+        {
+            for (int i = 0; i < 5; i++) log.lookup(0, "a", "10.0.0.1", 60, true);
+            log.lookup(0, "a", "10.0.0.1", 60, false);
+            log.lookup(0, "b", "10.0.0.2", 60, false);
+            log.lookup(0, null, "10.0.0.3", 60, false);
+            log.flush();
+
+            List<RegistryEvent> s = r.ofType(RegistryEventType.LOOKUP_SUMMARY);
+            assertEquals(3, s.size());
+            assertTrue(s.stream().anyMatch(e -> "a".equals(e.getName()) && e.getDetails().startsWith("FOUND=5 NOT_FOUND=1 ")));
+            assertTrue(s.stream().anyMatch(e -> "b".equals(e.getName()) && e.getDetails().startsWith("FOUND=0 NOT_FOUND=1 ")));
+            assertTrue(s.stream().anyMatch(e -> e.getName() == null && "10.0.0.3".equals(e.getIp())));
+            assertEquals(1_000, s.get(0).getTsMillis());
+            assertTrue(r.ofType(RegistryEventType.LOOKUP).isEmpty());
+
+            // idle counters are retired and come back on the next lookup
+            log.flush();
+            log.flush();
+            assertEquals(3, r.ofType(RegistryEventType.LOOKUP_SUMMARY).size());
+            log.lookup(0, "a", "10.0.0.1", 60, true);
+            log.flush();
+            assertEquals(4, r.ofType(RegistryEventType.LOOKUP_SUMMARY).size());
+        }
+    }
+
+    @Test
+    void countsEveryLookupWhileFlushing() throws Exception
+    {
+        Recorder r = new Recorder();
+        int threads = 4;
+        int perThread = 200_000;
+        try (AggregatingAuditLog log = new AggregatingAuditLog(r, Map.of(RegistryEventType.LOOKUP, AuditMode.AGGREGATE), 3600, CLOCK))
+        {
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicBoolean done = new AtomicBoolean();
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++)
+            {
+                int id = t;
+                Thread w = new Thread(() -> {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                    // few names and bursts, so counters go idle and are retired while others look them up
+                    for (int i = 0; i < perThread; i++) log.lookup(0, "n" + (i % 3), "10.0.0." + id, 60, (i & 1) == 0);
+                });
+                w.start();
+                workers.add(w);
+            }
+            Thread flusher = new Thread(() -> {
+                while (!done.get()) log.flush();
+            });
+            flusher.start();
+            start.countDown();
+            for (Thread w : workers) w.join();
+            done.set(true);
+            flusher.join();
+            log.flush();
+        }
+
+        long[] t = totals(r);
+        assertEquals((long) threads * perThread / 2, t[0]);
+        assertEquals((long) threads * perThread / 2, t[1]);
+    }
+
+    @Test
+    void closeWaitsForScheduledFlush() throws Exception
+    {
+        SlowRecorder r = new SlowRecorder();
+        AggregatingAuditLog log = new AggregatingAuditLog(r, Map.of(RegistryEventType.LOOKUP, AuditMode.AGGREGATE), 1, CLOCK);
+        log.lookup(0, "a", "10.0.0.1", 60, true);
+        assertTrue(r.summarizing.await(5, TimeUnit.SECONDS), "scheduled flush started");
+        log.close();
+
+        assertFalse(r.appendedAfterClose);
+        assertEquals(1, r.events.size());
+        assertTrue(r.events.get(0).getDetails().startsWith("FOUND=1 NOT_FOUND=0 "));
+    }
+
+    @Test
+    void passesOrDropsIndividualEvents() throws Exception
+    {
+        Recorder r = new Recorder();
+        try (AggregatingAuditLog log = new AggregatingAuditLog(r, Map.of(RegistryEventType.EXPIRE, AuditMode.OFF), 10, CLOCK))
+        {
+            log.lookup(5, "a", "10.0.0.1", 60, true);
+            log.append(new RegistryEvent().set(6, RegistryEventType.EXPIRE, "a", "10.0.0.1", 60, null, null));
+            log.append(new RegistryEvent().set(7, RegistryEventType.REGISTER, "a", "10.0.0.1", 60, null, null));
+        }
+        assertEquals(1, r.ofType(RegistryEventType.LOOKUP).size());
+        assertEquals(0, r.ofType(RegistryEventType.EXPIRE).size());
+        assertEquals(1, r.ofType(RegistryEventType.REGISTER).size());
+    }
+
+    @Test
+    void rejectsAggregateForOtherTypes()
+    {
+        assertThrows(IllegalArgumentException.class,
+                () -> new AggregatingAuditLog(new Recorder(), Map.of(RegistryEventType.REGISTER, AuditMode.AGGREGATE), 10, CLOCK));
+    }
+}
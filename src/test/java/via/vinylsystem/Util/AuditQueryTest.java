@@ -0,0 +1,128 @@
+package via.vinylsystem.Util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import via.vinylsystem.Model.RegistryEvent;
+import via.vinylsystem.Model.RegistryEventOrigin;
+import via.vinylsystem.Model.RegistryEventType;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AuditQueryTest
+{
+    @TempDir
+    Path dir;
+
+    /** Writes {@code n} events per segment: names n0..n9, IPs alternating, timestamps from {@code t0} one ms apart. */
+    private Path segment(String file, long t0, int n) throws Exception
+    {
+        Path p = dir.resolve(file);
+        try (FileAuditLog log = new FileAuditLog(p))
+        {
+            for (int i = 0; i < n; i++)
+            {
+                RegistryEventType type = i % 3 == 0 ? RegistryEventType.REGISTER : RegistryEventType.LOOKUP;
+                log.append(new RegistryEvent(t0 + i, type, "n" + (i % 10), i % 2 == 0 ? "10.0.0.1" : "10.0.0.2",
+                        60L, RegistryEventOrigin.TCP, "OK"));
+            }
+        }
+        return p;
+    }
+
+    @Test
+    void filtersByNameIpTypeAndTime() throws Exception
+    {
+        Path a = segment("a.jsonl", 0, 3000);
+
+        List<AuditQuery.Hit> byName = new AuditQuery().name("n3").runSegment(a);
+        assertEquals(300, byName.size());
+        assertTrue(byName.stream().allMatch(h -> h.line().contains("\"name\":\"n3\"")));
+
+        // odd i, so n3 is always logged from 10.0.0.2
+        assertEquals(300, new AuditQuery().name("n3").ip("10.0.0.2").runSegment(a).size());
+        assertEquals(0, new AuditQuery().name("n3").ip("10.0.0.1").runSegment(a).size());
+        assertEquals(1000, new AuditQuery().type("REGISTER").runSegment(a).size());
+        assertEquals(500, new AuditQuery().from(1000).to(1500).runSegment(a).size());
+        assertEquals(0, new AuditQuery().name("nobody").runSegment(a).size());
+    }
+
+    @Test
+    void mergesSegmentsInTimestampOrder() throws Exception
+    {
+        Path late = segment("late.jsonl", 10_000, 700);
+        Path early = segment("early.jsonl", 0, 700);
+
+        List<AuditQuery.Hit> hits = new AuditQuery().name("n1").run(List.of(late, early), 2);
+        assertEquals(140, hits.size());
+        for (int i = 1; i < hits.size(); i++) assertTrue(hits.get(i - 1).tsMillis() <= hits.get(i).tsMillis());
+        assertEquals(1, hits.get(0).tsMillis());
+    }
+
+    @Test
+    void indexFollowsAppendedRecords() throws Exception
+    {
+        Path a = segment("grow.jsonl", 0, 600);
+        assertEquals(60, new AuditQuery().name("n5").runSegment(a).size());
+        assertTrue(Files.exists(AuditIndex.indexPathFor(a)));
+
+        try (FileAuditLog log = new FileAuditLog(a))
+        {
+            log.append(new RegistryEvent(5000, RegistryEventType.EXPIRE, "late", "10.0.0.9", null,
+                    RegistryEventOrigin.TCP, null));
+        }
+        assertEquals(1, new AuditQuery().name("late").runSegment(a).size());
+        assertEquals(601, new AuditQuery().from(0).to(6000).runSegment(a).size());
+    }
+
+    @Test
+    void rebuildsIndexOfRotatedSegmentThatGrewPastTheOldSize() throws Exception
+    {
+        Path a = segment("rotated.jsonl", 0, 600);
+        assertEquals(60, new AuditQuery().name("n5").runSegment(a).size());
+
+        Path fresh = segment("fresh.jsonl", 100_000, 900);
+        Files.move(fresh, a, StandardCopyOption.REPLACE_EXISTING);
+        assertEquals(90, new AuditQuery().name("n5").runSegment(a).size());
+        assertEquals(0, new AuditQuery().from(0).to(1000).runSegment(a).size());
+        assertEquals(900, new AuditQuery().from(100_000).to(101_000).runSegment(a).size());
+    }
+
+    @Test
+    void queriesWhenTheIndexCannotBeSaved() throws Exception
+    {
+        Path a = segment("locked.jsonl", 0, 600);
+        Path idx = AuditIndex.indexPathFor(a);
+        Files.createDirectory(idx); // cannot be replaced by the index file, like a read-only directory
+        Files.writeString(idx.resolve("keep"), "x");
+
+        assertEquals(60, new AuditQuery().name("n5").runSegment(a).size());
+        assertEquals(60, new AuditQuery().name("n5").runSegment(a).size());
+        try (var files = Files.list(dir))
+        {
+            assertEquals(List.of(), files.map(p -> p.getFileName().toString()).filter(n -> n.endsWith(".tmp")).toList());
+        }
+    }
+
+    @Test
+    void findsNamesWithEscapedCharacters() throws Exception
+    {
+        Path a = dir.resolve("escaped.jsonl");
+        try (FileAuditLog log = new FileAuditLog(a))
+        {
+            log.append(new RegistryEvent(1, RegistryEventType.REGISTER, "a=b", "10.0.0.1", 60L, RegistryEventOrigin.TCP, "OK"));
+            log.append(new RegistryEvent(2, RegistryEventType.REGISTER, "<rock & roll>", "10.0.0.1", 60L, RegistryEventOrigin.TCP, "OK"));
+            log.append(new RegistryEvent(3, RegistryEventType.REGISTER, "it's", "10.0.0.1", 60L, RegistryEventOrigin.TCP, "OK"));
+            log.append(new RegistryEvent(4, RegistryEventType.REGISTER, "ab", "10.0.0.1", 60L, RegistryEventOrigin.TCP, "OK"));
+        }
+        assertEquals(1, new AuditQuery().name("a=b").runSegment(a).size());
+        assertEquals(1, new AuditQuery().name("<rock & roll>").runSegment(a).size());
+        assertEquals(1, new AuditQuery().name("it's").runSegment(a).size());
+        assertEquals(1, new AuditQuery().name("ab").runSegment(a).size());
+    }
+}
@@ -0,0 +1,164 @@
+package via.vinylsystem.Util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.junit.jupiter.api.Test;
+import via.vinylsystem.Model.Track;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class JsonLineWriterTest
+{
+    /** How tracks were turned into trees before the writer existed: null fields left out. */
+    private static final Gson TREE = new Gson();
+
+    /** Renders a tree like {@link JsonElement#toString()}: nulls kept, no HTML escaping. */
+    private static final Gson GSON = new GsonBuilder().serializeNulls().disableHtmlEscaping().create();
+
+    private static final String[] PIECES = {
+            "a", "Medina", " ", "\"", "\\", "\\\"", "/", "<b>&amp;'='</b>",
+            "\u0000", "\u0001", "\u001f", "\t", "\b", "\n", "\r", "\f", "\u007f",
+            "æøå", "Sigur Rós", "日本語", "\u2028", "\u2029", "a\u2028b", "\u2027", "\u202a",
+            "\uD83D\uDE00", "😀", "\uD83D", "\uDE00", "\uDE00\uD83D", "x\uD83Dy", "\uffff", "\u0800", "\u07ff"};
+
+    private static byte[] expected(JsonObject tree)
+    {
+        return (GSON.toJson(tree) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] written(JsonLineWriter w)
+    {
+        return Arrays.copyOf(w.bytes(), w.end());
+    }
+
+    private static String text(Random rnd)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = rnd.nextInt(6); i >= 0; i--) sb.append(PIECES[rnd.nextInt(PIECES.length)]);
+        return sb.toString();
+    }
+
+    private static String maybeNull(Random rnd)
+    {
+        return rnd.nextInt(5) == 0 ? null : text(rnd);
+    }
+
+    @Test
+    void escapesEveryPieceAsGsonDoes()
+    {
+        JsonLineWriter w = new JsonLineWriter();
+        for (String s : PIECES)
+        {
+            JsonObject tree = new JsonObject();
+            tree.addProperty(s, s);
+            w.begin().field(s, s);
+            byte[] line = written(w);
+            assertArrayEquals(expected(tree), line, s);
+            assertArrayEquals((tree + "\n").getBytes(StandardCharsets.UTF_8), line, s);
+        }
+    }
+
+    @Test
+    void writesResponsesAsGsonTreesDid()
+    {
+        Random rnd = new Random(44);
+        JsonLineWriter w = new JsonLineWriter();
+        for (int round = 0; round < 2_000; round++)
+        {
+            JsonObject tree = new JsonObject();
+            w.begin();
+
+            String status = maybeNull(rnd);
+            tree.addProperty("STATUS", status);
+            w.field("STATUS", status);
+
+            long n = rnd.nextInt(3) == 0 ? rnd.nextLong() : rnd.nextInt(1000) - 500;
+            if (round == 0) n = Long.MIN_VALUE;
+            if (round == 1) n = Long.MAX_VALUE;
+            tree.addProperty("COUNT", n);
+            w.field("COUNT", n);
+
+            boolean b = rnd.nextBoolean();
+            tree.addProperty("MORE", b);
+            w.field("MORE", b);
+
+            JsonElement rid = switch (rnd.nextInt(4))
+            {
+                case 0 -> new JsonPrimitive(rnd.nextInt());
+                case 1 -> new JsonPrimitive(text(rnd));
+                case 2 -> JsonParser.parseString("{\"a\":[1,\"x\",null]}");
+                default -> JsonNull.INSTANCE;
+            };
+            tree.add("RID", rid);
+            w.field("RID", rid);
+
+            Track one = new Track(maybeNull(rnd), maybeNull(rnd), maybeNull(rnd), rnd.nextInt());
+            tree.add("TRACK", TREE.toJsonTree(one));
+            w.track("TRACK", one);
+
+            List<Track> tracks = new ArrayList<>();
+            for (int i = rnd.nextInt(4); i > 0; i--) tracks.add(new Track(maybeNull(rnd), maybeNull(rnd), maybeNull(rnd), rnd.nextInt(3000)));
+            tree.add("TRACKS", TREE.toJsonTree(tracks));
+            w.tracks("TRACKS", tracks);
+
+            JsonArray missing = new JsonArray();
+            w.beginArray("MISSING");
+            for (int i = rnd.nextInt(3); i > 0; i--)
+            {
+                String s = text(rnd);
+                missing.add(s);
+                w.element(s);
+            }
+            w.endArray();
+            tree.add("MISSING", missing);
+
+            JsonArray objects = new JsonArray();
+            w.beginArray("SUGGEST");
+            for (int i = rnd.nextInt(3); i > 0; i--)
+            {
+                JsonObject o = new JsonObject();
+                String s = text(rnd);
+                o.addProperty("TEXT", s);
+                o.addProperty("TRACKS", i);
+                objects.add(o);
+                w.beginObject().field("TEXT", s).field("TRACKS", i).endObject();
+            }
+            w.endArray();
+            tree.add("SUGGEST", objects);
+
+            assertArrayEquals(expected(tree), written(w), tree::toString);
+        }
+    }
+
+    @Test
+    void writesOnlyTheAskedTrackFields()
+    {
+        Track t = new Track("T ", null, "Tit\"le", 1999);
+        JsonLineWriter w = new JsonLineWriter();
+        for (int fields = 0; fields <= JsonLineWriter.ALL_FIELDS; fields++)
+        {
+            JsonObject full = TREE.toJsonTree(t).getAsJsonObject();
+            JsonObject projected = new JsonObject();
+            for (String name : full.keySet())
+            {
+                if ((fields & JsonLineWriter.fieldMask(name)) != 0) projected.add(name, full.get(name));
+            }
+            JsonObject tree = new JsonObject();
+            tree.add("TRACK", projected);
+            w.begin().track("TRACK", t, fields);
+            assertArrayEquals(expected(tree), written(w), "fields " + fields);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package via.vinylsystem.Util;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+import via.vinylsystem.Model.RegistryEvent;
+import via.vinylsystem.Model.RegistryEventOrigin;
+import via.vinylsystem.Model.RegistryEventType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RegistryEventWriterTest
+{
+    private static final Gson GSON = new Gson();
+
+    /** The event as the audit log serialized it with Gson, fields in the same order. */
+    @SuppressWarnings("unused")
+    private static final class OldEvent
+    {
+        long tsMillis;
+        String ts;
+        String type;
+        String name;
+        String ip;
+        Long ttlSec;
+        String origin;
+        String details;
+
+        OldEvent(RegistryEvent e)
+        {
+            tsMillis = e.getTsMillis();
+            ts = e.getTs();
+            type = e.getType() == null ? null : e.getType().name();
+            name = e.getName();
+            ip = e.getIp();
+            ttlSec = e.getTtlSec();
+            origin = e.getOrigin() == null ? null : e.getOrigin().name();
+            details = e.getDetails();
+        }
+    }
+
+    private static void assertSameAsGson(RegistryEventWriter w, RegistryEvent e)
+    {
+        // String.getBytes replaces unpaired surrogates with '?' just like the old UTF-8 writer
+        byte[] expected = (GSON.toJson(new OldEvent(e)) + "\n").getBytes(StandardCharsets.UTF_8);
+        int n = w.write(e);
+        assertArrayEquals(expected, Arrays.copyOf(w.bytes(), n), () -> GSON.toJson(new OldEvent(e)));
+    }
+
+    @Test
+    void matchesGsonOnSpecialCharacters()
+    {
+        RegistryEventWriter w = new RegistryEventWriter();
+        String[] samples = {
+                "plain", "", "FOUND=3 NOT_FOUND=0", "<b>&'x'</b>", "quote\" back\\slash",
+                "\b\f\n\r\t\u0000\u001f\u007f", "\u2028\u2029", "æøå Ærø", "😀 pair", "\ud800 lone", "lone \udc00",
+        };
+        for (String s : samples)
+        {
+            assertSameAsGson(w, new RegistryEvent(1_700_000_000_123L, RegistryEventType.LOOKUP, s, s, 60L,
+                    RegistryEventOrigin.UDP, s));
+        }
+        assertSameAsGson(w, new RegistryEvent(0, null, null, null, null, null, null));
+        assertSameAsGson(w, new RegistryEvent(-1_500, RegistryEventType.EXPIRE, "a", null, null, RegistryEventOrigin.TCP, null));
+        assertSameAsGson(w, new RegistryEvent(1_000, RegistryEventType.REGISTER, "a", "10.0.0.1", 0L, RegistryEventOrigin.TCP, "OK"));
+    }
+
+    @Test
+    void matchesGsonOnRandomStrings()
+    {
+        RegistryEventWriter w = new RegistryEventWriter();
+        Random rnd = new Random(28);
+        char[] pool = "aZ09 =<>&'\"\\/\b\f\n\r\t\u0001æøå\u2028\u2029€😀𐏿".toCharArray();
+        for (int i = 0; i < 5_000; i++)
+        {
+            String[] s = new String[3];
+            for (int k = 0; k < s.length; k++)
+            {
+                char[] c = new char[rnd.nextInt(40)];
+                for (int j = 0; j < c.length; j++) c[j] = pool[rnd.nextInt(pool.length)];
+                s[k] = new String(c);
+            }
+            RegistryEventType type = RegistryEventType.values()[rnd.nextInt(RegistryEventType.values().length)];
+            assertSameAsGson(w, new RegistryEvent(rnd.nextLong() % 4_000_000_000_000L, type, s[0], s[1],
+                    rnd.nextBoolean() ? null : (long) rnd.nextInt(1000), RegistryEventOrigin.UDP, s[2]));
+        }
+    }
+
+    @Test
+    void quoteMatchesGson()
+    {
+        for (String s : new String[] {"n=1", "<a&b>", "it's", "\u2028", "x\"y\\z"})
+        {
+            assertEquals(GSON.toJson(s), RegistryEventWriter.quote(s));
+        }
+    }
+}
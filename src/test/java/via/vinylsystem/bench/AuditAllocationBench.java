@@ -0,0 +1,84 @@
+package via.vinylsystem.bench;
+
+import com.google.gson.Gson;
+import via.vinylsystem.Model.RegistryEvent;
+import via.vinylsystem.Model.RegistryEventOrigin;
+import via.vinylsystem.Model.RegistryEventType;
+import via.vinylsystem.Util.AuditLog;
+import via.vinylsystem.Util.FileAuditLog;
+
+import java.io.BufferedWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures heap allocation per audited lookup.
+ * <p>
+ * Compares the old path (a new {@link RegistryEvent} with an eagerly rendered
+ * timestamp, serialized with Gson) against {@link FileAuditLog}, which reuses a
+ * per-thread event slot and the cached timestamp writer. Both write to a temp file.
+ * Run with {@code java -cp target/classes:target/test-classes:<deps> via.vinylsystem.bench.AuditAllocationBench}.
+ * </p>
+ */
+public class AuditAllocationBench
+{
+    private static final int WARMUP = 200_000;
+    private static final int OPS = 1_000_000;
+
+    public static void main(String[] args) throws Exception
+    {
+        Path dir = Files.createTempDirectory("audit-bench");
+        try (AuditLog pooled = new FileAuditLog(dir.resolve("pooled.jsonl"));
+             BufferedWriter legacy = Files.newBufferedWriter(dir.resolve("legacy.jsonl"), StandardCharsets.UTF_8))
+        {
+            Gson gson = new Gson();
+            Runnable legacyOp = new Runnable()
+            {
+                long ts = System.currentTimeMillis();
+                @Override public void run()
+                {
+                    try
+                    {
+                        RegistryEvent e = new RegistryEvent(ts++, RegistryEventType.LOOKUP, "Happy_music.group3.pro2",
+                                "127.0.0.1", 3570L, RegistryEventOrigin.UDP, "FOUND");
+                        String ignoredTs = e.getTs(); // the old constructor rendered this eagerly
+                        legacy.write(gson.toJson(e));
+                        legacy.write('\n');
+                        legacy.flush();
+                    }
+                    catch (Exception ex)
+                    {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            };
+            Runnable pooledOp = new Runnable()
+            {
+                long ts = System.currentTimeMillis();
+                @Override public void run()
+                {
+                    pooled.lookup(ts++ / 4, "Happy_music.group3.pro2", "127.0.0.1", 3570L, true);
+                }
+            };
+
+            report("legacy new+Gson", legacyOp);
+            report("pooled slot+writer", pooledOp);
+        }
+    }
+
+    private static void report(String label, Runnable op)
+    {
+        for (int i = 0; i < WARMUP; i++) op.run();
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().threadId();
+        long bytes0 = mx.getThreadAllocatedBytes(tid);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < OPS; i++) op.run();
+        long t1 = System.nanoTime();
+        long bytes1 = mx.getThreadAllocatedBytes(tid);
+        System.out.printf("%-20s %8.1f bytes/op %8.0f ns/op%n", label,
+                (bytes1 - bytes0) / (double) OPS, (t1 - t0) / (double) OPS);
+    }
+}
@@ -0,0 +1,67 @@
+package via.vinylsystem.bench;
+
+import via.vinylsystem.Model.Track;
+import via.vinylsystem.server.ColumnarTrackStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the retained heap of a {@code List<Track>} with a {@link ColumnarTrackStore}
+ * holding the same tracks.
+ * <p>
+ * Tracks are generated with a realistic amount of artist repetition (about 20 tracks
+ * per artist). Artist strings are created per track, as a parser would, so the list
+ * pays for every copy. Run with {@code -Xmx4g} and an optional track count argument
+ * (default 1,000,000).
+ * </p>
+ */
+public class CatalogMemoryBench
+{
+    public static void main(String[] args)
+    {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        long base = usedHeap();
+        List<Track> list = generate(n);
+        long listBytes = usedHeap() - base;
+
+        base = usedHeap();
+        ColumnarTrackStore columnar = ColumnarTrackStore.of(list);
+        long columnarBytes = usedHeap() - base;
+
+        System.out.printf("tracks: %,d  distinct artists: %,d%n", n, columnar.artistDictionarySize());
+        System.out.printf("List<Track>        %,12d bytes  %6.1f bytes/track%n", listBytes, listBytes / (double) n);
+        System.out.printf("ColumnarTrackStore %,12d bytes  %6.1f bytes/track%n", columnarBytes, columnarBytes / (double) n);
+        System.out.printf("ratio              %.2fx%n", listBytes / (double) columnarBytes);
+
+        // keep both reachable until after the measurements
+        if (list.size() != columnar.size()) throw new AssertionError();
+    }
+
+    private static List<Track> generate(int n)
+    {
+        Random rnd = new Random(42);
+        int artists = Math.max(1, n / 20);
+        List<Track> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+        {
+            int a = rnd.nextInt(artists);
+            out.add(new Track(String.format("T%07d", i), new String("Artist number " + a),
+                    "Some track title " + Integer.toString(i, 36), 1960 + rnd.nextInt(65)));
+        }
+        return out;
+    }
+
+    private static long usedHeap()
+    {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++)
+        {
+            System.gc();
+            try { Thread.sleep(50); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,166 @@
+package via.vinylsystem.bench;
+
+import via.vinylsystem.Model.Track;
+import via.vinylsystem.client.VinylServerClient;
+import via.vinylsystem.server.CatalogServer;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures catalog writes (ADD, UPDATE, DELETE) while other connections keep searching.
+ * <p>
+ * Starts a {@link CatalogServer} on a local port with a generated catalog, runs a number
+ * of searching clients for a while on their own, then again with one client writing as
+ * fast as it can, and prints search throughput and latency for both runs plus the
+ * write rate. The server's request log is silenced while measuring. Optional arguments:
+ * catalog size (default 200,000), searching clients (default 4), seconds per run
+ * (default 5) and port (default 7398).
+ * </p>
+ */
+public class CatalogWriteBench
+{
+    private static final String[] WORDS = {"medina", "kun", "love", "mig", "dum", "aura", "gilli", "tiden", "natten", "hjem"};
+
+    public static void main(String[] args) throws Exception
+    {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int readers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 7398;
+
+        List<Track> tracks = new ArrayList<>(size);
+        Random r = new Random(1);
+        for (int i = 0; i < size; i++) tracks.add(randomTrack("T" + i, r));
+        CatalogServer srv = new CatalogServer(port, tracks);
+        srv.start();
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try
+        {
+            Run idle = run(port, readers, seconds, false, size);
+            Run busy = run(port, readers, seconds, true, size);
+            System.setOut(console);
+            System.out.printf("catalog %,d tracks, %d searching clients, %d s per run%n", size, readers, seconds);
+            idle.print("searches only");
+            busy.print("with writes  ");
+            System.out.printf("writes       %,.0f /s (catalog version %,d)%n", busy.writes / (double) seconds, srv.catalog().version());
+        }
+        finally
+        {
+            System.setOut(console);
+            srv.stop();
+        }
+        System.exit(0);
+    }
+
+    private static Run run(int port, int readers, int seconds, boolean write, int size) throws Exception
+    {
+        AtomicBoolean stop = new AtomicBoolean();
+        List<long[]> latencies = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < readers; i++)
+        {
+            long[] lat = new long[1_000_000];
+            latencies.add(lat);
+            int seed = i;
+            threads.add(new Thread(() -> search(port, seed, stop, lat)));
+        }
+        AtomicLong writes = new AtomicLong();
+        if (write) threads.add(new Thread(() -> write(port, size, stop, writes)));
+
+        threads.forEach(Thread::start);
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        for (Thread t : threads) t.join();
+
+        Run run = new Run();
+        run.seconds = seconds;
+        run.writes = writes.get();
+        long total = 0;
+        for (long[] lat : latencies) total += lat[0];
+        run.latencies = new long[(int) total];
+        int n = 0;
+        for (long[] lat : latencies)
+        {
+            System.arraycopy(lat, 1, run.latencies, n, (int) lat[0]);
+            n += (int) lat[0];
+        }
+        Arrays.sort(run.latencies);
+        return run;
+    }
+
+    /** Searches until stopped; lat[0] counts the latencies stored after it. */
+    private static void search(int port, int seed, AtomicBoolean stop, long[] lat)
+    {
+        Random r = new Random(seed);
+        try (VinylServerClient c = new VinylServerClient("127.0.0.1", port))
+        {
+            while (!stop.get() && lat[0] < lat.length - 1)
+            {
+                String q = WORDS[r.nextInt(WORDS.length)] + " " + WORDS[r.nextInt(WORDS.length)].substring(0, 2);
+                long t0 = System.nanoTime();
+                c.search(q, 20);
+                lat[(int) ++lat[0]] = System.nanoTime() - t0;
+            }
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Cycles through adding, updating and deleting tracks until stopped. */
+    private static void write(int port, int size, AtomicBoolean stop, AtomicLong writes)
+    {
+        Random r = new Random(42);
+        try (VinylServerClient c = new VinylServerClient("127.0.0.1", port))
+        {
+            for (long i = 0; !stop.get(); i++)
+            {
+                switch ((int) (i % 3))
+                {
+                    case 0 -> c.add(randomTrack("N" + i, r));
+                    case 1 -> c.update(randomTrack("T" + r.nextInt(size), r));
+                    default -> c.delete("N" + (i - 2));
+                }
+                writes.incrementAndGet();
+            }
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Track randomTrack(String id, Random r)
+    {
+        return new Track(id, WORDS[r.nextInt(WORDS.length)] + " " + r.nextInt(1000),
+                WORDS[r.nextInt(WORDS.length)] + " " + WORDS[r.nextInt(WORDS.length)], 1960 + r.nextInt(60));
+    }
+
+    private static final class Run
+    {
+        long[] latencies;
+        long writes;
+        int seconds;
+
+        void print(String label)
+        {
+            System.out.printf("%s %,8.0f searches/s  p50 %,6d us  p99 %,6d us%n", label,
+                    latencies.length / (double) seconds, pct(0.50) / 1000, pct(0.99) / 1000);
+        }
+
+        private long pct(double p)
+        {
+            return latencies.length == 0 ? 0 : latencies[(int) Math.min(latencies.length - 1, p * latencies.length)];
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package via.vinylsystem.bench;
+
+import via.vinylsystem.Model.Track;
+import via.vinylsystem.server.CatalogServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Compares plain and compressed (COMPRESS DEFLATE) responses from {@link CatalogServer}.
+ * <p>
+ * Starts a server with a generated catalog and, over a raw socket, sends the same
+ * LIST and broad SEARCH requests in both modes. Reports bytes on the wire per
+ * response and process CPU time per response (server encoding plus client reading, and
+ * inflating in compressed mode; the client never parses the JSON).
+ * Optional arguments: catalog size (default 20,000), repetitions (default 200),
+ * port (default 7398).
+ * </p>
+ */
+public class CompressionBench
+{
+    public static void main(String[] args) throws Exception
+    {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int reps = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 7398;
+
+        List<Track> tracks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+        {
+            tracks.add(new Track(String.format("T%06d", i), "Artist " + (i % 2_000), "Some title " + i, 1960 + i % 60));
+        }
+        CatalogServer srv = new CatalogServer(port, tracks);
+        srv.start();
+
+        String list = "{\"CMD\":\"LIST\"}";
+        String search = "{\"CMD\":\"SEARCH\",\"Q\":\"Artist 1\"}";
+        try
+        {
+            for (boolean compressed : new boolean[] { false, true })
+            {
+                try (Socket s = new Socket("127.0.0.1", port))
+                {
+                    Conn c = new Conn(s, compressed);
+                    run(c, list, 5);
+                    run(c, search, 5);
+                    report(compressed ? "deflate" : "plain  ", "LIST  ", run(c, list, reps), reps);
+                    report(compressed ? "deflate" : "plain  ", "SEARCH", run(c, search, reps), reps);
+                }
+            }
+        }
+        finally
+        {
+            srv.stop();
+        }
+        System.exit(0);
+    }
+
+    private static void report(String mode, String what, long[] bytesAndCpu, int reps)
+    {
+        System.out.printf("%s %s %,12d bytes/response  %,10d us CPU/response%n",
+                mode, what, bytesAndCpu[0] / reps, bytesAndCpu[1] / reps / 1_000);
+    }
+
+    /** Sends a request {@code reps} times; returns {wire bytes, process CPU ns}. */
+    private static long[] run(Conn c, String req, int reps) throws IOException
+    {
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long cpu = os.getProcessCpuTime();
+        long bytes = 0;
+        for (int i = 0; i < reps; i++) bytes += c.roundTrip(req);
+        return new long[] { bytes, os.getProcessCpuTime() - cpu };
+    }
+
+    /** Minimal client that counts the bytes of each response as they arrive on the socket. */
+    private static final class Conn
+    {
+        private final OutputStream out;
+        private final InputStream in;
+        private final byte[] buf = new byte[64 * 1024];
+        private int pos, lim;
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] inflated = new byte[64 * 1024];
+        private boolean compressed;
+
+        Conn(Socket s, boolean compressed) throws IOException
+        {
+            this.out = s.getOutputStream();
+            this.in = s.getInputStream();
+            if (compressed) roundTrip("{\"CMD\":\"COMPRESS\",\"MODE\":\"DEFLATE\"}");
+            this.compressed = compressed;
+        }
+
+        /** Sends one request and consumes its response; returns the response's size on the wire. */
+        long roundTrip(String req) throws IOException
+        {
+            out.write((req + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            if (!compressed)
+            {
+                long n = 0;
+                while (true)
+                {
+                    if (pos == lim) fill();
+                    int i = pos;
+                    while (i < lim && buf[i] != '\n') i++;
+                    n += i - pos;
+                    if (i < lim)
+                    {
+                        pos = i + 1;
+                        return n + 1;
+                    }
+                    pos = lim;
+                }
+            }
+            byte[] header = new byte[4];
+            read(header);
+            int len = ((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16) | ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+            byte[] frame = new byte[Math.abs(len)];
+            read(frame);
+            if (len > 0)
+            {
+                inflater.reset();
+                inflater.setInput(frame);
+                try
+                {
+                    while (!inflater.finished()) inflater.inflate(inflated);
+                }
+                catch (DataFormatException e)
+                {
+                    throw new IOException(e);
+                }
+            }
+            return 4 + frame.length;
+        }
+
+        private void read(byte[] dst) throws IOException
+        {
+            int got = 0;
+            while (got < dst.length)
+            {
+                if (pos == lim) fill();
+                int k = Math.min(dst.length - got, lim - pos);
+                System.arraycopy(buf, pos, dst, got, k);
+                pos += k;
+                got += k;
+            }
+        }
+
+        private void fill() throws IOException
+        {
+            int n = in.read(buf);
+            if (n <= 0) throw new IOException("Server closed");
+            pos = 0;
+            lim = n;
+        }
+    }
+}
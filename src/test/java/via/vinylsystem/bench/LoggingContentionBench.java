@@ -0,0 +1,121 @@
+package via.vinylsystem.bench;
+
+import via.vinylsystem.Util.Log;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures what per-request logging costs concurrent sessions.
+ * <p>
+ * Several threads each handle simulated requests, logging one line per request.
+ * Three ways of logging are compared:
+ * <ul>
+ *   <li>{@code System.out.println}, the way the servers used to log</li>
+ *   <li>{@link Log} at DEBUG with the line enabled, written by the log thread</li>
+ *   <li>{@link Log} with the line disabled, the default</li>
+ * </ul>
+ * The console is an unbuffered file stream with autoflush, like a terminal. For each
+ * run the bench prints requests per second, p50 and p99 request latency, and the
+ * total time request threads spent blocked on monitors, from
+ * {@link ThreadMXBean#setThreadContentionMonitoringEnabled}. That last figure is the
+ * logging lock. Optional arguments: threads (default 8) and requests per thread
+ * (default 200,000).
+ * </p>
+ */
+public class LoggingContentionBench
+{
+    public static void main(String[] args) throws Exception
+    {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        Path file = Files.createTempFile("log-bench", ".log");
+        PrintStream console = System.out;
+        PrintStream errors = System.err;
+        PrintStream sink = new PrintStream(new FileOutputStream(file.toFile()), true);
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        mx.setThreadContentionMonitoringEnabled(true);
+
+        Log log = Log.get("bench.request");
+        List<String> results = new ArrayList<>();
+        try
+        {
+            System.setOut(sink);
+            System.setErr(sink);
+            results.add(run("System.out.println", threads, requests, mx, line -> System.out.println("CAT IN " + line)));
+            log.setLevel(Log.Level.DEBUG);
+            results.add(run("Log DEBUG enabled", threads, requests, mx, line -> log.debug("CAT IN {}", line)));
+            Log.flush();
+            log.setLevel(null);
+            results.add(run("Log DEBUG disabled", threads, requests, mx, line -> log.debug("CAT IN {}", line)));
+        }
+        finally
+        {
+            System.setOut(console);
+            System.setErr(errors);
+            sink.close();
+            Files.deleteIfExists(file);
+        }
+        System.out.printf("%d threads x %,d requests%n", threads, requests);
+        results.forEach(System.out::println);
+    }
+
+    private interface Logger
+    {
+        void log(String line);
+    }
+
+    private static String run(String label, int threads, int requests, ThreadMXBean mx, Logger logger) throws Exception
+    {
+        long[][] latencies = new long[threads][requests];
+        long[] blockedMs = new long[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++)
+        {
+            int id = t;
+            Thread w = new Thread(() -> {
+                long[] lat = latencies[id];
+                try
+                {
+                    start.await();
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                long blocked0 = mx.getThreadInfo(Thread.currentThread().threadId()).getBlockedTime();
+                for (int i = 0; i < requests; i++)
+                {
+                    long t0 = System.nanoTime();
+                    String line = "{\"CMD\":\"GET\",\"ID\":\"T" + (i * 31 + id) + "\"}";
+                    logger.log(line);
+                    lat[i] = System.nanoTime() - t0;
+                }
+                blockedMs[id] = mx.getThreadInfo(Thread.currentThread().threadId()).getBlockedTime() - blocked0;
+            });
+            workers.add(w);
+            w.start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers) w.join();
+        long elapsed = System.nanoTime() - t0;
+
+        long[] all = new long[threads * requests];
+        for (int t = 0; t < threads; t++) System.arraycopy(latencies[t], 0, all, t * requests, requests);
+        Arrays.sort(all);
+        return String.format("%-20s %,12.0f req/s  p50 %,7d ns  p99 %,9d ns  blocked %,7d ms", label,
+                all.length / (elapsed / 1e9), all[all.length / 2], all[(int) (all.length * 0.99)],
+                Arrays.stream(blockedMs).sum());
+    }
+}
@@ -0,0 +1,57 @@
+package via.vinylsystem.bench;
+
+import com.google.gson.JsonObject;
+import via.vinylsystem.Model.Track;
+import via.vinylsystem.client.VinylServerClient;
+import via.vinylsystem.server.CatalogServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Compares blocking GETs with pipelined (request-ID tagged) GETs over one connection.
+ * <p>
+ * Starts a {@link CatalogServer} on a free local port with a generated catalog and
+ * sends the same GETs first one at a time, then all through the async API. Over
+ * loopback the round trip is short, so the gap grows with real network latency.
+ * Optional arguments: number of GETs (default 20,000) and port (default 7399).
+ * </p>
+ */
+public class PipelineBench
+{
+    public static void main(String[] args) throws Exception
+    {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7399;
+
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) tracks.add(new Track("T" + i, "Artist " + (i % 500), "Title " + i, 2000 + i % 25));
+        CatalogServer srv = new CatalogServer(port, tracks);
+        srv.start();
+
+        try (VinylServerClient sync = new VinylServerClient("127.0.0.1", port);
+             VinylServerClient async = new VinylServerClient("127.0.0.1", port))
+        {
+            for (int i = 0; i < 2_000; i++) sync.get("T" + (i % 10_000));
+
+            long t0 = System.nanoTime();
+            for (int i = 0; i < n; i++) sync.get("T" + (i % 10_000));
+            long syncNs = System.nanoTime() - t0;
+
+            t0 = System.nanoTime();
+            List<CompletableFuture<JsonObject>> fs = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) fs.add(async.getAsync("T" + (i % 10_000)));
+            CompletableFuture.allOf(fs.toArray(new CompletableFuture<?>[0])).join();
+            long asyncNs = System.nanoTime() - t0;
+
+            System.out.printf("blocking   %,d GETs in %,d ms  (%,.0f req/s)%n", n, syncNs / 1_000_000, n * 1e9 / syncNs);
+            System.out.printf("pipelined  %,d GETs in %,d ms  (%,.0f req/s)%n", n, asyncNs / 1_000_000, n * 1e9 / asyncNs);
+        }
+        finally
+        {
+            srv.stop();
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,88 @@
+package via.vinylsystem.bench;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import via.vinylsystem.Model.Track;
+import via.vinylsystem.Util.JsonLineWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures heap allocation per catalog response.
+ * <p>
+ * Compares the old path (a Gson tree built with {@code toJsonTree}, rendered with
+ * {@code toString()} and encoded with {@code getBytes}) against a reused
+ * {@link JsonLineWriter}, for a 20-track SEARCH response and a 500-track LIST page.
+ * Both write to a buffered stream that discards the bytes.
+ * Run with {@code java -cp target/classes:target/test-classes:<deps> via.vinylsystem.bench.ResponseAllocationBench}.
+ * </p>
+ */
+public class ResponseAllocationBench
+{
+    private static final int WARMUP = 20_000;
+    private static final int OPS = 100_000;
+
+    private interface Op
+    {
+        void run() throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < 500; i++)
+        {
+            tracks.add(new Track("T" + i, "Medina " + i, "Kun for mig (remix " + i + ")", 1990 + i % 30));
+        }
+        List<Track> search = tracks.subList(0, 20);
+        Gson gson = new Gson();
+        JsonPrimitive rid = new JsonPrimitive(42);
+        OutputStream out = new BufferedOutputStream(OutputStream.nullOutputStream(), 64 * 1024);
+        JsonLineWriter j = new JsonLineWriter();
+
+        report("SEARCH 20 legacy tree", OPS, () -> {
+            JsonObject resp = new JsonObject();
+            resp.addProperty("STATUS", "000000");
+            resp.add("TRACKS", gson.toJsonTree(search));
+            resp.addProperty("TOTAL", 20);
+            resp.add("RID", rid);
+            out.write((resp.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        });
+        report("SEARCH 20 streamed", OPS, () -> {
+            j.begin().field("STATUS", "000000").tracks("TRACKS", search).field("TOTAL", 20).field("RID", rid);
+            out.write(j.bytes(), 0, j.end());
+        });
+        report("LIST 500 legacy tree", OPS / 20, () -> {
+            JsonObject resp = new JsonObject();
+            resp.addProperty("STATUS", "000000");
+            resp.add("TRACKS", gson.toJsonTree(tracks));
+            resp.addProperty("NEXT", "T500");
+            out.write((resp.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        });
+        report("LIST 500 streamed", OPS / 20, () -> {
+            j.begin().field("STATUS", "000000").tracks("TRACKS", tracks).field("NEXT", "T500");
+            out.write(j.bytes(), 0, j.end());
+        });
+    }
+
+    private static void report(String label, int ops, Op op) throws IOException
+    {
+        for (int i = 0; i < WARMUP; i++) op.run();
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().threadId();
+        long bytes0 = mx.getThreadAllocatedBytes(tid);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < ops; i++) op.run();
+        long t1 = System.nanoTime();
+        long bytes1 = mx.getThreadAllocatedBytes(tid);
+        System.out.printf("%-22s %10.1f bytes/op %10.0f ns/op%n", label,
+                (bytes1 - bytes0) / (double) ops, (t1 - t0) / (double) ops);
+    }
+}
@@ -0,0 +1,155 @@
+package via.vinylsystem.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import via.vinylsystem.Model.Track;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogFileTest
+{
+    @TempDir
+    Path dir;
+
+    private static void write(Path target, List<Track> tracks) throws IOException
+    {
+        try (CatalogFileWriter w = new CatalogFileWriter(target))
+        {
+            for (Track t : tracks) w.append(t);
+            w.finish();
+        }
+    }
+
+    private static void assertTracks(List<Track> expected, TrackStore store)
+    {
+        assertEquals(expected.size(), store.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            Track e = expected.get(i);
+            assertEquals(e.getId(), store.id(i));
+            assertEquals(e.getArtist(), store.artist(i));
+            assertEquals(e.getTitle(), store.title(i));
+            assertEquals(e.getYear(), store.year(i));
+        }
+    }
+
+    @Test
+    void roundTripsTracks() throws Exception
+    {
+        List<Track> tracks = new ArrayList<>();
+        tracks.add(new Track("T001", "Medina", "Kun for mig", 2007));
+        tracks.add(new Track("T002", "Sigur Rós", "Hoppípolla", 2005));
+        tracks.add(new Track("T003", "Kim Larsen", "Papirsklip 😀", -1));
+        tracks.add(new Track("T004", "", "", 0));
+        for (int i = 0; i < 3_000; i++) tracks.add(new Track("x" + i, "Artist " + i, "Title " + i, 1900 + i % 120));
+        Path file = dir.resolve("a.vcat");
+        write(file, tracks);
+
+        try (MappedTrackStore store = MappedTrackStore.open(file))
+        {
+            assertTracks(tracks, store);
+        }
+        assertFalse(Files.exists(dir.resolve("a.vcat.tmp")));
+    }
+
+    @Test
+    void roundTripsEmptyCatalog() throws Exception
+    {
+        Path file = dir.resolve("empty.vcat");
+        write(file, List.of());
+        try (MappedTrackStore store = MappedTrackStore.open(file))
+        {
+            assertEquals(0, store.size());
+        }
+    }
+
+    @Test
+    void rejectsEmptyTruncatedAndForeignFiles() throws Exception
+    {
+        Path file = dir.resolve("a.vcat");
+        write(file, List.of(new Track("T001", "Medina", "Kun for mig", 2007), new Track("T002", "Aqua", "Barbie Girl", 1997)));
+        byte[] whole = Files.readAllBytes(file);
+
+        Path broken = dir.resolve("broken.vcat");
+        Files.write(broken, new byte[0]);
+        assertEquals("Not a catalog file", assertThrows(IOException.class, () -> MappedTrackStore.open(broken)).getMessage());
+        Files.write(broken, Arrays.copyOf(whole, 10));
+        assertEquals("Not a catalog file", assertThrows(IOException.class, () -> MappedTrackStore.open(broken)).getMessage());
+        Files.writeString(broken, "id,artist,title,year\nT001,Medina,Kun for mig,2007\n");
+        assertEquals("Not a catalog file", assertThrows(IOException.class, () -> MappedTrackStore.open(broken)).getMessage());
+
+        // the offset table is the last 16 bytes; a file cut inside it must not open
+        Files.write(broken, Arrays.copyOf(whole, whole.length - 4));
+        assertEquals("Truncated catalog file", assertThrows(IOException.class, () -> MappedTrackStore.open(broken)).getMessage());
+    }
+
+    @Test
+    void unfinishedWriterLeavesTargetAlone() throws Exception
+    {
+        Path file = dir.resolve("keep.vcat");
+        write(file, List.of(new Track("T1", "A", "B", 2000)));
+        byte[] before = Files.readAllBytes(file);
+
+        try (CatalogFileWriter w = new CatalogFileWriter(file))
+        {
+            w.append(new Track("T2", "C", "D", 2001));
+        }
+        assertArrayEquals(before, Files.readAllBytes(file));
+        assertFalse(Files.exists(dir.resolve("keep.vcat.tmp")));
+    }
+
+    @Test
+    void convertsCsvAndJsonl() throws Exception
+    {
+        Path csv = dir.resolve("export.csv");
+        Files.writeString(csv, "year,title,artist,id\n2007,\"Kun for mig\",Medina,T001\n1983,\"Midt om \"\"natten\"\"\",Kim Larsen,T002\n\n");
+        assertEquals(2, CatalogLoader.convert(csv, dir.resolve("csv.vcat")));
+        try (MappedTrackStore store = MappedTrackStore.open(dir.resolve("csv.vcat")))
+        {
+            assertTracks(List.of(new Track("T001", "Medina", "Kun for mig", 2007),
+                    new Track("T002", "Kim Larsen", "Midt om \"natten\"", 1983)), store);
+        }
+
+        Path jsonl = dir.resolve("export.jsonl");
+        Files.writeString(jsonl, "{\"id\":\"T001\",\"artist\":\"Medina\",\"title\":\"Kun for mig\",\"year\":2007}\n");
+        try (MappedTrackStore store = CatalogLoader.load(jsonl))
+        {
+            assertTracks(List.of(new Track("T001", "Medina", "Kun for mig", 2007)), store);
+        }
+        assertTrue(Files.exists(dir.resolve("export.vcat")));
+    }
+
+    @Test
+    void malformedExportKeepsTheOldCatalog() throws Exception
+    {
+        Path jsonl = dir.resolve("bad.jsonl");
+        Path target = dir.resolve("bad.vcat");
+        write(target, List.of(new Track("T1", "A", "B", 2000)));
+        byte[] before = Files.readAllBytes(target);
+
+        for (String bad : new String[] {"null", "{\"id\":", "[1,2]"})
+        {
+            Files.writeString(jsonl, "{\"id\":\"T9\",\"artist\":\"X\",\"title\":\"Y\",\"year\":1}\n" + bad + "\n");
+            IOException e = assertThrows(IOException.class, () -> CatalogLoader.convert(jsonl, target));
+            assertTrue(e.getMessage().contains(":2:"), e.getMessage());
+            assertArrayEquals(before, Files.readAllBytes(target));
+            assertFalse(Files.exists(dir.resolve("bad.vcat.tmp")));
+        }
+
+        Path csv = dir.resolve("bad.csv");
+        Files.writeString(csv, "T1,A,B,1999\nT2,A,B,notayear\n");
+        assertThrows(IOException.class, () -> CatalogLoader.convert(csv, target));
+        assertArrayEquals(before, Files.readAllBytes(target));
+    }
+}
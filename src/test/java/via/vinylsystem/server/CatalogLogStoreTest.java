@@ -0,0 +1,327 @@
+package via.vinylsystem.server;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import via.vinylsystem.Model.Track;
+import via.vinylsystem.client.VinylServerClient;
+import via.vinylsystem.directory.StatusCodes;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogLogStoreTest
+{
+    @TempDir
+    Path dir;
+
+    private static List<Track> base(int n)
+    {
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < n; i++) tracks.add(new Track(String.format("b%03d", i), "Artist " + (i % 7), "Title " + i, 1960 + i % 50));
+        return tracks;
+    }
+
+    private static List<String> lines(List<Track> tracks)
+    {
+        List<String> out = new ArrayList<>();
+        for (Track t : tracks) out.add(t.getId() + "|" + t.getArtist() + "|" + t.getTitle() + "|" + t.getYear());
+        return out;
+    }
+
+    private static List<String> sortedLines(List<Track> tracks)
+    {
+        List<Track> sorted = new ArrayList<>(tracks);
+        sorted.sort(Comparator.comparing(Track::getId));
+        return lines(sorted);
+    }
+
+    private CatalogLogStore open(List<Track> initial) throws IOException
+    {
+        return CatalogLogStore.open(dir, false, () -> new ListTrackStore(initial));
+    }
+
+    /** A server on the store's recovered catalog and a writer that logs to the store. */
+    private record Served(CatalogServer server, CatalogWriter writer)
+    {
+        static Served on(CatalogLogStore store, int mergeAt)
+        {
+            CatalogServer server = new CatalogServer(0, store.catalog());
+            CatalogWriter writer = new CatalogWriter(server, mergeAt);
+            writer.persistTo(store);
+            return new Served(server, writer);
+        }
+
+        List<Track> tracks()
+        {
+            return server.catalog().tracks();
+        }
+    }
+
+    @Test
+    void replaysRecordsInOrder() throws Exception
+    {
+        List<Track> expected;
+        try (CatalogLogStore store = open(base(5)))
+        {
+            Served served = Served.on(store, CatalogWriter.DEFAULT_MERGE_AT);
+            CatalogWriter writer = served.writer();
+            writer.add(new Track("n1", "A", "First", 2001));
+            writer.update(new Track("b001", "B", "Updated", 2002));
+            writer.delete("b003");
+            writer.add(new Track("n2", "C", "Second", 2003));
+            writer.update(new Track("n1", "A", "First again", 2004));
+            writer.delete("n2");
+            writer.add(new Track("n2", "C", "Second again", 2005));
+            writer.add(new Track("b003", "D", "Back", 2006));
+            writer.update(new Track("b003", "D", "Back again", 2007));
+            expected = served.tracks();
+        }
+        try (CatalogLogStore store = open(List.of()))
+        {
+            assertEquals(lines(expected), lines(store.catalog().tracks()));
+            assertEquals(List.of("b000", "b001", "b002", "b004", "n1", "n2", "b003"),
+                    store.catalog().tracks().stream().map(Track::getId).toList());
+        }
+    }
+
+    @Test
+    void dropsTornTailAndKeepsLogging() throws Exception
+    {
+        try (CatalogLogStore store = open(base(3)))
+        {
+            CatalogWriter writer = Served.on(store, CatalogWriter.DEFAULT_MERGE_AT).writer();
+            writer.add(new Track("n1", "A", "Kept", 2001));
+            writer.add(new Track("n2", "B", "Torn", 2002));
+        }
+        Path log = dir.resolve("log-0.log");
+        long size = Files.size(log);
+        try (FileChannel ch = FileChannel.open(log, StandardOpenOption.WRITE))
+        {
+            ch.truncate(size - 3); // the last record was cut short by a crash
+        }
+
+        try (CatalogLogStore store = open(List.of()))
+        {
+            assertEquals(List.of("b000", "b001", "b002", "n1"), store.catalog().tracks().stream().map(Track::getId).toList());
+            assertTrue(Files.size(log) < size - 3, "incomplete record cut off");
+            Served.on(store, CatalogWriter.DEFAULT_MERGE_AT).writer().add(new Track("n3", "C", "After", 2003));
+        }
+        try (CatalogLogStore store = open(List.of()))
+        {
+            assertEquals(List.of("b000", "b001", "b002", "n1", "n3"), store.catalog().tracks().stream().map(Track::getId).toList());
+        }
+    }
+
+    @Test
+    void compactsWhileWriting() throws Exception
+    {
+        List<Track> model = new ArrayList<>(base(50));
+        long version;
+        try (CatalogLogStore store = open(model))
+        {
+            Served served = Served.on(store, 32);
+            CatalogWriter writer = served.writer();
+            AtomicBoolean done = new AtomicBoolean();
+            List<Throwable> errors = new ArrayList<>();
+            Thread compactor = new Thread(() -> {
+                try
+                {
+                    while (!done.get()) writer.compact();
+                }
+                catch (Throwable e)
+                {
+                    errors.add(e);
+                }
+            });
+            compactor.start();
+
+            Random rnd = new Random(43);
+            for (int step = 0; step < 1_500; step++)
+            {
+                int op = rnd.nextInt(3);
+                if (op == 0 || model.isEmpty())
+                {
+                    Track t = new Track("n" + step, "New", "Added " + step, 2000);
+                    assertTrue(writer.add(t) > 0);
+                    model.add(t);
+                }
+                else if (op == 1)
+                {
+                    int i = rnd.nextInt(model.size());
+                    Track t = new Track(model.get(i).getId(), "Changed", "Step " + step, 1999);
+                    assertTrue(writer.update(t) > 0);
+                    model.set(i, t);
+                }
+                else
+                {
+                    assertTrue(writer.delete(model.remove(rnd.nextInt(model.size())).getId()) > 0);
+                }
+            }
+            done.set(true);
+            compactor.join();
+            assertEquals(List.of(), errors);
+            assertEquals(sortedLines(model), sortedLines(served.tracks()));
+            version = served.server().catalog().version();
+        }
+        try (CatalogLogStore store = open(List.of()))
+        {
+            assertEquals(sortedLines(model), sortedLines(store.catalog().tracks()));
+            assertEquals(version, store.lastWriteVersion());
+            assertTrue(store.catalog().version() > version);
+            try (var files = Files.list(dir))
+            {
+                assertTrue(files.filter(p -> p.getFileName().toString().startsWith("base-")).count() == 1);
+            }
+        }
+    }
+
+    @Test
+    void neverReusesAVersionAcrossRestartsAndCompaction() throws Exception
+    {
+        try (CatalogLogStore store = open(base(3)))
+        {
+            assertEquals(1, store.catalog().version());
+            CatalogWriter writer = Served.on(store, CatalogWriter.DEFAULT_MERGE_AT).writer();
+            assertEquals(2, writer.add(new Track("n1", "A", "T", 2001)));
+            assertEquals(3, writer.update(new Track("b000", "B", "U", 2002)));
+            assertEquals(4, writer.delete("b001"));
+        }
+        long reopened;
+        try (CatalogLogStore store = open(List.of()))
+        {
+            // the first write reserved versions 2 to 1 + RESERVE_AHEAD
+            reopened = store.catalog().version();
+            assertEquals(2 + CatalogLogStore.RESERVE_AHEAD, reopened);
+            assertEquals(4, store.lastWriteVersion());
+        }
+        try (CatalogLogStore store = open(List.of()))
+        {
+            assertEquals(reopened, store.catalog().version()); // nothing written, nothing reserved
+            CatalogWriter writer = Served.on(store, CatalogWriter.DEFAULT_MERGE_AT).writer();
+            assertEquals(reopened + 1, writer.add(new Track("n2", "A", "T", 2001)));
+            writer.compact(); // the new log holds nothing but the version and the reservation
+            writer.compact(); // nothing written since, so no new generation
+        }
+        try (CatalogLogStore store = open(List.of()))
+        {
+            assertEquals(reopened + 1, store.lastWriteVersion());
+            assertEquals(reopened + CatalogLogStore.RESERVE_AHEAD + 1, store.catalog().version()); // compaction kept the reservation
+            reopened = store.catalog().version();
+            assertEquals(List.of("b000", "b002", "n1", "n2"), store.catalog().tracks().stream().map(Track::getId).toList());
+            assertTrue(Files.exists(dir.resolve("base-1.vcat")));
+            try (var files = Files.list(dir))
+            {
+                assertEquals(List.of("log-1.log"), files.map(p -> p.getFileName().toString()).filter(n -> n.startsWith("log-")).toList());
+            }
+
+            CatalogServer server = new CatalogServer(0, store.catalog());
+            CatalogWriter writer = new CatalogWriter(server, 1);
+            writer.persistTo(store);
+            Catalog root = server.catalog().root();
+            assertEquals(reopened + 1, writer.delete("n1"));
+            assertEquals(reopened + 2, writer.update(new Track("n2", "C", "V", 2003)));
+            for (int i = 0; i < 100 && server.catalog().root() == root; i++) Thread.sleep(10);
+            assertTrue(server.catalog().root() != root, "merged");
+            assertEquals(reopened + 2, server.catalog().version()); // a merge does not need a version of its own
+        }
+        try (CatalogLogStore store = open(List.of()))
+        {
+            assertEquals(reopened + 2, store.lastWriteVersion());
+            assertEquals(reopened + 1 + CatalogLogStore.RESERVE_AHEAD, store.catalog().version());
+        }
+    }
+
+    @Test
+    void skipsVersionsLostInACrash() throws Exception
+    {
+        List<Long> served = new ArrayList<>();
+        try (CatalogLogStore store = open(base(3)))
+        {
+            CatalogWriter writer = Served.on(store, CatalogWriter.DEFAULT_MERGE_AT).writer();
+            for (int i = 1; i <= 5; i++) served.add(writer.add(new Track("n" + i, "A", "T" + i, 2000 + i)));
+        }
+        assertEquals(List.of(2L, 3L, 4L, 5L, 6L), served);
+        Path log = dir.resolve("log-0.log");
+        try (FileChannel ch = FileChannel.open(log, StandardOpenOption.WRITE))
+        {
+            ch.truncate(Files.size(log) - 3); // version 6 was served, but its record never reached the disk
+        }
+
+        int port;
+        try (ServerSocket probe = new ServerSocket(0))
+        {
+            port = probe.getLocalPort();
+        }
+        try (CatalogLogStore store = open(List.of()))
+        {
+            assertEquals(5, store.lastWriteVersion());
+            long version = store.catalog().version();
+            assertTrue(version > 6, "above every version served before the crash: " + version);
+            assertNull(store.catalog().get("n5"));
+
+            CatalogServer server = new CatalogServer(port, store.catalog());
+            server.persistTo(store, 0);
+            server.start();
+            try (VinylServerClient client = new VinylServerClient("127.0.0.1", port))
+            {
+                assertTrue(client.changes(6).get("RESYNC").getAsBoolean()); // saw n5, which is gone
+                assertTrue(client.changes(4).get("RESYNC").getAsBoolean());
+                JsonObject caughtUp = client.changes(5);
+                assertEquals(StatusCodes.OK, caughtUp.get("STATUS").getAsString());
+                assertEquals(version, caughtUp.get("VERSION").getAsLong());
+                assertEquals(0, caughtUp.getAsJsonArray("UPSERTS").size());
+                assertEquals(0, caughtUp.getAsJsonArray("DELETES").size());
+
+                assertEquals(version + 1, client.add(new Track("n6", "B", "After", 2010)).get("VERSION").getAsLong());
+                JsonObject after = client.changes(5);
+                assertEquals(1, after.getAsJsonArray("UPSERTS").size());
+                assertEquals("n6", after.getAsJsonArray("UPSERTS").get(0).getAsJsonObject().get("id").getAsString());
+                assertEquals(1, client.changes(version).getAsJsonArray("UPSERTS").size());
+                assertTrue(client.changes(6).get("RESYNC").getAsBoolean());
+            }
+            finally
+            {
+                server.stop();
+            }
+        }
+    }
+
+    @Test
+    void refusesWritesBeforePublishingThem() throws Exception
+    {
+        CatalogLogStore store = open(base(2));
+        Served served = Served.on(store, CatalogWriter.DEFAULT_MERGE_AT);
+        CatalogServer server = served.server();
+        CatalogWriter writer = served.writer();
+        long version = server.catalog().version();
+
+        String tooLong = "€".repeat(30_000); // 90 000 bytes in a log record
+        assertThrows(IllegalArgumentException.class, () -> writer.add(new Track("n1", "A", tooLong, 2000)));
+        assertThrows(IllegalArgumentException.class, () -> writer.update(new Track("b000", tooLong, "T", 2000)));
+        assertThrows(IllegalArgumentException.class, () -> writer.delete("x".repeat(70_000)));
+        assertEquals(version, server.catalog().version());
+        assertTrue(writer.add(new Track("n2", "A", "æ".repeat(30_000), 2000)) > version); // 60 000 bytes fit
+
+        store.close();
+        long published = server.catalog().version();
+        assertThrows(IOException.class, () -> writer.add(new Track("n3", "A", "T", 2000)));
+        assertThrows(IOException.class, () -> writer.delete("b000"));
+        assertEquals(published, server.catalog().version());
+        assertNull(server.catalog().get("n3"));
+    }
+}
@@ -0,0 +1,129 @@
+package via.vinylsystem.server;
+
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import via.vinylsystem.Model.Track;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CatalogQueryTest
+{
+    private static final String[] ARTISTS = {"Medina", "Kim Larsen", "Aqua", "Tina Dickow"};
+    private static final String[] WORDS = {"kun", "for", "mig", "papir", "sklip", "nat", "sommer"};
+
+    private static final List<Track> TRACKS = tracks();
+    private static final Catalog CATALOG = Catalog.of(TRACKS, 1);
+
+    private static List<Track> tracks()
+    {
+        Random rnd = new Random(39);
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < 400; i++)
+        {
+            String title = WORDS[rnd.nextInt(WORDS.length)] + " " + WORDS[rnd.nextInt(WORDS.length)];
+            tracks.add(new Track("t" + i, ARTISTS[rnd.nextInt(ARTISTS.length)], rnd.nextBoolean() ? title : title.toUpperCase(Locale.ROOT),
+                    1990 + rnd.nextInt(30)));
+        }
+        return tracks;
+    }
+
+    private static BitSet run(String json)
+    {
+        return CatalogQuery.parse(JsonParser.parseString(json)).evaluate(CATALOG, Cancellation.NONE);
+    }
+
+    private static BitSet expected(Predicate<Track> p)
+    {
+        BitSet out = new BitSet();
+        for (int i = 0; i < TRACKS.size(); i++) if (p.test(TRACKS.get(i))) out.set(i);
+        return out;
+    }
+
+    private static Predicate<Track> artist(String a)
+    {
+        return t -> t.getArtist().equalsIgnoreCase(a);
+    }
+
+    private static Predicate<Track> title(String s)
+    {
+        return t -> t.getTitle().toLowerCase(Locale.ROOT).contains(s.toLowerCase(Locale.ROOT));
+    }
+
+    private static Predicate<Track> year(int from, int to)
+    {
+        return t -> t.getYear() >= from && t.getYear() <= to;
+    }
+
+    @Test
+    void answersFieldPredicates()
+    {
+        assertEquals(expected(artist("Medina")), run("{\"ARTIST\":\"mEDINA\"}"));
+        assertEquals(expected(title("papir")), run("{\"TITLE\":\"PaPiR\"}"));
+        assertEquals(expected(year(2000, 2000)), run("{\"YEAR\":2000}"));
+        assertEquals(expected(year(1995, 2004)), run("{\"YEAR\":{\"FROM\":1995,\"TO\":2004}}"));
+        assertEquals(expected(year(2010, Integer.MAX_VALUE)), run("{\"YEAR\":{\"FROM\":2010}}"));
+        assertEquals(expected(year(Integer.MIN_VALUE, 1993)), run("{\"YEAR\":{\"TO\":1993}}"));
+        assertEquals(CATALOG.all(), run("{\"YEAR\":{}}"));
+        assertEquals(new BitSet(), run("{\"YEAR\":{\"FROM\":2005,\"TO\":2004}}"));
+        assertEquals(new BitSet(), run("{\"ARTIST\":\"Nobody\"}"));
+    }
+
+    @Test
+    void combinesPredicates()
+    {
+        assertEquals(expected(artist("Aqua").and(year(2000, 2009))),
+                run("{\"AND\":[{\"ARTIST\":\"Aqua\"},{\"YEAR\":{\"FROM\":2000,\"TO\":2009}}]}"));
+        assertEquals(expected(artist("Aqua").or(artist("Medina")).or(title("nat"))),
+                run("{\"OR\":[{\"ARTIST\":\"Aqua\"},{\"ARTIST\":\"Medina\"},{\"TITLE\":\"nat\"}]}"));
+        assertEquals(expected(artist("Aqua").negate()), run("{\"NOT\":{\"ARTIST\":\"Aqua\"}}"));
+        assertEquals(expected(title("sommer").and(artist("Kim Larsen").or(year(1990, 1995)).negate())),
+                run("{\"TITLE\":\"sommer\",\"NOT\":{\"OR\":[{\"ARTIST\":\"kim larsen\"},{\"YEAR\":{\"TO\":1995}}]}}"));
+
+        // several keys in one object are an AND
+        assertEquals(run("{\"AND\":[{\"ARTIST\":\"Medina\"},{\"TITLE\":\"kun\"},{\"YEAR\":{\"FROM\":2000}}]}"),
+                run("{\"ARTIST\":\"Medina\",\"TITLE\":\"kun\",\"YEAR\":{\"FROM\":2000}}"));
+        assertEquals(expected(artist("Medina").and(title("kun")).and(year(2000, Integer.MAX_VALUE))),
+                run("{\"artist\":\"Medina\",\"title\":\"kun\",\"year\":{\"FROM\":2000}}"));
+        assertEquals(new BitSet(), run("{\"AND\":[{\"ARTIST\":\"Aqua\"},{\"ARTIST\":\"Medina\"}]}"));
+        assertEquals(CATALOG.all(), run("{\"OR\":[{\"ARTIST\":\"Aqua\"},{\"NOT\":{\"ARTIST\":\"Aqua\"}}]}"));
+    }
+
+    @Test
+    void readsFieldNamesTheSameInEveryLocale()
+    {
+        Locale before = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+        try
+        {
+            assertEquals(expected(title("mig")), run("{\"title\":\"mig\"}"));
+        }
+        finally
+        {
+            Locale.setDefault(before);
+        }
+    }
+
+    @Test
+    void rejectsMalformedQueries()
+    {
+        for (String bad : new String[] {
+                "\"Medina\"", "[]", "null", "{}",
+                "{\"GENRE\":\"pop\"}",
+                "{\"AND\":{\"ARTIST\":\"Aqua\"}}", "{\"AND\":[]}", "{\"OR\":[\"Aqua\"]}", "{\"OR\":null}",
+                "{\"NOT\":[{\"ARTIST\":\"Aqua\"}]}", "{\"NOT\":{}}",
+                "{\"ARTIST\":{\"NAME\":\"Aqua\"}}", "{\"ARTIST\":null}", "{\"TITLE\":[\"kun\"]}",
+                "{\"YEAR\":\"soon\"}", "{\"YEAR\":[2000]}", "{\"YEAR\":{\"FROM\":\"then\"}}", "{\"YEAR\":null}",
+                "{\"ARTIST\":\"Aqua\",\"YEAR\":\"soon\"}"})
+        {
+            assertThrows(IllegalArgumentException.class, () -> CatalogQuery.parse(JsonParser.parseString(bad)), bad);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package via.vinylsystem.server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import via.vinylsystem.Model.Track;
+import via.vinylsystem.client.VinylServerClient;
+import via.vinylsystem.directory.StatusCodes;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CatalogServerChangesTest
+{
+    private CatalogServer server;
+    private VinylServerClient client;
+
+    @BeforeEach
+    void start() throws Exception
+    {
+        List<Track> tracks = List.of(new Track("T001", "A", "One", 1990), new Track("T002", "B", "Two", 1991),
+                new Track("t003", "C", "Three", 1992));
+        int port;
+        try (ServerSocket probe = new ServerSocket(0))
+        {
+            port = probe.getLocalPort();
+        }
+        server = new CatalogServer(port, Catalog.of(tracks, 5));
+        server.start();
+        client = new VinylServerClient("127.0.0.1", port);
+    }
+
+    @AfterEach
+    void stop() throws Exception
+    {
+        client.close();
+        server.stop();
+    }
+
+    private static List<String> strings(JsonArray a)
+    {
+        List<String> out = new ArrayList<>();
+        for (JsonElement e : a) out.add(e.getAsString());
+        return out;
+    }
+
+    private static List<String> ids(JsonArray tracks)
+    {
+        List<String> out = new ArrayList<>();
+        for (JsonElement t : tracks) out.add(t.getAsJsonObject().get("id").getAsString());
+        return out;
+    }
+
+    @Test
+    void listsTheStoredIdOfADeleteTypedInAnotherCase() throws Exception
+    {
+        assertEquals(StatusCodes.OK, client.delete("t001").get("STATUS").getAsString());
+
+        JsonObject r = client.changes(5);
+        assertEquals(StatusCodes.OK, r.get("STATUS").getAsString());
+        assertEquals(6, r.get("VERSION").getAsLong());
+        assertEquals(List.of("T001"), strings(r.getAsJsonArray("DELETES")));
+        assertEquals(0, r.getAsJsonArray("UPSERTS").size());
+    }
+
+    @Test
+    void listsATrackUpdatedInTwoCasesOnce() throws Exception
+    {
+        assertEquals(StatusCodes.OK, client.update(new Track("t002", "B", "Two again", 1991)).get("STATUS").getAsString());
+        assertEquals(StatusCodes.OK, client.update(new Track("T002", "B", "Two once more", 1991)).get("STATUS").getAsString());
+        assertEquals(StatusCodes.OK, client.update(new Track("T003", "C", "Three again", 1992)).get("STATUS").getAsString());
+
+        JsonObject r = client.changes(5);
+        assertEquals(8, r.get("VERSION").getAsLong());
+        assertEquals(List.of("T002", "t003"), ids(r.getAsJsonArray("UPSERTS")));
+        assertEquals("Two once more", r.getAsJsonArray("UPSERTS").get(0).getAsJsonObject().get("title").getAsString());
+        assertEquals(0, r.getAsJsonArray("DELETES").size());
+        assertEquals(List.of("t003"), ids(client.changes(7).getAsJsonArray("UPSERTS")));
+    }
+
+    @Test
+    void listsAddsAndDeletesOfTheSameTrackAsItsLastState() throws Exception
+    {
+        assertEquals(StatusCodes.OK, client.add(new Track("N1", "D", "New", 2000)).get("STATUS").getAsString());
+        assertEquals(StatusCodes.OK, client.delete("n1").get("STATUS").getAsString());
+        assertEquals(List.of("N1"), strings(client.changes(5).getAsJsonArray("DELETES")));
+
+        assertEquals(StatusCodes.OK, client.add(new Track("n1", "D", "Back", 2001)).get("STATUS").getAsString());
+        JsonObject r = client.changes(5);
+        assertEquals(List.of("n1"), ids(r.getAsJsonArray("UPSERTS")));
+        assertEquals(0, r.getAsJsonArray("DELETES").size());
+    }
+}
@@ -0,0 +1,112 @@
+package via.vinylsystem.server;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import via.vinylsystem.Model.Track;
+import via.vinylsystem.client.VinylServerClient;
+import via.vinylsystem.directory.StatusCodes;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogServerListTest
+{
+    private static final int TRACKS = 1_234;
+
+    private CatalogServer server;
+    private VinylServerClient client;
+
+    @BeforeEach
+    void start() throws Exception
+    {
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < TRACKS; i++) tracks.add(new Track("t" + i, "Artist " + i % 17, "Title " + i, 1960 + i % 60));
+        int port;
+        try (ServerSocket probe = new ServerSocket(0))
+        {
+            port = probe.getLocalPort();
+        }
+        server = new CatalogServer(port, Catalog.of(tracks, 7));
+        server.start();
+        client = new VinylServerClient("127.0.0.1", port);
+    }
+
+    @AfterEach
+    void stop() throws Exception
+    {
+        client.close();
+        server.stop();
+    }
+
+    private static List<String> ids(JsonObject page)
+    {
+        List<String> ids = new ArrayList<>();
+        for (JsonElement t : page.getAsJsonArray("TRACKS")) ids.add(t.getAsJsonObject().get("id").getAsString());
+        return ids;
+    }
+
+    @Test
+    void pagesCoverTheCatalogInOrder() throws Exception
+    {
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do
+        {
+            JsonObject page = client.listPage(100, cursor);
+            assertEquals(StatusCodes.OK, page.get("STATUS").getAsString());
+            assertEquals(7, page.get("VERSION").getAsLong());
+            List<String> ids = ids(page);
+            assertTrue(ids.size() <= 100);
+            seen.addAll(ids);
+            cursor = page.has("NEXT") ? page.get("NEXT").getAsString() : null;
+            if (cursor != null) assertEquals("t" + seen.size(), cursor);
+            pages++;
+        }
+        while (cursor != null);
+
+        assertEquals(13, pages);
+        assertEquals(TRACKS, seen.size());
+        for (int i = 0; i < TRACKS; i++) assertEquals("t" + i, seen.get(i));
+    }
+
+    @Test
+    void cursorStartsAtItsTrack() throws Exception
+    {
+        JsonObject page = client.listPage(3, "T1231");
+        assertEquals(List.of("t1231", "t1232", "t1233"), ids(page));
+        assertFalse(page.has("NEXT"));
+
+        page = client.listPage(2, "t10");
+        assertEquals(List.of("t10", "t11"), ids(page));
+        assertEquals("t12", page.get("NEXT").getAsString());
+    }
+
+    @Test
+    void rejectsUnknownCursorAndBadLimit() throws Exception
+    {
+        assertEquals(StatusCodes.BAD_REQUEST, client.listPage(10, "nope").get("STATUS").getAsString());
+        assertEquals(StatusCodes.BAD_REQUEST, client.listPage(0, null).get("STATUS").getAsString());
+    }
+
+    @Test
+    void streamAndFullListAgreeWithPages() throws Exception
+    {
+        List<String> streamed = new ArrayList<>();
+        long count = client.listStream(t -> streamed.add(t.get("id").getAsString()));
+        assertEquals(TRACKS, count);
+        assertEquals(TRACKS, streamed.size());
+
+        JsonObject full = client.list();
+        assertEquals(7, full.get("VERSION").getAsLong());
+        assertEquals(streamed, ids(full));
+    }
+}
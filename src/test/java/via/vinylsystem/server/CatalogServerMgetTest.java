@@ -0,0 +1,127 @@
+package via.vinylsystem.server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import via.vinylsystem.Model.Track;
+import via.vinylsystem.client.VinylServerClient;
+import via.vinylsystem.directory.StatusCodes;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CatalogServerMgetTest
+{
+    private static final int TRACKS = 500;
+
+    private CatalogServer server;
+    private VinylServerClient client;
+
+    @BeforeEach
+    void start() throws Exception
+    {
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < TRACKS; i++) tracks.add(new Track("t" + i, "Artist " + i % 17, "Title " + i, 1960 + i % 60));
+        int port;
+        try (ServerSocket probe = new ServerSocket(0))
+        {
+            port = probe.getLocalPort();
+        }
+        server = new CatalogServer(port, Catalog.of(tracks, 3));
+        server.start();
+        client = new VinylServerClient("127.0.0.1", port);
+    }
+
+    @AfterEach
+    void stop() throws Exception
+    {
+        client.close();
+        server.stop();
+    }
+
+    private static List<String> strings(JsonArray a)
+    {
+        List<String> out = new ArrayList<>();
+        for (JsonElement e : a) out.add(e.getAsString());
+        return out;
+    }
+
+    private static List<String> ids(JsonArray tracks)
+    {
+        List<String> out = new ArrayList<>();
+        for (JsonElement t : tracks) out.add(t.getAsJsonObject().get("id").getAsString());
+        return out;
+    }
+
+    @Test
+    void returnsFoundTracksInRequestOrderAndMissingIds() throws Exception
+    {
+        JsonObject r = client.mget(List.of("t42", "nope", "T7", "t499", "t42", "gone"));
+        assertEquals(StatusCodes.OK, r.get("STATUS").getAsString());
+        assertEquals(List.of("t42", "t7", "t499", "t42"), ids(r.getAsJsonArray("TRACKS")));
+        assertEquals(List.of("nope", "gone"), strings(r.getAsJsonArray("MISSING")));
+
+        JsonObject t = r.getAsJsonArray("TRACKS").get(0).getAsJsonObject();
+        assertEquals("Artist 8", t.get("artist").getAsString());
+        assertEquals("Title 42", t.get("title").getAsString());
+        assertEquals(2002, t.get("year").getAsInt());
+
+        JsonObject none = client.mget(List.of());
+        assertEquals(StatusCodes.OK, none.get("STATUS").getAsString());
+        assertEquals(0, none.getAsJsonArray("TRACKS").size());
+        assertEquals(0, none.getAsJsonArray("MISSING").size());
+    }
+
+    @Test
+    void rejectsTooManyIds() throws Exception
+    {
+        List<String> ids = new ArrayList<>(Collections.nCopies(10_000, "t1"));
+        assertEquals(StatusCodes.OK, client.mget(ids, "id").get("STATUS").getAsString());
+        ids.add("t2");
+        assertEquals(StatusCodes.BAD_REQUEST, client.mget(ids).get("STATUS").getAsString());
+    }
+
+    @Test
+    void projectsFieldsOnEveryReadCommand() throws Exception
+    {
+        JsonObject mget = client.mget(List.of("t1", "t2"), "id", "YEAR");
+        for (JsonElement e : mget.getAsJsonArray("TRACKS")) assertEquals(Set.of("id", "year"), e.getAsJsonObject().keySet());
+
+        JsonObject get = JsonParser.parseString(client.get("t3", "title")).getAsJsonObject();
+        assertEquals(StatusCodes.OK, get.get("STATUS").getAsString());
+        assertEquals(Set.of("title"), get.getAsJsonObject("TRACK").keySet());
+        assertEquals("Title 3", get.getAsJsonObject("TRACK").get("title").getAsString());
+
+        JsonObject search = client.search("Title 12", 5, "artist", "id");
+        assertEquals(StatusCodes.OK, search.get("STATUS").getAsString());
+        for (JsonElement e : search.getAsJsonArray("TRACKS")) assertEquals(Set.of("id", "artist"), e.getAsJsonObject().keySet());
+
+        JsonObject page = client.listPage(10, null, "id");
+        assertEquals(10, page.getAsJsonArray("TRACKS").size());
+        for (JsonElement e : page.getAsJsonArray("TRACKS")) assertEquals(Set.of("id"), e.getAsJsonObject().keySet());
+        assertEquals("t10", page.get("NEXT").getAsString());
+
+        // all four fields are the same as none
+        JsonObject all = client.mget(List.of("t5"), "id", "artist", "title", "year");
+        assertEquals(client.mget(List.of("t5")).getAsJsonArray("TRACKS"), all.getAsJsonArray("TRACKS"));
+    }
+
+    @Test
+    void rejectsUnknownFields() throws Exception
+    {
+        assertEquals(StatusCodes.BAD_REQUEST, client.mget(List.of("t1"), "id", "label").get("STATUS").getAsString());
+        assertEquals(StatusCodes.BAD_REQUEST,
+                JsonParser.parseString(client.get("t1", "genre")).getAsJsonObject().get("STATUS").getAsString());
+        assertEquals(StatusCodes.BAD_REQUEST, client.search("Title", 5, "").get("STATUS").getAsString());
+        assertEquals(StatusCodes.BAD_REQUEST, client.listPage(10, null, "ids").get("STATUS").getAsString());
+    }
+}
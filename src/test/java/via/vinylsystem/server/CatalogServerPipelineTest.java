@@ -0,0 +1,188 @@
+package via.vinylsystem.server;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import via.vinylsystem.Model.Track;
+import via.vinylsystem.directory.StatusCodes;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogServerPipelineTest
+{
+    private static final int TRACKS = 200_000;
+
+    private CatalogServer server;
+    private Socket socket;
+    private BufferedReader in;
+    private OutputStream out;
+
+    @BeforeEach
+    void start() throws Exception
+    {
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < TRACKS; i++) tracks.add(new Track("t" + i, "Artist " + i % 997, "Title " + i + " of " + i % 13, 1960 + i % 60));
+        int port;
+        try (ServerSocket probe = new ServerSocket(0))
+        {
+            port = probe.getLocalPort();
+        }
+        server = new CatalogServer(port, Catalog.of(tracks, 3));
+        server.start();
+        socket = new Socket("127.0.0.1", port);
+        socket.setSoTimeout(30_000);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = socket.getOutputStream();
+    }
+
+    @AfterEach
+    void stop() throws Exception
+    {
+        socket.close();
+        server.stop();
+    }
+
+    private void send(String... lines) throws Exception
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String l : lines) sb.append(l).append('\n');
+        out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private JsonObject read() throws Exception
+    {
+        String line = in.readLine();
+        assertTrue(line != null, "connection still open");
+        return JsonParser.parseString(line).getAsJsonObject();
+    }
+
+    @Test
+    void echoesRequestIdsAsSent() throws Exception
+    {
+        send("{\"CMD\":\"GET\",\"ID\":\"t1\",\"RID\":7}");
+        JsonObject r = read();
+        assertEquals(StatusCodes.OK, r.get("STATUS").getAsString());
+        assertEquals("t1", r.getAsJsonObject("TRACK").get("id").getAsString());
+        assertEquals(7, r.get("RID").getAsInt());
+
+        Map<String, String> sent = new HashMap<>();
+        sent.put("\"a-1\"", "t2");
+        sent.put("{\"n\":[1,2]}", "t3");
+        sent.put("-0.5", "nope");
+        for (Map.Entry<String, String> e : sent.entrySet())
+        {
+            send("{\"CMD\":\"GET\",\"ID\":\"" + e.getValue() + "\",\"RID\":" + e.getKey() + "}");
+        }
+        Map<String, String> got = new HashMap<>();
+        for (int i = 0; i < sent.size(); i++)
+        {
+            JsonObject resp = read();
+            got.put(resp.get("RID").toString(), resp.get("STATUS").getAsString());
+        }
+        assertEquals(Map.of("\"a-1\"", StatusCodes.OK, "{\"n\":[1,2]}", StatusCodes.OK, "-0.5", StatusCodes.NOT_FOUND), got);
+
+        // untagged commands are answered in order and without RID
+        send("{\"CMD\":\"GET\",\"ID\":\"t4\"}");
+        assertNull(read().get("RID"));
+    }
+
+    @Test
+    void answersFastCommandsBeforeSlowOnes() throws Exception
+    {
+        send("{\"CMD\":\"GET\",\"ID\":\"t0\"}"); // builds the ID index
+        read();
+
+        // the first search builds the search indexes over every track
+        send("{\"CMD\":\"SEARCH\",\"Q\":\"title 12 of 5\",\"LIMIT\":5,\"RID\":1}",
+             "{\"CMD\":\"GET\",\"ID\":\"t9\",\"RID\":2}");
+        JsonObject first = read();
+        JsonObject second = read();
+        assertEquals(2, first.get("RID").getAsInt());
+        assertEquals("t9", first.getAsJsonObject("TRACK").get("id").getAsString());
+        assertEquals(1, second.get("RID").getAsInt());
+        assertEquals(StatusCodes.OK, second.get("STATUS").getAsString());
+    }
+
+    @Test
+    void answersEveryRequestBeyondTheInFlightLimit() throws Exception
+    {
+        // far more than MAX_IN_FLIGHT, sent without reading a single answer
+        int n = 5_000;
+        AtomicReference<Exception> failed = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try
+            {
+                for (int i = 0; i < n; i++) send("{\"CMD\":\"GET\",\"ID\":\"t" + i + "\",\"RID\":" + i + "}");
+            }
+            catch (Exception e)
+            {
+                failed.set(e);
+            }
+        });
+        writer.start();
+
+        boolean[] seen = new boolean[n];
+        for (int i = 0; i < n; i++)
+        {
+            JsonObject r = read();
+            int rid = r.get("RID").getAsInt();
+            assertFalse(seen[rid], "answered twice: " + rid);
+            seen[rid] = true;
+            assertEquals("t" + rid, r.getAsJsonObject("TRACK").get("id").getAsString());
+        }
+        writer.join();
+        assertNull(failed.get());
+    }
+
+    @Test
+    void answersClientsThatOnlyCloseTheirSendingSide() throws Exception
+    {
+        // like nc -N: send the requests, shut down output, then read
+        send("{\"CMD\":\"QUERY\",\"WHERE\":{\"TITLE\":\"of 7\"},\"LIMIT\":2,\"RID\":1}",
+             "{\"CMD\":\"SEARCH\",\"Q\":\"artist 99\",\"LIMIT\":2}");
+        socket.shutdownOutput();
+
+        List<JsonObject> answers = List.of(read(), read());
+        for (JsonObject r : answers)
+        {
+            assertEquals(StatusCodes.OK, r.get("STATUS").getAsString(), r.toString());
+            assertEquals(2, r.getAsJsonArray("TRACKS").size());
+        }
+        assertEquals(1, answers.stream().filter(r -> r.has("RID")).count());
+        assertNull(in.readLine());
+    }
+
+    @Test
+    void quitWaitsForTaggedCommands() throws Exception
+    {
+        send("{\"CMD\":\"SEARCH\",\"Q\":\"artist 42\",\"LIMIT\":3,\"RID\":\"slow\"}",
+             "{\"CMD\":\"QUIT\"}");
+        JsonObject search = read();
+        assertEquals("slow", search.get("RID").getAsString());
+        assertEquals(StatusCodes.OK, search.get("STATUS").getAsString());
+        assertEquals(3, search.getAsJsonArray("TRACKS").size());
+
+        JsonObject bye = read();
+        assertEquals(StatusCodes.OK, bye.get("STATUS").getAsString());
+        assertNull(bye.get("RID"));
+        assertNull(in.readLine());
+    }
+}
@@ -0,0 +1,137 @@
+package via.vinylsystem.server;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import via.vinylsystem.directory.StatusCodes;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogStatsTest
+{
+    private static final SearchCache.Stats NO_CACHE = new SearchCache.Stats(0, 0, 0, 0, 0, 0, 0);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void bucketsHoldTheirValuesWithinASixteenth()
+    {
+        Random rnd = new Random(45);
+        for (int i = 0; i < 200_000; i++)
+        {
+            long micros = i < 100_000 ? i : rnd.nextLong(1L << 41); // the last bucket takes everything above
+            int b = LatencyHistogram.index(micros);
+            long upper = LatencyHistogram.upperBound(b);
+            assertTrue(upper >= micros, micros + " <= " + upper);
+            assertTrue(b == 0 || LatencyHistogram.upperBound(b - 1) < micros, micros + " in bucket " + b);
+            assertTrue(upper - micros <= micros / 16, micros + " rounded to " + upper);
+        }
+        for (long m = 0; m < 16; m++) assertEquals(m, LatencyHistogram.upperBound(LatencyHistogram.index(m)));
+    }
+
+    @Test
+    void reportsPercentilesOfKnownLatencies()
+    {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.snapshot().percentile(0.5));
+        for (int micros = 1; micros <= 1_000; micros++) h.record(micros * 1_000L);
+
+        LatencyHistogram.Snapshot s = h.snapshot();
+        assertEquals(1_000, s.count());
+        assertEquals(500_500, s.sumMicros());
+        // log-linear buckets: 500 lies in [496, 511], 990 in [960, 991], 1000 in [992, 1023]
+        assertEquals(511, s.percentile(0.50));
+        assertEquals(991, s.percentile(0.99));
+        assertEquals(1_023, s.percentile(1.0));
+        assertEquals(1, s.percentile(0.001));
+        assertEquals(99, s.countAtMost(100));
+        assertEquals(1_000, s.countAtMost(1_023));
+
+        LatencyHistogram exact = new LatencyHistogram();
+        for (int i = 0; i < 3; i++) exact.record(5_999); // 5.999 µs counts as 5
+        exact.record(-1);
+        assertEquals(5, exact.snapshot().percentile(0.5));
+        assertEquals(0, exact.snapshot().percentile(0.25));
+    }
+
+    private static CatalogStats knownStats()
+    {
+        CatalogStats stats = new CatalogStats();
+        for (int micros = 1; micros <= 1_000; micros++) stats.record("GET", StatusCodes.OK, micros * 1_000L);
+        stats.record("DELETE", StatusCodes.NOT_FOUND, 2_000_000_000L);
+        stats.record("DELETE", StatusCodes.SERVER_ERROR, 3_000_000_000L);
+        stats.record("NOPE", StatusCodes.BAD_REQUEST, 40_000);
+        return stats;
+    }
+
+    @Test
+    void servesPercentilesInStats()
+    {
+        JsonObject s = knownStats().toJson(9, NO_CACHE);
+        assertEquals(9, s.get("VERSION").getAsLong());
+        assertEquals(1, s.get("ERRORS").getAsLong());
+
+        JsonObject cmds = s.getAsJsonObject("COMMANDS");
+        assertEquals(Set.of("GET", "DELETE", "OTHER"), cmds.keySet());
+        JsonObject get = cmds.getAsJsonObject("GET");
+        assertEquals(1_000, get.get("COUNT").getAsLong());
+        assertEquals(0, get.get("ERRORS").getAsLong());
+        assertEquals(500, get.get("MEAN_US").getAsLong());
+        assertEquals(511, get.get("P50_US").getAsLong());
+        assertEquals(991, get.get("P99_US").getAsLong());
+        assertEquals(1_023, get.get("MAX_US").getAsLong());
+        assertEquals(2, cmds.getAsJsonObject("DELETE").get("ERRORS").getAsLong());
+        assertEquals(1, cmds.getAsJsonObject("OTHER").get("COUNT").getAsLong());
+    }
+
+    @Test
+    void exportsPrometheusHistograms() throws Exception
+    {
+        Path file = dir.resolve("catalog.prom");
+        knownStats().writePrometheus(file, 9, NO_CACHE);
+        List<String> lines = Files.readAllLines(file);
+        assertTrue(Files.notExists(dir.resolve("catalog.prom.tmp")));
+
+        String get = "catalog_request_duration_seconds_bucket{cmd=\"GET\",le=";
+        assertTrue(lines.contains(get + "\"0.0001\"} 99"), "values up to 99 µs");
+        assertTrue(lines.contains(get + "\"0.00025\"} 247"));
+        assertTrue(lines.contains(get + "\"0.0005\"} 495"));
+        assertTrue(lines.contains(get + "\"0.001\"} 991"));
+        assertTrue(lines.contains(get + "\"0.0025\"} 1000"));
+        assertTrue(lines.contains(get + "\"10\"} 1000"));
+        assertTrue(lines.contains(get + "\"+Inf\"} 1000"));
+        assertTrue(lines.contains("catalog_request_duration_seconds_sum{cmd=\"GET\"} 0.5005"));
+        assertTrue(lines.contains("catalog_request_duration_seconds_count{cmd=\"GET\"} 1000"));
+
+        String delete = "catalog_request_duration_seconds_bucket{cmd=\"DELETE\",le=";
+        assertTrue(lines.contains(delete + "\"1\"} 0"));
+        assertTrue(lines.contains(delete + "\"2.5\"} 1"));
+        assertTrue(lines.contains(delete + "\"5\"} 2"));
+        assertTrue(lines.contains("catalog_request_duration_seconds_sum{cmd=\"DELETE\"} 5"));
+        assertTrue(lines.contains("catalog_request_errors_total{cmd=\"DELETE\"} 2"));
+        assertTrue(lines.contains("catalog_request_duration_seconds_count{cmd=\"LIST\"} 0"));
+        assertTrue(lines.contains("catalog_errors_total 1"));
+        assertTrue(lines.contains("catalog_version 9"));
+
+        // every histogram's buckets only go up and end at its count
+        String last = null;
+        long previous = -1;
+        for (String line : lines)
+        {
+            if (!line.startsWith("catalog_request_duration_seconds_bucket")) continue;
+            String cmd = line.substring(line.indexOf('{'), line.indexOf(','));
+            long n = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+            if (cmd.equals(last)) assertTrue(n >= previous, line);
+            last = cmd;
+            previous = n;
+        }
+    }
+}
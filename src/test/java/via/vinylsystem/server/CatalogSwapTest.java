@@ -0,0 +1,171 @@
+package via.vinylsystem.server;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import via.vinylsystem.Model.Track;
+import via.vinylsystem.client.VinylServerClient;
+
+import java.io.Closeable;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogSwapTest
+{
+    @TempDir
+    Path dir;
+
+    private CatalogServer server;
+    private VinylServerClient client;
+
+    /** A store that records whether it was closed and can hold up whoever indexes it. */
+    private static final class TestStore implements TrackStore, Closeable
+    {
+        final TrackStore tracks;
+        final CountDownLatch indexing = new CountDownLatch(1);
+        volatile CountDownLatch gate;
+        volatile boolean closed;
+
+        TestStore(List<Track> tracks)
+        {
+            this.tracks = new ListTrackStore(tracks);
+        }
+
+        @Override public int size() { return tracks.size(); }
+
+        @Override public String id(int pos)
+        {
+            CountDownLatch g = gate;
+            if (g != null)
+            {
+                indexing.countDown();
+                try
+                {
+                    g.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return tracks.id(pos);
+        }
+
+        @Override public String artist(int pos) { return tracks.artist(pos); }
+        @Override public String title(int pos) { return tracks.title(pos); }
+        @Override public int year(int pos) { return tracks.year(pos); }
+
+        @Override public void close()
+        {
+            closed = true;
+        }
+    }
+
+    private final TestStore first = new TestStore(List.of(new Track("a1", "A", "One", 2000)));
+
+    @BeforeEach
+    void start() throws Exception
+    {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0))
+        {
+            port = probe.getLocalPort();
+        }
+        server = new CatalogServer(port, Catalog.of(first, 5));
+        server.start();
+        client = new VinylServerClient("127.0.0.1", port);
+    }
+
+    @AfterEach
+    void stop() throws Exception
+    {
+        client.close();
+        server.stop();
+    }
+
+    @Test
+    void swapPublishesTheNextVersionAfterWrites() throws Exception
+    {
+        assertEquals(6, client.add(new Track("a2", "A", "Two", 2001)).get("VERSION").getAsLong());
+
+        Catalog next = server.swap(new ListTrackStore(List.of(new Track("b1", "B", "One", 1999))));
+        assertEquals(7, next.version());
+        assertEquals(next, server.catalog());
+
+        JsonObject list = client.list();
+        assertEquals(7, list.get("VERSION").getAsLong());
+        assertEquals("b1", list.getAsJsonArray("TRACKS").get(0).getAsJsonObject().get("id").getAsString());
+        assertTrue(client.changes(6).get("RESYNC").getAsBoolean());
+        assertEquals(7, client.changes(7).get("VERSION").getAsLong());
+    }
+
+    @Test
+    void writesGoOnWhileASwapIsIndexed() throws Exception
+    {
+        TestStore slow = new TestStore(List.of(new Track("c1", "C", "One", 1990)));
+        slow.gate = new CountDownLatch(1);
+        CompletableFuture<Catalog> swapped = CompletableFuture.supplyAsync(() -> server.swap(slow));
+        assertTrue(slow.indexing.await(5, TimeUnit.SECONDS));
+
+        // the swap is stuck building indexes; a write must not wait for it
+        CompletableFuture<JsonObject> added = CompletableFuture.supplyAsync(() -> {
+            try
+            {
+                return client.add(new Track("a2", "A", "Two", 2001));
+            }
+            catch (Exception e)
+            {
+                throw new RuntimeException(e);
+            }
+        });
+        assertEquals(6, added.get(5, TimeUnit.SECONDS).get("VERSION").getAsLong());
+        assertFalse(swapped.isDone());
+
+        slow.gate.countDown();
+        assertEquals(7, swapped.get(5, TimeUnit.SECONDS).version());
+        assertEquals("c1", server.catalog().store().id(0));
+    }
+
+    @Test
+    void swapClosesTheReplacedStore() throws Exception
+    {
+        client.add(new Track("a2", "A", "Two", 2001)); // the served store is now layered over the first one
+        TestStore second = new TestStore(List.of(new Track("b1", "B", "One", 1999)));
+        server.swap(second);
+        assertTrue(first.closed);
+        assertFalse(second.closed);
+
+        server.swap(new ListTrackStore(List.of()));
+        assertTrue(second.closed);
+    }
+
+    @Test
+    void watcherReloadsTheSourceAsTheNextVersion() throws Exception
+    {
+        Path file = dir.resolve("catalog.vcat");
+        try (CatalogFileWriter w = new CatalogFileWriter(file))
+        {
+            w.append(new Track("w1", "W", "One", 2010));
+            w.append(new Track("w2", "W", "Two", 2011));
+            w.finish();
+        }
+        try (CatalogWatcher watcher = new CatalogWatcher(server, file, false))
+        {
+            watcher.reload();
+            assertEquals(6, server.catalog().version());
+            assertEquals(2, server.catalog().size());
+            watcher.reload();
+            assertEquals(7, server.catalog().version());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package via.vinylsystem.server;
+
+import org.junit.jupiter.api.Test;
+import via.vinylsystem.Model.Track;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogWriterTest
+{
+    private static List<Track> base(int n)
+    {
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < n; i++) tracks.add(new Track("b" + i, "Artist " + (i % 7), "Title " + i, 1960 + i % 50));
+        return tracks;
+    }
+
+    private static void assertSameTracks(List<Track> expected, Catalog catalog)
+    {
+        List<Track> actual = catalog.tracks();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            Track e = expected.get(i);
+            Track a = actual.get(i);
+            assertEquals(e.getId() + "|" + e.getArtist() + "|" + e.getTitle() + "|" + e.getYear(),
+                    a.getId() + "|" + a.getArtist() + "|" + a.getTitle() + "|" + a.getYear(), "position " + i);
+            assertEquals(i, catalog.indexOf(e.getId()));
+        }
+    }
+
+    private static int indexOf(List<Track> model, String id)
+    {
+        for (int i = 0; i < model.size(); i++) if (model.get(i).getId().equals(id)) return i;
+        return -1;
+    }
+
+    @Test
+    void rejectsWritesThatChangeNothing() throws Exception
+    {
+        CatalogServer server = new CatalogServer(0, Catalog.of(base(3), 7));
+        CatalogWriter writer = new CatalogWriter(server, CatalogWriter.DEFAULT_MERGE_AT);
+
+        assertEquals(-1, writer.add(new Track("b1", "A", "T", 2000)));
+        assertEquals(-1, writer.update(new Track("nope", "A", "T", 2000)));
+        assertEquals(-1, writer.delete("nope"));
+        assertEquals(7, server.catalog().version());
+
+        assertEquals(8, writer.add(new Track("n0", "A", "T", 2000)));
+        assertEquals(9, writer.update(new Track("b1", "New artist", "New title", 1999)));
+        assertEquals(10, writer.delete("b0"));
+        assertEquals(List.of("b1", "b2", "n0"), server.catalog().tracks().stream().map(Track::getId).toList());
+        assertEquals("New title", server.catalog().get("b1").getTitle());
+        assertEquals(3, server.catalog().changes());
+    }
+
+    @Test
+    void mergesWhileWritingWithoutLosingWrites() throws Exception
+    {
+        List<Track> model = new ArrayList<>(base(100));
+        CatalogServer server = new CatalogServer(0, Catalog.of(model, 1));
+        CatalogWriter writer = new CatalogWriter(server, 16);
+        Random rnd = new Random(42);
+        Set<Catalog> roots = new HashSet<>();
+        long last = 1;
+        int added = 0;
+
+        for (int step = 0; step < 2_000; step++)
+        {
+            int op = rnd.nextInt(3);
+            long version;
+            if (op == 0 || model.isEmpty())
+            {
+                Track t = new Track("a" + added++, "New", "Added " + step, 2000);
+                version = writer.add(t);
+                model.add(t);
+            }
+            else if (op == 1)
+            {
+                Track old = model.get(rnd.nextInt(model.size()));
+                Track t = new Track(old.getId(), "Changed", "Step " + step, 1999);
+                version = writer.update(t);
+                model.set(indexOf(model, old.getId()), t);
+            }
+            else
+            {
+                String id = model.remove(rnd.nextInt(model.size())).getId();
+                version = writer.delete(id);
+            }
+            assertTrue(version > last, "versions only go up");
+            last = version;
+            roots.add(server.catalog().root());
+        }
+        assertSameTracks(model, server.catalog());
+
+        // a merge still running replays the last writes on its new base when it is done
+        for (int i = 0; i < 20; i++)
+        {
+            Thread.sleep(10);
+            Catalog c = server.catalog();
+            roots.add(c.root());
+            assertSameTracks(model, c);
+            assertEquals(last, c.version()); // a merge changes no track, so it keeps the version
+        }
+        assertTrue(roots.size() > 10, "merges were published: " + roots.size());
+    }
+
+    @Test
+    void dropsMergeWhenCatalogWasSwapped() throws Exception
+    {
+        CatalogServer server = new CatalogServer(0, Catalog.of(base(50_000), 1));
+        CatalogWriter writer = new CatalogWriter(server, 1);
+        writer.add(new Track("n0", "A", "T", 2000)); // starts merging 50 000 tracks
+        List<Track> swapped = base(2);
+        server.swap(new ListTrackStore(swapped));
+
+        for (int i = 0; i < 100 && server.catalog().size() == 2; i++) Thread.sleep(10);
+        assertSameTracks(swapped, server.catalog());
+    }
+}
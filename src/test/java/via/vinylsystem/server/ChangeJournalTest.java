@@ -0,0 +1,96 @@
+package via.vinylsystem.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ChangeJournalTest
+{
+    @Test
+    void returnsEachChangedIdOnceInOrderOfItsLastChange()
+    {
+        ChangeJournal j = new ChangeJournal(100, 10);
+        j.record(11, "a");
+        j.record(12, "b");
+        j.record(13, "a");
+        j.record(14, "c");
+
+        assertEquals(List.of("b", "a", "c"), j.since(10, 14));
+        assertEquals(List.of("a", "c"), j.since(12, 14));
+        assertEquals(List.of("a", "b"), j.since(10, 12)); // bounded by the served snapshot
+        assertEquals(List.of(), j.since(14, 14));
+        assertEquals(10, j.floor());
+    }
+
+    @Test
+    void matchesIdsIgnoringCase()
+    {
+        ChangeJournal j = new ChangeJournal(100, 10);
+        j.record(11, "N1");
+        j.record(12, "b");
+        j.record(13, "n1"); // deleted as N1, added again as n1
+
+        assertEquals(List.of("b", "n1"), j.since(10, 13));
+        assertEquals(List.of("N1", "b"), j.since(10, 12));
+    }
+
+    @Test
+    void asksForResyncOutsideTheJournaledRange()
+    {
+        ChangeJournal j = new ChangeJournal(100, 10);
+        j.record(11, "a");
+
+        assertNull(j.since(9, 11));   // older than the journal
+        assertNull(j.since(12, 11));  // newer than the served snapshot, e.g. from before a restart
+        assertEquals(List.of("a"), j.since(10, 11));
+    }
+
+    @Test
+    void asksForResyncFromVersionsLostBeforeARestart()
+    {
+        ChangeJournal j = new ChangeJournal(100, 1026); // served up to 1025 before the crash
+        j.resume(5);                                    // the last write on disk
+        j.record(1027, "a");
+
+        assertEquals(5, j.floor());
+        assertEquals(List.of("a"), j.since(5, 1027));
+        assertNull(j.since(6, 1027));
+        assertNull(j.since(1025, 1027));
+        assertEquals(List.of("a"), j.since(1026, 1027));
+        assertNull(j.since(4, 1027));
+
+        j.reset(2000);
+        assertEquals(List.of(), j.since(2000, 2000));
+    }
+
+    @Test
+    void raisesTheFloorAsEntriesAreOverwritten()
+    {
+        ChangeJournal j = new ChangeJournal(3, 0);
+        for (int v = 1; v <= 5; v++) j.record(v, "t" + v);
+
+        // versions 1 and 2 were evicted; a client at 2 already has them
+        assertEquals(2, j.floor());
+        assertNull(j.since(1, 5));
+        assertEquals(List.of("t3", "t4", "t5"), j.since(2, 5));
+        assertEquals(List.of("t5"), j.since(4, 5));
+    }
+
+    @Test
+    void resetForgetsEveryChange()
+    {
+        ChangeJournal j = new ChangeJournal(10, 0);
+        j.record(1, "a");
+        j.record(2, "b");
+        j.reset(3);
+
+        assertEquals(3, j.floor());
+        assertNull(j.since(2, 3));
+        assertEquals(List.of(), j.since(3, 3));
+        j.record(4, "c");
+        assertEquals(List.of("c"), j.since(3, 4));
+    }
+}
@@ -0,0 +1,71 @@
+package via.vinylsystem.server;
+
+import org.junit.jupiter.api.Test;
+import via.vinylsystem.Model.Track;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ColumnarTrackStoreTest
+{
+    private static void assertSameStore(TrackStore expected, TrackStore actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        for (int pos = 0; pos < expected.size(); pos++)
+        {
+            assertEquals(expected.id(pos), actual.id(pos), "id at " + pos);
+            assertEquals(expected.artist(pos), actual.artist(pos), "artist at " + pos);
+            assertEquals(expected.title(pos), actual.title(pos), "title at " + pos);
+            assertEquals(expected.year(pos), actual.year(pos), "year at " + pos);
+        }
+    }
+
+    @Test
+    void roundTripsEveryFieldIncludingNullAndNonAscii()
+    {
+        List<Track> tracks = new ArrayList<>();
+        tracks.add(new Track("T001", "Sigur Rós", "Hoppípolla", 2005));
+        tracks.add(new Track("T002", null, "No artist", 1999));
+        tracks.add(new Track("T003", "Kim Larsen", null, -1));
+        tracks.add(new Track(null, "Kim Larsen", "Papirsklip 😀", 0));
+        tracks.add(new Track("T005", "", "", Integer.MAX_VALUE));
+        tracks.add(new Track("Ærø-ø", "Æblet", "København", Integer.MIN_VALUE));
+        tracks.add(new Track("T007", null, null, 1970));
+        ListTrackStore list = new ListTrackStore(tracks);
+
+        ColumnarTrackStore columnar = ColumnarTrackStore.of(tracks);
+        assertSameStore(list, columnar);
+        assertSameStore(list, ColumnarTrackStore.copyOf(list));
+        assertSameStore(list, ColumnarTrackStore.copyOf(columnar));
+
+        // null and "" are different artists
+        assertNull(columnar.artist(1));
+        assertEquals(columnar.artistCode(1), columnar.artistCode(6));
+        assertNotEquals(columnar.artistCode(1), columnar.artistCode(4));
+        assertEquals(columnar.artistCode(2), columnar.artistCode(3));
+        assertEquals(5, columnar.artistDictionarySize());
+    }
+
+    @Test
+    void roundTripsManyTracksPastTheInitialCapacity()
+    {
+        Random rnd = new Random(34);
+        String[] words = {"a", "ø", "Æble", "日本語", "😀", "", "Medina", "x".repeat(300)};
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++)
+        {
+            tracks.add(new Track(rnd.nextInt(50) == 0 ? null : "id" + i + words[rnd.nextInt(words.length)],
+                    rnd.nextInt(50) == 0 ? null : words[rnd.nextInt(words.length)],
+                    rnd.nextInt(50) == 0 ? null : words[rnd.nextInt(words.length)] + " " + words[rnd.nextInt(words.length)],
+                    rnd.nextInt()));
+        }
+        ListTrackStore list = new ListTrackStore(tracks);
+        assertSameStore(list, ColumnarTrackStore.copyOf(list));
+        assertEquals(0, ColumnarTrackStore.of(List.of()).size());
+    }
+}
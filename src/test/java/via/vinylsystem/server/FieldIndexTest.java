@@ -0,0 +1,74 @@
+package via.vinylsystem.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FieldIndexTest
+{
+    private static final String[] ARTISTS = {"Medina", "Kim Larsen", "MEDINA", null, "Aqua", "kim larsen"};
+    private static final int[] YEARS = {2007, 1983, 2009, 1999, 1997, 1979};
+
+    private static BitSet bits(int... positions)
+    {
+        BitSet b = new BitSet();
+        for (int p : positions) b.set(p);
+        return b;
+    }
+
+    @Test
+    void findsArtistsIgnoringCase()
+    {
+        FieldIndex idx = new FieldIndex(ARTISTS.length, i -> ARTISTS[i], i -> YEARS[i]);
+        assertEquals(bits(0, 2), idx.artist("medina"));
+        assertEquals(bits(1, 5), idx.artist("KIM LARSEN"));
+        assertEquals(bits(), idx.artist("Kim"));
+        assertEquals(bits(3), idx.artist(null));
+    }
+
+    @Test
+    void findsYearRangesInclusive()
+    {
+        FieldIndex idx = new FieldIndex(ARTISTS.length, i -> ARTISTS[i], i -> YEARS[i]);
+        assertEquals(bits(3, 4), idx.yearRange(1997, 1999));
+        assertEquals(bits(0), idx.yearRange(2007, 2007));
+        assertEquals(bits(0, 1, 2, 3, 4, 5), idx.yearRange(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertEquals(bits(), idx.yearRange(2000, 2006));
+        assertEquals(bits(), idx.yearRange(2009, 2007));
+    }
+
+    @Test
+    void agreesWithAScan()
+    {
+        Random rnd = new Random(39);
+        int n = 10_000;
+        String[] artists = new String[n];
+        int[] years = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            artists[i] = "Artist " + rnd.nextInt(300);
+            years[i] = 1950 + rnd.nextInt(75) - (rnd.nextInt(50) == 0 ? 3000 : 0);
+        }
+        FieldIndex idx = new FieldIndex(n, i -> artists[i], i -> years[i]);
+        for (int q = 0; q < 200; q++)
+        {
+            int from = 1940 + rnd.nextInt(90);
+            int to = from + rnd.nextInt(20);
+            String artist = "artist " + rnd.nextInt(310);
+            BitSet years1 = new BitSet();
+            BitSet artist1 = new BitSet();
+            for (int i = 0; i < n; i++)
+            {
+                if (years[i] >= from && years[i] <= to) years1.set(i);
+                if (artists[i].equalsIgnoreCase(artist)) artist1.set(i);
+            }
+            assertEquals(years1, idx.yearRange(from, to));
+            assertEquals(artist1, idx.artist(artist));
+        }
+        assertTrue(idx.yearRange(-2000, 0).cardinality() > 0);
+    }
+}
@@ -0,0 +1,139 @@
+package via.vinylsystem.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FuzzyIndexTest
+{
+    private static final String[] ARTISTS = {"Kim Larsen", "Medina", "Tina Dickow", "Gasolin'", "Sébastien Tellier", "Aqua"};
+    private static final String[] TITLES = {"Papirsklip", "København", "Kløvedal", "Æblet i Ærø", "Kvinde min", "Barbie Girl"};
+
+    private static FuzzyIndex index(String[] artists, String[] titles)
+    {
+        return new FuzzyIndex(artists.length, p -> artists[p], p -> titles[p]);
+    }
+
+    /** Position to score, in the order the index reports them. */
+    private static TreeMap<Integer, Integer> search(FuzzyIndex index, String query)
+    {
+        TreeMap<Integer, Integer> out = new TreeMap<>();
+        List<Integer> order = new ArrayList<>();
+        index.search(query, Cancellation.NONE, (pos, score) -> {
+            order.add(pos);
+            out.put(pos, score);
+        });
+        assertEquals(new ArrayList<>(out.keySet()), order, "ascending positions");
+        return out;
+    }
+
+    @Test
+    void foldsDanishLettersAndAccents()
+    {
+        assertEquals("koebenhavn", FuzzyIndex.fold("København"));
+        assertEquals("aeblet i aeroe", FuzzyIndex.fold("Æblet i Ærø"));
+        assertEquals("aarhus", FuzzyIndex.fold("Århus"));
+        assertEquals("sebastien", FuzzyIndex.fold("Sébastien"));
+        assertEquals("strasse", FuzzyIndex.fold("Straße"));
+        assertEquals("", FuzzyIndex.fold(null));
+    }
+
+    @Test
+    void findsTracksDespiteTyposAndSpelling()
+    {
+        FuzzyIndex index = index(ARTISTS, TITLES);
+
+        assertEquals(List.of(1), List.copyOf(search(index, "kobenhavn").keySet()));   // ø typed as o
+        assertEquals(List.of(1), List.copyOf(search(index, "koebenhavn").keySet()));  // ø spelled out
+        assertEquals(List.of(2), List.copyOf(search(index, "klovedal").keySet()));
+        assertEquals(List.of(3), List.copyOf(search(index, "aeblet aero").keySet()));
+        assertEquals(List.of(0), List.copyOf(search(index, "papirsklp").keySet()));   // one letter missing
+        assertEquals(List.of(0), List.copyOf(search(index, "larsne papirsklip").keySet())); // swapped letters
+        assertEquals(List.of(4), List.copyOf(search(index, "sebastian").keySet()));
+        assertTrue(search(index, "pxpxrsxlip").isEmpty());  // three edits
+        assertTrue(search(index, "aq").isEmpty());          // words of two letters must match exactly
+        assertEquals(List.of(5), List.copyOf(search(index, "aqa").keySet()));
+        assertTrue(search(index, "").isEmpty());
+    }
+
+    @Test
+    void ranksExactAndArtistMatchesFirst()
+    {
+        FuzzyIndex index = index(new String[] {"Medina", "Other", "Medinas"}, new String[] {"Kun for mig", "Medina", "Song"});
+        TreeMap<Integer, Integer> hits = search(index, "medina");
+        assertEquals(List.of(0, 1, 2), List.copyOf(hits.keySet()));
+        assertTrue(hits.get(0) > hits.get(1), "artist over title");
+        assertTrue(hits.get(1) > hits.get(2), "exact over one edit");
+    }
+
+    @Test
+    void matchesBruteForceScoring()
+    {
+        Random rnd = new Random(47);
+        String[] pool = {"kim", "larsen", "medina", "kobenhavn", "københavn", "papirsklip", "kloevedal", "kløvedal",
+                "aero", "ærø", "sommer", "sommers", "summer", "natten", "nat", "ud", "af", "blå", "blaa", "bla",
+                "gasolin", "dickow", "tina", "tine", "kvinde", "kvinder", "min", "mit"};
+        int n = 400;
+        String[] artists = new String[n];
+        String[] titles = new String[n];
+        for (int i = 0; i < n; i++)
+        {
+            artists[i] = phrase(rnd, pool, 1 + rnd.nextInt(2));
+            titles[i] = phrase(rnd, pool, 1 + rnd.nextInt(3));
+        }
+        FuzzyIndex index = index(artists, titles);
+
+        for (int q = 0; q < 300; q++)
+        {
+            String query = typo(rnd, phrase(rnd, pool, 1 + rnd.nextInt(2)));
+            String[] words = FuzzyIndex.queryWords(query);
+            TreeMap<Integer, Integer> expected = new TreeMap<>();
+            for (int pos = 0; pos < n; pos++)
+            {
+                int score = FuzzyIndex.score(artists[pos], titles[pos], words);
+                if (score > 0) expected.put(pos, score);
+            }
+            assertEquals(expected, search(index, query), query);
+        }
+    }
+
+    private static String phrase(Random rnd, String[] pool, int words)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) sb.append(i > 0 ? " " : "").append(pool[rnd.nextInt(pool.length)]);
+        return sb.toString();
+    }
+
+    /** Applies up to two random character edits. */
+    private static String typo(Random rnd, String s)
+    {
+        StringBuilder sb = new StringBuilder(s);
+        for (int e = rnd.nextInt(3); e > 0 && sb.length() > 1; e--)
+        {
+            int at = rnd.nextInt(sb.length());
+            switch (rnd.nextInt(3))
+            {
+                case 0 -> sb.deleteCharAt(at);
+                case 1 -> sb.insert(at, (char) ('a' + rnd.nextInt(26)));
+                default -> sb.setCharAt(at, (char) ('a' + rnd.nextInt(26)));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void distanceCountsSwapsAsOneEdit()
+    {
+        assertEquals(0, FuzzyIndex.distance("medina", "medina", 2));
+        assertEquals(1, FuzzyIndex.distance("medina", "mdeina", 2));
+        assertEquals(2, FuzzyIndex.distance("medina", "mdenia", 2));
+        assertEquals(3, FuzzyIndex.distance("medina", "xyzina", 2));
+        assertEquals(3, FuzzyIndex.distance("a", "abcdef", 2));
+    }
+}
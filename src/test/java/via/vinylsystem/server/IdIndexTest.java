@@ -0,0 +1,74 @@
+package via.vinylsystem.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IdIndexTest
+{
+    @Test
+    void findsIdsIgnoringCase()
+    {
+        String[] ids = {"v-1", "V-2", "abc", "ÆBLE", null, "x"};
+        IdIndex idx = new IdIndex(ids.length, i -> ids[i]);
+
+        assertEquals(0, idx.find("v-1"));
+        assertEquals(0, idx.find("V-1"));
+        assertEquals(1, idx.find("v-2"));
+        assertEquals(2, idx.find("ABC"));
+        assertEquals(3, idx.find("æble"));
+        assertEquals(5, idx.find("x"));
+        assertEquals(-1, idx.find("v-3"));
+        assertEquals(-1, idx.find(""));
+    }
+
+    @Test
+    void firstPositionWinsForDuplicates()
+    {
+        String[] ids = {"a", "b", "A", "B", "a"};
+        IdIndex idx = new IdIndex(ids.length, i -> ids[i]);
+        assertEquals(0, idx.find("a"));
+        assertEquals(1, idx.find("B"));
+    }
+
+    @Test
+    void emptyIndexFindsNothing()
+    {
+        assertEquals(-1, new IdIndex(0, i -> null).find("a"));
+    }
+
+    @Test
+    void agreesWithLinearScan()
+    {
+        Random rnd = new Random(29);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) ids.add(Long.toString(rnd.nextInt(40_000), 36) + (rnd.nextBoolean() ? "A" : "a"));
+        IdIndex idx = new IdIndex(ids.size(), ids::get);
+
+        for (int q = 0; q < 5_000; q++)
+        {
+            String id = Long.toString(rnd.nextInt(50_000), 36) + (rnd.nextBoolean() ? "A" : "a");
+            int expected = -1;
+            for (int i = 0; i < ids.size(); i++)
+            {
+                if (ids.get(i).equalsIgnoreCase(id))
+                {
+                    expected = i;
+                    break;
+                }
+            }
+            assertEquals(expected, idx.find(id), id);
+        }
+    }
+
+    @Test
+    void hashFoldsCaseLikeEqualsIgnoreCase()
+    {
+        assertEquals(IdIndex.hash("straße-Ω"), IdIndex.hash("STRAßE-ω"));
+        assertEquals(IdIndex.hash("Abc"), IdIndex.hash("aBC"));
+    }
+}
@@ -0,0 +1,150 @@
+package via.vinylsystem.server;
+
+import org.junit.jupiter.api.Test;
+import via.vinylsystem.Model.Track;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class LayeredTrackStoreTest
+{
+    /** One track of the reference model: its base position (-1 if added) and whether the layer holds it. */
+    private record Entry(int basePos, Track track, boolean changed) {}
+
+    private static List<Track> base(int n)
+    {
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < n; i++) tracks.add(new Track("b" + i, "Artist " + (i % 7), "Title " + i, 1960 + i % 50));
+        return tracks;
+    }
+
+    private static void assertMatches(List<Entry> model, int baseSize, LayeredTrackStore store)
+    {
+        assertEquals(model.size(), store.size());
+        BitSet masked = new BitSet();
+        int[] positionOfBase = new int[baseSize];
+        Arrays.fill(positionOfBase, -1);
+        List<String> changed = new ArrayList<>();
+        for (int pos = 0; pos < model.size(); pos++)
+        {
+            Entry e = model.get(pos);
+            Track t = e.track();
+            assertEquals(t.getId(), store.id(pos));
+            assertEquals(t.getArtist(), store.artist(pos));
+            assertEquals(t.getTitle(), store.title(pos));
+            assertEquals(t.getYear(), store.year(pos));
+            assertEquals(t.getId(), store.get(pos).getId());
+            if (e.basePos() >= 0)
+            {
+                positionOfBase[e.basePos()] = pos;
+                if (e.changed()) masked.set(e.basePos());
+            }
+            if (e.changed()) changed.add(pos + ":" + t.getId() + ":" + t.getTitle());
+        }
+        for (int b = 0; b < baseSize; b++)
+        {
+            assertEquals(positionOfBase[b], store.positionOfBase(b));
+            if (positionOfBase[b] < 0) masked.set(b);
+            else assertEquals(positionOfBase[b], store.position(b));
+        }
+        assertEquals(masked, store.masked());
+
+        List<String> seen = new ArrayList<>();
+        store.forEachChanged((pos, t) -> seen.add(pos + ":" + t.getId() + ":" + t.getTitle()));
+        assertEquals(changed, seen);
+    }
+
+    @Test
+    void matchesListModelUnderRandomEdits()
+    {
+        int baseSize = 200;
+        List<Track> tracks = base(baseSize);
+        List<Entry> model = new ArrayList<>();
+        for (int i = 0; i < baseSize; i++) model.add(new Entry(i, tracks.get(i), false));
+        LayeredTrackStore store = new LayeredTrackStore(new ListTrackStore(tracks));
+        Random rnd = new Random(42);
+        int added = 0;
+
+        for (int step = 0; step < 600; step++)
+        {
+            int op = rnd.nextInt(3);
+            if (op == 0 || model.isEmpty())
+            {
+                Track t = new Track("a" + added++, "New", "Added " + step, 2000);
+                store = store.withAdded(t);
+                model.add(new Entry(-1, t, true));
+            }
+            else if (op == 1)
+            {
+                int pos = rnd.nextInt(model.size());
+                Entry e = model.get(pos);
+                Track t = new Track(e.track().getId(), "Changed", "Step " + step, 1999);
+                store = store.withReplaced(pos, t);
+                model.set(pos, new Entry(e.basePos(), t, true));
+            }
+            else
+            {
+                int pos = rnd.nextInt(model.size());
+                store = store.withDeleted(pos);
+                model.remove(pos);
+            }
+            assertMatches(model, baseSize, store);
+        }
+
+        int expectedChanges = (baseSize - (int) model.stream().filter(e -> e.basePos() >= 0).count())
+                + (int) model.stream().filter(e -> e.basePos() >= 0 && e.changed()).count()
+                + (int) model.stream().filter(e -> e.basePos() < 0).count();
+        assertEquals(expectedChanges, store.changes());
+        assertEquals((int) model.stream().filter(e -> e.basePos() < 0).count(), store.addedCount());
+    }
+
+    @Test
+    void editsLeaveEarlierStoresUnchanged()
+    {
+        List<Track> tracks = base(5);
+        LayeredTrackStore empty = new LayeredTrackStore(new ListTrackStore(tracks));
+        LayeredTrackStore edited = empty
+                .withDeleted(1)
+                .withReplaced(0, new Track("b0", "X", "Y", 2001))
+                .withAdded(new Track("a0", "New", "Added", 2020));
+
+        assertEquals(5, empty.size());
+        assertEquals(0, empty.changes());
+        assertEquals("b1", empty.id(1));
+        assertEquals("Title 0", empty.title(0));
+        assertSame(empty.masked(), empty.masked());
+        assertEquals(new BitSet(), empty.masked());
+
+        assertEquals(5, edited.size());
+        assertEquals(3, edited.changes());
+        assertEquals("b2", edited.id(1));
+        assertEquals("Y", edited.title(0));
+        assertEquals("a0", edited.id(4));
+        assertEquals(-1, edited.positionOfBase(1));
+        assertEquals(1, edited.positionOfBase(2));
+    }
+
+    @Test
+    void deletingAddedAndReplacedTracksDropsThemFromTheLayer()
+    {
+        LayeredTrackStore store = new LayeredTrackStore(new ListTrackStore(base(3)))
+                .withAdded(new Track("a0", "New", "Added", 2020))
+                .withReplaced(1, new Track("b1", "X", "Y", 2001));
+        assertEquals(2, store.changes());
+
+        store = store.withDeleted(3).withDeleted(1);
+        assertEquals(2, store.size());
+        assertEquals(1, store.changes());
+        assertEquals(0, store.addedCount());
+        assertEquals(List.of("b0", "b2"), List.of(store.id(0), store.id(1)));
+        List<Integer> changed = new ArrayList<>();
+        store.forEachChanged((pos, t) -> changed.add(pos));
+        assertEquals(List.of(), changed);
+    }
+}
@@ -0,0 +1,100 @@
+package via.vinylsystem.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PeerInputStreamTest
+{
+    private ServerSocket listener;
+    private Socket client;
+    private Socket accepted;
+    private final LongAdder received = new LongAdder();
+    private PeerInputStream peer;
+
+    @BeforeEach
+    void connect() throws Exception
+    {
+        listener = new ServerSocket(0);
+        client = new Socket("127.0.0.1", listener.getLocalPort());
+        accepted = listener.accept();
+        accepted.setSoTimeout(10_000);
+        peer = new PeerInputStream(accepted, received);
+    }
+
+    @AfterEach
+    void close() throws Exception
+    {
+        client.close();
+        accepted.close();
+        listener.close();
+    }
+
+    private void send(String s) throws IOException
+    {
+        client.getOutputStream().write(s.getBytes(StandardCharsets.US_ASCII));
+        client.getOutputStream().flush();
+    }
+
+    @Test
+    void keepsThePeekedByteForTheNextRead() throws Exception
+    {
+        assertFalse(peer.connectionLost(20)); // nothing sent yet
+        assertEquals(10_000, accepted.getSoTimeout());
+
+        send("AB");
+        assertFalse(peer.connectionLost(1_000));
+        assertTrue(peer.available() >= 1);
+        assertEquals('A', peer.read());
+        assertEquals('B', peer.read());
+
+        send("CDE");
+        assertFalse(peer.connectionLost(1_000));
+        assertFalse(peer.connectionLost(1_000)); // a second check keeps the same byte
+        byte[] buf = new byte[8];
+        assertEquals(1, peer.read(buf, 0, buf.length));
+        assertEquals('C', buf[0]);
+        int n = peer.read(buf, 1, buf.length - 1);
+        assertEquals("CDE", new String(buf, 0, 1 + n, StandardCharsets.US_ASCII));
+        assertEquals(5, received.sum());
+    }
+
+    @Test
+    void halfCloseIsNotALostConnection() throws Exception
+    {
+        send("x");
+        client.shutdownOutput();
+        assertFalse(peer.connectionLost(1_000));
+        assertEquals('x', peer.read());
+        assertFalse(peer.connectionLost(1_000));
+        assertEquals(-1, peer.read());
+        assertEquals(-1, peer.read(new byte[4], 0, 4));
+
+        // the client still reads what is sent back
+        accepted.getOutputStream().write('y');
+        accepted.getOutputStream().flush();
+        assertEquals('y', client.getInputStream().read());
+    }
+
+    @Test
+    void resetIsALostConnection() throws Exception
+    {
+        client.setSoLinger(true, 0); // close with RST
+        client.close();
+        boolean lost = false;
+        for (int i = 0; i < 100 && !lost; i++) lost = peer.connectionLost(50);
+        assertTrue(lost);
+        assertThrows(IOException.class, peer::read);
+    }
+}
@@ -0,0 +1,137 @@
+package via.vinylsystem.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseWriterTest
+{
+    private static byte[] utf8(String s)
+    {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Reads every frame of a compressed stream back into the lines it carries. */
+    private static byte[][] frames(byte[] stream) throws Exception
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(stream));
+        byte[][] lines = new byte[0][];
+        while (in.available() > 0)
+        {
+            int len = in.readInt();
+            byte[] body = new byte[Math.abs(len)];
+            in.readFully(body);
+            lines = Arrays.copyOf(lines, lines.length + 1);
+            lines[lines.length - 1] = len < 0 ? body : inflate(body);
+        }
+        return lines;
+    }
+
+    private static byte[] inflate(byte[] raw) throws Exception
+    {
+        Inflater inf = new Inflater(true);
+        inf.setInput(raw);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        while (!inf.finished())
+        {
+            int n = inf.inflate(buf);
+            if (n == 0 && inf.needsInput()) break;
+            out.write(buf, 0, n);
+        }
+        assertTrue(inf.finished(), "frame does not end the DEFLATE stream");
+        inf.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] head(Random rnd, int tracks)
+    {
+        StringBuilder sb = new StringBuilder("{\"STATUS\":\"000000\",\"TRACKS\":[");
+        for (int i = 0; i < tracks; i++)
+        {
+            if (i > 0) sb.append(',');
+            sb.append("{\"id\":\"T").append(i).append("\",\"artist\":\"Artist ").append(rnd.nextInt(500))
+                    .append("\",\"title\":\"Title ").append(Long.toString(rnd.nextLong(), 36)).append("\",\"year\":")
+                    .append(1950 + rnd.nextInt(70)).append('}');
+        }
+        return utf8(sb.append("]}\n").toString());
+    }
+
+    @Test
+    void plainModeWritesLinesAsTheyAre() throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        LongAdder sent = new LongAdder();
+        try (ResponseWriter w = new ResponseWriter(bytes, sent))
+        {
+            w.send("000000", j -> j.field("VERSION", 3), null);
+            byte[] line = head(new Random(1), 3);
+            w.spliced(line, line.length - 2, () -> { throw new AssertionError("plain mode must not deflate"); },
+                    utf8(",\"VERSION\":3,\"RID\":7}\n"));
+        }
+        String text = bytes.toString(StandardCharsets.UTF_8);
+        String[] lines = text.split("\n");
+        assertEquals("{\"STATUS\":\"000000\",\"VERSION\":3}", lines[0]);
+        assertTrue(lines[1].endsWith("],\"VERSION\":3,\"RID\":7}"));
+        assertEquals(bytes.size(), sent.sum());
+    }
+
+    @Test
+    void compressedFramesInflateToTheLines() throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        LongAdder sent = new LongAdder();
+        byte[] big = head(new Random(2), 200);
+        try (ResponseWriter w = new ResponseWriter(bytes, sent))
+        {
+            w.setCompressed(true);
+            w.send("000000", null, null);
+            w.line(big, true);
+        }
+        byte[][] lines = frames(bytes.toByteArray());
+        assertEquals(2, lines.length);
+        assertArrayEquals(utf8("{\"STATUS\":\"000000\"}\n"), lines[0]);
+        assertArrayEquals(big, lines[1]);
+        assertEquals(bytes.size(), sent.sum());
+        assertTrue(bytes.size() < big.length / 2);
+    }
+
+    @Test
+    void splicedHeadAndTailInflateToOneLine() throws Exception
+    {
+        Random rnd = new Random(37);
+        for (int tracks : new int[] {0, 1, 50, 5_000})
+        {
+            byte[] line = head(rnd, tracks);
+            int headLen = line.length - 2;
+            byte[] deflated = ResponseWriter.deflateHead(line, headLen);
+            String[] tails = {"}\n", ",\"VERSION\":12}\n", ",\"VERSION\":12,\"RID\":\"abc\"}\n"};
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ResponseWriter w = new ResponseWriter(bytes, new LongAdder()))
+            {
+                w.setCompressed(true);
+                for (String tail : tails) w.spliced(line, headLen, () -> deflated, utf8(tail));
+            }
+            byte[][] lines = frames(bytes.toByteArray());
+            assertEquals(tails.length, lines.length);
+            for (int i = 0; i < tails.length; i++)
+            {
+                byte[] expected = Arrays.copyOf(line, headLen + utf8(tails[i]).length);
+                System.arraycopy(utf8(tails[i]), 0, expected, headLen, utf8(tails[i]).length);
+                assertArrayEquals(expected, lines[i], tracks + " tracks, tail " + i);
+            }
+        }
+    }
+}
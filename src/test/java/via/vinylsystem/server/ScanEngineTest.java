@@ -0,0 +1,126 @@
+package via.vinylsystem.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScanEngineTest
+{
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+    private final ScanEngine engine = new ScanEngine(pool);
+
+    @AfterEach
+    void stop() throws Exception
+    {
+        pool.shutdownNow();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    /** Pairs of (position, score), as handed to the sink. */
+    private static List<Integer> scan(ScanEngine engine, int size, IntUnaryOperator score, Cancellation cancel)
+    {
+        List<Integer> out = new ArrayList<>();
+        engine.scan(size, score, cancel, (pos, s) -> {
+            out.add(pos);
+            out.add(s);
+        });
+        return out;
+    }
+
+    private static List<Integer> sequential(int size, IntUnaryOperator score)
+    {
+        List<Integer> out = new ArrayList<>();
+        for (int pos = 0; pos < size; pos++)
+        {
+            int s = score.applyAsInt(pos);
+            if (s > 0)
+            {
+                out.add(pos);
+                out.add(s);
+            }
+        }
+        return out;
+    }
+
+    @Test
+    void deliversChunkedMatchesInPositionOrder()
+    {
+        IntUnaryOperator score = pos -> pos % 7 == 0 || pos % 11 == 0 ? 1 + pos % 13 : 0;
+        for (int size : new int[] {0, 1, ScanEngine.CHUNK - 1, ScanEngine.CHUNK, ScanEngine.CHUNK + 1, 7 * ScanEngine.CHUNK + 123})
+        {
+            assertEquals(sequential(size, score), scan(engine, size, score, Cancellation.NONE), "size " + size);
+        }
+
+        // with no helpers the caller scans every chunk itself
+        ForkJoinPool single = new ForkJoinPool(1);
+        try
+        {
+            int size = 3 * ScanEngine.CHUNK + 5;
+            assertEquals(sequential(size, score), scan(new ScanEngine(single), size, score, Cancellation.NONE));
+        }
+        finally
+        {
+            single.shutdownNow();
+        }
+    }
+
+    @Test
+    void cancelledScanEndsAndDeliversNothing()
+    {
+        int size = 20 * ScanEngine.CHUNK;
+        Random rnd = new Random(40);
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            for (int round = 0; round < 200; round++)
+            {
+                Cancellation cancel = new Cancellation();
+                int at = rnd.nextInt(size);
+                List<Integer> delivered = new ArrayList<>();
+                assertThrows(CancellationException.class, () -> engine.scan(size, pos -> {
+                    if (pos == at) cancel.cancel();
+                    return 1;
+                }, cancel, (pos, s) -> delivered.add(pos)));
+                assertTrue(delivered.isEmpty());
+            }
+        });
+
+        // a flag cancelled before the scan starts
+        Cancellation cancelled = new Cancellation();
+        cancelled.cancel();
+        assertThrows(CancellationException.class, () -> scan(engine, size, pos -> 1, cancelled));
+    }
+
+    @Test
+    void rethrowsWhatScoreThrew()
+    {
+        IllegalStateException boom = new IllegalStateException("boom");
+        int size = 6 * ScanEngine.CHUNK;
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            for (int at : new int[] {0, 5 * ScanEngine.CHUNK + 7, size - 1})
+            {
+                IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> scan(engine, size, pos -> {
+                    if (pos == at) throw boom;
+                    return 1;
+                }, Cancellation.NONE));
+                assertSame(boom, thrown);
+            }
+        });
+        assertSame(boom, assertThrows(IllegalStateException.class, () -> scan(engine, 10, pos -> {
+            if (pos == 3) throw boom;
+            return 1;
+        }, Cancellation.NONE)));
+    }
+}
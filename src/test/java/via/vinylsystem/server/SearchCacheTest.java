@@ -0,0 +1,180 @@
+package via.vinylsystem.server;
+
+import org.junit.jupiter.api.Test;
+import via.vinylsystem.Model.Track;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchCacheTest
+{
+    /** Estimated weight of a result with one track as built by {@link #hits}, for a two-letter query. */
+    private static final long ONE_TRACK = 96 + 2 * 2 + 80 + 2 * 4;
+
+    private static Catalog.Hits hits(int n)
+    {
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < n; i++) tracks.add(new Track("i" + i % 10, "a", "t", 2000));
+        return new Catalog.Hits(tracks, n);
+    }
+
+    private static Catalog.Hits get(SearchCache cache, long version, String q, Catalog.Hits result)
+    {
+        return cache.get(version, q, 10, false, Cancellation.NONE, () -> result);
+    }
+
+    @Test
+    void computesOncePerKey()
+    {
+        SearchCache cache = new SearchCache(1 << 20);
+        AtomicInteger computed = new AtomicInteger();
+        for (int i = 0; i < 3; i++)
+        {
+            cache.get(1, "Medina", 10, false, Cancellation.NONE, () -> {
+                computed.incrementAndGet();
+                return hits(1);
+            });
+        }
+        cache.get(1, "MEDINA", 10, false, Cancellation.NONE, () -> hits(1));
+        assertEquals(1, computed.get());
+
+        // version, limit and fuzziness are part of the key
+        cache.get(2, "medina", 10, false, Cancellation.NONE, () -> { computed.incrementAndGet(); return hits(1); });
+        cache.get(2, "medina", 5, false, Cancellation.NONE, () -> { computed.incrementAndGet(); return hits(1); });
+        cache.get(2, "medina", 5, true, Cancellation.NONE, () -> { computed.incrementAndGet(); return hits(1); });
+        assertEquals(4, computed.get());
+        assertEquals(3, cache.stats().hits());
+    }
+
+    @Test
+    void rejectsBeforeEvictingWhenAnyVictimIsMorePopular()
+    {
+        SearchCache cache = new SearchCache(2 * ONE_TRACK);
+        get(cache, 1, "qx", hits(1));                      // asked once, LRU end
+        for (int i = 0; i < 5; i++) get(cache, 1, "qy", hits(1));
+        assertEquals(2, cache.stats().entries());
+
+        // asked twice, so more popular than qx but not qy; needs both evicted to fit
+        assertThrows(IllegalStateException.class,
+                () -> cache.get(1, "qc", 10, false, Cancellation.NONE, () -> { throw new IllegalStateException(); }));
+        get(cache, 1, "qc", hits(2));
+
+        SearchCache.Stats stats = cache.stats();
+        assertEquals(1, stats.rejected());
+        assertEquals(0, stats.evictions());
+        assertEquals(2, stats.entries());
+        assertEquals(2 * ONE_TRACK, stats.bytes());
+    }
+
+    @Test
+    void admitsWhenEveryVictimIsLessPopular()
+    {
+        SearchCache cache = new SearchCache(2 * ONE_TRACK);
+        get(cache, 1, "qx", hits(1));
+        get(cache, 1, "qy", hits(1));
+        for (int i = 0; i < 3; i++)
+        {
+            assertThrows(IllegalStateException.class,
+                    () -> cache.get(1, "qc", 10, false, Cancellation.NONE, () -> { throw new IllegalStateException(); }));
+        }
+        Catalog.Hits big = hits(2);
+        assertSame(big, get(cache, 1, "qc", big));
+
+        SearchCache.Stats stats = cache.stats();
+        assertEquals(2, stats.evictions());
+        assertEquals(1, stats.entries());
+        assertSame(big, get(cache, 1, "qc", hits(2)));
+    }
+
+    @Test
+    void staleVersionsNeverBlockAdmission()
+    {
+        SearchCache cache = new SearchCache(2 * ONE_TRACK);
+        for (int i = 0; i < 10; i++)
+        {
+            get(cache, 1, "qx", hits(1));
+            get(cache, 1, "qy", hits(1));
+        }
+        Catalog.Hits fresh = hits(1);
+        get(cache, 2, "qz", fresh);                     // a write moved the catalog to version 2
+        assertEquals(1, cache.stats().evictions());
+        assertSame(fresh, get(cache, 2, "qz", hits(1)));
+    }
+
+    @Test
+    void coalescedWaiterStopsWhenItsClientLeaves() throws Exception
+    {
+        SearchCache cache = new SearchCache(1 << 20);
+        CountDownLatch computing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Catalog.Hits> first = CompletableFuture.supplyAsync(() -> cache.get(1, "slow", 10, false,
+                Cancellation.NONE, () -> {
+                    computing.countDown();
+                    try
+                    {
+                        release.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        throw new CancellationException();
+                    }
+                    return hits(1);
+                }));
+        assertTrue(computing.await(5, TimeUnit.SECONDS));
+
+        Cancellation waiterCancel = new Cancellation();
+        CompletableFuture<Catalog.Hits> waiter = CompletableFuture.supplyAsync(
+                () -> cache.get(1, "slow", 10, false, waiterCancel, () -> hits(1)));
+        Thread.sleep(100);
+        waiterCancel.cancel();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(CancellationException.class, e.getCause());
+        assertFalse(first.isDone());
+
+        release.countDown();
+        assertEquals(1, first.get(5, TimeUnit.SECONDS).total());
+    }
+
+    @Test
+    void waiterComputesItselfWhenTheFirstCallerIsCancelled() throws Exception
+    {
+        SearchCache cache = new SearchCache(1 << 20);
+        CountDownLatch computing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Catalog.Hits> first = CompletableFuture.supplyAsync(() -> cache.get(1, "slow", 10, false,
+                Cancellation.NONE, () -> {
+                    computing.countDown();
+                    try
+                    {
+                        release.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new CancellationException("client left");
+                }));
+        assertTrue(computing.await(5, TimeUnit.SECONDS));
+
+        Catalog.Hits own = hits(3);
+        CompletableFuture<Catalog.Hits> waiter = CompletableFuture.supplyAsync(
+                () -> cache.get(1, "slow", 10, false, new Cancellation(), () -> own));
+        Thread.sleep(100);
+        release.countDown();
+        assertSame(own, waiter.get(5, TimeUnit.SECONDS));
+        assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,109 @@
+package via.vinylsystem.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SuggestIndexTest
+{
+    private static SuggestIndex index(String[] artists, String[] titles)
+    {
+        return new SuggestIndex(artists.length, p -> artists[p], p -> titles[p]);
+    }
+
+    private static List<String> texts(List<SuggestIndex.Suggestion> suggestions)
+    {
+        return suggestions.stream().map(s -> s.text() + (s.artist() ? " (artist) " : " (title) ") + s.tracks()).toList();
+    }
+
+    @Test
+    void foldsKeysAndPrefixes()
+    {
+        assertEquals("kim larsen", SuggestIndex.key("  Kim \t Larsen  "));
+        assertEquals("koebenhavn", SuggestIndex.key("København"));
+        assertEquals("", SuggestIndex.key(null));
+        assertEquals("", SuggestIndex.key("   "));
+        assertEquals("kim ", SuggestIndex.prefix("Kim  "));
+        assertEquals("", SuggestIndex.prefix("  "));
+    }
+
+    @Test
+    void completesMostTracksFirst()
+    {
+        SuggestIndex index = index(
+                new String[] {"Medina", "Medina", "Medicine Head", "medina ", "Kim Larsen", "Kimberly", "Aqua"},
+                new String[] {"Kun for mig", "Velkommen til Medina", "Pictures", "Gutter", "Kvinde min", "Kim", "Barbie Girl"});
+
+        assertEquals(List.of("Medina (artist) 3", "Medicine Head (artist) 1"), texts(index.suggest("med", 10)));
+        assertEquals(List.of("Medina (artist) 3"), texts(index.suggest("MEDINA", 10)));
+        assertEquals(List.of("Medina (artist) 3"), texts(index.suggest("me", 1)));
+
+        // ties go to the alphabetically first key; "kim " only completes whole words
+        assertEquals(List.of("Kim (title) 1", "Kim Larsen (artist) 1", "Kimberly (artist) 1"), texts(index.suggest("kim", 10)));
+        assertEquals(List.of("Kim Larsen (artist) 1"), texts(index.suggest("kim ", 10)));
+        assertTrue(index.suggest("zz", 10).isEmpty());
+        assertTrue(index.suggest("med", 0).isEmpty());
+
+        assertEquals(3, index.weight("medina", true));
+        assertEquals(0, index.weight("medina", false));
+        assertEquals(1, index.weight("kim", false));
+        assertEquals(0, index.weight("nobody", true));
+    }
+
+    @Test
+    void matchesBruteForceRanking()
+    {
+        Random rnd = new Random(48);
+        String[] pool = {"Kim", "Kim Larsen", "Kimberly", "Medina", "Medicine", "Mew", "Mø", "Moe", "Aqua", "Aqualung",
+                "Sommer", "Sommerfugl", "Blå", "Blaa", "Nat", "Natten", "Ud af det blå"};
+        int n = 2_000;
+        String[] artists = new String[n];
+        String[] titles = new String[n];
+        for (int i = 0; i < n; i++)
+        {
+            // skewed, so weights differ and ties still happen
+            artists[i] = pool[Math.min(rnd.nextInt(pool.length), rnd.nextInt(pool.length))];
+            titles[i] = pool[rnd.nextInt(pool.length)] + (rnd.nextInt(4) == 0 ? " " + rnd.nextInt(30) : "");
+        }
+        SuggestIndex index = index(artists, titles);
+
+        // every distinct key with its track count, artists and titles apart
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        Map<String, String> firstText = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++)
+        {
+            for (String e : new String[] {"A" + SuggestIndex.key(artists[i]), "T" + SuggestIndex.key(titles[i])})
+            {
+                weights.merge(e, 1, Integer::sum);
+                firstText.putIfAbsent(e, e.charAt(0) == 'A' ? artists[i] : titles[i]);
+            }
+        }
+        List<String> entries = new ArrayList<>(weights.keySet());
+        entries.sort(Comparator.<String>comparingInt(weights::get).reversed()
+                .thenComparing(e -> e.substring(1))
+                .thenComparing(e -> e.charAt(0)));
+
+        for (String typed : new String[] {"", "k", "kim", "kim ", "me", "m", "mo", "moe", "mø", "a", "aqua", "s", "BLÅ", "bla", "n", "x"})
+        {
+            for (int limit : new int[] {1, 3, 10, SuggestIndex.MAX_SUGGESTIONS})
+            {
+                String p = SuggestIndex.prefix(typed);
+                List<String> expected = entries.stream()
+                        .filter(e -> e.substring(1).startsWith(p))
+                        .limit(limit)
+                        .map(e -> firstText.get(e).strip() + (e.charAt(0) == 'A' ? " (artist) " : " (title) ") + weights.get(e))
+                        .toList();
+                assertEquals(expected, texts(index.suggest(typed, limit)), typed + " / " + limit);
+            }
+        }
+        for (String e : entries) assertEquals(weights.get(e), index.weight(e.substring(1), e.charAt(0) == 'A'));
+    }
+}
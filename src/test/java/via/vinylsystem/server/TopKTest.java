@@ -0,0 +1,59 @@
+package via.vinylsystem.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TopKTest
+{
+    @Test
+    void keepsTheBestScoresEarlierPositionFirstOnTies()
+    {
+        TopK top = new TopK(3);
+        top.offer(0, 5);
+        top.offer(1, 9);
+        top.offer(2, 5);
+        top.offer(3, 7);
+        top.offer(4, 5);
+        top.offer(5, 9);
+        assertArrayEquals(new int[] {1, 5, 3}, top.positions());
+        assertEquals(6, top.offered());
+    }
+
+    @Test
+    void returnsFewerWhenFewerOffered()
+    {
+        TopK top = new TopK(10);
+        assertArrayEquals(new int[0], top.positions());
+        top.offer(7, 1);
+        top.offer(3, 2);
+        assertArrayEquals(new int[] {3, 7}, top.positions());
+    }
+
+    @Test
+    void agreesWithSorting()
+    {
+        Random rnd = new Random(38);
+        for (int k : new int[] {1, 2, 10, 1023, 1024, 1025, 5_000})
+        {
+            int n = 20_000;
+            int[] scores = new int[n];
+            TopK top = new TopK(k);
+            for (int pos = 0; pos < n; pos++)
+            {
+                scores[pos] = rnd.nextInt(100);
+                top.offer(pos, scores[pos]);
+            }
+            int[] expected = IntStream.range(0, n).boxed()
+                    .sorted(Comparator.<Integer>comparingInt(p -> -scores[p]).thenComparingInt(p -> p))
+                    .limit(k).mapToInt(Integer::intValue).toArray();
+            assertArrayEquals(expected, top.positions(), "k=" + k);
+            assertEquals(n, top.offered());
+        }
+    }
+}
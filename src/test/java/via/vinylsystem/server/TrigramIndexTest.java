@@ -0,0 +1,112 @@
+package via.vinylsystem.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TrigramIndexTest
+{
+    private static final String[] ARTISTS = {"Medina", "Kim Larsen", "Gasolin'", "TV-2", "Aqua", null};
+    private static final String[] TITLES = {"Kun for mig", "Midt om natten", "Kvinde min", "Fantastisk", "Barbie Girl", "Untitled"};
+
+    private static TrigramIndex index()
+    {
+        return new TrigramIndex(ARTISTS.length, i -> ARTISTS[i], i -> TITLES[i]);
+    }
+
+    private static List<Integer> search(TrigramIndex idx, String q)
+    {
+        List<Integer> out = new ArrayList<>();
+        idx.search(q, out::add);
+        return out;
+    }
+
+    @Test
+    void matchesSubstringsOfArtistOrTitleIgnoringCase()
+    {
+        TrigramIndex idx = index();
+        assertEquals(List.of(0), search(idx, "MEDINA"));
+        assertEquals(List.of(2), search(idx, "min"));
+        assertEquals(List.of(1), search(idx, "natten"));
+        assertEquals(List.of(0, 2), search(idx, "in"));         // too short for trigrams, scanned
+        assertEquals(List.of(), search(idx, "zzz"));
+        assertEquals(List.of(0, 1, 2, 3, 4, 5), search(idx, ""));
+    }
+
+    @Test
+    void agreesWithBruteForce()
+    {
+        Random rnd = new Random(30);
+        String alphabet = "abcdeÆø ";
+        int n = 5_000;
+        String[] artists = new String[n];
+        String[] titles = new String[n];
+        for (int i = 0; i < n; i++)
+        {
+            artists[i] = word(rnd, alphabet, 12);
+            titles[i] = rnd.nextInt(20) == 0 ? null : word(rnd, alphabet, 20);
+        }
+        TrigramIndex idx = new TrigramIndex(n, i -> artists[i], i -> titles[i]);
+
+        for (int q = 0; q < 300; q++)
+        {
+            String query = word(rnd, alphabet, 5);
+            String lower = query.toLowerCase(Locale.ROOT);
+            List<Integer> expected = new ArrayList<>();
+            List<Integer> expectedTitle = new ArrayList<>();
+            for (int i = 0; i < n; i++)
+            {
+                boolean inTitle = titles[i] != null && titles[i].toLowerCase(Locale.ROOT).contains(lower);
+                if (artists[i].toLowerCase(Locale.ROOT).contains(lower) || inTitle) expected.add(i);
+                if (inTitle) expectedTitle.add(i);
+            }
+            assertEquals(expected, search(idx, query), query);
+
+            List<Integer> title = new ArrayList<>();
+            idx.searchTitle(query, Cancellation.NONE, title::add);
+            assertEquals(expectedTitle, title, query);
+        }
+    }
+
+    private static String word(Random rnd, String alphabet, int max)
+    {
+        char[] c = new char[1 + rnd.nextInt(max)];
+        for (int i = 0; i < c.length; i++) c[i] = alphabet.charAt(rnd.nextInt(alphabet.length()));
+        return new String(c);
+    }
+
+    @Test
+    void scoresExactOverPrefixOverSubstringAndArtistOverTitle()
+    {
+        String[] artists = {"Abba", "Abbasid", "Sabbath", "Other", "Other"};
+        String[] titles = {"x", "x", "x", "abba", "Abba Gold"};
+        TrigramIndex idx = new TrigramIndex(artists.length, i -> artists[i], i -> titles[i]);
+        int[] scores = new int[artists.length];
+        idx.searchScored("ABBA", Cancellation.NONE, (pos, score) -> scores[pos] = score);
+
+        assertEquals(2 * TrigramIndex.EXACT + 1, scores[0]);
+        assertEquals(2 * TrigramIndex.PREFIX + 1, scores[1]);
+        assertEquals(2 * TrigramIndex.SUBSTRING + 1, scores[2]);
+        assertEquals(2 * TrigramIndex.EXACT, scores[3]);
+        assertEquals(2 * TrigramIndex.PREFIX, scores[4]);
+        assertEquals(0, TrigramIndex.score("Other", "x", "abba"));
+    }
+
+    @Test
+    void stopsWhenCancelled()
+    {
+        int n = 20_000;
+        TrigramIndex idx = new TrigramIndex(n, i -> "artist " + i, i -> "title");
+        Cancellation cancel = new Cancellation();
+        cancel.cancel();
+        assertThrows(CancellationException.class, () -> idx.searchScored("artist", cancel, (pos, score) -> { }));
+        assertThrows(CancellationException.class, () -> idx.searchScored("ar", cancel, (pos, score) -> { }));
+    }
+}